@@ -0,0 +1,157 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright @year, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.maven.extensions.repository;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.eclipse.aether.artifact.Artifact;
+import org.eclipse.aether.artifact.DefaultArtifact;
+import org.eclipse.aether.repository.RemoteRepository;
+
+/**
+ * Inputs of the benchmarks: the G:A:V stream, candidate repositories and synthetic rule sets.
+ *
+ * Everything is generated from a fixed seed, so runs with the same parameters compare the same work.
+ *
+ * @author <a href="mailto:lgao@redhat.com">Lin Gao</a>
+ *
+ */
+final class BenchmarkData {
+
+    private static final String GAVS_PROPERTY = "benchmark.gavs";
+    private static final String GAVS_RESOURCE = "gavs.txt";
+
+    private static final long SEED = 20180101L;
+
+    private BenchmarkData() {
+    }
+
+    /**
+     * Reads the G:A:V stream, from the file in <code>-Dbenchmark.gavs</code> if set, from the bundled list otherwise.
+     *
+     * Lines are either 'G:A:V' or the 'G:A:type[:classifier]:V:scope' form printed by <code>mvn dependency:list</code>.
+     */
+    static Artifact[] artifacts() throws IOException {
+        String file = System.getProperty(GAVS_PROPERTY);
+        try (InputStream in = file != null ? new FileInputStream(file)
+                : BenchmarkData.class.getClassLoader().getResourceAsStream(GAVS_RESOURCE)) {
+            if (in == null) {
+                throw new IOException("Can't find " + GAVS_RESOURCE);
+            }
+            List<Artifact> artifacts = new ArrayList<Artifact>();
+            BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.replace("[INFO]", "").trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] parts = line.split(":");
+                if (parts.length == 3) {
+                    artifacts.add(new DefaultArtifact(parts[0], parts[1], "pom", parts[2]));
+                } else if (parts.length >= 5) {
+                    artifacts.add(new DefaultArtifact(parts[0], parts[1], "pom", parts[parts.length - 2]));
+                }
+            }
+            if (artifacts.isEmpty()) {
+                throw new IOException("No G:A:V found in " + (file != null ? file : GAVS_RESOURCE));
+            }
+            return artifacts.toArray(new Artifact[artifacts.size()]);
+        }
+    }
+
+    /**
+     * Candidate repositories, the first ones have the ids used by the default configuration.
+     */
+    static List<RemoteRepository> candidates(int count) {
+        String[] wellKnown = {"jboss-public-repository-group", "central", "jboss-product-repository",
+            "jboss-eap-7.1-product-repository"};
+        List<RemoteRepository> repos = new ArrayList<RemoteRepository>(count);
+        for (int i = 0; i < count; i++) {
+            String id = i < wellKnown.length ? wellKnown[i] : "repository-" + i;
+            repos.add(new RemoteRepository.Builder(id, "default", "http://localhost/" + id).build());
+        }
+        return repos;
+    }
+
+    /**
+     * Writes a configuration with <code>count</code> rules, in the format of <code>config.properties</code>.
+     *
+     * Rules match group id prefixes of the G:A:V stream, or nothing at all, in the styles used in the default
+     * configuration. Each rule lists a few of the candidate repositories, which ones doesn't matter to the cost.
+     */
+    static File rules(int count, Artifact[] artifacts, List<RemoteRepository> candidates) throws IOException {
+        Random random = new Random(SEED);
+        File file = File.createTempFile("benchmark-rules-" + count, ".properties");
+        file.deleteOnExit();
+        try (PrintWriter out = new PrintWriter(file, "UTF-8")) {
+            for (int i = 0; i < count; i++) {
+                int index = 10 + i;
+                String groupId = artifacts[random.nextInt(artifacts.length)].getGroupId();
+                String[] segments = groupId.split("\\.");
+                String prefix = groupId;
+                if (segments.length > 1) {
+                    prefix = groupId.substring(0, groupId.length() - segments[segments.length - 1].length() - 1);
+                }
+                String regex;
+                switch (random.nextInt(4)) {
+                    case 0:
+                        regex = groupId + ":[^\\\\n]*:[^\\\\n]*";
+                        break;
+                    case 1:
+                        regex = prefix.replace(".", "\\\\.") + "[^\\\\n]*:[^\\\\n]*:[^\\\\n]*";
+                        break;
+                    case 2:
+                        regex = "[^\\\\n]*:[^\\\\n]*:[^\\\\n]*synthetic-" + i + "[^\\\\n]*";
+                        break;
+                    default:
+                        regex = "com.example.synthetic" + i + ":[^\\\\n]*:[^\\\\n]*";
+                        break;
+                }
+                StringBuilder repos = new StringBuilder();
+                for (int r = 0, n = 1 + random.nextInt(4); r < n; r++) {
+                    if (r > 0) {
+                        repos.append(", ");
+                    }
+                    repos.append(candidates.get(random.nextInt(candidates.size())).getId());
+                }
+                out.println("regex." + index + " = " + regex);
+                out.println("regex." + index + ".repos = " + repos);
+                out.println("regex." + index + ".description = Synthetic rule " + i);
+            }
+            StringBuilder included = new StringBuilder("regex.default, regex.1, regex.2, regex.3");
+            for (int i = 0; i < count; i++) {
+                if (random.nextBoolean()) {
+                    included.append(", regex.").append(10 + i);
+                }
+            }
+            out.println("repos.included = " + included);
+        }
+        return file;
+    }
+}
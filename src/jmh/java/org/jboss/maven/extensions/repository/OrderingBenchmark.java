@@ -0,0 +1,100 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright @year, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.maven.extensions.repository;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.aether.artifact.Artifact;
+import org.eclipse.aether.repository.RemoteRepository;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of {@link OrderedRepositorySystem#getOrderedRemoteRepositories(Artifact, List)} over the G:A:V stream.
+ *
+ * <code>order</code> computes every list, the ordered repositories cache is disabled, <code>orderCached</code> goes
+ * through the cache as a build does.
+ *
+ * @author <a href="mailto:lgao@redhat.com">Lin Gao</a>
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OrderingBenchmark {
+
+    @Param({"10", "100", "1000"})
+    int rules;
+
+    @Param({"5", "20", "50"})
+    int repositories;
+
+    private Artifact[] artifacts;
+    private List<RemoteRepository> candidates;
+    private OrderedRepositorySystem system;
+    private OrderedRepositorySystem cachedSystem;
+    private int next;
+
+    @Setup
+    public void setUp() throws Exception {
+        artifacts = BenchmarkData.artifacts();
+        candidates = BenchmarkData.candidates(repositories);
+        File rulesFile = BenchmarkData.rules(rules, artifacts, candidates);
+        OrderedRepositoryConfiguration config = new OrderedRepositoryConfiguration(rulesFile.getAbsolutePath());
+
+        System.setProperty(OrderedRepositorySystem.CACHE_SIZE, "0");
+        try {
+            system = new OrderedRepositorySystem();
+        } finally {
+            System.clearProperty(OrderedRepositorySystem.CACHE_SIZE);
+        }
+        system.configure(config);
+        cachedSystem = new OrderedRepositorySystem();
+        cachedSystem.configure(config);
+    }
+
+    private Artifact nextArtifact() {
+        Artifact artifact = artifacts[next];
+        next = next + 1 == artifacts.length ? 0 : next + 1;
+        return artifact;
+    }
+
+    @Benchmark
+    public List<RemoteRepository> order() {
+        return system.getOrderedRemoteRepositories(nextArtifact(), candidates);
+    }
+
+    @Benchmark
+    public List<RemoteRepository> orderCached() {
+        return cachedSystem.getOrderedRemoteRepositories(nextArtifact(), candidates);
+    }
+}
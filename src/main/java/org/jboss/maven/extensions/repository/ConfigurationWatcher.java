@@ -0,0 +1,254 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright @year, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.maven.extensions.repository;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URLConnection;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Properties;
+
+/**
+ * Reloads the additional configuration when it changes, and hands over the new compiled configuration.
+ *
+ * A local file is watched with a {@link WatchService}. An http(s) URL is polled with conditional GETs, using the
+ * <code>ETag</code> and <code>Last-Modified</code> of the previous response, so an unchanged configuration costs a
+ * 304, and a new one is kept as the last good configuration of the URL. A configuration in the classpath never changes.
+ *
+ * The new configuration is compiled on the watcher thread, and handed over only when it is built completely and its
+ * properties changed. When it can't be loaded or compiled, the current one is kept.
+ *
+ * @author <a href="mailto:lgao@redhat.com">Lin Gao</a>
+ *
+ */
+class ConfigurationWatcher implements Closeable {
+
+    static final long DEFAULT_REFRESH_SECONDS = 60;
+
+    /**
+     * Time to let an editor finish writing the file before reading it.
+     */
+    private static final long SETTLE_MILLIS = 100;
+
+    interface Listener {
+        void reloaded(OrderedRepositoryConfiguration config);
+    }
+
+    private final String url;
+    private final Listener listener;
+    private final long refreshMillis;
+
+    private volatile boolean closed;
+    private Thread thread;
+    private WatchService watchService;
+
+    private volatile Properties lastProperties;
+    private String etag;
+    private String lastModified;
+
+    /**
+     * @param current the properties of the configuration in use, it is only replaced when they change
+     */
+    ConfigurationWatcher(String url, Properties current, long refreshMillis, Listener listener) {
+        this.url = url.trim();
+        this.lastProperties = current;
+        this.refreshMillis = refreshMillis;
+        this.listener = listener;
+    }
+
+    /**
+     * Starts watching on a daemon thread.
+     *
+     * @return false if the configuration can't change, it is in the classpath or its URL can't be polled, or if the
+     *         watcher is closed
+     */
+    synchronized boolean start() throws IOException {
+        if (closed || getClass().getClassLoader().getResource(url) != null) {
+            return false;
+        }
+        final File file = new File(url);
+        Runnable task;
+        if (file.isFile()) {
+            final Path path = file.getAbsoluteFile().toPath();
+            watchService = FileSystems.getDefault().newWatchService();
+            path.getParent().register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY);
+            task = new Runnable() {
+                @Override
+                public void run() {
+                    watchFile(path);
+                }
+            };
+        } else if (url.startsWith("http://") || url.startsWith("https://")) {
+            task = new Runnable() {
+                @Override
+                public void run() {
+                    pollUrl();
+                }
+            };
+        } else {
+            return false;
+        }
+        thread = new Thread(task, "ordered-repository-configuration-watcher");
+        thread.setDaemon(true);
+        thread.start();
+        return true;
+    }
+
+    private void watchFile(Path path) {
+        try {
+            // the file may have changed before it is watched, like between two sessions
+            try (InputStream in = new FileInputStream(path.toFile())) {
+                reload(in);
+            } catch (IOException e) {
+                warn("Can't read configuration " + path + ": " + e.getMessage());
+            }
+            while (!closed) {
+                WatchKey key = watchService.take();
+                boolean changed = false;
+                for (WatchEvent<?> event: key.pollEvents()) {
+                    if (path.getFileName().equals(event.context())) {
+                        changed = true;
+                    }
+                }
+                key.reset();
+                if (changed) {
+                    Thread.sleep(SETTLE_MILLIS);
+                    // coalesce the events of the same write
+                    WatchKey more = watchService.poll();
+                    if (more != null) {
+                        more.pollEvents();
+                        more.reset();
+                    }
+                    try (InputStream in = new FileInputStream(path.toFile())) {
+                        reload(in);
+                    } catch (IOException e) {
+                        warn("Can't read configuration " + path + ": " + e.getMessage());
+                    }
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // closed
+        }
+    }
+
+    private void pollUrl() {
+        while (!closed) {
+            try {
+                poll();
+            } catch (IOException e) {
+                warn("Can't refresh configuration " + url + ": " + e.getMessage());
+            }
+            try {
+                Thread.sleep(refreshMillis);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Does one conditional GET of the configuration URL.
+     *
+     * @return whether a new configuration was handed over
+     */
+    boolean poll() throws IOException {
+        URLConnection connection = OrderedRepositoryConfiguration.openConnection(url);
+        if (etag != null) {
+            connection.setRequestProperty("If-None-Match", etag);
+        }
+        if (lastModified != null) {
+            connection.setRequestProperty("If-Modified-Since", lastModified);
+        }
+        if (connection instanceof HttpURLConnection) {
+            HttpURLConnection http = (HttpURLConnection) connection;
+            if (http.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                http.disconnect();
+                return false;
+            }
+        }
+        byte[] content = OrderedRepositoryConfiguration.read(connection);
+        boolean reloaded = reload(new ByteArrayInputStream(content));
+        if (reloaded) {
+            OrderedRepositoryConfiguration.cache(url, content);
+        }
+        etag = connection.getHeaderField("ETag");
+        lastModified = connection.getHeaderField("Last-Modified");
+        return reloaded;
+    }
+
+    private boolean reload(InputStream in) throws IOException {
+        Properties extra = new Properties();
+        extra.load(in);
+        Properties props = OrderedRepositoryConfiguration.withDefaults(extra);
+        if (props.equals(lastProperties)) {
+            return false;
+        }
+        OrderedRepositoryConfiguration config;
+        try {
+            config = new OrderedRepositoryConfiguration(url, props);
+        } catch (RuntimeException e) {
+            warn("Invalid configuration " + url + ", keeping the current one: " + e);
+            return false;
+        }
+        lastProperties = props;
+        listener.reloaded(config);
+        return true;
+    }
+
+    String getUrl() {
+        return url;
+    }
+
+    /**
+     * @return the properties of the last configuration handed over, or of the initial one
+     */
+    Properties getProperties() {
+        return lastProperties;
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+
+    private static void warn(String message) {
+        System.err.println("[WARNING] " + message);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        closed = true;
+        if (thread != null) {
+            thread.interrupt();
+        }
+        if (watchService != null) {
+            watchService.close();
+        }
+    }
+}
@@ -0,0 +1,268 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright @year, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.maven.extensions.repository;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.aether.artifact.Artifact;
+import org.eclipse.aether.artifact.DefaultArtifact;
+import org.eclipse.aether.graph.Dependency;
+import org.eclipse.aether.resolution.ArtifactDescriptorResult;
+
+/**
+ * Fetches the descriptors of the dependencies of a descriptor ahead of time, so the dependency collection, which reads
+ * them one at a time, finds them in the local repository.
+ *
+ * The versions of the dependencies are the managed ones of the descriptor when they are managed there. Dependencies
+ * which the collection skips for a transitive node (optional ones, and the test, provided and system scopes) and
+ * dependencies without a fixed version are not fetched. Each 'G:A:V' is fetched at most once, until
+ * {@link #cancel()}.
+ *
+ * The fetches are queued on a bounded executor, a dependency is skipped when the queue is full. A reader asking for a
+ * descriptor being fetched waits for the fetch, a queued fetch is dropped and left to the reader.
+ *
+ * @author <a href="mailto:lgao@redhat.com">Lin Gao</a>
+ *
+ */
+class DescriptorPrefetcher {
+
+    static final int DEFAULT_THREADS = 4;
+    static final int DEFAULT_QUEUE_SIZE = 256;
+
+    /**
+     * Fetches the descriptor of a 'pom' artifact.
+     */
+    interface Fetcher {
+        void fetch(Artifact pom) throws Exception;
+    }
+
+    private static final int QUEUED = 0;
+    private static final int RUNNING = 1;
+    private static final int DONE = 2;
+
+    private final class Prefetch implements Runnable {
+        private final Artifact pom;
+        private final Fetcher fetcher;
+        private final ClassLoader tccl = Thread.currentThread().getContextClassLoader();
+        private final AtomicInteger state = new AtomicInteger(QUEUED);
+        private final CountDownLatch done = new CountDownLatch(1);
+
+        Prefetch(Artifact pom, Fetcher fetcher) {
+            this.pom = pom;
+            this.fetcher = fetcher;
+        }
+
+        @Override
+        public void run() {
+            if (!state.compareAndSet(QUEUED, RUNNING)) {
+                return;
+            }
+            Thread.currentThread().setContextClassLoader(tccl);
+            try {
+                fetcher.fetch(pom);
+                fetched.incrementAndGet();
+            } catch (Exception e) {
+                failed.incrementAndGet();
+            } finally {
+                finish();
+            }
+        }
+
+        /**
+         * Drops the fetch if it has not started yet.
+         */
+        boolean drop() {
+            if (state.compareAndSet(QUEUED, DONE)) {
+                done.countDown();
+                prefetches.remove(key(pom), this);
+                return true;
+            }
+            return false;
+        }
+
+        void finish() {
+            state.set(DONE);
+            done.countDown();
+        }
+    }
+
+    private final int threads;
+    private final int queueSize;
+    private final ConcurrentMap<String, Prefetch> prefetches = new ConcurrentHashMap<String, Prefetch>();
+    private final AtomicInteger fetched = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private ThreadPoolExecutor executor;
+
+    DescriptorPrefetcher(int threads, int queueSize) {
+        this.threads = Math.max(1, threads);
+        this.queueSize = Math.max(1, queueSize);
+    }
+
+    private synchronized ThreadPoolExecutor executor() {
+        if (executor == null) {
+            executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<Runnable>(queueSize), new ThreadFactory() {
+                        private final AtomicInteger count = new AtomicInteger();
+                        @Override
+                        public Thread newThread(Runnable r) {
+                            Thread thread = new Thread(r, "ordered-repository-prefetch-" + count.incrementAndGet());
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    }, new RejectedExecutionHandler() {
+                        @Override
+                        public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+                            // a full queue only means the fetch is left to the reader
+                            ((Prefetch) r).drop();
+                        }
+                    });
+            executor.allowCoreThreadTimeOut(true);
+        }
+        return executor;
+    }
+
+    /**
+     * Queues the fetches of the descriptors of the dependencies of <code>result</code>.
+     *
+     * @param fetcher fetches the descriptors, it is called on the prefetch threads
+     * @return the number of queued fetches
+     */
+    int prefetch(ArtifactDescriptorResult result, Fetcher fetcher) {
+        if (result.getDependencies().isEmpty()) {
+            return 0;
+        }
+        Map<String, String> managedVersions = new HashMap<String, String>();
+        for (Dependency managed: result.getManagedDependencies()) {
+            Artifact artifact = managed.getArtifact();
+            if (artifact.getVersion().length() > 0) {
+                managedVersions.put(managementKey(artifact), artifact.getVersion());
+            }
+        }
+        ThreadPoolExecutor executor = executor();
+        int queued = 0;
+        for (Dependency dependency: result.getDependencies()) {
+            if (!isCollected(dependency)) {
+                continue;
+            }
+            Artifact artifact = dependency.getArtifact();
+            String version = managedVersions.get(managementKey(artifact));
+            if (version == null) {
+                version = artifact.getVersion();
+            }
+            if (!isFixed(version)) {
+                continue;
+            }
+            Artifact pom = new DefaultArtifact(artifact.getGroupId(), artifact.getArtifactId(), "pom", version);
+            Prefetch prefetch = new Prefetch(pom, fetcher);
+            if (prefetches.putIfAbsent(key(pom), prefetch) != null) {
+                continue;
+            }
+            executor.execute(prefetch);
+            // a rejected fetch is dropped
+            if (prefetches.get(key(pom)) == prefetch) {
+                queued++;
+            }
+        }
+        return queued;
+    }
+
+    /**
+     * Called before reading the descriptor of <code>artifact</code>: waits for its fetch if it is running, or drops it
+     * if it is still queued.
+     */
+    void await(Artifact artifact) throws InterruptedException {
+        Prefetch prefetch = prefetches.get(key(artifact));
+        if (prefetch != null && !prefetch.drop()) {
+            prefetch.done.await();
+        }
+    }
+
+    /**
+     * Cancels the queued and running fetches, and forgets the fetched ones.
+     */
+    void cancel() {
+        ThreadPoolExecutor current;
+        synchronized (this) {
+            current = executor;
+            executor = null;
+        }
+        if (current != null) {
+            for (Runnable queued: current.shutdownNow()) {
+                ((Prefetch) queued).drop();
+            }
+        }
+        for (Prefetch prefetch: prefetches.values()) {
+            if (!prefetch.drop()) {
+                // a running fetch is interrupted, don't keep the readers waiting for it
+                prefetch.finish();
+            }
+        }
+        prefetches.clear();
+    }
+
+    int getFetched() {
+        return fetched.get();
+    }
+
+    int getFailed() {
+        return failed.get();
+    }
+
+    private static boolean isCollected(Dependency dependency) {
+        if (dependency.isOptional()) {
+            return false;
+        }
+        String scope = dependency.getScope();
+        return !"test".equals(scope) && !"provided".equals(scope) && !"system".equals(scope);
+    }
+
+    /**
+     * Whether the version is a plain version, not a range nor a meta version.
+     */
+    private static boolean isFixed(String version) {
+        if (version.length() == 0 || "LATEST".equals(version) || "RELEASE".equals(version)) {
+            return false;
+        }
+        for (int i = 0; i < version.length(); i++) {
+            char c = version.charAt(i);
+            if (c == '[' || c == '(' || c == ',') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String managementKey(Artifact artifact) {
+        return artifact.getGroupId() + ':' + artifact.getArtifactId() + ':' + artifact.getExtension() + ':'
+                + artifact.getClassifier();
+    }
+
+    private static String key(Artifact artifact) {
+        return artifact.getGroupId() + ':' + artifact.getArtifactId() + ':' + artifact.getVersion();
+    }
+}
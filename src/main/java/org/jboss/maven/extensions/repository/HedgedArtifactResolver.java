@@ -0,0 +1,553 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright @year, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.maven.extensions.repository;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.eclipse.aether.AbstractForwardingRepositorySystemSession;
+import org.eclipse.aether.RepositorySystemSession;
+import org.eclipse.aether.RequestTrace;
+import org.eclipse.aether.repository.RemoteRepository;
+import org.eclipse.aether.resolution.ArtifactRequest;
+import org.eclipse.aether.resolution.ArtifactResolutionException;
+import org.eclipse.aether.resolution.ArtifactResult;
+import org.eclipse.aether.transfer.AbstractTransferListener;
+import org.eclipse.aether.transfer.TransferCancelledException;
+import org.eclipse.aether.transfer.TransferEvent;
+import org.eclipse.aether.transfer.TransferListener;
+import org.eclipse.aether.transfer.TransferResource;
+import org.eclipse.aether.util.listener.ChainedTransferListener;
+
+/**
+ * Resolves an artifact from its first repository, and when it takes longer than a percentile of the latencies observed
+ * for that repository, asks the next repositories for it as well. The first successful result wins.
+ *
+ * The primary request tries all repositories in order, as usual, the hedged one tries them from the second one. The
+ * hedged requests are limited to a percentage of the requests, and a repository is not hedged before
+ * {@link #MIN_SAMPLES} latencies are observed for it. The latency of a repository is the time of each request it served
+ * first, measured here, and the time a losing request waited for it until it was cancelled.
+ *
+ * The requests run on a pool of twice the batch threads, a primary request beyond it runs on the calling thread without
+ * hedging, and a hedged request beyond it is not sent.
+ *
+ * A transfer can't be interrupted, so the losing request is cancelled by the {@link #session transfer listener} of the
+ * session: the first request to receive the whole artifact writes it, the transfers of the other one are cancelled
+ * before it writes the file of the local repository or its <code>_remote.repositories</code>. When the length of the
+ * artifact is not known, both requests may complete, the second download is then counted as a
+ * {@link #getDuplicates() duplicate}.
+ *
+ * @author <a href="mailto:lgao@redhat.com">Lin Gao</a>
+ *
+ */
+class HedgedArtifactResolver {
+
+    static final double DEFAULT_PERCENTILE = 95;
+    static final double DEFAULT_BUDGET_PERCENT = 5;
+    static final int DEFAULT_THREADS = 8;
+
+    static final int MIN_SAMPLES = 5;
+
+    /**
+     * Configuration of the basic repository connector.
+     */
+    private static final String RESUME_DOWNLOADS = "aether.connector.resumeDownloads";
+
+    private final double percentile;
+    private final double budgetPercent;
+
+    private final ConcurrentMap<String, LatencyHistogram> latencies = new ConcurrentHashMap<String, LatencyHistogram>();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong hedges = new AtomicLong();
+    private final AtomicLong hedgeWins = new AtomicLong();
+    private final AtomicLong duplicates = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong cancelled = new AtomicLong();
+
+    /**
+     * Runs the primary and hedged requests, up to twice the batch threads.
+     */
+    private final ExecutorService requestExecutor;
+
+    /**
+     * Cancels the transfers of the losing requests.
+     */
+    private final AbstractTransferListener transferListener = new AbstractTransferListener() {
+        @Override
+        public void transferInitiated(TransferEvent event) throws TransferCancelledException {
+            claim(event);
+        }
+
+        @Override
+        public void transferStarted(TransferEvent event) throws TransferCancelledException {
+            claim(event);
+        }
+
+        @Override
+        public void transferProgressed(TransferEvent event) throws TransferCancelledException {
+            claim(event);
+        }
+    };
+
+    /**
+     * Waits for the requests of a batch, one artifact at a time.
+     */
+    private final ThreadPoolExecutor batchExecutor;
+
+    HedgedArtifactResolver(double percentile, double budgetPercent, int threads) {
+        this.percentile = percentile;
+        this.budgetPercent = budgetPercent;
+        this.requestExecutor = new ThreadPoolExecutor(0, 2 * Math.max(1, threads), 60, TimeUnit.SECONDS,
+                new SynchronousQueue<Runnable>(), threadFactory("ordered-repository-hedge-"));
+        this.batchExecutor = new ThreadPoolExecutor(Math.max(1, threads), Math.max(1, threads), 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), threadFactory("ordered-repository-hedge-batch-"));
+        this.batchExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    private static ThreadFactory threadFactory(final String prefix) {
+        return new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, prefix + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+    /**
+     * Records the time a repository took to serve an artifact, from the request to it.
+     */
+    void latency(String repositoryId, long micros) {
+        if (micros < 0) {
+            return;
+        }
+        LatencyHistogram histogram = latencies.get(repositoryId);
+        if (histogram == null) {
+            LatencyHistogram newHistogram = new LatencyHistogram();
+            histogram = latencies.putIfAbsent(repositoryId, newHistogram);
+            if (histogram == null) {
+                histogram = newHistogram;
+            }
+        }
+        histogram.record(micros);
+    }
+
+    /**
+     * Gets how long to wait for a repository before hedging.
+     *
+     * @return the delay in microseconds, or -1 if not enough latencies are known
+     */
+    long delay(String repositoryId) {
+        LatencyHistogram histogram = latencies.get(repositoryId);
+        if (histogram == null || histogram.getCount() < MIN_SAMPLES) {
+            return -1;
+        }
+        return Math.max(1000, histogram.getValueAtPercentile(percentile));
+    }
+
+    /**
+     * @return a session whose transfer listener cancels the transfers of the losing requests, besides the transfer
+     *         listener of the session, and which doesn't resume downloads, as a resumable download locks the file for
+     *         the other request until it completes
+     */
+    RepositorySystemSession session(final RepositorySystemSession session) {
+        final TransferListener listener = ChainedTransferListener.newInstance(transferListener,
+                session.getTransferListener());
+        Map<String, Object> config = new HashMap<String, Object>(session.getConfigProperties());
+        config.put(RESUME_DOWNLOADS, Boolean.FALSE);
+        final Map<String, Object> configProperties = Collections.unmodifiableMap(config);
+        return new AbstractForwardingRepositorySystemSession() {
+            @Override
+            protected RepositorySystemSession getSession() {
+                return session;
+            }
+
+            @Override
+            public TransferListener getTransferListener() {
+                return listener;
+            }
+
+            @Override
+            public Map<String, Object> getConfigProperties() {
+                return configProperties;
+            }
+        };
+    }
+
+    /**
+     * Lets the first attempt receiving the whole artifact write it, and cancels the transfers of the other attempt.
+     */
+    private void claim(TransferEvent event) throws TransferCancelledException {
+        TransferResource resource = event.getResource();
+        Attempt attempt = attempt(resource.getTrace());
+        if (attempt == null || attempt.writer == null) {
+            return;
+        }
+        Attempt writer = attempt.writer.get();
+        if (writer == null && event.getType() == TransferEvent.EventType.PROGRESSED
+                && resource.getContentLength() >= 0 && event.getTransferredBytes() >= resource.getContentLength()
+                && attempt.writer.compareAndSet(null, attempt)) {
+            return;
+        }
+        writer = attempt.writer.get();
+        if (writer != null && writer != attempt) {
+            attempt.lost(resource);
+            cancelled.incrementAndGet();
+            throw new TransferCancelledException(resource.getResourceName() + " is downloaded by a hedged request");
+        }
+    }
+
+    private static Attempt attempt(RequestTrace trace) {
+        for (RequestTrace t = trace; t != null; t = t.getParent()) {
+            if (t.getData() instanceof Attempt) {
+                return (Attempt) t.getData();
+            }
+        }
+        return null;
+    }
+
+    private boolean acquireHedge() {
+        while (true) {
+            long current = hedges.get();
+            if ((current + 1) * 100 > requests.get() * budgetPercent) {
+                return false;
+            }
+            if (hedges.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Resolves an artifact, hedging the request when its first repository is slow.
+     */
+    ArtifactResult resolve(ArtifactRequest request, ParallelArtifactResolver.Batch batch)
+            throws ArtifactResolutionException {
+        ArtifactResult result = hedge(request, batch);
+        if (!result.isResolved()) {
+            throw new ArtifactResolutionException(Collections.singletonList(result));
+        }
+        return result;
+    }
+
+    /**
+     * Resolves a batch of artifacts, each of them concurrently with {@link #resolve(ArtifactRequest,
+     * ParallelArtifactResolver.Batch)}. Results are returned in the order of the requests.
+     */
+    List<ArtifactResult> resolveAll(List<? extends ArtifactRequest> requests, final ParallelArtifactResolver.Batch batch)
+            throws ArtifactResolutionException {
+        if (requests.size() < 2) {
+            List<ArtifactResult> results = new ArrayList<ArtifactResult>();
+            for (ArtifactRequest request: requests) {
+                results.add(hedge(request, batch));
+            }
+            return check(results);
+        }
+        final ClassLoader tccl = Thread.currentThread().getContextClassLoader();
+        List<Future<ArtifactResult>> futures = new ArrayList<Future<ArtifactResult>>(requests.size());
+        for (final ArtifactRequest request: requests) {
+            futures.add(batchExecutor.submit(new Callable<ArtifactResult>() {
+                @Override
+                public ArtifactResult call() throws Exception {
+                    Thread thread = Thread.currentThread();
+                    ClassLoader previous = thread.getContextClassLoader();
+                    thread.setContextClassLoader(tccl);
+                    try {
+                        return hedge(request, batch);
+                    } finally {
+                        thread.setContextClassLoader(previous);
+                    }
+                }
+            }));
+        }
+        ArtifactResult[] results = new ArtifactResult[requests.size()];
+        try {
+            for (int i = 0; i < results.length; i++) {
+                results[i] = futures.get(i).get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            cancel(futures);
+            for (int i = 0; i < results.length; i++) {
+                if (results[i] == null) {
+                    results[i] = new ArtifactResult(requests.get(i));
+                    results[i].addException(e);
+                }
+            }
+        } catch (ExecutionException e) {
+            cancel(futures);
+            throw rethrow(e);
+        }
+        return check(Arrays.asList(results));
+    }
+
+    private static List<ArtifactResult> check(List<ArtifactResult> results) throws ArtifactResolutionException {
+        for (ArtifactResult result: results) {
+            if (!result.isResolved()) {
+                throw new ArtifactResolutionException(results);
+            }
+        }
+        return results;
+    }
+
+    private ArtifactResult hedge(ArtifactRequest request, ParallelArtifactResolver.Batch batch)
+            throws ArtifactResolutionException {
+        List<RemoteRepository> repos = request.getRepositories();
+        long delay = repos.size() < 2 ? -1 : delay(repos.get(0).getId());
+        requests.incrementAndGet();
+        if (delay < 0) {
+            return new Attempt(request, request, batch, null, null).call();
+        }
+
+        AtomicBoolean resolved = new AtomicBoolean();
+        AtomicReference<Attempt> writer = new AtomicReference<Attempt>();
+        CompletionService<ArtifactResult> completion = new ExecutorCompletionService<ArtifactResult>(requestExecutor);
+        Attempt primaryAttempt = new Attempt(request, request, batch, resolved, writer);
+        Future<ArtifactResult> primary;
+        try {
+            primary = completion.submit(primaryAttempt);
+        } catch (RejectedExecutionException e) {
+            rejected.incrementAndGet();
+            return new Attempt(request, request, batch, null, null).call();
+        }
+        Future<ArtifactResult> hedged = null;
+        int pending = 1;
+        try {
+            Future<ArtifactResult> done = completion.poll(delay, TimeUnit.MICROSECONDS);
+            if (done == null && acquireHedge()) {
+                try {
+                    hedged = completion.submit(new Attempt(request, withoutFirst(request), batch, resolved, writer));
+                    pending++;
+                } catch (RejectedExecutionException e) {
+                    hedges.decrementAndGet();
+                    rejected.incrementAndGet();
+                }
+            }
+            ArtifactResult primaryResult = null;
+            while (true) {
+                if (done == null) {
+                    done = completion.take();
+                }
+                pending--;
+                ArtifactResult result = done.get();
+                if (result.isResolved() && done == hedged) {
+                    hedgeWins.incrementAndGet();
+                }
+                if (result.isResolved()) {
+                    return result;
+                }
+                if (done == primary) {
+                    // a failed primary request tried all repositories, unless the hedged request cancelled it
+                    if (!primaryAttempt.lost || pending == 0) {
+                        return result;
+                    }
+                    primaryResult = result;
+                } else if (pending == 0 && primaryResult != null) {
+                    return primaryResult;
+                }
+                done = null;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            ArtifactResult result = new ArtifactResult(request);
+            result.addException(e);
+            return result;
+        } catch (ExecutionException e) {
+            throw rethrow(e);
+        }
+    }
+
+    private static ArtifactResult single(ArtifactRequest request, ParallelArtifactResolver.Batch batch) {
+        try {
+            return batch.resolve(Collections.singletonList(request)).get(0);
+        } catch (ArtifactResolutionException e) {
+            return e.getResults().get(0);
+        }
+    }
+
+    /**
+     * Resolves <code>copy</code>, the result is reported for the original <code>request</code>. The primary and the
+     * hedged attempts of a request share <code>resolved</code>, the second one resolving the artifact is a duplicate,
+     * and <code>writer</code>, the attempt which received the whole artifact first. The copy is traced with its
+     * attempt, so its transfers are known to the transfer listener.
+     */
+    private final class Attempt implements Callable<ArtifactResult> {
+
+        private final ArtifactRequest request;
+        private final ArtifactRequest copy;
+        private final ParallelArtifactResolver.Batch batch;
+        private final AtomicBoolean resolved;
+        private final AtomicReference<Attempt> writer;
+        private final ClassLoader tccl = Thread.currentThread().getContextClassLoader();
+
+        /**
+         * Whether a transfer of this attempt was cancelled, as the other attempt writes the artifact.
+         */
+        private volatile boolean lost;
+        private volatile long startNanos;
+
+        Attempt(ArtifactRequest request, ArtifactRequest copy, ParallelArtifactResolver.Batch batch,
+                AtomicBoolean resolved, AtomicReference<Attempt> writer) {
+            this.request = request;
+            this.copy = writer == null ? copy : new ArtifactRequest(copy.getArtifact(), copy.getRepositories(),
+                    copy.getRequestContext()).setDependencyNode(copy.getDependencyNode())
+                    .setTrace(RequestTrace.newChild(copy.getTrace(), this));
+            this.batch = batch;
+            this.resolved = resolved;
+            this.writer = writer;
+        }
+
+        @Override
+        public ArtifactResult call() {
+            Thread thread = Thread.currentThread();
+            ClassLoader previous = thread.getContextClassLoader();
+            thread.setContextClassLoader(tccl);
+            try {
+                startNanos = System.nanoTime();
+                ArtifactResult copyResult = single(copy, batch);
+                List<RemoteRepository> repos = copy.getRepositories();
+                if (copyResult.getRepository() != null && !repos.isEmpty()
+                        && repos.get(0).getId().equals(copyResult.getRepository().getId())) {
+                    latency(repos.get(0).getId(), (System.nanoTime() - startNanos) / 1000);
+                }
+                if (resolved != null && copyResult.isResolved() && !resolved.compareAndSet(false, true)) {
+                    duplicates.incrementAndGet();
+                }
+                if (copy == request) {
+                    return copyResult;
+                }
+                ArtifactResult result = new ArtifactResult(request);
+                result.setArtifact(copyResult.getArtifact());
+                result.setRepository(copyResult.getRepository());
+                for (Exception exception: copyResult.getExceptions()) {
+                    result.addException(exception);
+                }
+                return result;
+            } finally {
+                thread.setContextClassLoader(previous);
+            }
+        }
+
+        /**
+         * A transfer of this attempt is cancelled, the time the first repository took so far is recorded as its
+         * latency, so a repository slower than its percentile keeps being hedged.
+         */
+        void lost(TransferResource resource) {
+            List<RemoteRepository> repos = copy.getRepositories();
+            if (!lost && !repos.isEmpty() && stripSlash(repos.get(0).getUrl()).equals(stripSlash(resource.getRepositoryUrl()))) {
+                latency(repos.get(0).getId(), (System.nanoTime() - startNanos) / 1000);
+            }
+            lost = true;
+        }
+    }
+
+    private static String stripSlash(String url) {
+        return url != null && url.endsWith("/") ? url.substring(0, url.length() - 1) : String.valueOf(url);
+    }
+
+    private static ArtifactRequest withoutFirst(ArtifactRequest request) {
+        List<RemoteRepository> repos = request.getRepositories();
+        List<RemoteRepository> rest = repos.subList(1, repos.size());
+        if (repos instanceof OrderedRepositoryList) {
+            OrderedRepositoryList ordered = (OrderedRepositoryList) repos;
+            rest = new OrderedRepositoryList(rest, ordered.getConfiguredCount() - 1, ordered.getRule());
+        }
+        return new ArtifactRequest(request.getArtifact(), rest, request.getRequestContext())
+                .setDependencyNode(request.getDependencyNode()).setTrace(request.getTrace());
+    }
+
+    private static void cancel(List<? extends Future<?>> futures) {
+        for (Future<?> future: futures) {
+            future.cancel(true);
+        }
+    }
+
+    private static RuntimeException rethrow(ExecutionException e) {
+        if (e.getCause() instanceof RuntimeException) {
+            return (RuntimeException) e.getCause();
+        }
+        if (e.getCause() instanceof Error) {
+            throw (Error) e.getCause();
+        }
+        return new IllegalStateException(e.getCause());
+    }
+
+    long getRequests() {
+        return requests.get();
+    }
+
+    long getHedges() {
+        return hedges.get();
+    }
+
+    long getHedgeWins() {
+        return hedgeWins.get();
+    }
+
+    /**
+     * @return the number of artifacts downloaded by both the primary and the hedged requests
+     */
+    long getDuplicates() {
+        return duplicates.get();
+    }
+
+    /**
+     * @return the number of requests not sent as the request pool is full
+     */
+    long getRejected() {
+        return rejected.get();
+    }
+
+    /**
+     * @return the number of transfers of the losing requests which are cancelled
+     */
+    long getCancelled() {
+        return cancelled.get();
+    }
+
+    @Override
+    public String toString() {
+        return "requests=" + requests.get() + ", hedged=" + hedges.get() + ", won by hedged=" + hedgeWins.get()
+                + ", rejected=" + rejected.get() + ", losing transfers cancelled=" + cancelled.get()
+                + ", downloaded twice=" + duplicates.get();
+    }
+}
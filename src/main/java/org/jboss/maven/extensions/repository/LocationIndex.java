@@ -0,0 +1,351 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright @year, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.maven.extensions.repository;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.eclipse.aether.artifact.Artifact;
+import org.eclipse.aether.repository.RemoteRepository;
+
+/**
+ * Remembers which repository served the artifacts of a 'G:A', so it is tried first the next time.
+ *
+ * Versions of a 'G:A' are often published to different repositories by flavor, like <code>1.0.Final</code> to a
+ * community repository and <code>1.0.Final-redhat-1</code> to a product one. So a location is learned per 'G:A' and
+ * the letters of the version, its digits removed.
+ *
+ * The index is persisted as an append-only log under the local repository, shared by all builds using it: each record
+ * is a 64 bits hash of the 'G:A' key, a 64 bits hash of the repository id and the time the location was last used.
+ * The last record of a key wins. The learned locations are appended at the end of a build, under a file lock held by
+ * one process at a time. The log is compacted when it holds twice as many records as locations, and the least
+ * recently used locations are evicted above <code>maxSize</code>. A log which is not a location index, like one
+ * corrupted by a crash, is replaced by the locations of the build.
+ *
+ * The log is read and written in the heap rather than memory mapped, as a mapping keeps the file from being replaced
+ * by the compaction on Windows until it is collected.
+ *
+ * @author <a href="mailto:lgao@redhat.com">Lin Gao</a>
+ *
+ */
+class LocationIndex {
+
+    static final String INDEX_FILE = "location-index.log";
+    static final String LOCK_FILE = "location-index.lock";
+
+    static final int DEFAULT_MAX_SIZE = 100000;
+
+    private static final int MAGIC = 0x4F524C49; // ORLI
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+    private static final int RECORD_SIZE = 24;
+
+    /**
+     * A used location is written again when it was last written longer ago, to keep the eviction order.
+     */
+    private static final long TOUCH_MILLIS = 24 * 60 * 60 * 1000L;
+
+    /**
+     * File locks are held by the JVM, the builds of one JVM are serialized here.
+     */
+    private static final Object JVM_LOCK = new Object();
+
+    private static final class Location {
+        final long repository;
+        volatile long lastUsed;
+        volatile boolean dirty;
+
+        Location(long repository, long lastUsed, boolean dirty) {
+            this.repository = repository;
+            this.lastUsed = lastUsed;
+            this.dirty = dirty;
+        }
+    }
+
+    private final int maxSize;
+    private final ConcurrentMap<Long, Location> locations = new ConcurrentHashMap<Long, Location>();
+
+    private volatile File indexDir;
+
+    LocationIndex(int maxSize) {
+        this.maxSize = Math.max(1, maxSize);
+    }
+
+    /**
+     * Loads the persisted index under the local repository, only the first call does the work.
+     */
+    void open(File localRepositoryDir) {
+        if (indexDir != null || localRepositoryDir == null) {
+            return;
+        }
+        synchronized (this) {
+            if (indexDir == null) {
+                File dir = new File(localRepositoryDir, NegativeLookupCache.INDEX_DIR);
+                Map<Long, Location> entries = new HashMap<Long, Location>();
+                try {
+                    if (read(new File(dir, INDEX_FILE), entries) < 0) {
+                        System.err.println("[WARNING] Not a location index file in " + dir + ", it will be replaced");
+                    }
+                    for (Map.Entry<Long, Location> entry: entries.entrySet()) {
+                        locations.putIfAbsent(entry.getKey(), entry.getValue());
+                    }
+                } catch (IOException e) {
+                    System.err.println("[WARNING] Can't read location index " + dir + ": " + e.getMessage());
+                }
+                indexDir = dir;
+            }
+        }
+    }
+
+    /**
+     * Records the repository which served an artifact.
+     */
+    void record(Artifact artifact, RemoteRepository repository) {
+        if (artifact == null || repository == null) {
+            return;
+        }
+        Long key = key(artifact);
+        long repositoryHash = repositoryHash(repository.getId());
+        long now = System.currentTimeMillis();
+        Location location = locations.get(key);
+        if (location != null && location.repository == repositoryHash) {
+            touch(location, now);
+        } else {
+            locations.put(key, new Location(repositoryHash, now, true));
+        }
+    }
+
+    private static void touch(Location location, long now) {
+        if (now - location.lastUsed > TOUCH_MILLIS) {
+            location.lastUsed = now;
+            location.dirty = true;
+        }
+    }
+
+    /**
+     * Moves the repository known to serve the 'G:A' of the artifact to the front, if it is a candidate.
+     */
+    List<RemoteRepository> apply(Artifact artifact, List<RemoteRepository> repos) {
+        if (locations.isEmpty() || repos.size() < 2) {
+            return repos;
+        }
+        Location location = locations.get(key(artifact));
+        if (location == null) {
+            return repos;
+        }
+        int index = -1;
+        for (int i = 0; i < repos.size(); i++) {
+            if (repositoryHash(repos.get(i).getId()) == location.repository) {
+                index = i;
+                break;
+            }
+        }
+        if (index < 0) {
+            return repos;
+        }
+        touch(location, System.currentTimeMillis());
+        if (index == 0) {
+            return repos;
+        }
+        RemoteRepository[] result = new RemoteRepository[repos.size()];
+        result[0] = repos.get(index);
+        for (int i = 0, j = 1; i < repos.size(); i++) {
+            if (i != index) {
+                result[j++] = repos.get(i);
+            }
+        }
+        int configured = repos instanceof OrderedRepositoryList ? ((OrderedRepositoryList) repos).getConfiguredCount() : 0;
+        // a learned repository counts as configured
+        return new OrderedRepositoryList(result, index < configured ? configured : configured + 1,
+                OrderedRepositoryList.ruleOf(repos));
+    }
+
+    int size() {
+        return locations.size();
+    }
+
+    /**
+     * Appends the locations learned or used by this build to the log, and compacts it when needed.
+     */
+    void save() throws IOException {
+        File dir = indexDir;
+        if (dir == null) {
+            return;
+        }
+        List<Map.Entry<Long, Location>> dirty = new ArrayList<Map.Entry<Long, Location>>();
+        for (Map.Entry<Long, Location> entry: locations.entrySet()) {
+            if (entry.getValue().dirty) {
+                dirty.add(entry);
+            }
+        }
+        if (dirty.isEmpty()) {
+            return;
+        }
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Can't create directory " + dir);
+        }
+        File file = new File(dir, INDEX_FILE);
+        synchronized (JVM_LOCK) {
+            try (RandomAccessFile lockFile = new RandomAccessFile(new File(dir, LOCK_FILE), "rw")) {
+                FileLock lock = lockFile.getChannel().lock();
+                try {
+                    Map<Long, Location> merged = new HashMap<Long, Location>();
+                    int records = read(file, merged);
+                    for (Map.Entry<Long, Location> entry: dirty) {
+                        merged.put(entry.getKey(), entry.getValue());
+                    }
+                    if (records < 0 || records + dirty.size() > 2 * merged.size() || merged.size() > maxSize) {
+                        compact(file, merged);
+                    } else {
+                        append(file, dirty);
+                    }
+                } finally {
+                    lock.release();
+                }
+            }
+        }
+        for (Map.Entry<Long, Location> entry: dirty) {
+            entry.getValue().dirty = false;
+        }
+    }
+
+    private void compact(File file, Map<Long, Location> entries) throws IOException {
+        List<Map.Entry<Long, Location>> list = new ArrayList<Map.Entry<Long, Location>>(entries.entrySet());
+        if (list.size() > maxSize) {
+            Collections.sort(list, new Comparator<Map.Entry<Long, Location>>() {
+                @Override
+                public int compare(Map.Entry<Long, Location> o1, Map.Entry<Long, Location> o2) {
+                    return Long.compare(o2.getValue().lastUsed, o1.getValue().lastUsed);
+                }
+            });
+            list = list.subList(0, maxSize);
+        }
+        File tmp = File.createTempFile(INDEX_FILE, ".tmp", file.getParentFile());
+        try {
+            try (RandomAccessFile raf = new RandomAccessFile(tmp, "rw"); FileChannel channel = raf.getChannel()) {
+                ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + list.size() * RECORD_SIZE);
+                buffer.putInt(MAGIC).putInt(VERSION);
+                for (Map.Entry<Long, Location> entry: list) {
+                    buffer.putLong(entry.getKey()).putLong(entry.getValue().repository).putLong(entry.getValue().lastUsed);
+                }
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(true);
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp.toPath());
+        }
+    }
+
+    private static void append(File file, List<Map.Entry<Long, Location>> entries) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw"); FileChannel channel = raf.getChannel()) {
+            long size = channel.size();
+            ByteBuffer buffer = ByteBuffer.allocate((size < HEADER_SIZE ? HEADER_SIZE : 0) + entries.size() * RECORD_SIZE);
+            if (size < HEADER_SIZE) {
+                size = 0;
+                buffer.putInt(MAGIC).putInt(VERSION);
+            } else {
+                // drop a record torn by a crashed build
+                size = HEADER_SIZE + (size - HEADER_SIZE) / RECORD_SIZE * RECORD_SIZE;
+            }
+            for (Map.Entry<Long, Location> entry: entries) {
+                buffer.putLong(entry.getKey()).putLong(entry.getValue().repository).putLong(entry.getValue().lastUsed);
+            }
+            buffer.flip();
+            channel.truncate(size);
+            while (buffer.hasRemaining()) {
+                size += channel.write(buffer, size);
+            }
+            channel.force(false);
+        }
+    }
+
+    /**
+     * Reads the log, the last record of a key wins.
+     *
+     * @return the number of records in the log, or -1 if it is not a location index file
+     */
+    private static int read(File file, Map<Long, Location> entries) throws IOException {
+        if (!file.isFile()) {
+            return 0;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+            long size = channel.size();
+            if (size < HEADER_SIZE) {
+                return 0;
+            }
+            if (size > Integer.MAX_VALUE) {
+                return -1;
+            }
+            ByteBuffer buffer = ByteBuffer.allocate((int) size);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) {
+                    break;
+                }
+            }
+            buffer.flip();
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                return -1;
+            }
+            int records = 0;
+            while (buffer.remaining() >= RECORD_SIZE) {
+                entries.put(buffer.getLong(), new Location(buffer.getLong(), buffer.getLong(), false));
+                records++;
+            }
+            return records;
+        }
+    }
+
+    static long key(Artifact artifact) {
+        long hash = NegativeLookupCache.FNV_OFFSET;
+        hash = NegativeLookupCache.hash(hash, artifact.getGroupId());
+        hash = NegativeLookupCache.hash(hash, ":");
+        hash = NegativeLookupCache.hash(hash, artifact.getArtifactId());
+        hash = NegativeLookupCache.hash(hash, ":");
+        String version = artifact.getVersion();
+        for (int i = 0; i < version.length(); i++) {
+            char c = version.charAt(i);
+            if (c < '0' || c > '9') {
+                hash ^= c;
+                hash *= NegativeLookupCache.FNV_PRIME;
+            }
+        }
+        return hash;
+    }
+
+    private static long repositoryHash(String repositoryId) {
+        return NegativeLookupCache.hash(NegativeLookupCache.FNV_OFFSET, repositoryId);
+    }
+}
@@ -0,0 +1,290 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright @year, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.maven.extensions.repository;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.eclipse.aether.artifact.Artifact;
+import org.eclipse.aether.repository.RemoteRepository;
+import org.eclipse.aether.resolution.ArtifactResolutionException;
+import org.eclipse.aether.transfer.ArtifactNotFoundException;
+import org.eclipse.aether.transfer.ArtifactTransferException;
+
+/**
+ * Remembers which repositories don't have a 'G:A:V', so they can be demoted or dropped the next time.
+ *
+ * Only missing POMs are recorded: when the POM of a 'G:A:V' is not in a repository, nothing of it is, while a missing
+ * jar or classified artifact says nothing about the rest of the 'G:A:V'.
+ *
+ * The misses are persisted in an index file under the local repository, each entry is a 64 bits hash of the
+ * repository id and the 'G:A:V', followed by the time it expires. Expired entries are dropped when the index is loaded
+ * and saved. The builds sharing the local repository save the index one at a time, under a file lock. The index is read
+ * and written in the heap rather than memory mapped, as a mapping keeps the file from being replaced on Windows until
+ * it is collected.
+ *
+ * @author <a href="mailto:lgao@redhat.com">Lin Gao</a>
+ *
+ */
+class NegativeLookupCache {
+
+    static final String INDEX_DIR = ".ordered-repository";
+    static final String INDEX_FILE = "negative-cache.idx";
+    static final String LOCK_FILE = "negative-cache.lock";
+
+    static final long DEFAULT_TTL_SECONDS = 24 * 60 * 60;
+
+    private static final int MAGIC = 0x4F524E43; // ORNC
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 12;
+    private static final int ENTRY_SIZE = 16;
+
+    static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    static final long FNV_PRIME = 0x100000001b3L;
+
+    /**
+     * File locks are held by the JVM, the builds of one JVM are serialized here.
+     */
+    private static final Object JVM_LOCK = new Object();
+
+    enum Mode {
+        DEMOTE, DROP
+    }
+
+    private final long ttlMillis;
+    private final Mode mode;
+
+    private final ConcurrentMap<Long, Long> misses = new ConcurrentHashMap<Long, Long>();
+
+    private volatile File indexFile;
+
+    NegativeLookupCache(long ttlSeconds, Mode mode) {
+        this.ttlMillis = ttlSeconds * 1000;
+        this.mode = mode;
+    }
+
+    /**
+     * Loads the persisted index under the local repository, only the first call does the work.
+     */
+    void open(File localRepositoryDir) {
+        if (indexFile != null || localRepositoryDir == null) {
+            return;
+        }
+        synchronized (this) {
+            if (indexFile == null) {
+                File file = new File(new File(localRepositoryDir, INDEX_DIR), INDEX_FILE);
+                try {
+                    read(file, misses, System.currentTimeMillis());
+                } catch (IOException e) {
+                    System.err.println("[WARNING] Can't read negative cache index " + file + ": " + e.getMessage());
+                }
+                indexFile = file;
+            }
+        }
+    }
+
+    /**
+     * Merges the misses of this build with the ones in the index file written by other builds meanwhile, then writes
+     * the index back.
+     */
+    synchronized void save() throws IOException {
+        File file = indexFile;
+        if (file == null) {
+            return;
+        }
+        File dir = file.getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Can't create directory " + dir);
+        }
+        synchronized (JVM_LOCK) {
+            try (RandomAccessFile lockFile = new RandomAccessFile(new File(dir, LOCK_FILE), "rw")) {
+                FileLock lock = lockFile.getChannel().lock();
+                try {
+                    long now = System.currentTimeMillis();
+                    Map<Long, Long> merged = new HashMap<Long, Long>();
+                    read(file, merged, now);
+                    for (Map.Entry<Long, Long> entry: misses.entrySet()) {
+                        Long expiry = merged.get(entry.getKey());
+                        if (entry.getValue() > now && (expiry == null || expiry < entry.getValue())) {
+                            merged.put(entry.getKey(), entry.getValue());
+                        }
+                    }
+                    write(file, merged);
+                } finally {
+                    lock.release();
+                }
+            }
+        }
+    }
+
+    /**
+     * Records all repositories missing a POM reported by the exceptions, including the ones nested in
+     * {@link ArtifactResolutionException}.
+     */
+    void record(List<Exception> exceptions) {
+        for (ArtifactTransferException failure: TransferFailures.collect(exceptions)) {
+            if (failure instanceof ArtifactNotFoundException) {
+                record(failure.getRepository(), failure.getArtifact());
+            }
+        }
+    }
+
+    void record(RemoteRepository repository, Artifact artifact) {
+        if (repository == null || artifact == null || !"pom".equals(artifact.getExtension())
+                || artifact.getClassifier().length() > 0) {
+            return;
+        }
+        misses.put(key(repository.getId(), artifact), System.currentTimeMillis() + ttlMillis);
+    }
+
+    boolean isMissing(RemoteRepository repository, Artifact artifact) {
+        Long expiry = misses.get(key(repository.getId(), artifact));
+        return expiry != null && expiry > System.currentTimeMillis();
+    }
+
+    /**
+     * Moves the repositories known to miss the 'G:A:V' to the end, or drops them in {@link Mode#DROP} mode as long as
+     * some repository is left.
+     */
+    List<RemoteRepository> apply(Artifact artifact, List<RemoteRepository> repos) {
+        if (misses.isEmpty() || repos.isEmpty()) {
+            return repos;
+        }
+        List<RemoteRepository> missing = null;
+        for (RemoteRepository repo: repos) {
+            if (isMissing(repo, artifact)) {
+                if (missing == null) {
+                    missing = new ArrayList<RemoteRepository>(repos.size());
+                }
+                missing.add(repo);
+            }
+        }
+        if (missing == null) {
+            return repos;
+        }
+        List<RemoteRepository> result = new ArrayList<RemoteRepository>(repos.size());
+        int configured = repos instanceof OrderedRepositoryList ? ((OrderedRepositoryList) repos).getConfiguredCount() : 0;
+        int configuredLeft = 0;
+        for (int i = 0; i < repos.size(); i++) {
+            RemoteRepository repo = repos.get(i);
+            if (!missing.contains(repo)) {
+                result.add(repo);
+                if (i < configured) {
+                    configuredLeft++;
+                }
+            }
+        }
+        if (mode == Mode.DEMOTE || result.isEmpty()) {
+            result.addAll(missing);
+        }
+        return new OrderedRepositoryList(result, configuredLeft, OrderedRepositoryList.ruleOf(repos));
+    }
+
+    int size() {
+        return misses.size();
+    }
+
+    static long key(String repositoryId, Artifact artifact) {
+        long hash = FNV_OFFSET;
+        hash = hash(hash, repositoryId);
+        hash = hash(hash, "|");
+        hash = hash(hash, artifact.getGroupId());
+        hash = hash(hash, ":");
+        hash = hash(hash, artifact.getArtifactId());
+        hash = hash(hash, ":");
+        return hash(hash, artifact.getVersion());
+    }
+
+    static long hash(long hash, String s) {
+        for (int i = 0; i < s.length(); i++) {
+            hash ^= s.charAt(i);
+            hash *= FNV_PRIME;
+        }
+        return hash;
+    }
+
+    private static void read(File file, Map<Long, Long> entries, long now) throws IOException {
+        if (!file.isFile()) {
+            return;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+            long size = channel.size();
+            if (size < HEADER_SIZE) {
+                return;
+            }
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Corrupted negative cache index file");
+            }
+            ByteBuffer buffer = ByteBuffer.allocate((int) size);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) {
+                    break;
+                }
+            }
+            buffer.flip();
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                throw new IOException("Not a negative cache index file");
+            }
+            int count = buffer.getInt();
+            if (count < 0 || (long) count * ENTRY_SIZE > buffer.remaining()) {
+                throw new IOException("Corrupted negative cache index file");
+            }
+            for (int i = 0; i < count; i++) {
+                long key = buffer.getLong();
+                long expiry = buffer.getLong();
+                if (expiry > now) {
+                    entries.put(key, expiry);
+                }
+            }
+        }
+    }
+
+    private static void write(File file, Map<Long, Long> entries) throws IOException {
+        File tmp = File.createTempFile(INDEX_FILE, ".tmp", file.getParentFile());
+        try {
+            try (RandomAccessFile raf = new RandomAccessFile(tmp, "rw"); FileChannel channel = raf.getChannel()) {
+                int count = entries.size();
+                ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + count * ENTRY_SIZE);
+                buffer.putInt(MAGIC).putInt(VERSION).putInt(count);
+                for (Map.Entry<Long, Long> entry: entries.entrySet()) {
+                    buffer.putLong(entry.getKey()).putLong(entry.getValue());
+                }
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(true);
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp.toPath());
+        }
+    }
+}
@@ -0,0 +1,288 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright @year, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.maven.extensions.repository;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.jboss.maven.extensions.repository.OrderedRepositoryConfiguration.OrderRule;
+
+/**
+ * Finds the first {@link OrderRule} by index which matches a 'G:A:V'.
+ *
+ * Most rules start with a literal groupId like <code>org.apache.maven.plugins:</code>, any 'G:A:V' matched by such rule
+ * must start with that literal prefix. The prefixes are put into a trie, so a lookup only evaluates the regexes of
+ * the rules whose prefix the 'G:A:V' starts with. An unescaped <code>.</code> in the prefix is kept as a wildcard edge
+ * in the trie. Rules which can't be reduced to a prefix stay at the root and are always evaluated.
+ *
+ * Each thread reuses one {@link Matcher} per rule, so a lookup doesn't allocate.
+ *
+ * @author <a href="mailto:lgao@redhat.com">Lin Gao</a>
+ *
+ */
+class OrderRuleMatcher {
+
+    /**
+     * Marks a wildcard (an unescaped <code>.</code>) in an extracted prefix.
+     */
+    static final char ANY = '\uFFFF';
+
+    private static final Comparator<OrderRule> BY_INDEX = new Comparator<OrderRule>() {
+        @Override
+        public int compare(OrderRule r1, OrderRule r2) {
+            return Integer.compare(r1.getIndex(), r2.getIndex());
+        }
+    };
+
+    private final Node root;
+
+    /**
+     * Patterns of the rules, by the slot of the rule in the trie nodes.
+     */
+    private final Pattern[] patterns;
+
+    private final ThreadLocal<Matcher[]> matchers = new ThreadLocal<Matcher[]>() {
+        @Override
+        protected Matcher[] initialValue() {
+            return new Matcher[patterns.length];
+        }
+    };
+
+    OrderRuleMatcher(List<OrderRule> rules) {
+        MutableNode mutableRoot = new MutableNode();
+        Map<OrderRule, Integer> slots = new IdentityHashMap<OrderRule, Integer>();
+        List<Pattern> patternList = new ArrayList<Pattern>();
+        for (OrderRule rule: rules) {
+            if (rule.getPattern() == null) {
+                continue; // no regex defined for this index, it never matches
+            }
+            slots.put(rule, patternList.size());
+            patternList.add(rule.getPattern());
+            String prefix = literalPrefix(rule.getPattern().pattern());
+            MutableNode node = mutableRoot;
+            for (int i = 0; i < prefix.length(); i++) {
+                node = node.child(prefix.charAt(i));
+            }
+            node.rules.add(rule);
+        }
+        this.patterns = patternList.toArray(new Pattern[patternList.size()]);
+        this.root = mutableRoot.build(slots);
+    }
+
+    /**
+     * @return the first rule by index which matches the 'G:A:V', or null if none matches
+     */
+    OrderRule match(CharSequence gav) {
+        return find(root, gav, 0, null, matchers.get());
+    }
+
+    /**
+     * Walks the trie along the 'G:A:V', only the rules with a lower index than the best match so far are evaluated.
+     *
+     * @return the matching rule with the lowest index, <code>best</code> if none found in this sub trie
+     */
+    private OrderRule find(Node node, CharSequence gav, int pos, OrderRule best, Matcher[] threadMatchers) {
+        for (int i = 0; i < node.rules.length; i++) {
+            OrderRule rule = node.rules[i];
+            if (best != null && rule.getIndex() >= best.getIndex()) {
+                break; // rules are sorted by index
+            }
+            if (matches(node.slots[i], gav, threadMatchers)) {
+                best = rule;
+                break;
+            }
+        }
+        if (pos >= gav.length()) {
+            return best;
+        }
+        char c = gav.charAt(pos);
+        int idx = Arrays.binarySearch(node.chars, c);
+        if (idx >= 0) {
+            best = find(node.children[idx], gav, pos + 1, best, threadMatchers);
+        }
+        if (node.any != null && !isLineTerminator(c)) {
+            best = find(node.any, gav, pos + 1, best, threadMatchers);
+        }
+        return best;
+    }
+
+    /**
+     * Matches with the {@link Matcher} the calling thread keeps for the pattern, it is reset instead of created.
+     */
+    private boolean matches(int slot, CharSequence gav, Matcher[] threadMatchers) {
+        Matcher matcher = threadMatchers[slot];
+        if (matcher == null) {
+            matcher = patterns[slot].matcher(gav);
+            threadMatchers[slot] = matcher;
+        } else {
+            matcher.reset(gav);
+        }
+        return matcher.matches();
+    }
+
+    /**
+     * Same as what an unescaped <code>.</code> does not match without the DOTALL flag.
+     */
+    private static boolean isLineTerminator(char c) {
+        return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+    }
+
+    /**
+     * Extracts the prefix which every string fully matched by the regex must start with.
+     *
+     * The prefix stops at the first construct which is not a single mandatory character: classes, groups, quantified
+     * atoms, anchors and escapes other than escaped punctuation. Unescaped <code>.</code> is returned as {@link #ANY}.
+     *
+     * @return the prefix, empty if the regex can't be reduced
+     */
+    static String literalPrefix(String regex) {
+        if (regex.contains("\\Q") || hasTopLevelAlternation(regex)) {
+            return "";
+        }
+        StringBuilder prefix = new StringBuilder();
+        int i = regex.startsWith("^") ? 1 : 0;
+        while (i < regex.length()) {
+            char c = regex.charAt(i);
+            char atom;
+            int len;
+            if (c == '.') {
+                atom = ANY;
+                len = 1;
+            } else if (c == '\\') {
+                if (i + 1 >= regex.length() || Character.isLetterOrDigit(regex.charAt(i + 1))) {
+                    break;
+                }
+                atom = regex.charAt(i + 1);
+                len = 2;
+            } else if ("[](){}*+?|^$".indexOf(c) >= 0 || c == ANY) {
+                break;
+            } else {
+                atom = c;
+                len = 1;
+            }
+            if (i + len < regex.length()) {
+                char next = regex.charAt(i + len);
+                if (next == '*' || next == '?' || next == '{') {
+                    break; // atom is optional or repeated an unknown number of times
+                }
+                if (next == '+') {
+                    prefix.append(atom); // at least once
+                    break;
+                }
+            }
+            prefix.append(atom);
+            i += len;
+        }
+        return prefix.toString();
+    }
+
+    /**
+     * Whether there is a <code>|</code> outside of any group or character class.
+     */
+    private static boolean hasTopLevelAlternation(String regex) {
+        int groups = 0;
+        int classes = 0;
+        for (int i = 0; i < regex.length(); i++) {
+            char c = regex.charAt(i);
+            if (c == '\\') {
+                i++;
+            } else if (c == '[') {
+                classes++;
+            } else if (c == ']' && classes > 0) {
+                classes--;
+            } else if (classes == 0) {
+                if (c == '(') {
+                    groups++;
+                } else if (c == ')' && groups > 0) {
+                    groups--;
+                } else if (c == '|' && groups == 0) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static final class Node {
+        private final OrderRule[] rules; // sorted by index
+        private final int[] slots; // pattern slot of each rule
+        private final char[] chars; // sorted
+        private final Node[] children;
+        private final Node any;
+
+        Node(OrderRule[] rules, int[] slots, char[] chars, Node[] children, Node any) {
+            this.rules = rules;
+            this.slots = slots;
+            this.chars = chars;
+            this.children = children;
+            this.any = any;
+        }
+    }
+
+    private static final class MutableNode {
+        private final List<OrderRule> rules = new ArrayList<OrderRule>(1);
+        private final List<Character> chars = new ArrayList<Character>();
+        private final List<MutableNode> children = new ArrayList<MutableNode>();
+
+        MutableNode child(char c) {
+            int idx = chars.indexOf(c);
+            if (idx >= 0) {
+                return children.get(idx);
+            }
+            MutableNode node = new MutableNode();
+            chars.add(c);
+            children.add(node);
+            return node;
+        }
+
+        Node build(Map<OrderRule, Integer> slots) {
+            Collections.sort(rules, BY_INDEX);
+            List<Character> sorted = new ArrayList<Character>(chars);
+            Collections.sort(sorted);
+            Node any = null;
+            List<Character> literals = new ArrayList<Character>();
+            List<Node> built = new ArrayList<Node>();
+            for (Character c: sorted) {
+                Node child = children.get(chars.indexOf(c)).build(slots);
+                if (c == ANY) {
+                    any = child;
+                } else {
+                    literals.add(c);
+                    built.add(child);
+                }
+            }
+            char[] keys = new char[literals.size()];
+            for (int i = 0; i < keys.length; i++) {
+                keys[i] = literals.get(i);
+            }
+            int[] ruleSlots = new int[rules.size()];
+            for (int i = 0; i < ruleSlots.length; i++) {
+                ruleSlots[i] = slots.get(rules.get(i));
+            }
+            return new Node(rules.toArray(new OrderRule[rules.size()]), ruleSlots, keys,
+                    built.toArray(new Node[built.size()]), any);
+        }
+    }
+}
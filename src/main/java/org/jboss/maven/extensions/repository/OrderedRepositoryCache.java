@@ -0,0 +1,200 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright @year, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.maven.extensions.repository;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.aether.artifact.Artifact;
+import org.eclipse.aether.repository.RemoteRepository;
+
+/**
+ * Bounded concurrent cache of ordered repository lists.
+ *
+ * Entries are keyed by the 'G:A:V' of the artifact and the candidate repositories, so the same artifact asked with a
+ * different candidate list gets its own entry. The cached lists are immutable and can be shared between callers.
+ *
+ * The entries are in a {@link ConcurrentHashMap}, so lookups don't lock and updates only lock their bin. A single
+ * thread evicts at a time, the others keep adding meanwhile instead of evicting the same entries again.
+ *
+ * @author <a href="mailto:lgao@redhat.com">Lin Gao</a>
+ *
+ */
+class OrderedRepositoryCache {
+
+    static final int DEFAULT_MAX_SIZE = 10000;
+
+    private final int maxSize;
+
+    private final ConcurrentMap<Key, List<RemoteRepository>> entries;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicBoolean evicting = new AtomicBoolean();
+
+    OrderedRepositoryCache(int maxSize) {
+        this.maxSize = maxSize;
+        this.entries = new ConcurrentHashMap<Key, List<RemoteRepository>>(Math.min(maxSize, 1024));
+    }
+
+    /**
+     * Gets the cached ordered repositories.
+     *
+     * @return the cached list, or null if it has not been computed yet
+     */
+    List<RemoteRepository> get(Artifact artifact, List<RemoteRepository> candidates) {
+        if (maxSize <= 0) {
+            misses.incrementAndGet();
+            return null;
+        }
+        List<RemoteRepository> repos = entries.get(new Key(artifact, candidates));
+        if (repos != null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+        }
+        return repos;
+    }
+
+    /**
+     * Caches the ordered repositories.
+     *
+     * @return the immutable list which is cached
+     */
+    List<RemoteRepository> put(Artifact artifact, List<RemoteRepository> candidates, List<RemoteRepository> repos) {
+        List<RemoteRepository> value = repos instanceof OrderedRepositoryList
+                ? repos : new OrderedRepositoryList(repos, repos.size());
+        if (maxSize <= 0) {
+            return value;
+        }
+        if (entries.size() >= maxSize && evicting.compareAndSet(false, true)) {
+            try {
+                evict();
+            } finally {
+                evicting.set(false);
+            }
+        }
+        List<RemoteRepository> existing = entries.putIfAbsent(new Key(artifact, new ArrayList<RemoteRepository>(candidates)), value);
+        return existing != null ? existing : value;
+    }
+
+    /**
+     * Drops about a quarter of the entries, there is no access order kept so the victims are whatever comes first.
+     */
+    private void evict() {
+        int toRemove = Math.max(1, maxSize / 4);
+        Iterator<Key> it = entries.keySet().iterator();
+        while (toRemove > 0 && it.hasNext()) {
+            it.next();
+            it.remove();
+            toRemove--;
+            evictions.incrementAndGet();
+        }
+    }
+
+    /**
+     * Removes the entry of the artifact and candidate repositories.
+     */
+    void remove(Artifact artifact, List<RemoteRepository> candidates) {
+        entries.remove(new Key(artifact, candidates));
+    }
+
+    /**
+     * Clears all cached entries, it is called when the configuration changes.
+     */
+    void invalidate() {
+        entries.clear();
+    }
+
+    long getHits() {
+        return hits.get();
+    }
+
+    long getMisses() {
+        return misses.get();
+    }
+
+    long getEvictions() {
+        return evictions.get();
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    @Override
+    public String toString() {
+        return "hits: " + getHits() + ", misses: " + getMisses() + ", evictions: " + getEvictions() + ", size: " + size();
+    }
+
+    private static final class Key {
+        private final String groupId;
+        private final String artifactId;
+        private final String version;
+        private final List<RemoteRepository> candidates;
+        private final int hash;
+
+        Key(Artifact artifact, List<RemoteRepository> candidates) {
+            this.groupId = artifact.getGroupId();
+            this.artifactId = artifact.getArtifactId();
+            this.version = artifact.getVersion();
+            this.candidates = candidates;
+            int h = groupId.hashCode();
+            h = h * 31 + artifactId.hashCode();
+            h = h * 31 + version.hashCode();
+            for (int i = 0; i < candidates.size(); i++) {
+                h = h * 31 + candidates.get(i).hashCode();
+            }
+            this.hash = h;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key that = (Key) obj;
+            if (hash != that.hash || !groupId.equals(that.groupId) || !artifactId.equals(that.artifactId)
+                    || !version.equals(that.version) || candidates.size() != that.candidates.size()) {
+                return false;
+            }
+            for (int i = 0; i < candidates.size(); i++) {
+                RemoteRepository r1 = candidates.get(i);
+                RemoteRepository r2 = that.candidates.get(i);
+                if (r1 != r2 && !r1.equals(r2)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
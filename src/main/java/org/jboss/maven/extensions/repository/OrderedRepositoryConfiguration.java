@@ -17,18 +17,28 @@
 
 package org.jboss.maven.extensions.repository;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.URI;
 import java.net.URL;
+import java.net.URLConnection;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
 import java.util.regex.Pattern;
 
 /**
@@ -39,6 +49,14 @@ class OrderedRepositoryConfiguration {
 
     private static final String DEFAULT_PROP_FILE = "config.properties";
 
+    static final int DEFAULT_TIMEOUT_SECONDS = 10;
+
+    /**
+     * Where the last configuration loaded from each URL is kept, in the user home as the local repository is not known
+     * when the configuration is loaded.
+     */
+    private static final String DEFAULT_CACHE_DIR = ".m2/.ordered-repository/configuration";
+
     /**
      * Additional Configure URL, can be relative to current classpath, a local file or an URL points to a remote resource.
      */
@@ -47,25 +65,55 @@ class OrderedRepositoryConfiguration {
     private static final String KEY_REGEX = "regex";
     private static final String KEY_REPOS = "repos";
     private static final String KEY_DESCRPTION = "description";
+    private static final String KEY_METADATA_LIMIT = "metadata.limit";
+    private static final String KEY_TRANSFER = "transfer";
     private static final String DOT = ".";
     private static final String REGEX_PREFIX = KEY_REGEX + DOT;
 
     private static final String DEFAULT = "default";
 
-    private static final String KEY_DEFAULT_REGEX_REPOS = REGEX_PREFIX + DEFAULT + DOT + KEY_REPOS;
-    private String[] defaultRepos; // only repository id string list
+    /**
+     * Name of the default rule, used when no pattern matches.
+     */
+    static final String DEFAULT_RULE = REGEX_PREFIX + DEFAULT;
+
+    private static final String KEY_DEFAULT_REGEX_REPOS = DEFAULT_RULE + DOT + KEY_REPOS;
+    private final String[] defaultRepos; // only repository id string list, trimmed
 
     private static final String KEY_REPO_INCLUDED = "repos.included";
 
-    private List<OrderRule> orderRules = new ArrayList<OrderRule>(0);
+    /**
+     * Location of the exact 'G:A' and 'G:A:V' pins, like the additional configuration.
+     */
+    private static final String KEY_PINS_URL = "pins.url";
+
+    private final RepositoryPins pins;
+
+    /**
+     * Repositories aggregating others, like a repository manager group: <code>group.&lt;id&gt; = id1, id2</code>.
+     */
+    private static final String GROUP_PREFIX = "group" + DOT;
+
+    private final Map<String, Set<String>> groups;
+
+    private final boolean includePinsOthers;
+
+    private final List<OrderRule> orderRules;
+
+    private final OrderRuleMatcher ruleMatcher;
+
+    private final boolean includeReposDefault;
+
+    private final Map<String, Integer> metadataLimits;
 
-    private boolean includeReposDefault;
+    private final Map<String, TransferScheduler.Policy> transferPolicies;
 
     static class OrderRule {
         private int index;
+        private String name;
         private Pattern pattern;
         private String description;
-        private String[] repos;// defined order matters
+        private String[] repos;// defined order matters, trimmed
         private boolean includeOtherRepo;
 
         public Pattern getPattern() {
@@ -80,53 +128,83 @@ class OrderedRepositoryConfiguration {
         public int getIndex() {
             return index;
         }
+        /**
+         * @return the name of the rule in the configuration, like <code>regex.1</code>
+         */
+        public String getName() {
+            return name;
+        }
         public boolean isIncludeOtherRepo() {
             return includeOtherRepo;
         }
+        boolean matches(CharSequence gav) {
+            return pattern != null && pattern.matcher(gav).matches();
+        }
     }
 
     OrderedRepositoryConfiguration(String additionalConfigURL) {
-        this.additionalConfigURL = additionalConfigURL;
-        loadRules();
+        this(additionalConfigURL, loadProperties(additionalConfigURL));
     }
 
-    private void loadRules() {
-        Properties defaultProp = null;
-        try {
-            defaultProp = loadDefaultConfiguration();
-        } catch (IOException e) {
-            e.printStackTrace();
-            return;
-        }
-        Properties extraProp = null;
-        try {
-            extraProp = loadAdditionalConfig();
-        } catch (IOException e) {
-            e.printStackTrace();
-            return;
-        }
-        Properties props = mergeProperties(defaultProp, extraProp);
+    /**
+     * Compiles the rules from loaded properties, the default configuration merged with the additional one.
+     *
+     * The instance is immutable once built, so it can be swapped with a reloaded one while it is used. The rules are
+     * only reached from its final fields, so it is safely published to the threads of a parallel build without locking.
+     */
+    OrderedRepositoryConfiguration(String additionalConfigURL, Properties props) {
+        this.additionalConfigURL = additionalConfigURL;
+        String[] defaultRepos = null;
+        boolean includeReposDefault = false;
+        RepositoryPins pins = null;
+        boolean includePinsOthers = false;
+        List<OrderRule> orderRules = new ArrayList<OrderRule>(0);
+        Map<String, Integer> metadataLimits = new HashMap<String, Integer>();
+        Map<String, Set<String>> groups = new HashMap<String, Set<String>>();
+        Map<String, Map<String, String>> transfers = new HashMap<String, Map<String, String>>();
         if (props != null) {
-            String[] includeRepos = new String[0];
+            Set<String> includeRepos = Collections.emptySet();
             Map<String, OrderRule> rules = new HashMap<String, OrderRule>();
             for (Map.Entry<Object, Object> entry: props.entrySet()) {
                 String key = entry.getKey().toString().trim();
                 String value = entry.getValue().toString().trim();
                 if (key.equals(KEY_DEFAULT_REGEX_REPOS)) {
-                    defaultRepos = value.split(",");
+                    defaultRepos = repositoryIds(value);
                 } else if (key.equals(KEY_REPO_INCLUDED)) {
-                    includeRepos = value.split(",");
+                    includeRepos = new HashSet<String>();
+                    for (String included: value.split(",")) {
+                        includeRepos.add(included.trim());
+                    }
                     includeReposDefault = value.contains(REGEX_PREFIX + DEFAULT);
+                    includePinsOthers = includeRepos.contains(RepositoryPins.RULE);
+                } else if (key.startsWith(GROUP_PREFIX)) {
+                    groups.put(key.substring(GROUP_PREFIX.length()).trim().intern(),
+                            Collections.unmodifiableSet(new HashSet<String>(Arrays.asList(repositoryIds(value)))));
+                } else if (key.equals(KEY_PINS_URL)) {
+                    pins = value.isEmpty() ? null : loadPins(value);
+                } else if (key.startsWith(REGEX_PREFIX) && key.endsWith(DOT + KEY_METADATA_LIMIT)) {
+                    metadataLimits.put(key.substring(0, key.length() - KEY_METADATA_LIMIT.length() - 1),
+                            Integer.valueOf(value));
+                } else if (key.startsWith(REGEX_PREFIX) && key.contains(DOT + KEY_TRANSFER + DOT)) {
+                    int index = key.indexOf(DOT + KEY_TRANSFER + DOT);
+                    String rule = key.substring(0, index);
+                    Map<String, String> transfer = transfers.get(rule);
+                    if (transfer == null) {
+                        transfer = new HashMap<String, String>();
+                        transfers.put(rule, transfer);
+                    }
+                    transfer.put(key.substring(index + KEY_TRANSFER.length() + 2), value);
                 } else if (key.startsWith(REGEX_PREFIX) && !key.equals(KEY_DEFAULT_REGEX_REPOS)) {
                     Integer number = Integer.valueOf(key.split("\\.")[1]);
                     OrderRule regexConfig = rules.get(REGEX_PREFIX + number);
                     if (regexConfig == null) {
                         regexConfig = new OrderRule();
                         regexConfig.index = number;
+                        regexConfig.name = REGEX_PREFIX + number;
                         rules.put(REGEX_PREFIX + number, regexConfig);
                     }
                     if (key.endsWith(KEY_REPOS)) {
-                        regexConfig.repos = value.split(",");
+                        regexConfig.repos = repositoryIds(value);
                     } else if (key.endsWith(KEY_DESCRPTION)) {
                         regexConfig.description = value;
                     } else {
@@ -142,23 +220,74 @@ class OrderedRepositoryConfiguration {
                 }
             });
             for (OrderRule rule: orderRules) {
-                for (String ip: includeRepos) {
-                    if (ip.trim().equals(REGEX_PREFIX + rule.getIndex())) {
-                        rule.includeOtherRepo = true;
-                    }
-                }
+                rule.includeOtherRepo = includeRepos.contains(REGEX_PREFIX + rule.getIndex());
             }
         }
+        Map<String, TransferScheduler.Policy> transferPolicies = new HashMap<String, TransferScheduler.Policy>();
+        for (Map.Entry<String, Map<String, String>> transfer: transfers.entrySet()) {
+            transferPolicies.put(transfer.getKey(), TransferScheduler.Policy.parse(transfer.getValue()));
+        }
+        this.defaultRepos = defaultRepos;
+        this.includeReposDefault = includeReposDefault;
+        this.pins = pins;
+        this.includePinsOthers = includePinsOthers;
+        this.orderRules = Collections.unmodifiableList(orderRules);
+        this.metadataLimits = Collections.unmodifiableMap(metadataLimits);
+        this.groups = Collections.unmodifiableMap(groups);
+        this.transferPolicies = Collections.unmodifiableMap(transferPolicies);
+        this.ruleMatcher = new OrderRuleMatcher(orderRules);
     }
 
-    private void debug(String message) {
+    /**
+     * Loads the default configuration merged with the additional one.
+     *
+     * @return the properties, or null if they can't be loaded
+     */
+    static Properties loadProperties(String additionalConfigURL) {
+        Properties defaultProp = null;
+        try {
+            defaultProp = loadDefaultConfiguration();
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+        Properties extraProp = null;
+        try {
+            extraProp = loadAdditionalConfig(additionalConfigURL);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+        return mergeProperties(defaultProp, extraProp);
+    }
+
+    /**
+     * Merges the default configuration with additional properties loaded elsewhere.
+     */
+    static Properties withDefaults(Properties extraProp) throws IOException {
+        return mergeProperties(loadDefaultConfiguration(), extraProp);
+    }
+
+    /**
+     * Splits a comma separated list of repository ids, the ids are trimmed and interned once here, so ordering
+     * doesn't need to trim them again.
+     */
+    private static String[] repositoryIds(String value) {
+        String[] ids = value.split(",");
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = ids[i].trim().intern();
+        }
+        return ids;
+    }
+
+    private static void debug(String message) {
         if (Boolean.getBoolean(OrderedRepositorySystem.DEBUG)) {
             System.out.println("[DEBUG] " + message);
         }
     }
 
-    private Properties loadDefaultConfiguration() throws IOException {
-        try (InputStream in = getClass().getClassLoader().getResourceAsStream(DEFAULT_PROP_FILE)){
+    private static Properties loadDefaultConfiguration() throws IOException {
+        try (InputStream in = OrderedRepositoryConfiguration.class.getClassLoader().getResourceAsStream(DEFAULT_PROP_FILE)){
             if (in != null) {
                 Properties props = new Properties();
                 props.load(in);
@@ -169,10 +298,10 @@ class OrderedRepositoryConfiguration {
         }
     }
 
-    private Properties loadAdditionalConfig() throws IOException {
+    private static Properties loadAdditionalConfig(String additionalConfigURL) throws IOException {
         if (additionalConfigURL != null && additionalConfigURL.trim().length() > 0) {
             // try it in current classpath
-            try (InputStream in = getClass().getClassLoader().getResourceAsStream(additionalConfigURL.trim())){
+            try (InputStream in = OrderedRepositoryConfiguration.class.getClassLoader().getResourceAsStream(additionalConfigURL.trim())){
                 if (in != null) {
                     Properties props = new Properties();
                     props.load(in);
@@ -190,18 +319,152 @@ class OrderedRepositoryConfiguration {
                     return props;
                 }
             }
-            // try it as an URL
-            try (InputStream in = new URL(additionalConfigURL.trim()).openStream()){
-                Properties props = new Properties();
-                props.load(in);
+            // try it as an URL, or the copy kept from the last time it was loaded
+            String url = additionalConfigURL.trim();
+            byte[] content;
+            boolean fetched = false;
+            try {
+                content = read(openConnection(url));
+                fetched = true;
+            } catch (IOException e) {
+                File cached = cacheFile(url);
+                if (cached == null || !cached.isFile()) {
+                    throw e;
+                }
+                warn("Can't load configuration " + url + " (" + e + "), using the copy loaded at "
+                        + new Date(cached.lastModified()) + " from: " + cached);
+                content = Files.readAllBytes(cached.toPath());
+            }
+            Properties props = new Properties();
+            props.load(new ByteArrayInputStream(content));
+            if (fetched) {
                 debug("Loaded Additional Properties from URL: " + additionalConfigURL);
-                return props;
+                cache(url, content);
             }
+            return props;
         }
         return null;
     }
 
-    private Properties mergeProperties(Properties defaultProp, Properties extraProp) {
+    /**
+     * Opens a connection to a configuration URL, with the connect and read timeouts of
+     * <code>ordered.repository.extension.configure.timeout</code>.
+     */
+    static URLConnection openConnection(String url) throws IOException {
+        int timeoutMillis = Integer.getInteger(OrderedRepositorySystem.CONFIGURE_TIMEOUT, DEFAULT_TIMEOUT_SECONDS) * 1000;
+        URLConnection connection = new URL(url).openConnection();
+        connection.setConnectTimeout(timeoutMillis);
+        connection.setReadTimeout(timeoutMillis);
+        return connection;
+    }
+
+    static byte[] read(URLConnection connection) throws IOException {
+        try (InputStream in = connection.getInputStream()) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    /**
+     * Gets the file keeping the last configuration loaded from an URL, in the directory of
+     * <code>ordered.repository.extension.configure.cache</code>, or in <code>~/.m2/.ordered-repository/configuration</code>.
+     *
+     * @return the file, or null if there is no directory to keep it
+     */
+    static File cacheFile(String url) {
+        String dir = System.getProperty(OrderedRepositorySystem.CONFIGURE_CACHE);
+        if (dir == null) {
+            String home = System.getProperty("user.home");
+            if (home == null) {
+                return null;
+            }
+            dir = new File(home, DEFAULT_CACHE_DIR).getPath();
+        } else if (dir.trim().isEmpty()) {
+            return null;
+        }
+        long hash = NegativeLookupCache.hash(NegativeLookupCache.FNV_OFFSET, url);
+        return new File(dir, Long.toHexString(hash) + ".properties");
+    }
+
+    /**
+     * Keeps a configuration loaded from an URL, it is used when the URL can't be loaded.
+     */
+    static void cache(String url, byte[] content) {
+        File file = cacheFile(url);
+        if (file == null) {
+            return;
+        }
+        try {
+            file.getParentFile().mkdirs();
+            File tmp = File.createTempFile("configuration", ".tmp", file.getParentFile());
+            try {
+                Files.write(tmp.toPath(), content);
+                Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(tmp.toPath());
+            }
+        } catch (IOException e) {
+            warn("Can't keep configuration " + url + " in " + file + ": " + e.getMessage());
+        }
+    }
+
+    private static void warn(String message) {
+        System.err.println("[WARNING] " + message);
+    }
+
+    /**
+     * Loads the pins from the classpath, a local file or an URL, the pins of a local file or a <code>file:</code> URL
+     * may be in the binary form.
+     *
+     * @return the pins, or null if they can't be loaded
+     */
+    private static RepositoryPins loadPins(String url) {
+        long startNanos = System.nanoTime();
+        try {
+            RepositoryPins pins;
+            URL resource = OrderedRepositoryConfiguration.class.getClassLoader().getResource(url);
+            File file = localFile(url);
+            if (resource != null) {
+                try (InputStream in = resource.openStream()) {
+                    pins = RepositoryPins.read(in);
+                }
+            } else if (file.isFile()) {
+                pins = RepositoryPins.load(file);
+            } else {
+                try (InputStream in = openConnection(url).getInputStream()) {
+                    pins = RepositoryPins.read(in);
+                }
+            }
+            debug("Loaded " + pins.size() + " repository pins from " + url + " in "
+                    + (System.nanoTime() - startNanos) / 1000000 + " ms");
+            return pins;
+        } catch (IOException e) {
+            warn("Can't load repository pins " + url + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Gets the file of a local path or of a <code>file:</code> URL.
+     */
+    private static File localFile(String url) {
+        if (url.startsWith("file:")) {
+            try {
+                return new File(URI.create(url));
+            } catch (IllegalArgumentException e) {
+                // like file:pins.txt, relative to the current directory
+                return new File(url.substring("file:".length()));
+            }
+        }
+        return new File(url);
+    }
+
+    private static Properties mergeProperties(Properties defaultProp, Properties extraProp) {
         if (defaultProp != null && extraProp == null) {
             return defaultProp;
         }
@@ -229,6 +492,13 @@ class OrderedRepositoryConfiguration {
         return orderRules;
     }
 
+    /**
+     * @return the matcher built from all defined rules
+     */
+    OrderRuleMatcher getRuleMatcher() {
+        return ruleMatcher;
+    }
+
     /**
      * Gets default repository order if no pattern is matched for the G:A:V
      */
@@ -236,6 +506,67 @@ class OrderedRepositoryConfiguration {
         return defaultRepos;
     }
 
+    /**
+     * Gets how many repositories are asked for the metadata of an artifact ordered by a rule, set by
+     * <code>regex.N.metadata.limit</code> or <code>regex.default.metadata.limit</code>.
+     *
+     * @param rule the rule name, like <code>regex.1</code>
+     * @return the limit, or 0 if there is none
+     */
+    int getMetadataLimit(String rule) {
+        Integer limit = rule != null ? metadataLimits.get(rule) : null;
+        return limit != null ? limit : 0;
+    }
+
+    /**
+     * Gets how the downloads of the artifacts ordered by a rule are scheduled, set by
+     * <code>regex.N.transfer.concurrency</code>, <code>regex.N.transfer.bandwidth</code> and
+     * <code>regex.N.transfer.priority</code>.
+     *
+     * @param rule the rule name, like <code>regex.1</code>
+     * @return the policy, or null if there is none
+     */
+    TransferScheduler.Policy getTransferPolicy(String rule) {
+        return rule != null ? transferPolicies.get(rule) : null;
+    }
+
+    /**
+     * @return whether some rules have a transfer policy
+     */
+    boolean hasTransferPolicies() {
+        return !transferPolicies.isEmpty();
+    }
+
+    /**
+     * Gets the repositories aggregated by a repository, set by <code>group.&lt;id&gt;</code>.
+     *
+     * @return the ids of the aggregated repositories, or null if the repository is not a group
+     */
+    Set<String> getGroupMembers(String repositoryId) {
+        return groups.get(repositoryId);
+    }
+
+    /**
+     * @return whether some repositories are declared as groups
+     */
+    boolean hasGroups() {
+        return !groups.isEmpty();
+    }
+
+    /**
+     * @return the exact 'G:A' and 'G:A:V' pins, or null if there are none
+     */
+    RepositoryPins getPins() {
+        return pins;
+    }
+
+    /**
+     * @return whether other repos are included after the pinned ones
+     */
+    boolean isPinsIncludeOthers() {
+        return includePinsOthers;
+    }
+
     /**
      * @return whether includes other repos by default
      */
@@ -0,0 +1,49 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright @year, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.maven.extensions.repository;
+
+import java.io.File;
+
+import org.apache.maven.AbstractMavenLifecycleParticipant;
+import org.apache.maven.MavenExecutionException;
+import org.apache.maven.execution.MavenSession;
+import org.codehaus.plexus.component.annotations.Component;
+import org.codehaus.plexus.component.annotations.Requirement;
+import org.eclipse.aether.RepositorySystem;
+
+/**
+ * Notifies the {@link OrderedRepositorySystem} when the Maven session ends.
+ *
+ * @author <a href="mailto:lgao@redhat.com">Lin Gao</a>
+ *
+ */
+@Component(role = AbstractMavenLifecycleParticipant.class, hint = "ordered-repository")
+public class OrderedRepositoryLifecycleParticipant extends AbstractMavenLifecycleParticipant {
+
+    @Requirement
+    private RepositorySystem repositorySystem;
+
+    @Override
+    public void afterSessionEnd(MavenSession session) throws MavenExecutionException {
+        if (repositorySystem instanceof OrderedRepositorySystem) {
+            String rootDirectory = session.getExecutionRootDirectory();
+            ((OrderedRepositorySystem) repositorySystem).sessionEnded(rootDirectory != null ? new File(rootDirectory) : null);
+        }
+    }
+
+}
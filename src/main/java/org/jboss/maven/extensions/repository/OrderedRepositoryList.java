@@ -0,0 +1,90 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright @year, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.maven.extensions.repository;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+
+import org.eclipse.aether.repository.RemoteRepository;
+
+/**
+ * Immutable ordered repositories, the first {@link #getConfiguredCount()} ones are listed in the matched rule (or the
+ * default repos), the rest are the other candidates appended when the rule includes other repos.
+ *
+ * @author <a href="mailto:lgao@redhat.com">Lin Gao</a>
+ *
+ */
+final class OrderedRepositoryList extends AbstractList<RemoteRepository> implements RandomAccess {
+
+    private final RemoteRepository[] repos;
+    private final int configuredCount;
+    private final String rule;
+
+    OrderedRepositoryList(List<RemoteRepository> repos, int configuredCount) {
+        this(repos, configuredCount, null);
+    }
+
+    OrderedRepositoryList(List<RemoteRepository> repos, int configuredCount, String rule) {
+        this(repos.toArray(new RemoteRepository[repos.size()]), configuredCount, rule);
+    }
+
+    /**
+     * The array is not copied, it must not be changed afterwards.
+     */
+    OrderedRepositoryList(RemoteRepository[] repos, int configuredCount, String rule) {
+        this.repos = repos;
+        this.configuredCount = Math.min(configuredCount, repos.length);
+        this.rule = rule;
+    }
+
+    /**
+     * Gets how many repositories at the head of the list come from the configuration.
+     */
+    int getConfiguredCount() {
+        return configuredCount;
+    }
+
+    /**
+     * Gets the name of the rule which ordered the repositories, like <code>regex.1</code> or
+     * <code>regex.default</code>.
+     *
+     * @return the rule name, or null if not known
+     */
+    String getRule() {
+        return rule;
+    }
+
+    /**
+     * Gets the rule name of a repository list returned by the ordering, null for other lists.
+     */
+    static String ruleOf(List<RemoteRepository> repos) {
+        return repos instanceof OrderedRepositoryList ? ((OrderedRepositoryList) repos).getRule() : null;
+    }
+
+    @Override
+    public RemoteRepository get(int index) {
+        return repos[index];
+    }
+
+    @Override
+    public int size() {
+        return repos.length;
+    }
+
+}
@@ -17,20 +17,30 @@
 
 package org.jboss.maven.extensions.repository;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.regex.Pattern;
 
 import javax.inject.Inject;
+import javax.management.JMException;
 
 import org.codehaus.plexus.component.annotations.Component;
 import org.eclipse.aether.RepositorySystem;
 import org.eclipse.aether.RepositorySystemSession;
+import org.eclipse.aether.RequestTrace;
 import org.eclipse.aether.artifact.Artifact;
 import org.eclipse.aether.collection.CollectRequest;
 import org.eclipse.aether.collection.CollectResult;
 import org.eclipse.aether.collection.DependencyCollectionException;
-import org.eclipse.aether.graph.Dependency;
 import org.eclipse.aether.impl.ArtifactDescriptorReader;
 import org.eclipse.aether.impl.ArtifactResolver;
 import org.eclipse.aether.impl.DependencyCollector;
@@ -43,6 +53,7 @@ import org.eclipse.aether.impl.SyncContextFactory;
 import org.eclipse.aether.impl.VersionRangeResolver;
 import org.eclipse.aether.impl.VersionResolver;
 import org.eclipse.aether.internal.impl.DefaultRepositorySystem;
+import org.eclipse.aether.repository.LocalArtifactRequest;
 import org.eclipse.aether.repository.RemoteRepository;
 import org.eclipse.aether.resolution.ArtifactDescriptorException;
 import org.eclipse.aether.resolution.ArtifactDescriptorRequest;
@@ -59,8 +70,11 @@ import org.eclipse.aether.resolution.VersionRangeResult;
 import org.eclipse.aether.resolution.VersionRequest;
 import org.eclipse.aether.resolution.VersionResolutionException;
 import org.eclipse.aether.resolution.VersionResult;
+import org.eclipse.aether.spi.log.Logger;
 import org.eclipse.aether.spi.log.LoggerFactory;
-import org.jboss.maven.extensions.repository.OrderedRepositoryConfiguration.OrderRule;
+import org.eclipse.aether.spi.log.NullLoggerFactory;
+import org.eclipse.aether.transfer.ArtifactNotFoundException;
+import org.eclipse.aether.transfer.ArtifactTransferException;
 
 /**
  * @author <a href="mailto:lgao@redhat.com">Lin Gao</a>
@@ -71,20 +85,175 @@ public class OrderedRepositorySystem extends DefaultRepositorySystem {
 
     private static final String REPO_EXTENSTION_ENABLED = "ordered.repository.extension.enabled";
     private static final String ADDITIONAL_PROP_URL = "ordered.repository.extension.configure.url";
+    static final String CONFIGURE_RELOAD = "ordered.repository.extension.configure.reload";
+    static final String CONFIGURE_REFRESH = "ordered.repository.extension.configure.refresh";
+    static final String CONFIGURE_TIMEOUT = "ordered.repository.extension.configure.timeout";
+    static final String CONFIGURE_CACHE = "ordered.repository.extension.configure.cache";
 
     static final String DEBUG = "ordered.repository.extension.debug";
     static final String TRACE = "ordered.repository.extension.trace";
+    static final String TRACE_SIZE = "ordered.repository.extension.trace.size";
+    static final String TRACE_SAMPLE = "ordered.repository.extension.trace.sample";
+    static final String TRACE_FILTER = "ordered.repository.extension.trace.filter";
+    static final String TRACE_FILE = "ordered.repository.extension.trace.file";
+    static final String CACHE_SIZE = "ordered.repository.extension.cache.size";
+    static final String NEGATIVE_CACHE = "ordered.repository.extension.negative.cache";
+    static final String NEGATIVE_CACHE_TTL = "ordered.repository.extension.negative.cache.ttl";
+    static final String NEGATIVE_CACHE_MODE = "ordered.repository.extension.negative.cache.mode";
+    static final String LOCATION_INDEX = "ordered.repository.extension.location.index";
+    static final String LOCATION_INDEX_SIZE = "ordered.repository.extension.location.index.size";
+    static final String CIRCUIT_BREAKER = "ordered.repository.extension.circuit.breaker";
+    static final String CIRCUIT_BREAKER_THRESHOLD = "ordered.repository.extension.circuit.breaker.threshold";
+    static final String CIRCUIT_BREAKER_OPEN = "ordered.repository.extension.circuit.breaker.open";
+    static final String CIRCUIT_BREAKER_SHARED = "ordered.repository.extension.circuit.breaker.shared";
+    static final String GROUPS = "ordered.repository.extension.groups";
+    static final String GROUPS_FAILURE = "ordered.repository.extension.groups.failure";
+    static final String ADAPTIVE = "ordered.repository.extension.adaptive";
+    static final String ADAPTIVE_DECAY = "ordered.repository.extension.adaptive.decay";
+    static final String PARALLEL = "ordered.repository.extension.parallel";
+    static final String PARALLEL_THREADS = "ordered.repository.extension.parallel.threads";
+    static final String PARALLEL_REPOSITORY_LIMIT = "ordered.repository.extension.parallel.repository.limit";
+    static final String HEDGE = "ordered.repository.extension.hedge";
+    static final String HEDGE_PERCENTILE = "ordered.repository.extension.hedge.percentile";
+    static final String HEDGE_BUDGET = "ordered.repository.extension.hedge.budget";
+    static final String HEDGE_THREADS = "ordered.repository.extension.hedge.threads";
+    static final String METADATA_PARALLEL = "ordered.repository.extension.metadata.parallel";
+    static final String METADATA_THREADS = "ordered.repository.extension.metadata.threads";
+    static final String PREFETCH = "ordered.repository.extension.prefetch";
+    static final String PREFETCH_THREADS = "ordered.repository.extension.prefetch.threads";
+    static final String PREFETCH_QUEUE = "ordered.repository.extension.prefetch.queue";
+    static final String RESULT_CACHE = "ordered.repository.extension.result.cache";
+    static final String PLAN = "ordered.repository.extension.plan";
+    static final String PLAN_FILE = "ordered.repository.extension.plan.file";
+    static final String METRICS = "ordered.repository.extension.metrics";
+    static final String METRICS_FILE = "ordered.repository.extension.metrics.file";
+    static final String METRICS_JMX = "ordered.repository.extension.metrics.jmx";
+
+    private static final String DEFAULT_METRICS_FILE = "target/ordered-repository-metrics.json";
+    private static final String DEFAULT_TRACE_FILE = "target/ordered-repository-trace.log";
+    private static final String DEFAULT_PLAN_FILE = "ordered-repository.plan";
+
+    private static final String PLAN_RECORD = "record";
+    private static final String PLAN_REPLAY = "replay";
 
     private static final String REPO_EXTENSTION_ENABLED_MESSAGE = "Ordered Maven Repository Extenstion is loaded.";
     
-    private boolean enabled = Boolean.getBoolean(REPO_EXTENSTION_ENABLED);
-    private boolean trace = Boolean.getBoolean(TRACE);
-    private boolean debug = Boolean.getBoolean(DEBUG) || trace;
+    private final boolean enabled = Boolean.getBoolean(REPO_EXTENSTION_ENABLED);
+    private final boolean debug = enabled && Boolean.getBoolean(DEBUG);
+
+    /**
+     * Writes the debug output, and the ordering decisions in trace mode.
+     */
+    private final Logger logger;
+
+    /**
+     * Records the ordering decisions in trace mode.
+     */
+    private final OrderingTrace tracer;
+
+    /**
+     * The configuration in use, it is immutable and replaced as a whole when it is reloaded.
+     */
+    private final AtomicReference<OrderedRepositoryConfiguration> config = new AtomicReference<OrderedRepositoryConfiguration>();
+
+    /**
+     * Loads the configuration in the background while Maven reads the projects, the first ordering waits for it.
+     */
+    private final FutureTask<OrderedRepositoryConfiguration> configLoader;
+
+    /**
+     * Reloads the configuration when it changes in reload mode, it is closed at the end of the session and started
+     * again by the next session of a long running Maven.
+     */
+    private volatile ConfigurationWatcher configurationWatcher;
+
+    private final OrderedRepositoryCache cache = new OrderedRepositoryCache(
+            Integer.getInteger(CACHE_SIZE, OrderedRepositoryCache.DEFAULT_MAX_SIZE));
+
+    private final RepositoryOrderer orderer = new RepositoryOrderer();
+
+    private final NegativeLookupCache negativeCache = enabled && Boolean.getBoolean(NEGATIVE_CACHE)
+            ? new NegativeLookupCache(Long.getLong(NEGATIVE_CACHE_TTL, NegativeLookupCache.DEFAULT_TTL_SECONDS),
+                    NegativeLookupCache.Mode.valueOf(System.getProperty(NEGATIVE_CACHE_MODE, "demote").trim().toUpperCase()))
+            : null;
+
+    private final LocationIndex locationIndex = enabled && Boolean.getBoolean(LOCATION_INDEX)
+            ? new LocationIndex(Integer.getInteger(LOCATION_INDEX_SIZE, LocationIndex.DEFAULT_MAX_SIZE))
+            : null;
+
+    private final RepositoryCircuitBreaker circuitBreaker = enabled && Boolean.getBoolean(CIRCUIT_BREAKER)
+            ? new RepositoryCircuitBreaker(
+                    Integer.getInteger(CIRCUIT_BREAKER_THRESHOLD, RepositoryCircuitBreaker.DEFAULT_THRESHOLD),
+                    Long.getLong(CIRCUIT_BREAKER_OPEN, RepositoryCircuitBreaker.DEFAULT_OPEN_SECONDS) * 1000,
+                    Boolean.getBoolean(CIRCUIT_BREAKER_SHARED))
+            : null;
+
+    private final RepositoryGroups repositoryGroups = enabled && Boolean.getBoolean(GROUPS)
+            ? new RepositoryGroups(Long.getLong(GROUPS_FAILURE, RepositoryGroups.DEFAULT_FAILURE_SECONDS) * 1000)
+            : null;
+
+    private final RepositoryScores scores = enabled && Boolean.getBoolean(ADAPTIVE)
+            ? new RepositoryScores(Double.parseDouble(
+                    System.getProperty(ADAPTIVE_DECAY, String.valueOf(RepositoryScores.DEFAULT_DECAY))))
+            : null;
+
+    private final ParallelArtifactResolver parallelResolver = enabled && Boolean.getBoolean(PARALLEL)
+            ? new ParallelArtifactResolver(Integer.getInteger(PARALLEL_THREADS, ParallelArtifactResolver.DEFAULT_THREADS),
+                    Integer.getInteger(PARALLEL_REPOSITORY_LIMIT, ParallelArtifactResolver.DEFAULT_REPOSITORY_LIMIT))
+            : null;
 
-    private OrderedRepositoryConfiguration config = null;
+    private final HedgedArtifactResolver hedgedResolver = enabled && Boolean.getBoolean(HEDGE)
+            ? new HedgedArtifactResolver(
+                    Double.parseDouble(System.getProperty(HEDGE_PERCENTILE, String.valueOf(HedgedArtifactResolver.DEFAULT_PERCENTILE))),
+                    Double.parseDouble(System.getProperty(HEDGE_BUDGET, String.valueOf(HedgedArtifactResolver.DEFAULT_BUDGET_PERCENT))),
+                    Integer.getInteger(HEDGE_THREADS, HedgedArtifactResolver.DEFAULT_THREADS))
+            : null;
+
+    private final ParallelVersionRangeResolver versionRangeResolver = enabled && Boolean.getBoolean(METADATA_PARALLEL)
+            ? new ParallelVersionRangeResolver(Integer.getInteger(METADATA_THREADS, ParallelVersionRangeResolver.DEFAULT_THREADS))
+            : null;
+
+    private final DescriptorPrefetcher prefetcher = enabled && Boolean.getBoolean(PREFETCH)
+            ? new DescriptorPrefetcher(Integer.getInteger(PREFETCH_THREADS, DescriptorPrefetcher.DEFAULT_THREADS),
+                    Integer.getInteger(PREFETCH_QUEUE, DescriptorPrefetcher.DEFAULT_QUEUE_SIZE))
+            : null;
+
+    /**
+     * Schedules the downloads of the rules having a transfer policy.
+     */
+    private final TransferScheduler transferScheduler = enabled ? new TransferScheduler(new TransferScheduler.Policies() {
+        @Override
+        public TransferScheduler.Policy get(String rule) {
+            OrderedRepositoryConfiguration current = configuration();
+            return current != null ? current.getTransferPolicy(rule) : null;
+        }
+    }) : null;
+
+    private final ResolutionResultCache resultCache = enabled && Boolean.getBoolean(RESULT_CACHE)
+            ? new ResolutionResultCache() : null;
+
+    /**
+     * Records the repository each artifact is resolved from in plan record mode.
+     */
+    private final ResolutionPlan.Recorder planRecorder = enabled && PLAN_RECORD.equals(System.getProperty(PLAN))
+            ? newPlanRecorder() : null;
+
+    /**
+     * Resolves each artifact from its recorded repository in plan replay mode.
+     */
+    private final ResolutionPlan plan = enabled && PLAN_REPLAY.equals(System.getProperty(PLAN)) ? loadPlan() : null;
+
+    private final RemoteRepositoryManager remoteRepositoryManager;
+
+    private final ResolutionMetrics metrics = enabled && (Boolean.getBoolean(METRICS) || Boolean.getBoolean(METRICS_JMX))
+            ? new ResolutionMetrics() : null;
 
     public OrderedRepositorySystem(){
         // default constructor.
+        this.logger = NullLoggerFactory.LOGGER;
+        this.tracer = enabled && Boolean.getBoolean(TRACE) ? newTrace(null) : null;
+        this.configLoader = null;
+        this.remoteRepositoryManager = null;
     }
 
     @Inject
@@ -94,6 +263,7 @@ public class OrderedRepositorySystem extends DefaultRepositorySystem {
             Deployer deployer, LocalRepositoryProvider localRepositoryProvider, SyncContextFactory syncContextFactory,
             RemoteRepositoryManager remoteRepositoryManager, LoggerFactory loggerFactory) {
         super();
+        this.logger = NullLoggerFactory.getSafeLogger(loggerFactory, OrderedRepositorySystem.class);
         setVersionResolver(versionResolver);
         setVersionRangeResolver(versionRangeResolver);
         setArtifactResolver(artifactResolver);
@@ -105,90 +275,513 @@ public class OrderedRepositorySystem extends DefaultRepositorySystem {
         setLocalRepositoryProvider(localRepositoryProvider);
         setSyncContextFactory(syncContextFactory);
         setRemoteRepositoryManager(remoteRepositoryManager);
+        this.remoteRepositoryManager = remoteRepositoryManager;
         setLoggerFactory(loggerFactory);
+        this.tracer = enabled && Boolean.getBoolean(TRACE) ? newTrace(logger) : null;
         logLoadedMessage();
+        this.configLoader = enabled ? loadConfiguration(System.getProperty(ADDITIONAL_PROP_URL)) : null;
         if (enabled) {
-            config = new OrderedRepositoryConfiguration(System.getProperty(ADDITIONAL_PROP_URL));
+            // each node of the graph gets its own order, instead of the order of one of the root dependencies
+            setDependencyCollector(new OrderingDependencyCollector(this, remoteRepositoryManager, loggerFactory));
+            if (metrics != null && Boolean.getBoolean(METRICS_JMX)) {
+                try {
+                    metrics.register();
+                } catch (JMException e) {
+                    error("Failed to register the resolution metrics MBean: " + e.getMessage());
+                }
+            }
         }
     }
 
-    private void logLoadedMessage() {
-        if (enabled) {
-            info(REPO_EXTENSTION_ENABLED_MESSAGE);
+    private static File planFile() {
+        return new File(System.getProperty(PLAN_FILE, DEFAULT_PLAN_FILE)).getAbsoluteFile();
+    }
+
+    private ResolutionPlan.Recorder newPlanRecorder() {
+        try {
+            return new ResolutionPlan.Recorder(planFile());
+        } catch (IOException e) {
+            error("Failed to record the resolution plan: " + e.getMessage());
+            return null;
         }
     }
 
-    private void debug(String message) {
-        if (debug) {
-            System.out.println("[DEBUG] " + message);
+    private ResolutionPlan loadPlan() {
+        File file = planFile();
+        if (!file.isFile()) {
+            info("No resolution plan " + file + ", the repositories are ordered by the rules");
+            return null;
+        }
+        try {
+            ResolutionPlan loaded = ResolutionPlan.load(file);
+            info("Replaying the resolution plan of " + loaded.size() + " artifacts from " + file);
+            return loaded;
+        } catch (IOException e) {
+            error("Failed to load the resolution plan: " + e.getMessage());
+            return null;
         }
     }
 
-    private void info(String message) {
-        System.out.println("[INFO] " + message);
+    private static OrderingTrace newTrace(Logger logger) {
+        String filter = System.getProperty(TRACE_FILTER);
+        return new OrderingTrace(Integer.getInteger(TRACE_SIZE, OrderingTrace.DEFAULT_SIZE),
+                Integer.getInteger(TRACE_SAMPLE, 1), filter != null ? Pattern.compile(filter.trim()) : null, logger);
     }
 
-    private void error(String message) {
-        System.err.println("[ERROR] " + message);
+    /**
+     * Sets the configuration used to order the repositories, previously ordered lists are dropped, and the transfer
+     * limits of the previous policies are lifted.
+     */
+    void configure(OrderedRepositoryConfiguration config) {
+        this.config.set(config);
+        cache.invalidate();
+        if (transferScheduler != null) {
+            transferScheduler.reset();
+        }
     }
 
-    private List<RemoteRepository> getOrderedRemoteRepositories(Artifact artifact, List<RemoteRepository> candidates) {
-        String gav = artifact.getGroupId() + ":" + artifact.getArtifactId() + ":" + artifact.getVersion();
-        List<RemoteRepository> repos = new ArrayList<RemoteRepository>();
-        boolean matched = false;
-        for (OrderRule rule: config.getOrderedRules()) {
-            if (rule.getPattern().matcher(gav).matches()) {
-                matched = true;
-                // find matches, added repos in order of defined in rule.repos, then if include others, add left repos
-                for (String repoId: rule.getRepos()) {
-                    for (RemoteRepository repo: candidates) {
-                        if (repoId.trim().equals(repo.getId().trim())) {
-                            if (!repos.contains(repo)) {
-                                repos.add(repo);
-                            }
-                        }
-                    }
+    /**
+     * Starts loading the configuration on a daemon thread, a configuration set meanwhile by {@link #configure} is
+     * kept.
+     */
+    private FutureTask<OrderedRepositoryConfiguration> loadConfiguration(final String configURL) {
+        FutureTask<OrderedRepositoryConfiguration> configLoader = new FutureTask<OrderedRepositoryConfiguration>(new Callable<OrderedRepositoryConfiguration>() {
+            @Override
+            public OrderedRepositoryConfiguration call() {
+                long startNanos = System.nanoTime();
+                Properties props = OrderedRepositoryConfiguration.loadProperties(configURL);
+                OrderedRepositoryConfiguration loaded = new OrderedRepositoryConfiguration(configURL, props);
+                if (config.compareAndSet(null, loaded)) {
+                    cache.invalidate();
                 }
-                if (rule.isIncludeOtherRepo()) {
-                    //add other repos back
-                    for (RemoteRepository repo: candidates) {
-                        if (!repos.contains(repo)) {
-                            repos.add(repo);
-                        }
-                    }
+                debug("Loaded repository order configuration in " + (System.nanoTime() - startNanos) / 1000000 + " ms");
+                if (configURL != null && configURL.trim().length() > 0 && Boolean.getBoolean(CONFIGURE_RELOAD)) {
+                    watchConfiguration(configURL, props);
                 }
-                break;
+                return loaded;
             }
+        });
+        Thread loader = new Thread(configLoader, "ordered-repository-configuration-loader");
+        loader.setDaemon(true);
+        loader.start();
+        return configLoader;
+    }
+
+    /**
+     * Gets the configuration in use, waiting for it to be loaded.
+     */
+    private OrderedRepositoryConfiguration configuration() {
+        OrderedRepositoryConfiguration current = config.get();
+        if (current == null && configLoader != null) {
+            try {
+                configLoader.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while loading the repository order configuration", e);
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Failed to load the repository order configuration", e.getCause());
+            }
+            current = config.get();
         }
-        if (!matched) {// try default repo orders
-            for (String repoId: config.getDefaultRepos()) {
-                for (RemoteRepository repo: candidates) {
-                    if (repoId.trim().equals(repo.getId().trim())) {
-                        if (!repos.contains(repo)) {
-                            repos.add(repo);
-                        }
+        return current;
+    }
+
+    private synchronized void watchConfiguration(final String configURL, Properties props) {
+        long refreshMillis = Long.getLong(CONFIGURE_REFRESH, ConfigurationWatcher.DEFAULT_REFRESH_SECONDS) * 1000;
+        configurationWatcher = new ConfigurationWatcher(configURL, props, refreshMillis,
+                new ConfigurationWatcher.Listener() {
+                    @Override
+                    public void reloaded(OrderedRepositoryConfiguration newConfig) {
+                        configure(newConfig);
+                        info("Reloaded repository order configuration from: " + configURL);
+                    }
+                });
+        try {
+            if (configurationWatcher.start()) {
+                debug("Watching repository order configuration: " + configURL);
+            }
+        } catch (IOException e) {
+            error("Failed to watch configuration " + configURL + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Called at the end of the Maven session.
+     *
+     * @param rootDirectory the directory the build was started from, the metrics are written in its target directory
+     */
+    void sessionEnded(File rootDirectory) {
+        if (enabled) {
+            if (prefetcher != null) {
+                prefetcher.cancel();
+                debug("Prefetched descriptors: " + prefetcher.getFetched() + ", failed: " + prefetcher.getFailed());
+            }
+            if (metrics != null && !metrics.isEmpty()) {
+                for (String line: metrics.getSummary().split("\n")) {
+                    info(line);
+                }
+                String metricsFile = System.getProperty(METRICS_FILE);
+                File file = metricsFile != null ? new File(metricsFile)
+                        : rootDirectory != null ? new File(rootDirectory, DEFAULT_METRICS_FILE) : null;
+                if (file != null) {
+                    try {
+                        metrics.write(file);
+                        info("Resolution metrics are written to " + file);
+                    } catch (IOException e) {
+                        error("Failed to write resolution metrics: " + e.getMessage());
                     }
                 }
             }
-            if (config.isReposIncludedByDefault()) {
-                //add other repos back
-                for (RemoteRepository repo: candidates) {
-                    if (!repos.contains(repo)) {
-                        repos.add(repo);
+            debug("Ordered repositories cache: " + cache);
+            if (resultCache != null) {
+                debug("Resolution result cache: " + resultCache);
+            }
+            if (tracer != null) {
+                String traceFile = System.getProperty(TRACE_FILE);
+                File file = traceFile != null ? new File(traceFile)
+                        : rootDirectory != null ? new File(rootDirectory, DEFAULT_TRACE_FILE) : null;
+                if (file != null) {
+                    try {
+                        tracer.dump(file);
+                        info("Ordering trace (" + tracer + ") is written to " + file);
+                    } catch (IOException e) {
+                        error("Failed to write ordering trace: " + e.getMessage());
                     }
                 }
             }
+            if (circuitBreaker != null) {
+                debug("Circuit breaker: " + circuitBreaker);
+            }
+            if (repositoryGroups != null) {
+                debug("Repository groups: " + repositoryGroups);
+            }
+            if (planRecorder != null) {
+                try {
+                    planRecorder.close();
+                    info("Resolution plan of " + planRecorder.size() + " artifacts is written to "
+                            + planRecorder.getFile());
+                } catch (IOException e) {
+                    error("Failed to write the resolution plan: " + e.getMessage());
+                }
+            }
+            if (plan != null) {
+                debug("Resolution plan: " + plan);
+            }
+            if (hedgedResolver != null) {
+                debug("Hedged requests: " + hedgedResolver);
+            }
+            if (transferScheduler != null && transferScheduler.getScheduled() > 0) {
+                debug("Scheduled transfers: " + transferScheduler);
+            }
+            if (versionRangeResolver != null) {
+                debug("Version range metadata: " + versionRangeResolver);
+                versionRangeResolver.clear();
+            }
+            if (negativeCache != null) {
+                debug("Negative lookup cache size: " + negativeCache.size());
+                try {
+                    negativeCache.save();
+                } catch (IOException e) {
+                    error("Failed to save negative lookup cache: " + e.getMessage());
+                }
+            }
+            if (locationIndex != null) {
+                debug("Location index size: " + locationIndex.size());
+                try {
+                    locationIndex.save();
+                } catch (IOException e) {
+                    error("Failed to save location index: " + e.getMessage());
+                }
+            }
+            if (scores != null) {
+                debug("Repository scores: " + scores);
+                try {
+                    scores.save();
+                } catch (IOException e) {
+                    error("Failed to save repository scores: " + e.getMessage());
+                }
+            }
+            ConfigurationWatcher watcher = configurationWatcher;
+            if (watcher != null) {
+                try {
+                    watcher.close();
+                } catch (IOException e) {
+                    error("Failed to stop watching configuration: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Watches the configuration again when a previous session closed the watcher.
+     */
+    private synchronized void rewatchConfiguration(ConfigurationWatcher closed) {
+        if (configurationWatcher == closed) {
+            watchConfiguration(closed.getUrl(), closed.getProperties());
+        }
+    }
+
+    /**
+     * Loads the persisted state kept in the local repository of the session, if not loaded yet, and watches the
+     * configuration again for a new session.
+     */
+    private void open(RepositorySystemSession session) {
+        ConfigurationWatcher watcher = configurationWatcher;
+        if (watcher != null && watcher.isClosed()) {
+            rewatchConfiguration(watcher);
+        }
+        if (session.getLocalRepository() == null) {
+            return;
+        }
+        if (negativeCache != null) {
+            negativeCache.open(session.getLocalRepository().getBasedir());
+        }
+        if (locationIndex != null) {
+            locationIndex.open(session.getLocalRepository().getBasedir());
+        }
+        if (scores != null) {
+            scores.open(session.getLocalRepository().getBasedir());
+        }
+        if (circuitBreaker != null) {
+            circuitBreaker.open(session.getLocalRepository().getBasedir());
+        }
+        if (repositoryGroups != null) {
+            repositoryGroups.open(session);
+        }
+    }
+
+    /**
+     * Learns from the repositories which failed to serve an artifact.
+     */
+    private void recordFailures(List<Exception> exceptions) {
+        if (exceptions.isEmpty()) {
+            return;
+        }
+        if (negativeCache != null) {
+            negativeCache.record(exceptions);
+        }
+        if (scores != null || metrics != null || circuitBreaker != null || repositoryGroups != null) {
+            for (ArtifactTransferException failure: TransferFailures.collect(exceptions)) {
+                if (failure.getRepository() == null) {
+                    continue;
+                }
+                if (scores != null && !(failure instanceof ArtifactNotFoundException)) {
+                    scores.failure(failure.getRepository());
+                }
+                if (circuitBreaker != null && !(failure instanceof ArtifactNotFoundException)) {
+                    circuitBreaker.failure(failure.getRepository());
+                }
+                if (repositoryGroups != null && !(failure instanceof ArtifactNotFoundException)) {
+                    repositoryGroups.failure(failure.getRepository());
+                }
+                if (metrics != null) {
+                    metrics.repositoryMiss(failure.getRepository().getId(), failure instanceof ArtifactNotFoundException);
+                }
+            }
+        }
+    }
+
+    /**
+     * Learns from the artifact results of a resolution.
+     *
+     * An artifact downloaded by the resolution has a transfer in the <code>timer</code> of the resolution, the scores
+     * and the metrics of the repository are charged the time and the bytes of that transfer only. Otherwise it was
+     * already in the local repository, and only counts as a success of the repository it came from. The rule ordering
+     * an artifact is charged the time of all the transfers of the artifact, the misses included.
+     */
+    private void recordResults(List<ArtifactResult> results, TransferTimer timer) {
+        for (ArtifactResult result: results) {
+            recordFailures(result.getExceptions());
+            if (circuitBreaker != null) {
+                circuitBreaker.reached(result.getRequest().getRepositories(), result.getRepository(),
+                        result.getExceptions());
+            }
+        }
+        if (scores == null && metrics == null && locationIndex == null && circuitBreaker == null
+                && planRecorder == null) {
+            return;
+        }
+        for (ArtifactResult result: results) {
+            File file = result.getArtifact() != null ? result.getArtifact().getFile() : null;
+            TransferTimer.Transfer transfer = timer != null ? timer.get(file) : null;
+            if (result.getRepository() instanceof RemoteRepository) {
+                RemoteRepository repository = (RemoteRepository) result.getRepository();
+                if (locationIndex != null) {
+                    locationIndex.record(result.getArtifact(), repository);
+                }
+                if (planRecorder != null) {
+                    planRecorder.record(result.getArtifact(), repository);
+                }
+                if (circuitBreaker != null) {
+                    circuitBreaker.success(repository);
+                }
+                if (scores != null) {
+                    scores.success(repository, transfer != null ? transfer.micros / 1000 : -1);
+                }
+                if (metrics != null) {
+                    metrics.repositoryHit(repository.getId(), transfer != null ? transfer.bytes : 0,
+                            transfer != null ? transfer.micros : -1);
+                }
+            }
+            if (metrics != null) {
+                metrics.rule(OrderedRepositoryList.ruleOf(result.getRequest().getRepositories()), result.isResolved(),
+                        transfer != null ? transfer.bytes : 0, timer != null ? timer.getSpentMicros(file) : -1);
+            }
+        }
+    }
+
+    /**
+     * Records a call of a repository system operation which started at <code>startNanos</code>.
+     */
+    private void recordOperation(String operation, boolean success, long startNanos) {
+        if (metrics != null) {
+            metrics.operation(operation, success, (System.nanoTime() - startNanos) / 1000);
+        }
+    }
+
+    OrderedRepositoryCache getCache() {
+        return cache;
+    }
+
+    RepositoryScores getScores() {
+        return scores;
+    }
+
+    ResolutionMetrics getMetrics() {
+        return metrics;
+    }
+
+    HedgedArtifactResolver getHedgedResolver() {
+        return hedgedResolver;
+    }
+
+    TransferScheduler getTransferScheduler() {
+        return transferScheduler;
+    }
+
+    private void logLoadedMessage() {
+        if (enabled) {
+            info(REPO_EXTENSTION_ENABLED_MESSAGE);
+        }
+    }
+
+    /**
+     * @return whether the debug output is enabled, it is written by the Maven logger at debug level
+     */
+    private boolean isDebugEnabled() {
+        return debug && logger.isDebugEnabled();
+    }
+
+    private void debug(String message) {
+        if (isDebugEnabled()) {
+            logger.debug(message);
+        }
+    }
+
+    private void info(String message) {
+        System.out.println("[INFO] " + message);
+    }
+
+    private void error(String message) {
+        System.err.println("[ERROR] " + message);
+    }
+
+    List<RemoteRepository> getOrderedRemoteRepositories(Artifact artifact, List<RemoteRepository> candidates) {
+        return getOrderedRemoteRepositories("order", artifact, candidates);
+    }
+
+    /**
+     * Orders the candidate repositories of an artifact.
+     *
+     * @param operation the repository system operation ordering them, it is recorded in trace mode
+     */
+    List<RemoteRepository> getOrderedRemoteRepositories(String operation, Artifact artifact,
+            List<RemoteRepository> candidates) {
+        return getOrderedRemoteRepositories(operation, artifact, candidates, true);
+    }
+
+    /**
+     * @param probe whether an open repository of the circuit breaker is probed, only the resolutions of artifacts and
+     *        descriptors report whether they reached it
+     */
+    List<RemoteRepository> getOrderedRemoteRepositories(String operation, Artifact artifact,
+            List<RemoteRepository> candidates, boolean probe) {
+        boolean traced = tracer != null && tracer.isTraced(artifact);
+        long startNanos = traced ? System.nanoTime() : 0;
+        // the recorded repository, the rules are only used for the artifacts not in the plan
+        List<RemoteRepository> repos = plan != null ? plan.apply(artifact, candidates) : null;
+        if (repos == null) {
+            repos = order(artifact, candidates, probe);
+        }
+        if (traced) {
+            tracer.record(operation, artifact, candidates, repos, System.nanoTime() - startNanos);
         }
         if (repos.isEmpty()) {
             error("No repository can be used for artifact: " + artifact);
             return repos;
         }
 
-        if (debug) {
-            debug("Ordered repositores for " + artifact + " are: ");
+        if (isDebugEnabled()) {
+            StringBuilder sb = new StringBuilder("(").append(operation).append(") Ordered repositories for ")
+                    .append(artifact).append(" by ").append(OrderedRepositoryList.ruleOf(repos)).append(':');
             for (RemoteRepository repo: repos) {
-                debug(repo.getId() + ", url= " + repo.getUrl());
+                sb.append(' ').append(repo.getId());
+                if (scores != null) {
+                    sb.append(" (score= ").append(scores.cost(repo)).append(')');
+                }
             }
+            debug(sb.toString());
+        }
+        return repos;
+    }
+
+    /**
+     * Orders the candidate repositories by the rules, then by what was learned from the previous resolutions.
+     */
+    private List<RemoteRepository> order(Artifact artifact, List<RemoteRepository> candidates, boolean probe) {
+        List<RemoteRepository> repos = cache.get(artifact, candidates);
+        if (repos == null) {
+            OrderedRepositoryConfiguration snapshot = configuration();
+            repos = cache.put(artifact, candidates, orderer.order(snapshot, artifact, candidates));
+            if (config.get() != snapshot) {
+                // reloaded meanwhile, the cache may have been cleared before the put
+                cache.remove(artifact, candidates);
+            }
+        }
+        if (scores != null && repos instanceof OrderedRepositoryList) {
+            repos = scores.reorder((OrderedRepositoryList) repos);
+        }
+        if (locationIndex != null) {
+            repos = locationIndex.apply(artifact, repos);
+        }
+        if (negativeCache != null) {
+            repos = negativeCache.apply(artifact, repos);
+        }
+        if (circuitBreaker != null) {
+            repos = circuitBreaker.apply(repos, probe);
+        }
+        if (repositoryGroups != null) {
+            // after the circuit breaker, the repositories of a skipped group are kept
+            repos = repositoryGroups.apply(configuration(), repos);
+        }
+        return repos;
+    }
+
+    /**
+     * Orders the repositories to read the metadata of an artifact from, only the first ones are kept when the
+     * matched rule limits them.
+     */
+    List<RemoteRepository> getMetadataRepositories(String operation, Artifact artifact,
+            List<RemoteRepository> candidates) {
+        List<RemoteRepository> repos = getOrderedRemoteRepositories(operation, artifact, candidates, false);
+        String rule = OrderedRepositoryList.ruleOf(repos);
+        int limit = configuration().getMetadataLimit(rule);
+        if (limit > 0 && repos.size() > limit) {
+            if (isDebugEnabled()) {
+                debug("Metadata of " + artifact + " is read from the first " + limit + " repositories by " + rule);
+            }
+            repos = new OrderedRepositoryList(repos.subList(0, limit),
+                    ((OrderedRepositoryList) repos).getConfiguredCount(), rule);
         }
         return repos;
     }
@@ -198,17 +791,19 @@ public class OrderedRepositorySystem extends DefaultRepositorySystem {
             throws DependencyResolutionException {
         if (enabled) {
             CollectRequest collectRequest = request.getCollectRequest();
-            List<RemoteRepository> allRepos = collectRequest.getRepositories();
-            debug("(resolveDependencies) Fix remote repositories for " + collectRequest.getDependencies());
-            if (trace) {
-                new Exception("TRACE INFORMATION").printStackTrace();
-            }
-            for (Dependency dep: collectRequest.getDependencies()) {
-                List<RemoteRepository> repos = getOrderedRemoteRepositories(dep.getArtifact(), allRepos);
-                collectRequest.setRepositories(repos); // get ordered or limited.
-                if (repos.size() == allRepos.size()) {
-                    break; // try all repos, but orderred already
-                }
+            if (isDebugEnabled()) {
+                debug("(resolveDependencies) Fix remote repositories for "
+                        + (collectRequest != null ? collectRequest.getDependencies() : request.getRoot()));
+            }
+            open(session);
+            long startNanos = System.nanoTime();
+            boolean success = false;
+            try {
+                DependencyResult result = super.resolveDependencies(session, request);
+                success = true;
+                return result;
+            } finally {
+                recordOperation("resolveDependencies", success, startNanos);
             }
         }
         return super.resolveDependencies(session, request);
@@ -218,30 +813,133 @@ public class OrderedRepositorySystem extends DefaultRepositorySystem {
     public ArtifactDescriptorResult readArtifactDescriptor(RepositorySystemSession session, ArtifactDescriptorRequest request)
             throws ArtifactDescriptorException {
         if (enabled) {
-            debug("(readArtifactDescriptor) Fix remote repositories for " + request.getArtifact());
-            if (trace) {
-                new Exception("TRACE INFORMATION").printStackTrace();
+            if (isDebugEnabled()) {
+                debug("(readArtifactDescriptor) Fix remote repositories for " + request.getArtifact());
+            }
+            open(session);
+            List<RemoteRepository> candidates = request.getRepositories();
+            request = new ArtifactDescriptorRequest(request.getArtifact(),
+                    getOrderedRemoteRepositories("readArtifactDescriptor", request.getArtifact(), candidates),
+                    request.getRequestContext()).setTrace(request.getTrace());
+            long startNanos = System.nanoTime();
+            if (prefetcher != null) {
+                try {
+                    prefetcher.await(request.getArtifact());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            try {
+                ArtifactDescriptorResult result = super.readArtifactDescriptor(session, request);
+                recordDescriptor(result, startNanos);
+                if (prefetcher != null) {
+                    prefetch(session, request, candidates, result);
+                }
+                return result;
+            } catch (ArtifactDescriptorException e) {
+                recordDescriptor(e.getResult(), startNanos);
+                throw e;
             }
-            request.setRepositories(getOrderedRemoteRepositories(request.getArtifact(), request.getRepositories()));
         }
         return super.readArtifactDescriptor(session, request);
     }
 
+    /**
+     * Fetches the descriptors of the dependencies of <code>result</code> in the background, from the candidate
+     * repositories of the descriptor and the ones it declares, in their order.
+     */
+    private void prefetch(final RepositorySystemSession session, final ArtifactDescriptorRequest request,
+            List<RemoteRepository> candidates, ArtifactDescriptorResult result) {
+        final List<RemoteRepository> repositories = remoteRepositoryManager != null
+                ? remoteRepositoryManager.aggregateRepositories(session, candidates, result.getRepositories(), true)
+                : candidates;
+        final RequestTrace trace = RequestTrace.newChild(request.getTrace(), request);
+        int queued = prefetcher.prefetch(result, new DescriptorPrefetcher.Fetcher() {
+            @Override
+            public void fetch(Artifact pom) throws Exception {
+                List<RemoteRepository> repos = getOrderedRemoteRepositories("prefetchArtifactDescriptor", pom,
+                        repositories);
+                if (session.getLocalRepositoryManager().find(session, new LocalArtifactRequest(pom, repos, null))
+                        .isAvailable()) {
+                    if (circuitBreaker != null) {
+                        circuitBreaker.reached(repos, null, Collections.<Exception>emptyList());
+                    }
+                    return;
+                }
+                ArtifactDescriptorRequest prefetchRequest = new ArtifactDescriptorRequest(pom, repos,
+                        request.getRequestContext()).setTrace(trace);
+                long startNanos = System.nanoTime();
+                try {
+                    ArtifactDescriptorResult prefetched = OrderedRepositorySystem.super.readArtifactDescriptor(session,
+                            prefetchRequest);
+                    recordFailures(prefetched.getExceptions());
+                    if (circuitBreaker != null) {
+                        circuitBreaker.reached(repos, prefetched.getRepository(), prefetched.getExceptions());
+                    }
+                    recordOperation("prefetchArtifactDescriptor", true, startNanos);
+                } catch (ArtifactDescriptorException e) {
+                    recordFailures(e.getResult().getExceptions());
+                    if (circuitBreaker != null) {
+                        circuitBreaker.reached(repos, null, e.getResult().getExceptions());
+                    }
+                    recordOperation("prefetchArtifactDescriptor", false, startNanos);
+                    throw e;
+                }
+            }
+        });
+        if (queued > 0) {
+            if (isDebugEnabled()) {
+                debug("Prefetching " + queued + " descriptors of the dependencies of " + request.getArtifact());
+            }
+        }
+    }
+
+    private void recordDescriptor(ArtifactDescriptorResult result, long startNanos) {
+        recordFailures(result.getExceptions());
+        if (circuitBreaker != null) {
+            circuitBreaker.reached(result.getRequest().getRepositories(), result.getRepository(),
+                    result.getExceptions());
+        }
+        boolean found = result.getRepository() instanceof RemoteRepository;
+        if (found && locationIndex != null) {
+            locationIndex.record(result.getRequest().getArtifact(), (RemoteRepository) result.getRepository());
+        }
+        if (found && scores != null) {
+            scores.success((RemoteRepository) result.getRepository(), -1);
+        }
+        if (found && circuitBreaker != null) {
+            circuitBreaker.success((RemoteRepository) result.getRepository());
+        }
+        if (found && planRecorder != null) {
+            planRecorder.record(result.getRequest().getArtifact(), (RemoteRepository) result.getRepository());
+        }
+        if (metrics != null) {
+            long micros = (System.nanoTime() - startNanos) / 1000;
+            if (found) {
+                metrics.repositoryHit(result.getRepository().getId(), 0, -1);
+            }
+            boolean read = result.getRepository() != null;
+            metrics.rule(OrderedRepositoryList.ruleOf(result.getRequest().getRepositories()), read, 0, micros);
+            metrics.operation("readArtifactDescriptor", read, micros);
+        }
+    }
+
     @Override
     public CollectResult collectDependencies(RepositorySystemSession session, CollectRequest request)
             throws DependencyCollectionException {
         if (enabled) {
-            List<RemoteRepository> allRepos = request.getRepositories();
-            debug("(collectDependencies) Fix remote repositories for " + request.getDependencies());
-            if (trace) {
-                new Exception("TRACE INFORMATION").printStackTrace();
-            }
-            for (Dependency dep: request.getDependencies()) {
-                List<RemoteRepository> repos = getOrderedRemoteRepositories(dep.getArtifact(), allRepos);
-                request.setRepositories(repos); // get ordered or limited.
-                if (repos.size() == allRepos.size()) {
-                    break; // try all repos
-                }
+            if (isDebugEnabled()) {
+                debug("(collectDependencies) Fix remote repositories for " + request.getDependencies());
+            }
+            open(session);
+            long startNanos = System.nanoTime();
+            boolean success = false;
+            try {
+                CollectResult result = super.collectDependencies(session, request);
+                success = true;
+                return result;
+            } finally {
+                recordOperation("collectDependencies", success, startNanos);
             }
         }
         return super.collectDependencies(session, request);
@@ -251,11 +949,44 @@ public class OrderedRepositorySystem extends DefaultRepositorySystem {
     public ArtifactResult resolveArtifact(RepositorySystemSession session, ArtifactRequest request)
             throws ArtifactResolutionException {
         if (enabled) {
-            debug("(resolveArtifact) Fix remote repositories for " + request.getArtifact());
-            if (trace) {
-                new Exception("TRACE INFORMATION").printStackTrace();
+            if (isDebugEnabled()) {
+                debug("(resolveArtifact) Fix remote repositories for " + request.getArtifact());
+            }
+            open(session);
+            request = ordered("resolveArtifact", request);
+            long startNanos = System.nanoTime();
+            ArtifactResult cached = resultCache != null ? resultCache.get(session, request) : null;
+            if (cached != null) {
+                recordOperation("resolveArtifact", true, startNanos);
+                return cached;
+            }
+            TransferTimer timer = scores != null || metrics != null ? new TransferTimer() : null;
+            if (timer != null) {
+                session = timer.session(session);
+            }
+            if (hedgedResolver != null) {
+                session = hedgedResolver.session(session);
+            }
+            try {
+                ArtifactResult result;
+                if (isScheduled() && !isAvailableLocally(session, request)) {
+                    result = resolveRemote(session, Collections.singletonList(request), true).get(0);
+                } else if (hedgedResolver != null && !isAvailableLocally(session, request)) {
+                    result = hedgedResolver.resolve(request, plainBatch(session));
+                } else {
+                    result = super.resolveArtifact(session, request);
+                }
+                if (resultCache != null) {
+                    resultCache.put(session, result);
+                }
+                recordResults(Collections.singletonList(result), timer);
+                recordOperation("resolveArtifact", true, startNanos);
+                return result;
+            } catch (ArtifactResolutionException e) {
+                recordResults(e.getResults(), timer);
+                recordOperation("resolveArtifact", false, startNanos);
+                throw e;
             }
-            request.setRepositories(getOrderedRemoteRepositories(request.getArtifact(), request.getRepositories()));
         }
         return super.resolveArtifact(session, request);
     }
@@ -264,39 +995,223 @@ public class OrderedRepositorySystem extends DefaultRepositorySystem {
     public List<ArtifactResult> resolveArtifacts(RepositorySystemSession session, Collection<? extends ArtifactRequest> requests)
             throws ArtifactResolutionException {
         if (enabled) {
-            debug("(resolveArtifacts) Fix remote repositories for " + requests);
-            if (trace) {
-                new Exception("TRACE INFORMATION").printStackTrace();
+            if (isDebugEnabled()) {
+                debug("(resolveArtifacts) Fix remote repositories for " + requests);
             }
+            open(session);
+            List<ArtifactRequest> orderedRequests = new ArrayList<ArtifactRequest>(requests.size());
             for (ArtifactRequest request: requests) {
-                request.setRepositories(getOrderedRemoteRepositories(request.getArtifact(), request.getRepositories()));
+                orderedRequests.add(ordered("resolveArtifacts", request));
+            }
+            long startNanos = System.nanoTime();
+            TransferTimer timer = scores != null || metrics != null ? new TransferTimer() : null;
+            if (timer != null) {
+                session = timer.session(session);
+            }
+            if (hedgedResolver != null) {
+                session = hedgedResolver.session(session);
+            }
+            try {
+                // the scheduled downloads wait in their gates, not in the threads of the parallel resolver
+                boolean scheduled = isScheduled();
+                List<ArtifactResult> results = parallelResolver != null && !scheduled
+                        ? parallelResolver.resolve(orderedRequests, batch(session))
+                        : resolveBatch(session, orderedRequests, scheduled);
+                recordResults(results, timer);
+                recordOperation("resolveArtifacts", true, startNanos);
+                return results;
+            } catch (ArtifactResolutionException e) {
+                recordResults(e.getResults(), timer);
+                recordOperation("resolveArtifacts", false, startNanos);
+                throw e;
             }
         }
         return super.resolveArtifacts(session, requests);
     }
 
+    /**
+     * Copies an artifact request with its ordered repositories, the request of the caller is left as it is as other
+     * threads of a parallel build may use it meanwhile.
+     */
+    private ArtifactRequest ordered(String operation, ArtifactRequest request) {
+        return new ArtifactRequest(request.getArtifact(),
+                getOrderedRemoteRepositories(operation, request.getArtifact(), request.getRepositories()),
+                request.getRequestContext()).setDependencyNode(request.getDependencyNode()).setTrace(request.getTrace());
+    }
+
+    /**
+     * Resolves a batch of requests, without hedging.
+     */
+    private ParallelArtifactResolver.Batch plainBatch(final RepositorySystemSession session) {
+        return new ParallelArtifactResolver.Batch() {
+            @Override
+            public List<ArtifactResult> resolve(List<ArtifactRequest> requests) throws ArtifactResolutionException {
+                return OrderedRepositorySystem.super.resolveArtifacts(session, requests);
+            }
+        };
+    }
+
+    /**
+     * Resolves a batch of requests, the ones missing in the local repository are hedged in hedging mode. They are not
+     * scheduled, the threads of the parallel resolver running the batches never wait for a gate.
+     */
+    private ParallelArtifactResolver.Batch batch(final RepositorySystemSession session) {
+        return new ParallelArtifactResolver.Batch() {
+            @Override
+            public List<ArtifactResult> resolve(List<ArtifactRequest> requests) throws ArtifactResolutionException {
+                return resolveBatch(session, requests, false);
+            }
+        };
+    }
+
+    private List<ArtifactResult> resolveBatch(RepositorySystemSession session, List<ArtifactRequest> requests,
+            boolean scheduled) throws ArtifactResolutionException {
+        if (hedgedResolver == null && !scheduled) {
+            return super.resolveArtifacts(session, requests);
+        }
+        List<ArtifactRequest> local = new ArrayList<ArtifactRequest>();
+        List<ArtifactRequest> remote = new ArrayList<ArtifactRequest>();
+        for (ArtifactRequest request: requests) {
+            (isAvailableLocally(session, request) ? local : remote).add(request);
+        }
+        if (remote.isEmpty()) {
+            return super.resolveArtifacts(session, requests);
+        }
+        List<ArtifactResult> localResults = Collections.emptyList();
+        List<ArtifactResult> remoteResults;
+        boolean failures = false;
+        if (!local.isEmpty()) {
+            try {
+                localResults = super.resolveArtifacts(session, local);
+            } catch (ArtifactResolutionException e) {
+                localResults = e.getResults();
+                failures = true;
+            }
+        }
+        try {
+            remoteResults = resolveRemote(session, remote, scheduled);
+        } catch (ArtifactResolutionException e) {
+            remoteResults = e.getResults();
+            failures = true;
+        }
+        List<ArtifactResult> results = new ArrayList<ArtifactResult>(requests.size());
+        int l = 0;
+        int r = 0;
+        for (ArtifactRequest request: requests) {
+            results.add(l < local.size() && local.get(l) == request ? localResults.get(l++) : remoteResults.get(r++));
+        }
+        if (failures) {
+            throw new ArtifactResolutionException(results);
+        }
+        return results;
+    }
+
+    /**
+     * @return whether the downloads are scheduled, when some rules have a transfer policy
+     */
+    private boolean isScheduled() {
+        if (transferScheduler == null) {
+            return false;
+        }
+        OrderedRepositoryConfiguration current = configuration();
+        return current != null && current.hasTransferPolicies();
+    }
+
+    /**
+     * Resolves requests missing in the local repository, hedged in hedging mode and scheduled by the transfer policies.
+     * The scheduled downloads let through run on the threads of the parallel resolver when it is enabled, and the other
+     * ones are resolved by it.
+     *
+     * @param scheduled whether the downloads are scheduled, on the calling thread only
+     */
+    private List<ArtifactResult> resolveRemote(final RepositorySystemSession session, List<ArtifactRequest> requests,
+            boolean scheduled) throws ArtifactResolutionException {
+        ParallelArtifactResolver.Batch batch = plainBatch(session);
+        if (hedgedResolver != null) {
+            final ParallelArtifactResolver.Batch plain = batch;
+            batch = new ParallelArtifactResolver.Batch() {
+                @Override
+                public List<ArtifactResult> resolve(List<ArtifactRequest> requests) throws ArtifactResolutionException {
+                    return hedgedResolver.resolveAll(requests, plain);
+                }
+            };
+        }
+        if (!scheduled) {
+            return batch.resolve(requests);
+        }
+        if (parallelResolver == null) {
+            return transferScheduler.resolve(requests, batch);
+        }
+        final ParallelArtifactResolver.Batch chunks = batch;
+        return transferScheduler.resolve(requests, batch, new ParallelArtifactResolver.Batch() {
+            @Override
+            public List<ArtifactResult> resolve(List<ArtifactRequest> requests) throws ArtifactResolutionException {
+                return parallelResolver.resolve(requests, chunks);
+            }
+        }, parallelResolver.getExecutor());
+    }
+
+    private static boolean isAvailableLocally(RepositorySystemSession session, ArtifactRequest request) {
+        return session.getLocalRepositoryManager().find(session,
+                new LocalArtifactRequest(request.getArtifact(), request.getRepositories(), request.getRequestContext()))
+                .isAvailable();
+    }
+
     @Override
     public VersionResult resolveVersion(RepositorySystemSession session, VersionRequest request)
             throws VersionResolutionException {
         if (enabled) {
-            debug("(resolveVersion) Fix remote repositories for " + request.getArtifact());
-            if (trace) {
-                new Exception("TRACE INFORMATION").printStackTrace();
+            if (isDebugEnabled()) {
+                debug("(resolveVersion) Fix remote repositories for " + request.getArtifact());
+            }
+            open(session);
+            request = new VersionRequest(request.getArtifact(),
+                    getMetadataRepositories("resolveVersion", request.getArtifact(), request.getRepositories()),
+                    request.getRequestContext()).setTrace(request.getTrace());
+            long startNanos = System.nanoTime();
+            boolean success = false;
+            try {
+                VersionResult result = super.resolveVersion(session, request);
+                success = true;
+                return result;
+            } finally {
+                recordOperation("resolveVersion", success, startNanos);
             }
-            request.setRepositories(getOrderedRemoteRepositories(request.getArtifact(), request.getRepositories()));
         }
         return super.resolveVersion(session, request);
     }
 
+    private ParallelVersionRangeResolver.Resolver rangeResolver(final RepositorySystemSession session) {
+        return new ParallelVersionRangeResolver.Resolver() {
+            @Override
+            public VersionRangeResult resolve(VersionRangeRequest request) throws VersionRangeResolutionException {
+                return OrderedRepositorySystem.super.resolveVersionRange(session, request);
+            }
+        };
+    }
+
     @Override
     public VersionRangeResult resolveVersionRange(RepositorySystemSession session, VersionRangeRequest request)
             throws VersionRangeResolutionException {
         if (enabled) {
-            debug("(resolveVersionRange) Fix remote repositories for " + request.getArtifact());
-            if (trace) {
-                new Exception("TRACE INFORMATION").printStackTrace();
+            if (isDebugEnabled()) {
+                debug("(resolveVersionRange) Fix remote repositories for " + request.getArtifact());
+            }
+            open(session);
+            request = new VersionRangeRequest(request.getArtifact(),
+                    getMetadataRepositories("resolveVersionRange", request.getArtifact(), request.getRepositories()),
+                    request.getRequestContext()).setTrace(request.getTrace());
+            long startNanos = System.nanoTime();
+            boolean success = false;
+            try {
+                VersionRangeResult result = versionRangeResolver != null
+                        ? versionRangeResolver.resolve(request, rangeResolver(session))
+                        : super.resolveVersionRange(session, request);
+                success = true;
+                return result;
+            } finally {
+                recordOperation("resolveVersionRange", success, startNanos);
             }
-            request.setRepositories(getOrderedRemoteRepositories(request.getArtifact(), request.getRepositories()));
         }
         return super.resolveVersionRange(session, request);
     }
@@ -0,0 +1,120 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright @year, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.maven.extensions.repository;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+import org.eclipse.aether.RepositorySystemSession;
+import org.eclipse.aether.collection.CollectRequest;
+import org.eclipse.aether.collection.CollectResult;
+import org.eclipse.aether.collection.DependencyCollectionException;
+import org.eclipse.aether.graph.DefaultDependencyNode;
+import org.eclipse.aether.graph.DependencyNode;
+import org.eclipse.aether.graph.DependencyVisitor;
+import org.eclipse.aether.impl.ArtifactDescriptorReader;
+import org.eclipse.aether.impl.DependencyCollector;
+import org.eclipse.aether.impl.RemoteRepositoryManager;
+import org.eclipse.aether.impl.VersionRangeResolver;
+import org.eclipse.aether.internal.impl.DefaultDependencyCollector;
+import org.eclipse.aether.resolution.ArtifactDescriptorException;
+import org.eclipse.aether.resolution.ArtifactDescriptorRequest;
+import org.eclipse.aether.resolution.ArtifactDescriptorResult;
+import org.eclipse.aether.resolution.VersionRangeRequest;
+import org.eclipse.aether.resolution.VersionRangeResolutionException;
+import org.eclipse.aether.resolution.VersionRangeResult;
+import org.eclipse.aether.spi.log.LoggerFactory;
+
+/**
+ * Collects the dependency graph so that every node gets the repository order of its own artifact.
+ *
+ * The descriptor reads and version range resolutions done for each node while collecting go through the
+ * {@link OrderedRepositorySystem}, and the repositories of the nodes in the collected graph are ordered as well, so
+ * the artifacts are resolved from them in that order afterwards.
+ *
+ * @author <a href="mailto:lgao@redhat.com">Lin Gao</a>
+ *
+ */
+class OrderingDependencyCollector implements DependencyCollector {
+
+    private final OrderedRepositorySystem system;
+    private final DefaultDependencyCollector delegate;
+
+    OrderingDependencyCollector(final OrderedRepositorySystem system, RemoteRepositoryManager remoteRepositoryManager,
+            LoggerFactory loggerFactory) {
+        this.system = system;
+        this.delegate = new DefaultDependencyCollector();
+        delegate.setRemoteRepositoryManager(remoteRepositoryManager);
+        delegate.setLoggerFactory(loggerFactory);
+        delegate.setArtifactDescriptorReader(new ArtifactDescriptorReader() {
+            @Override
+            public ArtifactDescriptorResult readArtifactDescriptor(RepositorySystemSession session,
+                    ArtifactDescriptorRequest request) throws ArtifactDescriptorException {
+                return system.readArtifactDescriptor(session, request);
+            }
+        });
+        delegate.setVersionRangeResolver(new VersionRangeResolver() {
+            @Override
+            public VersionRangeResult resolveVersionRange(RepositorySystemSession session, VersionRangeRequest request)
+                    throws VersionRangeResolutionException {
+                return system.resolveVersionRange(session, request);
+            }
+        });
+    }
+
+    @Override
+    public CollectResult collectDependencies(RepositorySystemSession session, CollectRequest request)
+            throws DependencyCollectionException {
+        try {
+            CollectResult result = delegate.collectDependencies(session, request);
+            orderNodeRepositories(result.getRoot());
+            return result;
+        } catch (DependencyCollectionException e) {
+            orderNodeRepositories(e.getResult().getRoot());
+            throw e;
+        }
+    }
+
+    private void orderNodeRepositories(DependencyNode root) {
+        if (root == null) {
+            return;
+        }
+        final Set<DependencyNode> visited = Collections.newSetFromMap(new IdentityHashMap<DependencyNode, Boolean>());
+        root.accept(new DependencyVisitor() {
+            @Override
+            public boolean visitEnter(DependencyNode node) {
+                if (!visited.add(node)) {
+                    return false;
+                }
+                if (node instanceof DefaultDependencyNode && node.getArtifact() != null
+                        && !node.getRepositories().isEmpty()) {
+                    ((DefaultDependencyNode) node).setRepositories(
+                            system.getOrderedRemoteRepositories("collectDependencies", node.getArtifact(),
+                                    node.getRepositories(), false));
+                }
+                return true;
+            }
+
+            @Override
+            public boolean visitLeave(DependencyNode node) {
+                return true;
+            }
+        });
+    }
+}
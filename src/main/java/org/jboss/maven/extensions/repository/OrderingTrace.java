@@ -0,0 +1,285 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright @year, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.maven.extensions.repository;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.regex.Pattern;
+
+import org.eclipse.aether.artifact.Artifact;
+import org.eclipse.aether.repository.RemoteRepository;
+import org.eclipse.aether.spi.log.Logger;
+
+/**
+ * Records the ordering decisions in a ring buffer: the operation, the 'G:A:V', the matched rule, the candidate and
+ * the ordered repository ids, and the time the ordering took.
+ *
+ * Recording takes a slot with an atomic increment and stores an immutable event in it, the oldest events are
+ * overwritten when the buffer is full. The artifacts can be filtered by a pattern on their 'G:A:V', and sampled, one
+ * out of every <code>sample</code> of them being recorded.
+ *
+ * The events are dumped in a tab separated file, one event per line, which {@link #parse(String)} reads back.
+ *
+ * @author <a href="mailto:lgao@redhat.com">Lin Gao</a>
+ *
+ */
+class OrderingTrace {
+
+    static final int DEFAULT_SIZE = 65536;
+
+    static final String HEADER = "# operation\tG:A:V\trule\tcandidates\tordered\tnanos";
+
+    private static final String[] NO_IDS = new String[0];
+
+    /**
+     * An ordering decision.
+     */
+    static final class Event {
+        private final long sequence;
+        private final String operation;
+        private final String gav;
+        private final String rule;
+        private final String[] candidates;
+        private final String[] ordered;
+        private final long nanos;
+
+        Event(long sequence, String operation, String gav, String rule, String[] candidates, String[] ordered,
+                long nanos) {
+            this.sequence = sequence;
+            this.operation = operation;
+            this.gav = gav;
+            this.rule = rule;
+            this.candidates = candidates;
+            this.ordered = ordered;
+            this.nanos = nanos;
+        }
+
+        String getOperation() {
+            return operation;
+        }
+
+        /**
+         * @return the 'G:A:V' of the artifact
+         */
+        String getGav() {
+            return gav;
+        }
+
+        /**
+         * @return the matched rule, like <code>regex.1</code>, or null if not known
+         */
+        String getRule() {
+            return rule;
+        }
+
+        /**
+         * @return the ids of the candidate repositories, in their order
+         */
+        String[] getCandidates() {
+            return candidates;
+        }
+
+        /**
+         * @return the ids of the ordered repositories
+         */
+        String[] getOrdered() {
+            return ordered;
+        }
+
+        long getNanos() {
+            return nanos;
+        }
+
+        @Override
+        public String toString() {
+            return operation + '\t' + gav + '\t' + (rule != null ? rule : "-") + '\t' + join(candidates) + '\t'
+                    + join(ordered) + '\t' + nanos;
+        }
+    }
+
+    private final AtomicReferenceArray<Event> events;
+    private final int mask;
+    private final AtomicLong next = new AtomicLong();
+    private final AtomicLong seen = new AtomicLong();
+    private final int sample;
+    private final Pattern filter;
+    private final Logger logger;
+
+    /**
+     * @param size the number of events kept, rounded up to a power of 2
+     * @param sample records one out of every <code>sample</code> artifacts
+     * @param filter the pattern of the 'G:A:V' of the recorded artifacts, or null for all of them
+     * @param logger logs the events at debug level, may be null
+     */
+    OrderingTrace(int size, int sample, Pattern filter, Logger logger) {
+        int capacity = Integer.highestOneBit(Math.max(1, size - 1)) << 1;
+        this.events = new AtomicReferenceArray<Event>(capacity);
+        this.mask = capacity - 1;
+        this.sample = Math.max(1, sample);
+        this.filter = filter;
+        this.logger = logger;
+    }
+
+    /**
+     * Checks whether the ordering of an artifact is recorded, it is called once per ordering.
+     */
+    boolean isTraced(Artifact artifact) {
+        if (filter != null && !filter.matcher(gav(artifact)).matches()) {
+            return false;
+        }
+        return sample == 1 || seen.getAndIncrement() % sample == 0;
+    }
+
+    void record(String operation, Artifact artifact, List<RemoteRepository> candidates, List<RemoteRepository> ordered,
+            long nanos) {
+        long sequence = next.getAndIncrement();
+        Event event = new Event(sequence, operation, gav(artifact), OrderedRepositoryList.ruleOf(ordered),
+                ids(candidates), ids(ordered), nanos);
+        int index = (int) (sequence & mask);
+        // a slower recorder of the previous lap must not overwrite a newer event
+        Event current;
+        do {
+            current = events.get(index);
+            if (current != null && current.sequence > sequence) {
+                break;
+            }
+        } while (!events.compareAndSet(index, current, event));
+        if (logger != null && logger.isDebugEnabled()) {
+            logger.debug("Ordered repositories: " + event);
+        }
+    }
+
+    private static String gav(Artifact artifact) {
+        return artifact.getGroupId() + ':' + artifact.getArtifactId() + ':' + artifact.getVersion();
+    }
+
+    private static String[] ids(List<RemoteRepository> repos) {
+        if (repos.isEmpty()) {
+            return NO_IDS;
+        }
+        String[] ids = new String[repos.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = repos.get(i).getId();
+        }
+        return ids;
+    }
+
+    private static String join(String[] ids) {
+        if (ids.length == 0) {
+            return "-";
+        }
+        StringBuilder sb = new StringBuilder();
+        for (String id: ids) {
+            if (sb.length() > 0) {
+                sb.append(',');
+            }
+            sb.append(id);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return the number of events recorded, including the overwritten ones
+     */
+    long getRecorded() {
+        return next.get();
+    }
+
+    /**
+     * Gets the events kept, oldest first. Events recorded while they are read may be missing.
+     */
+    List<Event> getEvents() {
+        long end = next.get();
+        long start = Math.max(0, end - events.length());
+        List<Event> list = new ArrayList<Event>((int) (end - start));
+        for (long sequence = start; sequence < end; sequence++) {
+            Event event = events.get((int) (sequence & mask));
+            // not stored yet, or already overwritten
+            if (event != null && event.sequence == sequence) {
+                list.add(event);
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Writes the events kept, the file is replaced atomically.
+     */
+    void dump(File file) throws IOException {
+        File dir = file.getAbsoluteFile().getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Can't create directory " + dir);
+        }
+        File tmp = File.createTempFile(file.getName(), ".tmp", dir);
+        try {
+            try (BufferedWriter out = new BufferedWriter(
+                    new OutputStreamWriter(Files.newOutputStream(tmp.toPath()), StandardCharsets.UTF_8))) {
+                out.write(HEADER);
+                out.newLine();
+                for (Event event: getEvents()) {
+                    out.write(event.toString());
+                    out.newLine();
+                }
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp.toPath());
+        }
+    }
+
+    /**
+     * Reads an event from a line of a dump.
+     *
+     * @return the event, or null for a comment or an empty line
+     * @throws IllegalArgumentException if the line is not an event
+     */
+    static Event parse(String line) {
+        if (line.isEmpty() || line.startsWith("#")) {
+            return null;
+        }
+        String[] fields = line.split("\t", -1);
+        if (fields.length != 6) {
+            throw new IllegalArgumentException("Not a trace event: " + line);
+        }
+        try {
+            return new Event(-1, fields[0], fields[1], "-".equals(fields[2]) ? null : fields[2], split(fields[3]),
+                    split(fields[4]), Long.parseLong(fields[5]));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Not a trace event: " + line, e);
+        }
+    }
+
+    private static String[] split(String ids) {
+        return "-".equals(ids) || ids.isEmpty() ? NO_IDS : ids.split(",");
+    }
+
+    @Override
+    public String toString() {
+        return "recorded=" + next.get() + ", kept=" + Math.min(next.get(), events.length()) + ", sample=1/" + sample
+                + (filter != null ? ", filter=" + filter : "");
+    }
+}
@@ -0,0 +1,246 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright @year, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.maven.extensions.repository;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.aether.resolution.ArtifactRequest;
+import org.eclipse.aether.resolution.ArtifactResolutionException;
+import org.eclipse.aether.resolution.ArtifactResult;
+
+/**
+ * Resolves a batch of artifact requests concurrently, grouped by the first repository each request will try.
+ *
+ * Each group is split in chunks which are resolved on a bounded executor, a repository never has more than
+ * <code>repositoryLimit</code> chunks in flight, whatever the number of callers. The chunks over the limit wait in the
+ * queue of their repository, not in a thread of the executor, so the chunks of the other repositories go on. Results
+ * are returned in the order of the requests, and failures are reported the same way as a sequential resolution does:
+ * one {@link ArtifactResolutionException} holding all results.
+ *
+ * @author <a href="mailto:lgao@redhat.com">Lin Gao</a>
+ *
+ */
+class ParallelArtifactResolver {
+
+    static final int DEFAULT_THREADS = 8;
+    static final int DEFAULT_REPOSITORY_LIMIT = 4;
+
+    private static final String NO_REPOSITORY = "";
+
+    /**
+     * Resolves one chunk of requests, sequentially.
+     */
+    interface Batch {
+        List<ArtifactResult> resolve(List<ArtifactRequest> requests) throws ArtifactResolutionException;
+    }
+
+    private final ThreadPoolExecutor executor;
+    private final int repositoryLimit;
+    private final ConcurrentMap<String, RepositoryQueue> queues = new ConcurrentHashMap<String, RepositoryQueue>();
+
+    /**
+     * The chunks of a repository, the waiting ones are submitted to the executor as the running ones complete.
+     */
+    private final class RepositoryQueue {
+        private final Queue<FutureTask<?>> waiting = new ArrayDeque<FutureTask<?>>();
+        private int running;
+
+        synchronized void submit(FutureTask<?> task) {
+            if (running < repositoryLimit) {
+                running++;
+                execute(task);
+            } else {
+                waiting.add(task);
+            }
+        }
+
+        private synchronized void done() {
+            FutureTask<?> next = waiting.poll();
+            if (next != null) {
+                execute(next);
+            } else {
+                running--;
+            }
+        }
+
+        private void execute(final FutureTask<?> task) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        // a cancelled task does nothing
+                        task.run();
+                    } finally {
+                        done();
+                    }
+                }
+            });
+        }
+    }
+
+    ParallelArtifactResolver(int threads, int repositoryLimit) {
+        this.repositoryLimit = Math.max(1, repositoryLimit);
+        this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "ordered-repository-resolver-" + count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * @return the executor running the chunks, for the chunks limited by their own queues
+     */
+    Executor getExecutor() {
+        return executor;
+    }
+
+    List<ArtifactResult> resolve(List<? extends ArtifactRequest> requests, final Batch batch)
+            throws ArtifactResolutionException {
+        if (requests.size() < 2) {
+            return batch.resolve(new ArrayList<ArtifactRequest>(requests));
+        }
+        Map<String, List<Integer>> groups = new LinkedHashMap<String, List<Integer>>();
+        for (int i = 0; i < requests.size(); i++) {
+            ArtifactRequest request = requests.get(i);
+            String repoId = request.getRepositories().isEmpty() ? NO_REPOSITORY : request.getRepositories().get(0).getId();
+            List<Integer> group = groups.get(repoId);
+            if (group == null) {
+                group = new ArrayList<Integer>();
+                groups.put(repoId, group);
+            }
+            group.add(i);
+        }
+
+        final ClassLoader tccl = Thread.currentThread().getContextClassLoader();
+        List<int[]> chunkIndexes = new ArrayList<int[]>();
+        List<Future<List<ArtifactResult>>> futures = new ArrayList<Future<List<ArtifactResult>>>();
+        for (Map.Entry<String, List<Integer>> group: groups.entrySet()) {
+            RepositoryQueue queue = queue(group.getKey());
+            List<Integer> indexes = group.getValue();
+            int chunkSize = (indexes.size() + repositoryLimit - 1) / repositoryLimit;
+            for (int from = 0; from < indexes.size(); from += chunkSize) {
+                List<Integer> chunk = indexes.subList(from, Math.min(from + chunkSize, indexes.size()));
+                int[] idx = new int[chunk.size()];
+                final List<ArtifactRequest> chunkRequests = new ArrayList<ArtifactRequest>(chunk.size());
+                for (int i = 0; i < idx.length; i++) {
+                    idx[i] = chunk.get(i);
+                    chunkRequests.add(requests.get(idx[i]));
+                }
+                chunkIndexes.add(idx);
+                FutureTask<List<ArtifactResult>> task = new FutureTask<List<ArtifactResult>>(new Callable<List<ArtifactResult>>() {
+                    @Override
+                    public List<ArtifactResult> call() throws Exception {
+                        Thread thread = Thread.currentThread();
+                        ClassLoader previous = thread.getContextClassLoader();
+                        thread.setContextClassLoader(tccl);
+                        try {
+                            return batch.resolve(chunkRequests);
+                        } catch (ArtifactResolutionException e) {
+                            return e.getResults();
+                        } finally {
+                            thread.setContextClassLoader(previous);
+                        }
+                    }
+                });
+                futures.add(task);
+                queue.submit(task);
+            }
+        }
+
+        ArtifactResult[] results = new ArtifactResult[requests.size()];
+        boolean failures = false;
+        try {
+            for (int c = 0; c < futures.size(); c++) {
+                int[] idx = chunkIndexes.get(c);
+                List<ArtifactResult> chunkResults = futures.get(c).get();
+                for (int i = 0; i < idx.length; i++) {
+                    results[idx[i]] = chunkResults.get(i);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            cancel(futures);
+            failures = true;
+            for (int i = 0; i < results.length; i++) {
+                if (results[i] == null) {
+                    results[i] = new ArtifactResult(requests.get(i));
+                    results[i].addException(e);
+                }
+            }
+        } catch (ExecutionException e) {
+            cancel(futures);
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+        for (ArtifactResult result: results) {
+            failures |= !result.isResolved();
+        }
+        List<ArtifactResult> list = Arrays.asList(results);
+        if (failures) {
+            throw new ArtifactResolutionException(list);
+        }
+        return list;
+    }
+
+    private RepositoryQueue queue(String repositoryId) {
+        RepositoryQueue queue = queues.get(repositoryId);
+        if (queue == null) {
+            RepositoryQueue newQueue = new RepositoryQueue();
+            queue = queues.putIfAbsent(repositoryId, newQueue);
+            if (queue == null) {
+                queue = newQueue;
+            }
+        }
+        return queue;
+    }
+
+    private static void cancel(List<Future<List<ArtifactResult>>> futures) {
+        for (Future<List<ArtifactResult>> future: futures) {
+            future.cancel(true);
+        }
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright @year, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.maven.extensions.repository;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.aether.artifact.Artifact;
+import org.eclipse.aether.repository.ArtifactRepository;
+import org.eclipse.aether.repository.RemoteRepository;
+import org.eclipse.aether.resolution.VersionRangeRequest;
+import org.eclipse.aether.resolution.VersionRangeResolutionException;
+import org.eclipse.aether.resolution.VersionRangeResult;
+import org.eclipse.aether.util.version.GenericVersionScheme;
+import org.eclipse.aether.version.InvalidVersionSpecificationException;
+import org.eclipse.aether.version.Version;
+import org.eclipse.aether.version.VersionConstraint;
+import org.eclipse.aether.version.VersionScheme;
+
+/**
+ * Resolves a version range from each repository concurrently, and merges the versions as the repositories answer.
+ *
+ * Each repository is asked for all versions of the 'G:A', which are kept until {@link #clear()}, so the metadata of a
+ * 'G:A' in a repository is read once per session whatever the ranges asked for. The local repository is read for each
+ * range, as the build installs artifacts in it.
+ *
+ * As the version range resolver does, a version found in several repositories is reported from the local repository
+ * if it is there, otherwise from the first of the repositories in the request.
+ *
+ * @author <a href="mailto:lgao@redhat.com">Lin Gao</a>
+ *
+ */
+class ParallelVersionRangeResolver {
+
+    static final int DEFAULT_THREADS = 4;
+
+    private static final String ALL_VERSIONS = "(,)";
+
+    /**
+     * Resolves a version range request, as the repository system does.
+     */
+    interface Resolver {
+        VersionRangeResult resolve(VersionRangeRequest request) throws VersionRangeResolutionException;
+    }
+
+    private final VersionScheme versionScheme = new GenericVersionScheme();
+    private final ConcurrentMap<String, VersionRangeResult> versions = new ConcurrentHashMap<String, VersionRangeResult>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final ThreadPoolExecutor executor;
+
+    ParallelVersionRangeResolver(int threads) {
+        this.executor = new ThreadPoolExecutor(Math.max(1, threads), Math.max(1, threads), 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "ordered-repository-metadata-" + count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    VersionRangeResult resolve(VersionRangeRequest request, final Resolver resolver)
+            throws VersionRangeResolutionException {
+        VersionConstraint constraint;
+        try {
+            constraint = versionScheme.parseVersionConstraint(request.getArtifact().getVersion());
+        } catch (InvalidVersionSpecificationException e) {
+            // reported as usual
+            return resolver.resolve(request);
+        }
+        List<RemoteRepository> repos = request.getRepositories();
+        if (constraint.getRange() == null || repos.isEmpty()) {
+            return resolver.resolve(request);
+        }
+
+        Artifact all = request.getArtifact().setVersion(ALL_VERSIONS);
+        VersionRangeResult[] results = new VersionRangeResult[repos.size()];
+        final ClassLoader tccl = Thread.currentThread().getContextClassLoader();
+        CompletionService<VersionRangeResult> completion = new ExecutorCompletionService<VersionRangeResult>(executor);
+        List<Future<VersionRangeResult>> futures = new ArrayList<Future<VersionRangeResult>>(repos.size());
+        List<Integer> indexes = new ArrayList<Integer>(repos.size());
+        for (int i = 0; i < repos.size(); i++) {
+            results[i] = versions.get(key(all, repos.get(i)));
+            if (results[i] != null) {
+                hits.incrementAndGet();
+                continue;
+            }
+            misses.incrementAndGet();
+            final VersionRangeRequest repoRequest = new VersionRangeRequest(all,
+                    Collections.singletonList(repos.get(i)), request.getRequestContext()).setTrace(request.getTrace());
+            futures.add(completion.submit(new Callable<VersionRangeResult>() {
+                @Override
+                public VersionRangeResult call() {
+                    Thread.currentThread().setContextClassLoader(tccl);
+                    return tryResolve(repoRequest, resolver);
+                }
+            }));
+            indexes.add(i);
+        }
+
+        VersionRangeResult merged = new VersionRangeResult(request);
+        merged.setVersionConstraint(constraint);
+        Map<Version, Integer> ranks = new TreeMap<Version, Integer>();
+        // the local repository and the workspace
+        VersionRangeRequest localRequest = new VersionRangeRequest(request.getArtifact(),
+                Collections.<RemoteRepository>emptyList(), request.getRequestContext()).setTrace(request.getTrace());
+        merge(merged, ranks, tryResolve(localRequest, resolver), -1, constraint);
+        for (int i = 0; i < results.length; i++) {
+            if (results[i] != null) {
+                merge(merged, ranks, results[i], i, constraint);
+            }
+        }
+        try {
+            for (int pending = futures.size(); pending > 0; pending--) {
+                Future<VersionRangeResult> done = completion.take();
+                int index = indexes.get(futures.indexOf(done));
+                VersionRangeResult result = done.get();
+                if (result.getExceptions().isEmpty()) {
+                    versions.put(key(all, repos.get(index)), result);
+                }
+                merge(merged, ranks, result, index, constraint);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            merged.addException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            for (Future<VersionRangeResult> future: futures) {
+                future.cancel(true);
+            }
+        }
+        merged.setVersions(new ArrayList<Version>(ranks.keySet()));
+        return merged;
+    }
+
+    private static VersionRangeResult tryResolve(VersionRangeRequest request, Resolver resolver) {
+        try {
+            return resolver.resolve(request);
+        } catch (VersionRangeResolutionException e) {
+            return e.getResult();
+        }
+    }
+
+    /**
+     * Merges the versions of a repository within the constraint.
+     *
+     * @param rank the index of the repository in the request, -1 for the local repository
+     */
+    private static void merge(VersionRangeResult merged, Map<Version, Integer> ranks, VersionRangeResult result, int rank,
+            VersionConstraint constraint) {
+        for (Exception exception: result.getExceptions()) {
+            merged.addException(exception);
+        }
+        for (Version version: result.getVersions()) {
+            if (!constraint.containsVersion(version)) {
+                continue;
+            }
+            ArtifactRepository repository = result.getRepository(version);
+            int versionRank = repository instanceof RemoteRepository ? rank : -1;
+            Integer current = ranks.get(version);
+            if (current == null || versionRank < current) {
+                ranks.put(version, versionRank);
+                merged.setRepository(version, repository);
+            }
+        }
+    }
+
+    private static String key(Artifact artifact, RemoteRepository repository) {
+        return artifact.getGroupId() + ':' + artifact.getArtifactId() + '@' + repository.getId() + '@'
+                + repository.getUrl();
+    }
+
+    /**
+     * Forgets the versions read, at the end of the session.
+     */
+    void clear() {
+        versions.clear();
+    }
+
+    @Override
+    public String toString() {
+        return "cached=" + versions.size() + ", hits=" + hits.get() + ", misses=" + misses.get();
+    }
+}
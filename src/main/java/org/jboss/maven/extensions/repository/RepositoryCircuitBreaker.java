@@ -0,0 +1,460 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright @year, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.maven.extensions.repository;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.aether.repository.ArtifactRepository;
+import org.eclipse.aether.repository.RemoteRepository;
+import org.eclipse.aether.transfer.ArtifactNotFoundException;
+import org.eclipse.aether.transfer.ArtifactTransferException;
+
+/**
+ * Stops trying a repository which keeps failing to transfer artifacts, like a mirror which is down and makes every
+ * lookup wait for its connect timeout.
+ *
+ * A repository is opened after {@link #getThreshold()} consecutive transport failures, not found artifacts don't count.
+ * An open repository is dropped from the ordered repositories, unless no other one is left. Once it has been open for
+ * the open time, a single lookup is let through to probe it (half-open): a success closes it, a failure opens it again.
+ *
+ * The open repositories can be shared by the builds using the same local repository, in
+ * <code>.ordered-repository/circuit-breaker.properties</code>, so a repository opened by a build is skipped by the
+ * others until it is probed again.
+ *
+ * @author <a href="mailto:lgao@redhat.com">Lin Gao</a>
+ *
+ */
+class RepositoryCircuitBreaker {
+
+    static final int DEFAULT_THRESHOLD = 3;
+    static final long DEFAULT_OPEN_SECONDS = 60;
+
+    static final String STATE_FILE = "circuit-breaker.properties";
+    static final String LOCK_FILE = "circuit-breaker.lock";
+
+    /**
+     * The shared state is read again when it was last read longer ago.
+     */
+    private static final long REFRESH_MILLIS = 1000;
+
+    /**
+     * File locks are held by the JVM, the builds of one JVM are serialized here.
+     */
+    private static final Object JVM_LOCK = new Object();
+
+    enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    /**
+     * The state of a repository, guarded by itself.
+     */
+    private static final class Breaker {
+        State state = State.CLOSED;
+        int failures;
+        long openUntil;
+        long probeStarted;
+    }
+
+    private final int threshold;
+    private final long openMillis;
+    private final boolean shared;
+    private final ConcurrentMap<String, Breaker> breakers = new ConcurrentHashMap<String, Breaker>();
+
+    private final AtomicLong trips = new AtomicLong();
+    private final AtomicLong probes = new AtomicLong();
+    private final AtomicLong recoveries = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+
+    private volatile File stateDir;
+    private volatile long lastRefresh;
+
+    /**
+     * @param shared whether the open repositories are shared with other builds
+     */
+    RepositoryCircuitBreaker(int threshold, long openMillis, boolean shared) {
+        this.threshold = Math.max(1, threshold);
+        this.openMillis = Math.max(0, openMillis);
+        this.shared = shared;
+    }
+
+    /**
+     * Sets the local repository the state is shared in, only the first call does the work.
+     */
+    void open(File localRepositoryDir) {
+        if (shared && stateDir == null && localRepositoryDir != null) {
+            stateDir = new File(localRepositoryDir, NegativeLookupCache.INDEX_DIR);
+        }
+    }
+
+    private Breaker breaker(String repositoryId) {
+        Breaker breaker = breakers.get(repositoryId);
+        if (breaker == null) {
+            Breaker newBreaker = new Breaker();
+            breaker = breakers.putIfAbsent(repositoryId, newBreaker);
+            if (breaker == null) {
+                breaker = newBreaker;
+            }
+        }
+        return breaker;
+    }
+
+    /**
+     * Records a transport failure of a repository.
+     */
+    void failure(RemoteRepository repository) {
+        Breaker breaker = breaker(repository.getId());
+        long openUntil;
+        synchronized (breaker) {
+            if (breaker.state == State.OPEN) {
+                return;
+            }
+            breaker.failures++;
+            if (breaker.state == State.CLOSED && breaker.failures < threshold) {
+                return;
+            }
+            openUntil = System.currentTimeMillis() + openMillis;
+            warn("Repository " + repository.getId() + (breaker.state == State.HALF_OPEN ? " is still failing"
+                    : " failed " + breaker.failures + " times in a row") + ", it is skipped for " + openMillis / 1000
+                    + " seconds");
+            breaker.state = State.OPEN;
+            breaker.openUntil = openUntil;
+            breaker.probeStarted = 0;
+        }
+        trips.incrementAndGet();
+        publish(repository.getId(), openUntil);
+    }
+
+    /**
+     * Records a repository which served an artifact.
+     */
+    void success(RemoteRepository repository) {
+        Breaker breaker = breakers.get(repository.getId());
+        if (breaker == null) {
+            return;
+        }
+        boolean recovered;
+        synchronized (breaker) {
+            recovered = breaker.state != State.CLOSED;
+            breaker.state = State.CLOSED;
+            breaker.failures = 0;
+            breaker.probeStarted = 0;
+        }
+        if (recovered) {
+            recoveries.incrementAndGet();
+            info("Repository " + repository.getId() + " is available again");
+            publish(repository.getId(), 0);
+        }
+    }
+
+    /**
+     * Checks whether a repository can be tried, an open repository is let through once to probe it when its open
+     * time is over.
+     */
+    boolean allows(String repositoryId) {
+        Breaker breaker = breakers.get(repositoryId);
+        if (breaker == null) {
+            return true;
+        }
+        synchronized (breaker) {
+            long now = System.currentTimeMillis();
+            switch (breaker.state) {
+                case OPEN:
+                    if (now < breaker.openUntil) {
+                        return false;
+                    }
+                    breaker.state = State.HALF_OPEN;
+                    break;
+                case HALF_OPEN:
+                    // a probe which never reported, like an artifact found in the local repository, is replaced
+                    if (now - breaker.probeStarted < Math.max(openMillis, REFRESH_MILLIS)) {
+                        return false;
+                    }
+                    break;
+                default:
+                    return true;
+            }
+            breaker.probeStarted = now;
+        }
+        probes.incrementAndGet();
+        info("Probing repository " + repositoryId);
+        return true;
+    }
+
+    /**
+     * Ends the probes an artifact resolution did not fail, the failures are recorded by {@link #failure}.
+     *
+     * A probed repository which answered it does not have the artifact is available again. One the resolution did not
+     * reach, like when the artifact was found in an earlier repository or in the local repository, is probed again by
+     * the next ordering instead of being skipped until the probe is replaced.
+     *
+     * @param repos the ordered repositories of the resolution
+     * @param found the repository the artifact was resolved from, or null
+     * @param exceptions the exceptions of the resolution
+     */
+    void reached(List<RemoteRepository> repos, ArtifactRepository found, List<Exception> exceptions) {
+        if (breakers.isEmpty() || repos == null) {
+            return;
+        }
+        Set<String> notFound = new HashSet<String>();
+        Set<String> failed = new HashSet<String>();
+        for (ArtifactTransferException failure: TransferFailures.collect(exceptions)) {
+            if (failure.getRepository() != null) {
+                (failure instanceof ArtifactNotFoundException ? notFound : failed).add(failure.getRepository().getId());
+            }
+        }
+        for (RemoteRepository repo: repos) {
+            Breaker breaker = breakers.get(repo.getId());
+            if (breaker == null || failed.contains(repo.getId())
+                    || (found != null && repo.getId().equals(found.getId()))) {
+                continue;
+            }
+            if (notFound.contains(repo.getId())) {
+                synchronized (breaker) {
+                    if (breaker.state != State.HALF_OPEN) {
+                        continue;
+                    }
+                }
+                success(repo);
+                continue;
+            }
+            synchronized (breaker) {
+                if (breaker.state == State.HALF_OPEN && breaker.probeStarted > 0) {
+                    breaker.state = State.OPEN;
+                    breaker.probeStarted = 0;
+                }
+            }
+        }
+    }
+
+    private boolean isClosed(String repositoryId) {
+        Breaker breaker = breakers.get(repositoryId);
+        if (breaker == null) {
+            return true;
+        }
+        synchronized (breaker) {
+            return breaker.state == State.CLOSED;
+        }
+    }
+
+    /**
+     * Drops the open repositories from the ordered ones, they are kept when none would be left.
+     */
+    List<RemoteRepository> apply(List<RemoteRepository> repos) {
+        return apply(repos, true);
+    }
+
+    /**
+     * Drops the open repositories from the ordered ones, they are kept when none would be left.
+     *
+     * @param probe whether an open repository whose open time is over is probed, the orderings whose resolution does
+     *        not report to {@link #reached} keep it skipped
+     */
+    List<RemoteRepository> apply(List<RemoteRepository> repos, boolean probe) {
+        refresh();
+        if (breakers.isEmpty() || repos.isEmpty()) {
+            return repos;
+        }
+        List<RemoteRepository> result = null;
+        int configured = repos instanceof OrderedRepositoryList ? ((OrderedRepositoryList) repos).getConfiguredCount() : 0;
+        int configuredLeft = 0;
+        for (int i = 0; i < repos.size(); i++) {
+            RemoteRepository repo = repos.get(i);
+            if (probe ? allows(repo.getId()) : isClosed(repo.getId())) {
+                if (result != null) {
+                    result.add(repo);
+                }
+                if (i < configured) {
+                    configuredLeft++;
+                }
+            } else if (result == null) {
+                result = new ArrayList<RemoteRepository>(repos.subList(0, i));
+            }
+        }
+        if (result == null || result.isEmpty()) {
+            return repos;
+        }
+        skipped.addAndGet(repos.size() - result.size());
+        return new OrderedRepositoryList(result, configuredLeft, OrderedRepositoryList.ruleOf(repos));
+    }
+
+    /**
+     * Opens the repositories opened by other builds.
+     */
+    private void refresh() {
+        File dir = stateDir;
+        long now = System.currentTimeMillis();
+        if (dir == null || now - lastRefresh < REFRESH_MILLIS) {
+            return;
+        }
+        lastRefresh = now;
+        Properties state;
+        try {
+            state = update(dir, null, 0);
+        } catch (IOException e) {
+            warn("Can't read circuit breaker state " + dir + ": " + e.getMessage());
+            return;
+        }
+        for (Map.Entry<Object, Object> entry: state.entrySet()) {
+            long openUntil;
+            try {
+                openUntil = Long.parseLong(entry.getValue().toString().trim());
+            } catch (NumberFormatException e) {
+                continue;
+            }
+            if (openUntil <= now) {
+                continue;
+            }
+            Breaker breaker = breaker(entry.getKey().toString());
+            synchronized (breaker) {
+                if (breaker.state == State.CLOSED) {
+                    breaker.state = State.OPEN;
+                    breaker.openUntil = openUntil;
+                    info("Repository " + entry.getKey() + " is skipped until " + new Date(openUntil)
+                            + ", as another build found it failing");
+                }
+            }
+        }
+    }
+
+    private void publish(String repositoryId, long openUntil) {
+        File dir = stateDir;
+        if (dir == null) {
+            return;
+        }
+        try {
+            update(dir, repositoryId, openUntil);
+        } catch (IOException e) {
+            warn("Can't write circuit breaker state " + dir + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Reads the shared state, and updates the open time of a repository in it.
+     *
+     * @param repositoryId the repository to update, or null to only read the state
+     * @param openUntil when the repository is probed again, 0 when it is closed
+     * @return the shared state, the repository ids to their open time
+     */
+    private static Properties update(File dir, String repositoryId, long openUntil) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Can't create directory " + dir);
+        }
+        File file = new File(dir, STATE_FILE);
+        Properties state = new Properties();
+        synchronized (JVM_LOCK) {
+            try (RandomAccessFile lockFile = new RandomAccessFile(new File(dir, LOCK_FILE), "rw")) {
+                FileLock lock = lockFile.getChannel().lock();
+                try {
+                    if (file.isFile()) {
+                        try (InputStream in = new FileInputStream(file)) {
+                            state.load(in);
+                        }
+                    }
+                    if (repositoryId == null) {
+                        return state;
+                    }
+                    if (openUntil > 0) {
+                        state.setProperty(repositoryId, Long.toString(openUntil));
+                    } else if (state.remove(repositoryId) == null) {
+                        return state;
+                    }
+                    File tmp = File.createTempFile(STATE_FILE, ".tmp", dir);
+                    try {
+                        try (OutputStream out = new FileOutputStream(tmp)) {
+                            state.store(out, "Open repositories, and when they are probed again");
+                        }
+                        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                                StandardCopyOption.ATOMIC_MOVE);
+                    } finally {
+                        Files.deleteIfExists(tmp.toPath());
+                    }
+                } finally {
+                    lock.release();
+                }
+            }
+        }
+        return state;
+    }
+
+    State getState(String repositoryId) {
+        Breaker breaker = breakers.get(repositoryId);
+        if (breaker == null) {
+            return State.CLOSED;
+        }
+        synchronized (breaker) {
+            return breaker.state;
+        }
+    }
+
+    int getThreshold() {
+        return threshold;
+    }
+
+    long getTrips() {
+        return trips.get();
+    }
+
+    long getProbes() {
+        return probes.get();
+    }
+
+    long getRecoveries() {
+        return recoveries.get();
+    }
+
+    /**
+     * @return the number of times a repository was dropped from the ordered repositories
+     */
+    long getSkipped() {
+        return skipped.get();
+    }
+
+    private static void info(String message) {
+        System.out.println("[INFO] " + message);
+    }
+
+    private static void warn(String message) {
+        System.err.println("[WARNING] " + message);
+    }
+
+    @Override
+    public String toString() {
+        return "opened=" + trips.get() + ", probes=" + probes.get() + ", recovered=" + recoveries.get() + ", skipped="
+                + skipped.get();
+    }
+}
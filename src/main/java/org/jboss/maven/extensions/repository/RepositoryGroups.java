@@ -0,0 +1,198 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright @year, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.maven.extensions.repository;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.aether.RepositorySystemSession;
+import org.eclipse.aether.repository.MirrorSelector;
+import org.eclipse.aether.repository.RemoteRepository;
+
+/**
+ * Drops the repositories aggregated by a repository ordered before them, like the repositories proxied by a group of a
+ * repository manager, or mirrored by a mirror. An artifact missing in the aggregate is missing in them as well, so
+ * asking them after it only adds round trips.
+ *
+ * A repository aggregates another one when:
+ * <ul>
+ * <li>it is configured as a group of it, by <code>group.&lt;id&gt; = id1, id2</code></li>
+ * <li>it is a mirror of it, as in {@link RemoteRepository#getMirroredRepositories()}</li>
+ * <li>the {@link MirrorSelector} of the session selects it as the mirror of it</li>
+ * </ul>
+ *
+ * Only a miss of the aggregate is authoritative: when it fails to transfer an artifact, like when it is down, its
+ * repositories are asked again for the failure time.
+ *
+ * @author <a href="mailto:lgao@redhat.com">Lin Gao</a>
+ *
+ */
+class RepositoryGroups {
+
+    static final long DEFAULT_FAILURE_SECONDS = 60;
+
+    private final long failureMillis;
+
+    /**
+     * The aggregates which failed, until when their repositories are asked again.
+     */
+    private final ConcurrentMap<String, Long> failing = new ConcurrentHashMap<String, Long>();
+
+    private final AtomicLong skipped = new AtomicLong();
+
+    private volatile MirrorSelector mirrorSelector;
+
+    RepositoryGroups(long failureMillis) {
+        this.failureMillis = Math.max(0, failureMillis);
+    }
+
+    /**
+     * Uses the mirror selector of the session.
+     */
+    void open(RepositorySystemSession session) {
+        MirrorSelector selector = session.getMirrorSelector();
+        if (selector != null && selector != mirrorSelector) {
+            mirrorSelector = selector;
+        }
+    }
+
+    /**
+     * Records a transfer failure of a repository, its misses are not authoritative for a while.
+     */
+    void failure(RemoteRepository repository) {
+        failing.put(repository.getId(), System.currentTimeMillis() + failureMillis);
+    }
+
+    private boolean isAuthoritative(RemoteRepository aggregate) {
+        if (failing.isEmpty()) {
+            return true;
+        }
+        Long until = failing.get(aggregate.getId());
+        if (until == null) {
+            return true;
+        }
+        if (until <= System.currentTimeMillis()) {
+            failing.remove(aggregate.getId(), until);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Checks whether a repository aggregates another one.
+     */
+    boolean aggregates(OrderedRepositoryConfiguration config, RemoteRepository aggregate, RemoteRepository repo) {
+        return aggregates(config, aggregate, repo, mirrorOf(repo));
+    }
+
+    /**
+     * @param mirrorId the id of the mirror the session selects for the repository, or null
+     */
+    private static boolean aggregates(OrderedRepositoryConfiguration config, RemoteRepository aggregate,
+            RemoteRepository repo, String mirrorId) {
+        if (aggregate.getId().equals(mirrorId)) {
+            return true;
+        }
+        String id = repo.getId().trim();
+        Set<String> members = config.getGroupMembers(aggregate.getId().trim());
+        if (members != null && members.contains(id)) {
+            return true;
+        }
+        for (RemoteRepository mirrored: aggregate.getMirroredRepositories()) {
+            if (id.equals(mirrored.getId().trim())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private String mirrorOf(RemoteRepository repo) {
+        MirrorSelector selector = mirrorSelector;
+        if (selector == null || !repo.getMirroredRepositories().isEmpty()) {
+            return null;
+        }
+        RemoteRepository mirror = selector.getMirror(repo);
+        return mirror != null ? mirror.getId() : null;
+    }
+
+    /**
+     * Drops the repositories aggregated by a repository ordered before them.
+     */
+    List<RemoteRepository> apply(OrderedRepositoryConfiguration config, List<RemoteRepository> repos) {
+        if (repos.size() < 2 || (!config.hasGroups() && mirrorSelector == null && !hasMirrors(repos))) {
+            return repos;
+        }
+        List<RemoteRepository> result = null;
+        int configured = repos instanceof OrderedRepositoryList ? ((OrderedRepositoryList) repos).getConfiguredCount() : 0;
+        int configuredLeft = Math.min(1, configured);
+        for (int i = 1; i < repos.size(); i++) {
+            RemoteRepository repo = repos.get(i);
+            String mirrorId = mirrorOf(repo);
+            List<RemoteRepository> kept = result != null ? result : repos.subList(0, i);
+            boolean aggregated = false;
+            for (RemoteRepository aggregate: kept) {
+                if (aggregates(config, aggregate, repo, mirrorId) && isAuthoritative(aggregate)) {
+                    aggregated = true;
+                    break;
+                }
+            }
+            if (aggregated) {
+                if (result == null) {
+                    result = new ArrayList<RemoteRepository>(repos.subList(0, i));
+                }
+                skipped.incrementAndGet();
+            } else {
+                if (result != null) {
+                    result.add(repo);
+                }
+                if (i < configured) {
+                    configuredLeft++;
+                }
+            }
+        }
+        if (result == null) {
+            return repos;
+        }
+        return new OrderedRepositoryList(result, configuredLeft, OrderedRepositoryList.ruleOf(repos));
+    }
+
+    private static boolean hasMirrors(List<RemoteRepository> repos) {
+        for (RemoteRepository repo: repos) {
+            if (!repo.getMirroredRepositories().isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the number of times a repository was dropped as aggregated by another one
+     */
+    long getSkipped() {
+        return skipped.get();
+    }
+
+    @Override
+    public String toString() {
+        return "skipped=" + skipped.get() + ", failing=" + failing.keySet();
+    }
+}
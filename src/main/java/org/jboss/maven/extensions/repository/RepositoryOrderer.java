@@ -0,0 +1,248 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright @year, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.maven.extensions.repository;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.eclipse.aether.artifact.Artifact;
+import org.eclipse.aether.repository.RemoteRepository;
+import org.jboss.maven.extensions.repository.OrderedRepositoryConfiguration.OrderRule;
+
+/**
+ * Orders the candidate repositories of an artifact by the configured rules.
+ *
+ * The repositories listed in the matched rule (or the default repos) come first in the listed order, followed by the
+ * other candidates in their order when the rule includes other repos. Equal candidates are only added once.
+ *
+ * The work is done in buffers kept by each thread: the rule is matched on a reusable view of the 'G:A:V', and the
+ * candidates are indexed by id in a small hash table, each id is a slot chaining the candidates with that id. The
+ * only allocation of a call is the returned list.
+ *
+ * @author <a href="mailto:lgao@redhat.com">Lin Gao</a>
+ *
+ */
+class RepositoryOrderer {
+
+    private static final String[] NO_REPOS = new String[0];
+
+    private final ThreadLocal<Buffers> buffers = new ThreadLocal<Buffers>() {
+        @Override
+        protected Buffers initialValue() {
+            return new Buffers();
+        }
+    };
+
+    OrderedRepositoryList order(OrderedRepositoryConfiguration config, Artifact artifact,
+            List<RemoteRepository> candidates) {
+        Buffers b = buffers.get();
+        // exact pins come before the rules
+        String[] pinned = config.getPins() != null ? config.getPins().lookup(artifact) : null;
+        OrderRule rule = null;
+        if (pinned == null) {
+            b.gav.set(artifact.getGroupId(), artifact.getArtifactId(), artifact.getVersion());
+            rule = config.getRuleMatcher().match(b.gav);
+        }
+        String[] configuredRepos = pinned != null ? pinned : rule != null ? rule.getRepos() : config.getDefaultRepos();
+        if (configuredRepos == null) {
+            configuredRepos = NO_REPOS;
+        }
+        boolean includeOthers = pinned != null ? config.isPinsIncludeOthers()
+                : rule != null ? rule.isIncludeOtherRepo() : config.isReposIncludedByDefault();
+
+        int n = candidates.size();
+        b.index(candidates);
+        int count = 0;
+        // added repos in order of defined in rule.repos or default repos, then if include others, add left repos
+        for (String repoId: configuredRepos) {
+            int slot = b.slot(repoId);
+            for (int i = slot < 0 ? -1 : b.first[slot]; i >= 0; i = b.next[i]) {
+                if (!b.isAdded(i)) {
+                    count = b.add(i, count);
+                }
+            }
+        }
+        int configured = count;
+        if (includeOthers) {
+            //add other repos back
+            for (int i = 0; i < n; i++) {
+                if (!b.isAdded(i)) {
+                    count = b.add(i, count);
+                }
+            }
+        }
+        RemoteRepository[] repos = Arrays.copyOf(b.result, count);
+        b.clear(n);
+        return new OrderedRepositoryList(repos, configured, pinned != null ? RepositoryPins.RULE
+                : rule != null ? rule.getName() : OrderedRepositoryConfiguration.DEFAULT_RULE);
+    }
+
+    /**
+     * Per thread buffers, sized for the biggest candidate list seen so far.
+     */
+    private static final class Buffers {
+        final GavSequence gav = new GavSequence();
+
+        RemoteRepository[] candidates = new RemoteRepository[0];
+        RemoteRepository[] result = new RemoteRepository[0];
+        int[] next = new int[0]; // next candidate index with the same id, -1 at the end
+        long[] added = new long[1]; // bitset of the added candidate indexes
+
+        // open addressing table of the candidate ids, each id is a slot
+        int[] table = new int[0]; // slot + 1, 0 is an empty entry
+        String[] ids = new String[0]; // by slot
+        int[] first = new int[0]; // first candidate index, by slot
+        int[] last = new int[0]; // last candidate index, by slot
+        int slots;
+
+        void index(List<RemoteRepository> repos) {
+            int n = repos.size();
+            if (candidates.length < n) {
+                int size = Math.max(n, 16);
+                candidates = new RemoteRepository[size];
+                result = new RemoteRepository[size];
+                next = new int[size];
+                ids = new String[size];
+                first = new int[size];
+                last = new int[size];
+                added = new long[(size + 63) >>> 6];
+                table = new int[Integer.highestOneBit(size * 2 - 1) << 1];
+            }
+            Arrays.fill(table, 0);
+            Arrays.fill(added, 0, (n + 63) >>> 6, 0L);
+            slots = 0;
+            for (int i = 0; i < n; i++) {
+                RemoteRepository repo = repos.get(i);
+                candidates[i] = repo;
+                next[i] = -1;
+                String id = repo.getId().trim(); // trim() doesn't copy when there is nothing to trim
+                int mask = table.length - 1;
+                int h = id.hashCode() & mask;
+                while (table[h] != 0 && !ids[table[h] - 1].equals(id)) {
+                    h = (h + 1) & mask;
+                }
+                if (table[h] == 0) {
+                    int slot = slots++;
+                    table[h] = slot + 1;
+                    ids[slot] = id;
+                    first[slot] = i;
+                } else {
+                    next[last[table[h] - 1]] = i;
+                }
+                last[table[h] - 1] = i;
+            }
+        }
+
+        /**
+         * @return the slot of the candidates with the id, -1 if there is none
+         */
+        int slot(String id) {
+            int mask = table.length - 1;
+            int h = id.hashCode() & mask;
+            while (table[h] != 0) {
+                String slotId = ids[table[h] - 1];
+                if (slotId == id || slotId.equals(id)) {
+                    return table[h] - 1;
+                }
+                h = (h + 1) & mask;
+            }
+            return -1;
+        }
+
+        boolean isAdded(int i) {
+            return (added[i >>> 6] & (1L << i)) != 0;
+        }
+
+        /**
+         * Adds the candidate to the result, the following candidates equal to it are marked as added as well. Equal
+         * repositories have the same id, so only the chain of the id is checked.
+         *
+         * @return the new result size
+         */
+        int add(int i, int count) {
+            added[i >>> 6] |= 1L << i;
+            for (int j = next[i]; j >= 0; j = next[j]) {
+                if (!isAdded(j) && candidates[j].equals(candidates[i])) {
+                    added[j >>> 6] |= 1L << j;
+                }
+            }
+            result[count] = candidates[i];
+            return count + 1;
+        }
+
+        /**
+         * Drops the references to the repositories, so they don't outlive the call.
+         */
+        void clear(int n) {
+            Arrays.fill(candidates, 0, n, null);
+            Arrays.fill(result, 0, n, null);
+            Arrays.fill(ids, 0, slots, null);
+        }
+    }
+
+    /**
+     * Reusable 'G:A:V' view over the coordinates of an artifact, it doesn't copy them.
+     */
+    static final class GavSequence implements CharSequence {
+        private String groupId = "";
+        private String artifactId = "";
+        private String version = "";
+        private int artifactStart;
+        private int versionStart;
+        private int length;
+
+        GavSequence set(String groupId, String artifactId, String version) {
+            this.groupId = groupId;
+            this.artifactId = artifactId;
+            this.version = version;
+            this.artifactStart = groupId.length() + 1;
+            this.versionStart = artifactStart + artifactId.length() + 1;
+            this.length = versionStart + version.length();
+            return this;
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (index < 0 || index >= length) {
+                throw new IndexOutOfBoundsException(String.valueOf(index));
+            }
+            if (index >= versionStart) {
+                return version.charAt(index - versionStart);
+            }
+            if (index >= artifactStart) {
+                return index == versionStart - 1 ? ':' : artifactId.charAt(index - artifactStart);
+            }
+            return index == artifactStart - 1 ? ':' : groupId.charAt(index);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return toString().substring(start, end);
+        }
+
+        @Override
+        public String toString() {
+            return groupId + ":" + artifactId + ":" + version;
+        }
+    }
+}
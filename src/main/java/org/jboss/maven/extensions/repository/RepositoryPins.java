@@ -0,0 +1,315 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright @year, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.maven.extensions.repository;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+import org.eclipse.aether.artifact.Artifact;
+
+/**
+ * Exact 'G:A' and 'G:A:V' pins of repositories, looked up before the regex rules.
+ *
+ * The text form has one pin per line, like <code>org.jboss:jboss-dmr = jboss-product-repository, central</code>, lines
+ * starting with <code>#</code> are comments. It is read line by line, and may be gzip compressed. A pin of a 'G:A:V'
+ * wins over the pin of its 'G:A', and the last pin of a key wins.
+ *
+ * The pins are kept as a sorted array of the 64-bit FNV-1a hashes of the keys, each with the index of its repository
+ * list, the distinct lists being shared. {@link #write(File)} saves it in a binary form which is memory mapped when
+ * loaded from a local file, so a big pin file is neither parsed nor copied in the heap. {@link #main(String[])}
+ * converts a pins file to the binary form:
+ *
+ * <pre>
+ * java -cp ordered-repository-extension.jar:$MAVEN_HOME/lib/* org.jboss.maven.extensions.repository.RepositoryPins pins.txt pins.bin
+ * </pre>
+ *
+ * @author <a href="mailto:lgao@redhat.com">Lin Gao</a>
+ *
+ */
+public class RepositoryPins {
+
+    /**
+     * Name of the pins when they order repositories, as a rule name.
+     */
+    static final String RULE = "pins";
+
+    private static final int MAGIC = 0x4F525050; // ORPP
+    private static final int VERSION = 1;
+
+    private static final int GZIP_MAGIC = 0x1f8b;
+
+    /**
+     * Repository lists, by index.
+     */
+    private final String[][] repos;
+
+    /**
+     * Sorted hashes of the keys, and the index of their repository list at the same position.
+     */
+    private final LongBuffer keys;
+    private final IntBuffer values;
+
+    private RepositoryPins(String[][] repos, LongBuffer keys, IntBuffer values) {
+        this.repos = repos;
+        this.keys = keys;
+        this.values = values;
+    }
+
+    /**
+     * Loads pins in any of their forms from a local file, or from a stream in the text form.
+     */
+    static RepositoryPins load(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            in.mark(4);
+            int magic = in.available() >= 4 ? in.readInt() : 0;
+            if (magic == MAGIC) {
+                return map(file, in);
+            }
+            in.reset();
+            return read(in);
+        }
+    }
+
+    /**
+     * Reads pins in the text form, it may be gzip compressed.
+     */
+    static RepositoryPins read(InputStream stream) throws IOException {
+        InputStream in = stream.markSupported() ? stream : new BufferedInputStream(stream);
+        in.mark(2);
+        int magic = in.read() << 8 | in.read();
+        in.reset();
+        if (magic == GZIP_MAGIC) {
+            in = new GZIPInputStream(in);
+        }
+        Map<String, Integer> lists = new HashMap<String, Integer>();
+        List<String[]> repoLists = new ArrayList<String[]>();
+        Map<Long, Integer> pins = new HashMap<Long, Integer>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        int lineNumber = 0;
+        for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+            lineNumber++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            int eq = line.indexOf('=');
+            String key = eq > 0 ? line.substring(0, eq).trim() : "";
+            String[] coordinates = key.split(":");
+            if (coordinates.length < 2 || coordinates.length > 3) {
+                throw new IOException("Invalid pin at line " + lineNumber + ": " + line);
+            }
+            String value = normalize(line.substring(eq + 1));
+            Integer list = lists.get(value);
+            if (list == null) {
+                list = repoLists.size();
+                lists.put(value, list);
+                repoLists.add(value.isEmpty() ? new String[0] : value.split(","));
+            }
+            pins.put(hash(coordinates[0], coordinates[1], coordinates.length == 3 ? coordinates[2] : null), list);
+        }
+        long[] keys = new long[pins.size()];
+        int i = 0;
+        for (Long key: pins.keySet()) {
+            keys[i++] = key;
+        }
+        Arrays.sort(keys);
+        int[] values = new int[keys.length];
+        for (i = 0; i < keys.length; i++) {
+            values[i] = pins.get(keys[i]);
+        }
+        return new RepositoryPins(repoLists.toArray(new String[repoLists.size()][]), LongBuffer.wrap(keys),
+                IntBuffer.wrap(values));
+    }
+
+    /**
+     * Trims the repository ids of a comma separated list, and interns them as the configuration does.
+     */
+    private static String normalize(String value) {
+        StringBuilder sb = new StringBuilder();
+        for (String id: value.split(",")) {
+            id = id.trim();
+            if (!id.isEmpty()) {
+                if (sb.length() > 0) {
+                    sb.append(',');
+                }
+                sb.append(id.intern());
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Maps the pins saved by {@link #write(File)}, the header being read up to the repository lists.
+     */
+    private static RepositoryPins map(File file, DataInputStream in) throws IOException {
+        int version = in.readInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported pins version " + version + " in " + file);
+        }
+        int listCount = in.readInt();
+        String[][] repos = new String[listCount][];
+        for (int i = 0; i < listCount; i++) {
+            String value = in.readUTF();
+            repos[i] = value.isEmpty() ? new String[0] : normalize(value).split(",");
+        }
+        int count = in.readInt();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+            // the keys and values end the file
+            long offset = channel.size() - count * 12L;
+            if (count < 0 || offset < 16) {
+                throw new IOException("Corrupted pins file " + file);
+            }
+            // the mapping stays valid once the channel is closed
+            ByteBuffer keys = channel.map(FileChannel.MapMode.READ_ONLY, offset, count * 8L);
+            ByteBuffer values = channel.map(FileChannel.MapMode.READ_ONLY, offset + count * 8L, count * 4L);
+            return new RepositoryPins(repos, keys.asLongBuffer(), values.asIntBuffer());
+        }
+    }
+
+    /**
+     * Saves the pins in the binary form, the file is replaced atomically.
+     */
+    void write(File file) throws IOException {
+        File dir = file.getAbsoluteFile().getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Can't create directory " + dir);
+        }
+        File tmp = File.createTempFile(file.getName(), ".tmp", dir);
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(repos.length);
+                for (String[] list: repos) {
+                    StringBuilder sb = new StringBuilder();
+                    for (String id: list) {
+                        if (sb.length() > 0) {
+                            sb.append(',');
+                        }
+                        sb.append(id);
+                    }
+                    out.writeUTF(sb.toString());
+                }
+                int count = size();
+                out.writeInt(count);
+                for (int i = 0; i < count; i++) {
+                    out.writeLong(keys.get(i));
+                }
+                for (int i = 0; i < count; i++) {
+                    out.writeInt(values.get(i));
+                }
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp.toPath());
+        }
+    }
+
+    /**
+     * Hashes a 'G:A', or a 'G:A:V' when the version is not null.
+     */
+    static long hash(String groupId, String artifactId, String version) {
+        long hash = NegativeLookupCache.hash(NegativeLookupCache.FNV_OFFSET, groupId.trim());
+        hash = NegativeLookupCache.hash(hash, ":");
+        hash = NegativeLookupCache.hash(hash, artifactId.trim());
+        if (version != null) {
+            hash = NegativeLookupCache.hash(hash, ":");
+            hash = NegativeLookupCache.hash(hash, version.trim());
+        }
+        return hash;
+    }
+
+    /**
+     * Gets the pinned repositories of an artifact, by its 'G:A:V' or else its 'G:A'.
+     *
+     * @return the repository ids, or null if the artifact is not pinned
+     */
+    String[] lookup(Artifact artifact) {
+        if (size() == 0) {
+            return null;
+        }
+        long hash = NegativeLookupCache.hash(NegativeLookupCache.FNV_OFFSET, artifact.getGroupId());
+        hash = NegativeLookupCache.hash(hash, ":");
+        hash = NegativeLookupCache.hash(hash, artifact.getArtifactId());
+        String[] pinned = find(NegativeLookupCache.hash(NegativeLookupCache.hash(hash, ":"), artifact.getVersion()));
+        return pinned != null ? pinned : find(hash);
+    }
+
+    private String[] find(long hash) {
+        int low = 0;
+        int high = size() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long key = keys.get(mid);
+            if (key < hash) {
+                low = mid + 1;
+            } else if (key > hash) {
+                high = mid - 1;
+            } else {
+                return repos[values.get(mid)];
+            }
+        }
+        return null;
+    }
+
+    int size() {
+        return keys.limit();
+    }
+
+    private static void usage() {
+        System.err.println("Usage: " + RepositoryPins.class.getName() + " pins-file binary-pins-file");
+    }
+
+    /**
+     * Saves the pins of a file, in the text form, gzip compressed or not, in the binary form.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            usage();
+            System.exit(1);
+        }
+        long start = System.currentTimeMillis();
+        RepositoryPins pins = load(new File(args[0]));
+        pins.write(new File(args[1]));
+        System.out.println("[INFO] Saved " + pins.size() + " repository pins to " + args[1] + " in "
+                + (System.currentTimeMillis() - start) + " ms");
+    }
+}
@@ -0,0 +1,272 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright @year, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.maven.extensions.repository;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.eclipse.aether.repository.RemoteRepository;
+
+/**
+ * Latency and success rate of each remote repository, as exponentially decayed averages of the observed resolutions.
+ *
+ * The score of a repository is the expected cost to get an artifact from it: its average latency divided by its
+ * success rate, the lower the better. The success rate only counts the transfers which failed, a repository which
+ * doesn't have an artifact has not failed. Repositories which are not measured yet score the average of the measured
+ * ones, so they are tried after the repositories known to be fast and before the ones known to be slow.
+ *
+ * @author <a href="mailto:lgao@redhat.com">Lin Gao</a>
+ *
+ */
+class RepositoryScores {
+
+    static final String SCORES_FILE = "repository-scores.properties";
+
+    static final double DEFAULT_DECAY = 0.2;
+
+    /**
+     * Lowest success rate used in the score, so that a repository which always misses still has a finite cost.
+     */
+    private static final double MIN_SUCCESS_RATE = 0.05;
+
+    /**
+     * Latency assumed for a repository which has been asked but never measured downloading anything.
+     */
+    private static final double UNKNOWN_LATENCY = 100;
+
+    private final double decay;
+
+    private final ConcurrentMap<String, Score> scores = new ConcurrentHashMap<String, Score>();
+
+    private volatile File scoresFile;
+
+    /**
+     * @param decay weight of a new sample in the averages, between 0 and 1
+     */
+    RepositoryScores(double decay) {
+        this.decay = decay;
+    }
+
+    static final class Score {
+        private double latency; // milliseconds
+        private double successRate = 1.0;
+        private long samples;
+        private boolean latencyMeasured;
+
+        synchronized boolean isMeasured() {
+            return samples > 0;
+        }
+
+        synchronized double cost() {
+            return (latencyMeasured ? latency : UNKNOWN_LATENCY) / Math.max(successRate, MIN_SUCCESS_RATE);
+        }
+
+        synchronized long getSamples() {
+            return samples;
+        }
+
+        @Override
+        public synchronized String toString() {
+            return String.format("latency=%.1fms, success=%.2f, samples=%d, score=%.1f", latency, successRate, samples,
+                    cost());
+        }
+    }
+
+    private Score score(String repositoryId) {
+        Score score = scores.get(repositoryId);
+        if (score == null) {
+            Score newScore = new Score();
+            score = scores.putIfAbsent(repositoryId, newScore);
+            if (score == null) {
+                score = newScore;
+            }
+        }
+        return score;
+    }
+
+    /**
+     * Records that the repository has served an artifact.
+     *
+     * @param latencyMillis time it took to download it, or a negative value when it is not known
+     */
+    void success(RemoteRepository repository, long latencyMillis) {
+        update(score(repository.getId()), 1.0, latencyMillis);
+    }
+
+    /**
+     * Records that the repository failed to transfer an artifact, not finding it is not a failure.
+     */
+    void failure(RemoteRepository repository) {
+        update(score(repository.getId()), 0.0, -1);
+    }
+
+    private void update(Score score, double success, long latencyMillis) {
+        synchronized (score) {
+            score.successRate = score.samples == 0 ? success : score.successRate + decay * (success - score.successRate);
+            if (latencyMillis >= 0) {
+                score.latency = score.latencyMeasured
+                        ? score.latency + decay * (latencyMillis - score.latency) : latencyMillis;
+                score.latencyMeasured = true;
+            }
+            score.samples++;
+        }
+    }
+
+    double cost(RemoteRepository repository) {
+        return cost(repository, prior());
+    }
+
+    private double cost(RemoteRepository repository, double prior) {
+        Score score = scores.get(repository.getId());
+        return score == null || !score.isMeasured() ? prior : score.cost();
+    }
+
+    /**
+     * @return the cost of a repository which is not measured yet, the average cost of the measured ones
+     */
+    private double prior() {
+        double total = 0;
+        int measured = 0;
+        for (Score score: scores.values()) {
+            if (score.isMeasured()) {
+                total += score.cost();
+                measured++;
+            }
+        }
+        return measured == 0 ? 0 : total / measured;
+    }
+
+    /**
+     * Sorts the configured repositories at the head of the list by their score, the other repositories stay after
+     * them in their order. Repositories with equal scores keep their configured order.
+     */
+    List<RemoteRepository> reorder(OrderedRepositoryList repos) {
+        int configured = repos.getConfiguredCount();
+        if (configured < 2 || scores.isEmpty()) {
+            return repos;
+        }
+        List<RemoteRepository> head = new ArrayList<RemoteRepository>(repos.subList(0, configured));
+        final Map<RemoteRepository, Double> costs = new IdentityHashMap<RemoteRepository, Double>();
+        double prior = prior();
+        for (RemoteRepository repo: head) {
+            costs.put(repo, cost(repo, prior));
+        }
+        Collections.sort(head, new Comparator<RemoteRepository>() {
+            @Override
+            public int compare(RemoteRepository r1, RemoteRepository r2) {
+                return Double.compare(costs.get(r1), costs.get(r2));
+            }
+        });
+        if (head.equals(repos.subList(0, configured))) {
+            return repos;
+        }
+        head.addAll(repos.subList(configured, repos.size()));
+        return new OrderedRepositoryList(head, configured, repos.getRule());
+    }
+
+    /**
+     * Loads the scores saved by previous builds, only the first call does the work.
+     */
+    void open(File localRepositoryDir) {
+        if (scoresFile != null || localRepositoryDir == null) {
+            return;
+        }
+        synchronized (this) {
+            if (scoresFile == null) {
+                File file = new File(new File(localRepositoryDir, NegativeLookupCache.INDEX_DIR), SCORES_FILE);
+                if (file.isFile()) {
+                    try (InputStream in = new FileInputStream(file)) {
+                        Properties props = new Properties();
+                        props.load(in);
+                        for (Map.Entry<Object, Object> entry: props.entrySet()) {
+                            String[] values = entry.getValue().toString().split(",");
+                            if (values.length != 3) {
+                                continue;
+                            }
+                            Score score = score(entry.getKey().toString());
+                            synchronized (score) {
+                                score.latency = Double.parseDouble(values[0].trim());
+                                score.successRate = Double.parseDouble(values[1].trim());
+                                score.samples = Long.parseLong(values[2].trim());
+                                score.latencyMeasured = score.latency > 0;
+                            }
+                        }
+                    } catch (IOException | NumberFormatException e) {
+                        System.err.println("[WARNING] Can't read repository scores " + file + ": " + e.getMessage());
+                    }
+                }
+                scoresFile = file;
+            }
+        }
+    }
+
+    /**
+     * Saves the scores, so the next build starts with them.
+     */
+    synchronized void save() throws IOException {
+        File file = scoresFile;
+        if (file == null || scores.isEmpty()) {
+            return;
+        }
+        Properties props = new Properties();
+        for (Map.Entry<String, Score> entry: scores.entrySet()) {
+            Score score = entry.getValue();
+            synchronized (score) {
+                props.setProperty(entry.getKey(), score.latency + "," + score.successRate + "," + score.samples);
+            }
+        }
+        File dir = file.getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Can't create directory " + dir);
+        }
+        File tmp = File.createTempFile(SCORES_FILE, ".tmp", dir);
+        try {
+            try (OutputStream out = new FileOutputStream(tmp)) {
+                props.store(out, "Ordered Maven Repository Extension: latency(ms), success rate, samples");
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp.toPath());
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Score> entry: new TreeMap<String, Score>(scores).entrySet()) {
+            sb.append("\n    ").append(entry.getKey()).append(": ").append(entry.getValue());
+        }
+        return sb.toString();
+    }
+}
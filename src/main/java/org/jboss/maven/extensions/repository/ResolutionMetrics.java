@@ -0,0 +1,338 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright @year, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.maven.extensions.repository;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Counters and latency histograms of the resolutions, per repository id, per matched rule and per repository system
+ * operation.
+ *
+ * <ul>
+ *   <li>A repository counts a hit when it served an artifact, a miss when it doesn't have it and an error for any other
+ *   transfer failure. Its bytes and latency are the ones of each transfer of an artifact from it.</li>
+ *   <li>A rule counts a request for each artifact ordered by it, a hit when the artifact is resolved and a miss
+ *   otherwise. Its latency is the time of all the transfers of the artifact, the misses of the repositories tried
+ *   first included.</li>
+ *   <li>An operation counts each call of the overridden repository system method, a miss when it failed.</li>
+ * </ul>
+ *
+ * @author <a href="mailto:lgao@redhat.com">Lin Gao</a>
+ *
+ */
+class ResolutionMetrics implements ResolutionMetricsMBean {
+
+    private final ConcurrentMap<String, Stats> repositories = new ConcurrentHashMap<String, Stats>();
+    private final ConcurrentMap<String, Stats> rules = new ConcurrentHashMap<String, Stats>();
+    private final ConcurrentMap<String, Stats> operations = new ConcurrentHashMap<String, Stats>();
+
+    static final class Stats {
+        final AtomicLong requests = new AtomicLong();
+        final AtomicLong hits = new AtomicLong();
+        final AtomicLong misses = new AtomicLong();
+        final AtomicLong errors = new AtomicLong();
+        final AtomicLong bytes = new AtomicLong();
+        final LatencyHistogram latency = new LatencyHistogram();
+
+        void reset() {
+            requests.set(0);
+            hits.set(0);
+            misses.set(0);
+            errors.set(0);
+            bytes.set(0);
+            latency.reset();
+        }
+    }
+
+    private static Stats stats(ConcurrentMap<String, Stats> map, String key) {
+        Stats stats = map.get(key);
+        if (stats == null) {
+            Stats newStats = new Stats();
+            stats = map.putIfAbsent(key, newStats);
+            if (stats == null) {
+                stats = newStats;
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * Records that the repository served an artifact.
+     *
+     * @param bytes size of the downloaded file, 0 if it was not downloaded
+     * @param micros download time, negative if it was not downloaded
+     */
+    void repositoryHit(String repositoryId, long bytes, long micros) {
+        Stats stats = stats(repositories, repositoryId);
+        stats.requests.incrementAndGet();
+        stats.hits.incrementAndGet();
+        stats.bytes.addAndGet(bytes);
+        stats.latency.record(micros);
+    }
+
+    /**
+     * Records that the repository didn't serve an artifact.
+     *
+     * @param notFound whether the repository doesn't have it, otherwise the transfer failed
+     */
+    void repositoryMiss(String repositoryId, boolean notFound) {
+        Stats stats = stats(repositories, repositoryId);
+        stats.requests.incrementAndGet();
+        if (notFound) {
+            stats.misses.incrementAndGet();
+        } else {
+            stats.errors.incrementAndGet();
+        }
+    }
+
+    /**
+     * Records the resolution of an artifact ordered by a rule.
+     */
+    void rule(String rule, boolean resolved, long bytes, long micros) {
+        Stats stats = stats(rules, rule != null ? rule : "unknown");
+        stats.requests.incrementAndGet();
+        if (resolved) {
+            stats.hits.incrementAndGet();
+        } else {
+            stats.misses.incrementAndGet();
+        }
+        stats.bytes.addAndGet(bytes);
+        stats.latency.record(micros);
+    }
+
+    /**
+     * Records a call of a repository system operation.
+     */
+    void operation(String operation, boolean success, long micros) {
+        Stats stats = stats(operations, operation);
+        stats.requests.incrementAndGet();
+        if (success) {
+            stats.hits.incrementAndGet();
+        } else {
+            stats.misses.incrementAndGet();
+        }
+        stats.latency.record(micros);
+    }
+
+    Stats getRepository(String repositoryId) {
+        return repositories.get(repositoryId);
+    }
+
+    Stats getRule(String rule) {
+        return rules.get(rule);
+    }
+
+    Stats getOperation(String operation) {
+        return operations.get(operation);
+    }
+
+    @Override
+    public long getRequests() {
+        long sum = 0;
+        for (Stats stats: rules.values()) {
+            sum += stats.requests.get();
+        }
+        return sum;
+    }
+
+    @Override
+    public long getHits() {
+        long sum = 0;
+        for (Stats stats: rules.values()) {
+            sum += stats.hits.get();
+        }
+        return sum;
+    }
+
+    @Override
+    public long getMisses() {
+        long sum = 0;
+        for (Stats stats: rules.values()) {
+            sum += stats.misses.get();
+        }
+        return sum;
+    }
+
+    @Override
+    public long getBytes() {
+        long sum = 0;
+        for (Stats stats: repositories.values()) {
+            sum += stats.bytes.get();
+        }
+        return sum;
+    }
+
+    @Override
+    public String[] getRepositories() {
+        return new TreeMap<String, Stats>(repositories).keySet().toArray(new String[0]);
+    }
+
+    @Override
+    public String[] getRules() {
+        return new TreeMap<String, Stats>(rules).keySet().toArray(new String[0]);
+    }
+
+    @Override
+    public void reset() {
+        for (Stats stats: repositories.values()) {
+            stats.reset();
+        }
+        for (Stats stats: rules.values()) {
+            stats.reset();
+        }
+        for (Stats stats: operations.values()) {
+            stats.reset();
+        }
+    }
+
+    boolean isEmpty() {
+        return repositories.isEmpty() && rules.isEmpty() && operations.isEmpty();
+    }
+
+    @Override
+    public String getSummary() {
+        StringBuilder sb = new StringBuilder("Ordered repository resolution metrics:");
+        summary(sb, "repository", repositories);
+        summary(sb, "rule", rules);
+        summary(sb, "operation", operations);
+        return sb.toString();
+    }
+
+    private static void summary(StringBuilder sb, String kind, Map<String, Stats> map) {
+        for (Map.Entry<String, Stats> entry: new TreeMap<String, Stats>(map).entrySet()) {
+            Stats stats = entry.getValue();
+            LatencyHistogram latency = stats.latency;
+            sb.append("\n  ").append(kind).append(' ').append(entry.getKey()).append(": requests=")
+                .append(stats.requests.get()).append(", hits=").append(stats.hits.get()).append(", misses=")
+                .append(stats.misses.get());
+            if (stats.errors.get() > 0) {
+                sb.append(", errors=").append(stats.errors.get());
+            }
+            if (stats.bytes.get() > 0) {
+                sb.append(String.format(", downloaded=%.1f KB", stats.bytes.get() / 1024.0));
+                if (latency.getSum() > 0) {
+                    // KB per second of download time
+                    sb.append(String.format(" at %.1f KB/s", stats.bytes.get() / 1024.0 / (latency.getSum() / 1e6)));
+                }
+            }
+            if (latency.getCount() > 0) {
+                sb.append(String.format(", latency(ms) mean=%.1f p50=%.1f p90=%.1f p99=%.1f max=%.1f",
+                        latency.getMean() / 1000, latency.getValueAtPercentile(50) / 1000.0,
+                        latency.getValueAtPercentile(90) / 1000.0, latency.getValueAtPercentile(99) / 1000.0,
+                        latency.getMax() / 1000.0));
+            }
+        }
+    }
+
+    @Override
+    public String getJson() {
+        StringBuilder sb = new StringBuilder("{");
+        json(sb, "repositories", repositories);
+        sb.append(',');
+        json(sb, "rules", rules);
+        sb.append(',');
+        json(sb, "operations", operations);
+        return sb.append("\n}\n").toString();
+    }
+
+    private static void json(StringBuilder sb, String name, Map<String, Stats> map) {
+        sb.append("\n  ").append(quote(name)).append(": {");
+        boolean first = true;
+        for (Map.Entry<String, Stats> entry: new TreeMap<String, Stats>(map).entrySet()) {
+            Stats stats = entry.getValue();
+            LatencyHistogram latency = stats.latency;
+            sb.append(first ? "" : ",").append("\n    ").append(quote(entry.getKey())).append(": {")
+                .append("\"requests\": ").append(stats.requests.get())
+                .append(", \"hits\": ").append(stats.hits.get())
+                .append(", \"misses\": ").append(stats.misses.get())
+                .append(", \"errors\": ").append(stats.errors.get())
+                .append(", \"bytes\": ").append(stats.bytes.get())
+                .append(", \"latencyMicros\": {\"count\": ").append(latency.getCount())
+                .append(", \"mean\": ").append(Math.round(latency.getMean()))
+                .append(", \"p50\": ").append(latency.getValueAtPercentile(50))
+                .append(", \"p90\": ").append(latency.getValueAtPercentile(90))
+                .append(", \"p99\": ").append(latency.getValueAtPercentile(99))
+                .append(", \"max\": ").append(latency.getMax())
+                .append("}}");
+            first = false;
+        }
+        sb.append(first ? "}" : "\n  }");
+    }
+
+    static String quote(String value) {
+        StringBuilder sb = new StringBuilder("\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < 0x20) {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    /**
+     * Writes the JSON report, the file is replaced atomically.
+     */
+    void write(File file) throws IOException {
+        File dir = file.getAbsoluteFile().getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Can't create directory " + dir);
+        }
+        File tmp = File.createTempFile(file.getName(), ".tmp", dir);
+        try {
+            try (OutputStream out = new FileOutputStream(tmp)) {
+                out.write(getJson().getBytes(StandardCharsets.UTF_8));
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp.toPath());
+        }
+    }
+
+    /**
+     * Registers the metrics in the platform MBean server, replacing the ones of a previous repository system.
+     */
+    void register() throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(OBJECT_NAME);
+        if (server.isRegistered(name)) {
+            server.unregisterMBean(name);
+        }
+        server.registerMBean(this, name);
+    }
+}
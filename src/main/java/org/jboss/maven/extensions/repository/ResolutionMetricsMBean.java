@@ -0,0 +1,53 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright @year, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.maven.extensions.repository;
+
+/**
+ * JMX view of the resolution metrics, for the embedders which keep the repository system across builds.
+ *
+ * @author <a href="mailto:lgao@redhat.com">Lin Gao</a>
+ *
+ */
+public interface ResolutionMetricsMBean {
+
+    String OBJECT_NAME = "org.jboss.maven.extensions:type=OrderedRepositoryMetrics";
+
+    long getRequests();
+
+    long getHits();
+
+    long getMisses();
+
+    long getBytes();
+
+    String[] getRepositories();
+
+    String[] getRules();
+
+    /**
+     * @return the summary printed at the end of a build
+     */
+    String getSummary();
+
+    /**
+     * @return the metrics in the JSON format written at the end of a build
+     */
+    String getJson();
+
+    void reset();
+}
@@ -0,0 +1,317 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright @year, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.maven.extensions.repository;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.aether.artifact.Artifact;
+import org.eclipse.aether.repository.RemoteRepository;
+
+/**
+ * The repository each 'G:A:V' of a build was resolved from, recorded by a build and replayed by the next builds of the
+ * same sources, so they go straight to that repository instead of trying the ordered ones.
+ *
+ * A {@link Recorder} streams the plan while the build runs: a repository id when it is first seen, then an entry per
+ * 'G:A:V' with the 64-bit FNV-1a hash of the 'G:A:V' and the index of its repository. When it is closed, it appends
+ * the repository ids and the entries sorted by hash, followed by the offset of that index, and moves the file in
+ * place, so an interrupted build leaves the previous plan as it was.
+ *
+ * A replayed plan maps the sorted entries from the file, a lookup is a binary search.
+ *
+ * @author <a href="mailto:lgao@redhat.com">Lin Gao</a>
+ *
+ */
+class ResolutionPlan {
+
+    /**
+     * Name of the plan when it orders repositories, as a rule name.
+     */
+    static final String RULE = "plan";
+
+    private static final int MAGIC = 0x4F52504C; // ORPL
+    private static final int VERSION = 1;
+
+    private static final int TAG_END = 0;
+    private static final int TAG_REPOSITORY = 1;
+    private static final int TAG_ENTRY = 2;
+
+    /**
+     * The offset of the index and the magic number end the file.
+     */
+    private static final int TRAILER_SIZE = 12;
+
+    private final String[] repositories;
+    private final LongBuffer keys;
+    private final IntBuffer values;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    private ResolutionPlan(String[] repositories, LongBuffer keys, IntBuffer values) {
+        this.repositories = repositories;
+        this.keys = keys;
+        this.values = values;
+    }
+
+    /**
+     * Maps a plan written by a {@link Recorder}.
+     */
+    static ResolutionPlan load(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+            long size = channel.size();
+            if (size < 8 + TRAILER_SIZE || raf.readInt() != MAGIC) {
+                throw new IOException("Not a resolution plan: " + file);
+            }
+            int version = raf.readInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported resolution plan version " + version + " in " + file);
+            }
+            raf.seek(size - TRAILER_SIZE);
+            long indexOffset = raf.readLong();
+            if (raf.readInt() != MAGIC || indexOffset < 8 || indexOffset > size - TRAILER_SIZE) {
+                throw new IOException("Incomplete resolution plan: " + file);
+            }
+            raf.seek(indexOffset);
+            String[] repositories = new String[raf.readInt()];
+            for (int i = 0; i < repositories.length; i++) {
+                repositories[i] = raf.readUTF().intern();
+            }
+            int count = raf.readInt();
+            long offset = raf.getFilePointer();
+            if (count < 0 || offset + count * 12L != size - TRAILER_SIZE) {
+                throw new IOException("Corrupted resolution plan: " + file);
+            }
+            // the mapping stays valid once the channel is closed
+            LongBuffer keys = channel.map(FileChannel.MapMode.READ_ONLY, offset, count * 8L).asLongBuffer();
+            IntBuffer values = channel.map(FileChannel.MapMode.READ_ONLY, offset + count * 8L, count * 4L)
+                    .asIntBuffer();
+            return new ResolutionPlan(repositories, keys, values);
+        }
+    }
+
+    /**
+     * Gets the repository an artifact was resolved from.
+     *
+     * @return the repository id, or null if the artifact is not in the plan
+     */
+    String lookup(Artifact artifact) {
+        long hash = RepositoryPins.hash(artifact.getGroupId(), artifact.getArtifactId(), artifact.getVersion());
+        int low = 0;
+        int high = keys.limit() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long key = keys.get(mid);
+            if (key < hash) {
+                low = mid + 1;
+            } else if (key > hash) {
+                high = mid - 1;
+            } else {
+                return repositories[values.get(mid)];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Gets the single repository to resolve an artifact from.
+     *
+     * @return the candidate the artifact was resolved from, or null if it is not in the plan or not a candidate
+     */
+    List<RemoteRepository> apply(Artifact artifact, List<RemoteRepository> candidates) {
+        String repositoryId = lookup(artifact);
+        if (repositoryId != null) {
+            for (RemoteRepository candidate: candidates) {
+                if (repositoryId.equals(candidate.getId().trim())) {
+                    hits.incrementAndGet();
+                    return new OrderedRepositoryList(Collections.singletonList(candidate), 1, RULE);
+                }
+            }
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    int size() {
+        return keys.limit();
+    }
+
+    long getHits() {
+        return hits.get();
+    }
+
+    long getMisses() {
+        return misses.get();
+    }
+
+    @Override
+    public String toString() {
+        return "artifacts=" + size() + ", hits=" + hits.get() + ", misses=" + misses.get();
+    }
+
+    /**
+     * Records the repository each 'G:A:V' is resolved from, the first one wins.
+     */
+    static class Recorder {
+
+        private final File file;
+        private final File tmp;
+
+        /**
+         * The index of the repository of each recorded 'G:A:V' by its hash, read without locking.
+         */
+        private final ConcurrentMap<Long, Integer> recorded = new ConcurrentHashMap<Long, Integer>();
+
+        /**
+         * Guarded by this recorder, as the stream.
+         */
+        private final List<String> repositories = new ArrayList<String>();
+        private final Map<String, Integer> repositoryIndexes = new HashMap<String, Integer>();
+        private DataOutputStream out;
+
+        /**
+         * Starts writing a plan, it replaces the file once it is closed.
+         */
+        Recorder(File file) throws IOException {
+            this.file = file.getAbsoluteFile();
+            File dir = this.file.getParentFile();
+            if (!dir.isDirectory() && !dir.mkdirs()) {
+                throw new IOException("Can't create directory " + dir);
+            }
+            this.tmp = File.createTempFile(file.getName(), ".tmp", dir);
+            this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+        }
+
+        /**
+         * Records the repository an artifact was resolved from.
+         */
+        void record(Artifact artifact, RemoteRepository repository) {
+            Long key = RepositoryPins.hash(artifact.getGroupId(), artifact.getArtifactId(), artifact.getVersion());
+            if (recorded.containsKey(key)) {
+                return;
+            }
+            synchronized (this) {
+                if (out == null || recorded.containsKey(key)) {
+                    return;
+                }
+                String repositoryId = repository.getId().trim();
+                try {
+                    Integer index = repositoryIndexes.get(repositoryId);
+                    if (index == null) {
+                        index = repositories.size();
+                        repositories.add(repositoryId);
+                        repositoryIndexes.put(repositoryId, index);
+                        out.writeByte(TAG_REPOSITORY);
+                        out.writeUTF(repositoryId);
+                    }
+                    out.writeByte(TAG_ENTRY);
+                    out.writeLong(key);
+                    out.writeInt(index);
+                    recorded.put(key, index);
+                } catch (IOException e) {
+                    System.err.println("[WARNING] Failed to record the resolution plan " + file + ": " + e.getMessage());
+                    discard();
+                }
+            }
+        }
+
+        /**
+         * Writes the index of the recorded entries, and replaces the plan with the new one.
+         */
+        synchronized void close() throws IOException {
+            if (out == null) {
+                return;
+            }
+            try {
+                out.writeByte(TAG_END);
+                long indexOffset = out.size();
+                out.writeInt(repositories.size());
+                for (String repositoryId: repositories) {
+                    out.writeUTF(repositoryId);
+                }
+                long[] keys = new long[recorded.size()];
+                int i = 0;
+                for (Long key: recorded.keySet()) {
+                    keys[i++] = key;
+                }
+                Arrays.sort(keys);
+                out.writeInt(keys.length);
+                for (long key: keys) {
+                    out.writeLong(key);
+                }
+                for (long key: keys) {
+                    out.writeInt(recorded.get(key));
+                }
+                out.writeLong(indexOffset);
+                out.writeInt(MAGIC);
+                out.close();
+                out = null;
+                Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                discard();
+            }
+        }
+
+        /**
+         * Stops recording, the previous plan is kept.
+         */
+        private void discard() {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    // nothing more to write
+                }
+                out = null;
+            }
+            tmp.delete();
+        }
+
+        /**
+         * @return the number of artifacts recorded
+         */
+        int size() {
+            return recorded.size();
+        }
+
+        File getFile() {
+            return file;
+        }
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright @year, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.maven.extensions.repository;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.aether.RepositorySystemSession;
+import org.eclipse.aether.artifact.Artifact;
+import org.eclipse.aether.repository.RemoteRepository;
+import org.eclipse.aether.repository.WorkspaceReader;
+import org.eclipse.aether.resolution.ArtifactRequest;
+import org.eclipse.aether.resolution.ArtifactResult;
+
+/**
+ * Caches the resolved artifacts of a session, so resolving the same artifact from the same ordered repositories again
+ * doesn't look it up in the local repository, which checks its file and reads the <code>_remote.repositories</code>
+ * tracking file next to it.
+ *
+ * The entries of a session are kept with its {@link RepositorySystemSession#getData() data}, weakly referenced, so
+ * they are dropped with the session, and the copies of a session made by plugins share them. SNAPSHOT versions are not
+ * cached as they can be updated during the session, nor the artifacts of the reactor: an artifact whose G:A:V the
+ * {@link WorkspaceReader} of the session knows is neither cached nor read from the cache, as a module of the reactor
+ * can be built after its artifact was resolved from the local repository. A cached artifact whose file was deleted
+ * meanwhile is resolved again.
+ *
+ * @author <a href="mailto:lgao@redhat.com">Lin Gao</a>
+ *
+ */
+class ResolutionResultCache {
+
+    /**
+     * The entries of each session by its data, guarded by itself.
+     */
+    private final Map<Object, ConcurrentMap<Key, ArtifactResult>> sessions =
+            new WeakHashMap<Object, ConcurrentMap<Key, ArtifactResult>>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong stale = new AtomicLong();
+
+    private ConcurrentMap<Key, ArtifactResult> entries(RepositorySystemSession session, boolean create) {
+        Object data = session.getData();
+        synchronized (sessions) {
+            ConcurrentMap<Key, ArtifactResult> entries = sessions.get(data);
+            if (entries == null && create) {
+                entries = new ConcurrentHashMap<Key, ArtifactResult>();
+                sessions.put(data, entries);
+            }
+            return entries;
+        }
+    }
+
+    /**
+     * Gets the cached result of a request, its repositories being the ordered ones.
+     *
+     * @return a result for the request, or null if it must be resolved
+     */
+    ArtifactResult get(RepositorySystemSession session, ArtifactRequest request) {
+        if (!isCacheable(session, request.getArtifact())) {
+            return null;
+        }
+        ConcurrentMap<Key, ArtifactResult> entries = entries(session, false);
+        Key key = new Key(request.getArtifact(), request.getRepositories());
+        ArtifactResult cached = entries != null ? entries.get(key) : null;
+        if (cached == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        File file = cached.getArtifact().getFile();
+        if (file == null || !file.isFile()) {
+            entries.remove(key, cached);
+            stale.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        ArtifactResult result = new ArtifactResult(request);
+        result.setArtifact(cached.getArtifact());
+        result.setRepository(cached.getRepository());
+        return result;
+    }
+
+    /**
+     * Caches a resolved artifact.
+     */
+    void put(RepositorySystemSession session, ArtifactResult result) {
+        ArtifactRequest request = result.getRequest();
+        if (!result.isResolved() || result.getArtifact().getFile() == null || !isCacheable(session, request.getArtifact())
+                || !(result.getRepository() instanceof RemoteRepository || isLocal(session, result))) {
+            return;
+        }
+        Key key = new Key(request.getArtifact(), new ArrayList<RemoteRepository>(request.getRepositories()));
+        entries(session, true).put(key, result);
+    }
+
+    private static boolean isCacheable(RepositorySystemSession session, Artifact artifact) {
+        return !artifact.isSnapshot() && !isInWorkspace(session, artifact);
+    }
+
+    /**
+     * Checks whether the workspace of the reactor has an artifact, or a module with its G:A:V not built yet.
+     */
+    private static boolean isInWorkspace(RepositorySystemSession session, Artifact artifact) {
+        WorkspaceReader reader = session.getWorkspaceReader();
+        if (reader == null) {
+            return false;
+        }
+        List<String> versions = reader.findVersions(artifact);
+        return (versions != null && versions.contains(artifact.getVersion())) || reader.findArtifact(artifact) != null;
+    }
+
+    /**
+     * Checks whether an artifact was resolved from the local repository, the workspace of the reactor is not cached.
+     */
+    private static boolean isLocal(RepositorySystemSession session, ArtifactResult result) {
+        return session.getLocalRepository() != null && session.getLocalRepository().equals(result.getRepository());
+    }
+
+    /**
+     * @return the number of local repository lookups avoided, each of them checking the file of the artifact and
+     * reading its tracking file
+     */
+    long getHits() {
+        return hits.get();
+    }
+
+    long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return the number of cached artifacts whose file was deleted
+     */
+    long getStale() {
+        return stale.get();
+    }
+
+    @Override
+    public String toString() {
+        return "local repository lookups avoided: " + hits.get() + ", misses: " + misses.get() + ", stale: "
+                + stale.get();
+    }
+
+    private static final class Key {
+        private final Artifact artifact;
+        private final List<RemoteRepository> repositories;
+        private final int hash;
+
+        Key(Artifact artifact, List<RemoteRepository> repositories) {
+            this.artifact = artifact;
+            this.repositories = repositories;
+            int h = artifact.getGroupId().hashCode();
+            h = h * 31 + artifact.getArtifactId().hashCode();
+            h = h * 31 + artifact.getVersion().hashCode();
+            h = h * 31 + artifact.getClassifier().hashCode();
+            h = h * 31 + artifact.getExtension().hashCode();
+            this.hash = h * 31 + repositories.hashCode();
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key that = (Key) obj;
+            return hash == that.hash && artifact.getGroupId().equals(that.artifact.getGroupId())
+                    && artifact.getArtifactId().equals(that.artifact.getArtifactId())
+                    && artifact.getVersion().equals(that.artifact.getVersion())
+                    && artifact.getClassifier().equals(that.artifact.getClassifier())
+                    && artifact.getExtension().equals(that.artifact.getExtension())
+                    && repositories.equals(that.repositories);
+        }
+    }
+}
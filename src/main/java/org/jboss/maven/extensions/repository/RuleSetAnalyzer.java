@@ -0,0 +1,642 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright @year, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.maven.extensions.repository;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.regex.Matcher;
+
+import org.eclipse.aether.artifact.Artifact;
+import org.eclipse.aether.artifact.DefaultArtifact;
+import org.eclipse.aether.repository.RemoteRepository;
+import org.jboss.maven.extensions.repository.OrderedRepositoryConfiguration.OrderRule;
+
+/**
+ * Replays a recorded ordering trace through a rule set, without running Maven, to see what a change of the
+ * configuration does: how many artifacts each rule orders, which 'G:A:V' no rule matches, how many repositories are
+ * probed per artifact, and which rules never win because a rule with a lower index matches their artifacts first.
+ *
+ * The trace is the file written by {@link OrderingTrace#dump(File)}, each event is ordered again from its candidate
+ * repositories. The events are split across a fork-join pool, each task counting its part, then the distinct 'G:A:V'
+ * are matched against the rules ordered after their winning rule to find the shadowed ones.
+ *
+ * Without a resolution plan, the probes of an artifact are the repositories it is ordered to, as when it is missing.
+ * With a plan recorded by a build, the probes are the repositories ordered up to the one the artifact was resolved
+ * from.
+ *
+ * <pre>
+ * java -cp ordered-repository-extension.jar:$MAVEN_HOME/lib/* org.jboss.maven.extensions.repository.RuleSetAnalyzer
+ *     [-c config-url] [-p plan-file] [-u unmatched-shown] trace-file...
+ * </pre>
+ *
+ * @author <a href="mailto:lgao@redhat.com">Lin Gao</a>
+ *
+ */
+public class RuleSetAnalyzer {
+
+    static final int DEFAULT_UNMATCHED_SHOWN = 20;
+
+    /**
+     * Events ordered by a task without splitting it.
+     */
+    private static final int THRESHOLD = 4096;
+
+    /**
+     * Lines read from a trace file before replaying them.
+     */
+    private static final int CHUNK = 65536;
+
+    private final OrderedRepositoryConfiguration config;
+    private final ResolutionPlan plan;
+    private final ForkJoinPool pool;
+    private final RepositoryOrderer orderer = new RepositoryOrderer();
+
+    /**
+     * The literal prefixes of the rules, by index in {@link OrderedRepositoryConfiguration#getOrderedRules()}.
+     */
+    private final String[] prefixes;
+
+    /**
+     * The index of each rule in {@link OrderedRepositoryConfiguration#getOrderedRules()}, by name.
+     */
+    private final Map<String, Integer> positions;
+
+    /**
+     * @param plan the resolution plan telling where the artifacts were resolved from, or null
+     */
+    RuleSetAnalyzer(OrderedRepositoryConfiguration config, ResolutionPlan plan, ForkJoinPool pool) {
+        this.config = config;
+        this.plan = plan;
+        this.pool = pool;
+        List<OrderRule> rules = config.getOrderedRules();
+        this.prefixes = new String[rules.size()];
+        this.positions = new HashMap<String, Integer>();
+        for (int i = 0; i < prefixes.length; i++) {
+            OrderRule rule = rules.get(i);
+            prefixes[i] = rule.getPattern() != null ? OrderRuleMatcher.literalPrefix(rule.getPattern().pattern()) : null;
+            positions.put(rule.getName(), i);
+        }
+    }
+
+    /**
+     * The counts of a part of the trace, merged into the report.
+     */
+    static final class Report {
+        private long events;
+        private long invalid;
+        private String firstInvalid;
+        private long changed;
+        private long probes;
+        private long tracedProbes;
+        private long planned;
+        private long unreachable;
+        private final Map<String, Long> ruleEvents = new HashMap<String, Long>();
+        private final Map<String, Long> unmatched = new HashMap<String, Long>();
+        /**
+         * The winning rule of each distinct 'G:A:V'.
+         */
+        private final Map<String, String> winners = new HashMap<String, String>();
+        private final Map<String, Long> ruleMatches = new HashMap<String, Long>();
+        private final Map<String, Map<String, Long>> shadowedBy = new HashMap<String, Map<String, Long>>();
+
+        private static void add(Map<String, Long> counts, String key, long count) {
+            Long current = counts.get(key);
+            counts.put(key, current != null ? current + count : count);
+        }
+
+        private Report merge(Report other) {
+            events += other.events;
+            if (invalid == 0) {
+                firstInvalid = other.firstInvalid;
+            }
+            invalid += other.invalid;
+            changed += other.changed;
+            probes += other.probes;
+            tracedProbes += other.tracedProbes;
+            planned += other.planned;
+            unreachable += other.unreachable;
+            for (Map.Entry<String, Long> entry: other.ruleEvents.entrySet()) {
+                add(ruleEvents, entry.getKey(), entry.getValue());
+            }
+            for (Map.Entry<String, Long> entry: other.unmatched.entrySet()) {
+                add(unmatched, entry.getKey(), entry.getValue());
+            }
+            winners.putAll(other.winners);
+            for (Map.Entry<String, Long> entry: other.ruleMatches.entrySet()) {
+                add(ruleMatches, entry.getKey(), entry.getValue());
+            }
+            for (Map.Entry<String, Map<String, Long>> entry: other.shadowedBy.entrySet()) {
+                Map<String, Long> by = shadowedBy.get(entry.getKey());
+                if (by == null) {
+                    by = new HashMap<String, Long>();
+                    shadowedBy.put(entry.getKey(), by);
+                }
+                for (Map.Entry<String, Long> count: entry.getValue().entrySet()) {
+                    add(by, count.getKey(), count.getValue());
+                }
+            }
+            return this;
+        }
+
+        /**
+         * @return the number of events replayed
+         */
+        long getEvents() {
+            return events;
+        }
+
+        /**
+         * @return the number of lines which are not trace events
+         */
+        long getInvalid() {
+            return invalid;
+        }
+
+        /**
+         * @return the number of events whose ordered repositories differ from the traced ones
+         */
+        long getChanged() {
+            return changed;
+        }
+
+        /**
+         * @return the number of events replayed by each winning rule, including <code>regex.default</code> and
+         *         <code>pins</code>
+         */
+        Map<String, Long> getRuleEvents() {
+            return ruleEvents;
+        }
+
+        /**
+         * @return the number of events of each 'G:A:V' which no rule matches
+         */
+        Map<String, Long> getUnmatched() {
+            return unmatched;
+        }
+
+        /**
+         * @return the number of distinct 'G:A:V' matching each rule, whether the rule wins or not
+         */
+        Map<String, Long> getRuleMatches() {
+            return ruleMatches;
+        }
+
+        /**
+         * @return the number of distinct 'G:A:V' a rule matches but loses, by the rule winning them
+         */
+        Map<String, Map<String, Long>> getShadowedBy() {
+            return shadowedBy;
+        }
+
+        /**
+         * @return the number of distinct 'G:A:V' replayed
+         */
+        int getDistinct() {
+            return winners.size();
+        }
+
+        /**
+         * @return the average number of repositories probed per event
+         */
+        double getProbesPerArtifact() {
+            return events > 0 ? (double) probes / events : 0;
+        }
+
+        /**
+         * @return the average number of repositories probed per event with the traced ordering
+         */
+        double getTracedProbesPerArtifact() {
+            return events > 0 ? (double) tracedProbes / events : 0;
+        }
+
+        /**
+         * @return the number of events whose planned repository is no longer in their ordered repositories
+         */
+        long getUnreachable() {
+            return unreachable;
+        }
+
+        long getPlanned() {
+            return planned;
+        }
+    }
+
+    /**
+     * Orders the events of a range of the trace again.
+     */
+    private final class Replay extends RecursiveTask<Report> {
+        private static final long serialVersionUID = 1L;
+
+        private final List<String> lines;
+        private final int from;
+        private final int to;
+        private final long firstLine;
+
+        /**
+         * @param firstLine the number of the first of the lines in the trace, for the messages
+         */
+        Replay(List<String> lines, int from, int to, long firstLine) {
+            this.lines = lines;
+            this.from = from;
+            this.to = to;
+            this.firstLine = firstLine;
+        }
+
+        @Override
+        protected Report compute() {
+            if (to - from > THRESHOLD) {
+                int mid = (from + to) >>> 1;
+                Replay left = new Replay(lines, from, mid, firstLine);
+                left.fork();
+                Report right = new Replay(lines, mid, to, firstLine).compute();
+                return left.join().merge(right);
+            }
+            Report report = new Report();
+            Map<String, RemoteRepository> repositories = new HashMap<String, RemoteRepository>();
+            for (int i = from; i < to; i++) {
+                OrderingTrace.Event event;
+                try {
+                    event = OrderingTrace.parse(lines.get(i));
+                } catch (IllegalArgumentException e) {
+                    if (report.invalid++ == 0) {
+                        report.firstInvalid = "line " + (firstLine + i) + ": " + e.getMessage();
+                    }
+                    continue;
+                }
+                if (event == null) {
+                    continue;
+                }
+                Artifact artifact = artifact(event.getGav());
+                if (artifact == null) {
+                    if (report.invalid++ == 0) {
+                        report.firstInvalid = "line " + (firstLine + i) + ": not a G:A:V " + event.getGav();
+                    }
+                    continue;
+                }
+                replay(report, event, artifact, repositories);
+            }
+            return report;
+        }
+    }
+
+    private void replay(Report report, OrderingTrace.Event event, Artifact artifact,
+            Map<String, RemoteRepository> repositories) {
+        String[] ids = event.getCandidates();
+        List<RemoteRepository> candidates = new ArrayList<RemoteRepository>(ids.length);
+        for (String id: ids) {
+            RemoteRepository repository = repositories.get(id);
+            if (repository == null) {
+                repository = new RemoteRepository.Builder(id, "default", "http://localhost/" + id).build();
+                repositories.put(id, repository);
+            }
+            candidates.add(repository);
+        }
+        OrderedRepositoryList ordered = orderer.order(config, artifact, candidates);
+        String rule = OrderedRepositoryList.ruleOf(ordered);
+        report.events++;
+        Report.add(report.ruleEvents, rule, 1);
+        if (OrderedRepositoryConfiguration.DEFAULT_RULE.equals(rule)) {
+            Report.add(report.unmatched, event.getGav(), 1);
+        }
+        report.winners.put(event.getGav(), rule);
+        String[] traced = event.getOrdered();
+        boolean same = traced.length == ordered.size();
+        for (int i = 0; same && i < traced.length; i++) {
+            same = traced[i].equals(ordered.get(i).getId());
+        }
+        if (!same) {
+            report.changed++;
+        }
+        String resolved = plan != null ? plan.lookup(artifact) : null;
+        if (resolved != null) {
+            report.planned++;
+            int index = indexOf(ordered, resolved);
+            if (index < 0) {
+                report.unreachable++;
+                report.probes += ordered.size();
+            } else {
+                report.probes += index + 1;
+            }
+            int tracedIndex = indexOf(traced, resolved);
+            report.tracedProbes += tracedIndex < 0 ? traced.length : tracedIndex + 1;
+        } else {
+            report.probes += ordered.size();
+            report.tracedProbes += traced.length;
+        }
+    }
+
+    private static int indexOf(List<RemoteRepository> repos, String id) {
+        for (int i = 0; i < repos.size(); i++) {
+            if (id.equals(repos.get(i).getId().trim())) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int indexOf(String[] ids, String id) {
+        for (int i = 0; i < ids.length; i++) {
+            if (id.equals(ids[i])) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the artifact of a 'G:A:V', or null if it is not one
+     */
+    private static Artifact artifact(String gav) {
+        int first = gav.indexOf(':');
+        int second = first < 0 ? -1 : gav.indexOf(':', first + 1);
+        if (second < 0 || gav.indexOf(':', second + 1) >= 0) {
+            return null;
+        }
+        return new DefaultArtifact(gav.substring(0, first), gav.substring(first + 1, second), null, "jar",
+                gav.substring(second + 1));
+    }
+
+    /**
+     * Matches a range of the distinct 'G:A:V' against the rules after their winning rule.
+     */
+    private final class Shadowing extends RecursiveTask<Report> {
+        private static final long serialVersionUID = 1L;
+
+        private final List<Map.Entry<String, String>> winners;
+        private final int from;
+        private final int to;
+
+        Shadowing(List<Map.Entry<String, String>> winners, int from, int to) {
+            this.winners = winners;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Report compute() {
+            if (to - from > THRESHOLD) {
+                int mid = (from + to) >>> 1;
+                Shadowing left = new Shadowing(winners, from, mid);
+                left.fork();
+                Report right = new Shadowing(winners, mid, to).compute();
+                return left.join().merge(right);
+            }
+            Report report = new Report();
+            List<OrderRule> rules = config.getOrderedRules();
+            Matcher[] matchers = new Matcher[rules.size()];
+            for (int i = from; i < to; i++) {
+                String gav = winners.get(i).getKey();
+                String winner = winners.get(i).getValue();
+                if (OrderedRepositoryConfiguration.DEFAULT_RULE.equals(winner)) {
+                    continue; // no rule matches it
+                }
+                // the rules before the winner don't match it, pins are looked up before all of them
+                Integer position = positions.get(winner);
+                if (position != null) {
+                    Report.add(report.ruleMatches, winner, 1);
+                }
+                for (int r = position != null ? position + 1 : 0; r < rules.size(); r++) {
+                    OrderRule rule = rules.get(r);
+                    if (prefixes[r] == null || !startsWith(gav, prefixes[r])) {
+                        continue;
+                    }
+                    if (matchers[r] == null) {
+                        matchers[r] = rule.getPattern().matcher(gav);
+                    } else {
+                        matchers[r].reset(gav);
+                    }
+                    if (matchers[r].matches()) {
+                        Report.add(report.ruleMatches, rule.getName(), 1);
+                        Map<String, Long> by = report.shadowedBy.get(rule.getName());
+                        if (by == null) {
+                            by = new HashMap<String, Long>();
+                            report.shadowedBy.put(rule.getName(), by);
+                        }
+                        Report.add(by, winner, 1);
+                    }
+                }
+            }
+            return report;
+        }
+    }
+
+    /**
+     * Checks the literal prefix of a rule, {@link OrderRuleMatcher#ANY} being any character.
+     */
+    private static boolean startsWith(String gav, String prefix) {
+        if (gav.length() < prefix.length()) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            char c = prefix.charAt(i);
+            if (c != OrderRuleMatcher.ANY && c != gav.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Replays the lines of a trace.
+     */
+    Report analyze(List<String> lines) {
+        return shadowing(pool.invoke(new Replay(lines, 0, lines.size(), 1)));
+    }
+
+    /**
+     * Replays a trace while it is read, so it doesn't have to fit in memory: chunks of lines are replayed by the pool
+     * while the next ones are read, a few of them at most being kept.
+     */
+    Report replay(BufferedReader reader) throws IOException {
+        Report report = new Report();
+        Deque<Replay> pending = new ArrayDeque<Replay>();
+        long lineNumber = 1;
+        List<String> chunk = new ArrayList<String>(CHUNK);
+        String line;
+        while ((line = reader.readLine()) != null) {
+            chunk.add(line);
+            if (chunk.size() == CHUNK) {
+                if (pending.size() > pool.getParallelism()) {
+                    report.merge(pending.poll().join());
+                }
+                pending.add(submit(chunk, lineNumber));
+                lineNumber += chunk.size();
+                chunk = new ArrayList<String>(CHUNK);
+            }
+        }
+        if (!chunk.isEmpty()) {
+            pending.add(submit(chunk, lineNumber));
+        }
+        while (!pending.isEmpty()) {
+            report.merge(pending.poll().join());
+        }
+        return report;
+    }
+
+    private Replay submit(List<String> chunk, long lineNumber) {
+        Replay replay = new Replay(chunk, 0, chunk.size(), lineNumber);
+        pool.execute(replay);
+        return replay;
+    }
+
+    /**
+     * Finds the shadowed rules of the replayed 'G:A:V'.
+     */
+    Report shadowing(Report report) {
+        List<Map.Entry<String, String>> winners = new ArrayList<Map.Entry<String, String>>(report.winners.entrySet());
+        Report shadowing = pool.invoke(new Shadowing(winners, 0, winners.size()));
+        report.ruleMatches.putAll(shadowing.ruleMatches);
+        report.shadowedBy.putAll(shadowing.shadowedBy);
+        return report;
+    }
+
+    /**
+     * Prints the report, the rules by index, then the shadowed rules and the most frequent unmatched 'G:A:V'.
+     */
+    void print(Report report, int unmatchedShown, PrintStream out) {
+        out.println("Events: " + report.events + ", distinct G:A:V: " + report.getDistinct()
+                + ", ordered differently than traced: " + report.changed);
+        if (report.invalid > 0) {
+            out.println("Invalid lines: " + report.invalid + " (" + report.firstInvalid + ")");
+        }
+        out.println(String.format("Repositories probed per artifact: %.2f (traced: %.2f)%s",
+                report.getProbesPerArtifact(), report.getTracedProbesPerArtifact(),
+                plan != null ? ", " + report.planned + " artifacts in the plan" : ", as if missing"));
+        if (report.unreachable > 0) {
+            out.println("Artifacts no longer ordered to their planned repository: " + report.unreachable);
+        }
+        out.println();
+        out.println(String.format("%-20s %12s %12s  %s", "Rule", "Events", "G:A:V", "Description"));
+        if (report.ruleEvents.containsKey(RepositoryPins.RULE)) {
+            out.println(String.format("%-20s %12d %12s", RepositoryPins.RULE, report.ruleEvents.get(RepositoryPins.RULE), "-"));
+        }
+        for (OrderRule rule: config.getOrderedRules()) {
+            Long events = report.ruleEvents.get(rule.getName());
+            Long matches = report.ruleMatches.get(rule.getName());
+            out.println(String.format("%-20s %12d %12d  %s", rule.getName(), events != null ? events : 0,
+                    matches != null ? matches : 0, rule.getDescription() != null ? rule.getDescription() : ""));
+        }
+        Long defaults = report.ruleEvents.get(OrderedRepositoryConfiguration.DEFAULT_RULE);
+        out.println(String.format("%-20s %12d %12d", OrderedRepositoryConfiguration.DEFAULT_RULE,
+                defaults != null ? defaults : 0, report.unmatched.size()));
+        out.println();
+        for (OrderRule rule: config.getOrderedRules()) {
+            Map<String, Long> by = report.shadowedBy.get(rule.getName());
+            if (report.ruleEvents.containsKey(rule.getName())) {
+                if (by != null) {
+                    out.println(rule.getName() + " loses " + sum(by) + " of its G:A:V to " + new TreeMap<String, Long>(by));
+                }
+            } else if (by != null) {
+                out.println(rule.getName() + " never wins, shadowed by " + new TreeMap<String, Long>(by));
+            } else {
+                out.println(rule.getName() + " matches none of the traced G:A:V");
+            }
+        }
+        if (!report.unmatched.isEmpty()) {
+            out.println();
+            out.println("Unmatched G:A:V (" + report.unmatched.size() + "), by events:");
+            for (Map.Entry<String, Long> entry: top(report.unmatched, unmatchedShown)) {
+                out.println(String.format("%12d  %s", entry.getValue(), entry.getKey()));
+            }
+        }
+    }
+
+    private static long sum(Map<String, Long> counts) {
+        long sum = 0;
+        for (long count: counts.values()) {
+            sum += count;
+        }
+        return sum;
+    }
+
+    private static List<Map.Entry<String, Long>> top(Map<String, Long> counts, int limit) {
+        List<Map.Entry<String, Long>> entries = new ArrayList<Map.Entry<String, Long>>(counts.entrySet());
+        Collections.sort(entries, new Comparator<Map.Entry<String, Long>>() {
+            @Override
+            public int compare(Map.Entry<String, Long> e1, Map.Entry<String, Long> e2) {
+                int c = Long.compare(e2.getValue(), e1.getValue());
+                return c != 0 ? c : e1.getKey().compareTo(e2.getKey());
+            }
+        });
+        return entries.subList(0, Math.min(limit, entries.size()));
+    }
+
+    private static void usage() {
+        System.err.println("Usage: " + RuleSetAnalyzer.class.getName()
+                + " [-c config-url] [-p plan-file] [-u unmatched-shown] trace-file...");
+    }
+
+    public static void main(String[] args) throws IOException {
+        String configUrl = null;
+        File planFile = null;
+        int unmatchedShown = DEFAULT_UNMATCHED_SHOWN;
+        List<File> traces = new ArrayList<File>();
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if ((arg.equals("-c") || arg.equals("-p") || arg.equals("-u")) && i + 1 == args.length) {
+                usage();
+                System.exit(1);
+            }
+            if (arg.equals("-c")) {
+                configUrl = args[++i];
+            } else if (arg.equals("-p")) {
+                planFile = new File(args[++i]);
+            } else if (arg.equals("-u")) {
+                unmatchedShown = Integer.parseInt(args[++i]);
+            } else if (arg.startsWith("-")) {
+                usage();
+                System.exit(1);
+            } else {
+                traces.add(new File(arg));
+            }
+        }
+        if (traces.isEmpty()) {
+            usage();
+            System.exit(1);
+        }
+        long start = System.currentTimeMillis();
+        OrderedRepositoryConfiguration config = new OrderedRepositoryConfiguration(configUrl);
+        ResolutionPlan plan = planFile != null ? ResolutionPlan.load(planFile) : null;
+        RuleSetAnalyzer analyzer = new RuleSetAnalyzer(config, plan, ForkJoinPool.commonPool());
+        Report report = new Report();
+        for (File trace: traces) {
+            try (BufferedReader reader = Files.newBufferedReader(trace.toPath(), StandardCharsets.UTF_8)) {
+                report.merge(analyzer.replay(reader));
+            }
+        }
+        analyzer.shadowing(report);
+        analyzer.print(report, unmatchedShown, System.out);
+        System.out.println();
+        System.out.println("[INFO] Analyzed " + report.getEvents() + " events in " + (System.currentTimeMillis() - start) + " ms");
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright @year, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.maven.extensions.repository;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.eclipse.aether.resolution.ArtifactResolutionException;
+import org.eclipse.aether.resolution.ArtifactResult;
+import org.eclipse.aether.transfer.ArtifactTransferException;
+
+/**
+ * Digs the per repository transfer failures out of the exceptions reported by resolution results.
+ *
+ * @author <a href="mailto:lgao@redhat.com">Lin Gao</a>
+ *
+ */
+final class TransferFailures {
+
+    private TransferFailures() {
+    }
+
+    /**
+     * Collects the {@link ArtifactTransferException}s, including not found ones, in the exceptions, their causes and
+     * the results of nested {@link ArtifactResolutionException}s.
+     */
+    static List<ArtifactTransferException> collect(List<Exception> exceptions) {
+        if (exceptions.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<ArtifactTransferException> failures = new ArrayList<ArtifactTransferException>(exceptions.size());
+        for (Exception exception: exceptions) {
+            collect(exception, failures);
+        }
+        return failures;
+    }
+
+    private static void collect(Throwable exception, List<ArtifactTransferException> failures) {
+        for (Throwable t = exception; t != null; t = t.getCause()) {
+            if (t instanceof ArtifactTransferException) {
+                failures.add((ArtifactTransferException) t);
+                return;
+            } else if (t instanceof ArtifactResolutionException) {
+                for (ArtifactResult result: ((ArtifactResolutionException) t).getResults()) {
+                    for (Exception e: result.getExceptions()) {
+                        collect(e, failures);
+                    }
+                }
+                return;
+            }
+            if (t.getCause() == t) {
+                break;
+            }
+        }
+    }
+}
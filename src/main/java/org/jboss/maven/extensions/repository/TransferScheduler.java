@@ -0,0 +1,666 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright @year, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.maven.extensions.repository;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.aether.resolution.ArtifactRequest;
+import org.eclipse.aether.resolution.ArtifactResolutionException;
+import org.eclipse.aether.resolution.ArtifactResult;
+
+/**
+ * Schedules the downloads of the artifacts by the transfer policy of the rule ordering them: the number of concurrent
+ * downloads from a repository, its bandwidth, and the priority of the rule.
+ *
+ * Each repository has a gate, the first repository of the ordered ones being the one a download goes to. A download
+ * takes a permit, up to the concurrency of the gate, and the waiting downloads are let through by priority, then in
+ * their order of arrival. The bandwidth is a token bucket holding up to one second of bytes: the downloaded bytes are
+ * taken from the bucket of the repository serving them once known, and no download starts while it is in debt, so the
+ * average rate stays under the limit. When rules sending downloads to the same repository have different limits, the
+ * smallest ones apply, until the configuration is reloaded: {@link #reset()} lifts the limits, which the rules of the
+ * new configuration set again.
+ *
+ * The requests are resolved in chunks holding a permit per artifact, a chunk never has more artifacts than the
+ * concurrency of its repository. The waiting requests are queued in their gate, not in a thread: a chunk is handed to
+ * the executor of its caller once let through, like the chunks over the limit of {@link ParallelArtifactResolver}, so
+ * the threads of the executor only run downloads which can start.
+ *
+ * @author <a href="mailto:lgao@redhat.com">Lin Gao</a>
+ *
+ */
+class TransferScheduler {
+
+    static final String KEY_CONCURRENCY = "concurrency";
+    static final String KEY_BANDWIDTH = "bandwidth";
+    static final String KEY_PRIORITY = "priority";
+
+    enum Priority {
+        HIGH, NORMAL, LOW
+    }
+
+    /**
+     * The transfer policy of a rule, set by <code>regex.N.transfer.concurrency</code>,
+     * <code>regex.N.transfer.bandwidth</code> and <code>regex.N.transfer.priority</code>.
+     */
+    static final class Policy {
+        private final int concurrency;
+        private final long bandwidth;
+        private final Priority priority;
+
+        /**
+         * @param concurrency the maximum concurrent downloads per repository, 0 for no limit
+         * @param bandwidth the maximum bytes per second per repository, 0 for no limit
+         */
+        Policy(int concurrency, long bandwidth, Priority priority) {
+            this.concurrency = concurrency > 0 ? concurrency : Integer.MAX_VALUE;
+            this.bandwidth = Math.max(0, bandwidth);
+            this.priority = priority != null ? priority : Priority.NORMAL;
+        }
+
+        /**
+         * Reads a policy from its configured values, like <code>concurrency = 4</code>, <code>bandwidth = 512k</code>
+         * and <code>priority = high</code>.
+         */
+        static Policy parse(Map<String, String> values) {
+            int concurrency = 0;
+            long bandwidth = 0;
+            Priority priority = null;
+            for (Map.Entry<String, String> entry: values.entrySet()) {
+                String value = entry.getValue().trim();
+                if (entry.getKey().equals(KEY_CONCURRENCY)) {
+                    concurrency = Integer.parseInt(value);
+                } else if (entry.getKey().equals(KEY_BANDWIDTH)) {
+                    bandwidth = parseBytes(value);
+                } else if (entry.getKey().equals(KEY_PRIORITY)) {
+                    priority = Priority.valueOf(value.toUpperCase(Locale.ENGLISH));
+                } else {
+                    throw new IllegalArgumentException("Unknown transfer policy: " + entry.getKey());
+                }
+            }
+            return new Policy(concurrency, bandwidth, priority);
+        }
+
+        private static long parseBytes(String value) {
+            char unit = Character.toLowerCase(value.charAt(value.length() - 1));
+            long multiplier = unit == 'k' ? 1024 : unit == 'm' ? 1024 * 1024 : unit == 'g' ? 1024 * 1024 * 1024 : 1;
+            return Long.parseLong(multiplier > 1 ? value.substring(0, value.length() - 1).trim() : value) * multiplier;
+        }
+
+        int getConcurrency() {
+            return concurrency;
+        }
+
+        long getBandwidth() {
+            return bandwidth;
+        }
+
+        Priority getPriority() {
+            return priority;
+        }
+
+        @Override
+        public String toString() {
+            return "concurrency=" + (concurrency == Integer.MAX_VALUE ? "-" : String.valueOf(concurrency))
+                    + ", bandwidth=" + (bandwidth > 0 ? bandwidth + "B/s" : "-") + ", priority=" + priority;
+        }
+    }
+
+    /**
+     * Gets the transfer policy of a rule.
+     */
+    interface Policies {
+        /**
+         * @return the policy, or null if the downloads of the rule are not scheduled
+         */
+        Policy get(String rule);
+    }
+
+    /**
+     * The requests of a call waiting for a repository, let through in chunks as the permits are given.
+     */
+    private static final class Waiter implements Comparable<Waiter> {
+        private final Gate gate;
+        private final Call call;
+        private final Priority priority;
+        private final long sequence;
+        private final List<Integer> indexes;
+        private final long queuedNanos = System.nanoTime();
+        private int from;
+
+        Waiter(Gate gate, Call call, Priority priority, long sequence, List<Integer> indexes) {
+            this.gate = gate;
+            this.call = call;
+            this.priority = priority;
+            this.sequence = sequence;
+            this.indexes = indexes;
+        }
+
+        /**
+         * Removes the waiter from its gate.
+         *
+         * @return the number of requests which were not let through
+         */
+        int cancel() {
+            synchronized (gate) {
+                return gate.waiters.remove(this) ? indexes.size() - from : 0;
+            }
+        }
+
+        @Override
+        public int compareTo(Waiter other) {
+            int c = priority.compareTo(other.priority);
+            return c != 0 ? c : Long.compare(sequence, other.sequence);
+        }
+    }
+
+    /**
+     * The downloads of a repository, guarded by itself.
+     */
+    private static final class Gate {
+        private final PriorityQueue<Waiter> waiters = new PriorityQueue<Waiter>();
+        private int concurrency = Integer.MAX_VALUE;
+        private long bandwidth;
+        private int active;
+        private double tokens;
+        private long refilled = System.nanoTime();
+        private boolean timed;
+
+        /**
+         * Adds the tokens for the time elapsed, up to one second of bandwidth.
+         */
+        private void refill() {
+            long now = System.nanoTime();
+            if (bandwidth > 0) {
+                tokens = Math.min(bandwidth, tokens + (now - refilled) / 1e9 * bandwidth);
+            }
+            refilled = now;
+        }
+    }
+
+    /**
+     * A call of {@link TransferScheduler#resolve}, its chunks run on its executor, or on the calling thread when it has
+     * none.
+     */
+    private final class Call {
+        private final List<ArtifactRequest> requests;
+        private final ParallelArtifactResolver.Batch batch;
+        private final Executor executor;
+        private final ArtifactResult[] results;
+        private final ClassLoader tccl = Thread.currentThread().getContextClassLoader();
+        private final List<Waiter> waiters = new ArrayList<Waiter>();
+        private final BlockingQueue<Chunk> inbox = new LinkedBlockingQueue<Chunk>();
+        private volatile boolean cancelled;
+        private int unresolved;
+        private boolean failures;
+        private Throwable error;
+
+        Call(List<ArtifactRequest> requests, ParallelArtifactResolver.Batch batch, Executor executor,
+                ArtifactResult[] results) {
+            this.requests = requests;
+            this.batch = batch;
+            this.executor = executor;
+            this.results = results;
+        }
+
+        Waiter queue(Gate gate, Priority priority, List<Integer> indexes) {
+            Waiter waiter = new Waiter(gate, this, priority, sequence.getAndIncrement(), indexes);
+            synchronized (this) {
+                waiters.add(waiter);
+                unresolved += indexes.size();
+            }
+            synchronized (gate) {
+                gate.waiters.add(waiter);
+            }
+            return waiter;
+        }
+
+        void execute(Chunk chunk) {
+            if (executor != null) {
+                executor.execute(chunk);
+                return;
+            }
+            synchronized (this) {
+                if (!cancelled) {
+                    inbox.add(chunk);
+                    return;
+                }
+            }
+            chunk.abandon();
+        }
+
+        /**
+         * Waits for the chunks of the call, running them when it has no executor.
+         */
+        void await() throws InterruptedException {
+            if (executor == null) {
+                while (getUnresolved() > 0) {
+                    inbox.take().run();
+                }
+                return;
+            }
+            synchronized (this) {
+                while (unresolved > 0) {
+                    wait();
+                }
+            }
+        }
+
+        private synchronized int getUnresolved() {
+            return unresolved;
+        }
+
+        synchronized void done(int count, boolean failed, Throwable e) {
+            unresolved -= count;
+            failures |= failed;
+            if (error == null) {
+                error = e;
+            }
+            notifyAll();
+        }
+
+        /**
+         * Gives up the requests which are not let through yet.
+         */
+        void cancel() {
+            List<Chunk> abandoned;
+            List<Waiter> queued;
+            synchronized (this) {
+                cancelled = true;
+                abandoned = new ArrayList<Chunk>(inbox);
+                inbox.clear();
+                queued = new ArrayList<Waiter>(waiters);
+            }
+            int count = 0;
+            for (Waiter waiter: queued) {
+                count += waiter.cancel();
+            }
+            done(count, false, null);
+            for (Chunk chunk: abandoned) {
+                chunk.abandon();
+            }
+        }
+    }
+
+    /**
+     * Some requests of a call let through by a gate, holding a permit each.
+     */
+    private final class Chunk implements Runnable {
+        private final Gate gate;
+        private final Call call;
+        private final List<Integer> indexes;
+
+        Chunk(Gate gate, Call call, List<Integer> indexes) {
+            this.gate = gate;
+            this.call = call;
+            this.indexes = indexes;
+        }
+
+        @Override
+        public void run() {
+            if (call.cancelled) {
+                abandon();
+                return;
+            }
+            Thread thread = Thread.currentThread();
+            ClassLoader previous = thread.getContextClassLoader();
+            thread.setContextClassLoader(call.tccl);
+            boolean failed = false;
+            Throwable error = null;
+            try {
+                failed = resolve(call.requests, indexes, call.batch, call.results);
+            } catch (RuntimeException | Error e) {
+                error = e;
+            } finally {
+                thread.setContextClassLoader(previous);
+                release(gate, indexes.size(), downloaded(call.results, indexes));
+                call.done(indexes.size(), failed, error);
+            }
+            if (error != null) {
+                call.cancel();
+            }
+        }
+
+        void abandon() {
+            release(gate, indexes.size(), new HashMap<String, Long>());
+            call.done(indexes.size(), false, null);
+        }
+    }
+
+    private final Policies policies;
+    private final ConcurrentMap<String, Gate> gates = new ConcurrentHashMap<String, Gate>();
+    private final AtomicLong sequence = new AtomicLong();
+
+    /**
+     * Lets the waiting requests through once the debt of a bandwidth is paid back.
+     */
+    private final ScheduledThreadPoolExecutor timer;
+
+    private final AtomicLong scheduled = new AtomicLong();
+    private final AtomicLong waits = new AtomicLong();
+    private final AtomicLong waitedNanos = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+
+    TransferScheduler(Policies policies) {
+        this.policies = policies;
+        this.timer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "ordered-repository-scheduler");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.timer.setKeepAliveTime(60, TimeUnit.SECONDS);
+        this.timer.allowCoreThreadTimeOut(true);
+    }
+
+    private Gate gate(String repositoryId, Policy policy) {
+        Gate gate = gates.get(repositoryId);
+        if (gate == null) {
+            Gate newGate = new Gate();
+            newGate.tokens = policy.getBandwidth();
+            gate = gates.putIfAbsent(repositoryId, newGate);
+            if (gate == null) {
+                gate = newGate;
+            }
+        }
+        synchronized (gate) {
+            if (policy.getConcurrency() < gate.concurrency) {
+                gate.concurrency = policy.getConcurrency();
+            }
+            if (policy.getBandwidth() > 0 && (gate.bandwidth == 0 || policy.getBandwidth() < gate.bandwidth)) {
+                gate.bandwidth = policy.getBandwidth();
+                gate.tokens = Math.min(gate.tokens, gate.bandwidth);
+            }
+        }
+        return gate;
+    }
+
+    /**
+     * Lifts the limits of the gates when the configuration is replaced, the next downloads set the limits of the new
+     * policies. The permits of the running downloads are kept, they are given back as usual.
+     */
+    void reset() {
+        for (Gate gate: gates.values()) {
+            synchronized (gate) {
+                gate.concurrency = Integer.MAX_VALUE;
+                gate.bandwidth = 0;
+                gate.tokens = Math.max(0, gate.tokens);
+            }
+            dispatch(gate, null);
+        }
+    }
+
+    /**
+     * Lets the waiting requests of a gate through, as many as it has permits for, while its bandwidth is not in debt.
+     *
+     * @param submitted the waiter just queued, which did not wait if let through now
+     */
+    private void dispatch(final Gate gate, Waiter submitted) {
+        List<Chunk> chunks = new ArrayList<Chunk>();
+        long debtMillis = 0;
+        int count = 0;
+        synchronized (gate) {
+            while (!gate.waiters.isEmpty() && gate.active < gate.concurrency) {
+                gate.refill();
+                if (gate.tokens < 0) {
+                    // until the debt is paid back
+                    debtMillis = gate.timed ? 0 : Math.max(1, (long) (-gate.tokens * 1000 / gate.bandwidth));
+                    gate.timed = true;
+                    break;
+                }
+                Waiter waiter = gate.waiters.peek();
+                int size = Math.min(waiter.indexes.size() - waiter.from, gate.concurrency - gate.active);
+                gate.active += size;
+                count += size;
+                chunks.add(new Chunk(gate, waiter.call, waiter.indexes.subList(waiter.from, waiter.from + size)));
+                waiter.from += size;
+                if (waiter.from == waiter.indexes.size()) {
+                    gate.waiters.poll();
+                }
+                if (waiter != submitted) {
+                    waits.incrementAndGet();
+                    waitedNanos.addAndGet(System.nanoTime() - waiter.queuedNanos);
+                }
+            }
+        }
+        scheduled.addAndGet(count);
+        if (debtMillis > 0) {
+            timer.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (gate) {
+                        gate.timed = false;
+                    }
+                    dispatch(gate, null);
+                }
+            }, debtMillis, TimeUnit.MILLISECONDS);
+        }
+        for (Chunk chunk: chunks) {
+            chunk.call.execute(chunk);
+        }
+    }
+
+    /**
+     * Gives back the permits of finished downloads, and lets the next ones through.
+     *
+     * @param downloaded the bytes downloaded per repository, taken from their bandwidth
+     */
+    private void release(Gate gate, int count, Map<String, Long> downloaded) {
+        synchronized (gate) {
+            gate.active -= count;
+        }
+        for (Map.Entry<String, Long> entry: downloaded.entrySet()) {
+            // the repositories no download goes to first are not limited
+            Gate charged = gates.get(entry.getKey());
+            if (charged != null) {
+                synchronized (charged) {
+                    if (charged.bandwidth > 0) {
+                        charged.refill();
+                        charged.tokens -= entry.getValue();
+                    }
+                }
+            }
+            bytes.addAndGet(entry.getValue());
+        }
+        dispatch(gate, null);
+    }
+
+    /**
+     * Resolves artifacts missing in the local repository on the calling thread, the downloads of the rules having a
+     * policy are scheduled.
+     */
+    List<ArtifactResult> resolve(List<ArtifactRequest> requests, ParallelArtifactResolver.Batch batch)
+            throws ArtifactResolutionException {
+        return resolve(requests, batch, batch, null);
+    }
+
+    /**
+     * Resolves artifacts missing in the local repository, the downloads of the rules having a policy are scheduled.
+     *
+     * @param unscheduled resolves the requests of the rules without a policy, on the calling thread
+     * @param executor runs the chunks let through, the calling thread runs them when null
+     */
+    List<ArtifactResult> resolve(List<ArtifactRequest> requests, ParallelArtifactResolver.Batch batch,
+            ParallelArtifactResolver.Batch unscheduled, Executor executor) throws ArtifactResolutionException {
+        Map<String, List<Integer>> groups = new LinkedHashMap<String, List<Integer>>();
+        Map<String, Policy> groupPolicies = new LinkedHashMap<String, Policy>();
+        List<Integer> free = new ArrayList<Integer>();
+        for (int i = 0; i < requests.size(); i++) {
+            ArtifactRequest request = requests.get(i);
+            Policy policy = request.getRepositories().isEmpty() ? null
+                    : policies.get(OrderedRepositoryList.ruleOf(request.getRepositories()));
+            if (policy == null) {
+                free.add(i);
+                continue;
+            }
+            String key = request.getRepositories().get(0).getId();
+            List<Integer> group = groups.get(key);
+            if (group == null) {
+                group = new ArrayList<Integer>();
+                groups.put(key, group);
+                groupPolicies.put(key, policy);
+            } else if (policy.getPriority().compareTo(groupPolicies.get(key).getPriority()) < 0) {
+                // the chunks of a group go with its highest priority
+                groupPolicies.put(key, policy);
+            }
+            group.add(i);
+        }
+        if (groups.isEmpty()) {
+            return unscheduled.resolve(requests);
+        }
+        ArtifactResult[] results = new ArtifactResult[requests.size()];
+        Call call = new Call(requests, batch, executor, results);
+        List<Waiter> submitted = new ArrayList<Waiter>();
+        for (Map.Entry<String, List<Integer>> group: groups.entrySet()) {
+            Policy policy = groupPolicies.get(group.getKey());
+            submitted.add(call.queue(gate(group.getKey(), policy), policy.getPriority(), group.getValue()));
+        }
+        boolean failures = false;
+        try {
+            for (Waiter waiter: submitted) {
+                dispatch(waiter.gate, waiter);
+            }
+            if (!free.isEmpty()) {
+                failures |= resolve(requests, free, unscheduled, results);
+            }
+            call.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            call.cancel();
+            failures = true;
+            for (int i = 0; i < results.length; i++) {
+                if (results[i] == null) {
+                    results[i] = new ArtifactResult(requests.get(i));
+                    results[i].addException(e);
+                }
+            }
+        } catch (RuntimeException | Error e) {
+            call.cancel();
+            throw e;
+        }
+        synchronized (call) {
+            if (call.error instanceof RuntimeException) {
+                throw (RuntimeException) call.error;
+            }
+            if (call.error instanceof Error) {
+                throw (Error) call.error;
+            }
+            failures |= call.failures;
+        }
+        List<ArtifactResult> list = Arrays.asList(results);
+        if (failures) {
+            throw new ArtifactResolutionException(list);
+        }
+        return list;
+    }
+
+    /**
+     * Resolves some of the requests into their results.
+     *
+     * @return whether some of them failed
+     */
+    private static boolean resolve(List<ArtifactRequest> requests, List<Integer> indexes,
+            ParallelArtifactResolver.Batch batch, ArtifactResult[] results) {
+        List<ArtifactRequest> chunk = new ArrayList<ArtifactRequest>(indexes.size());
+        for (int i: indexes) {
+            chunk.add(requests.get(i));
+        }
+        List<ArtifactResult> chunkResults;
+        boolean failures = false;
+        try {
+            chunkResults = batch.resolve(chunk);
+        } catch (ArtifactResolutionException e) {
+            chunkResults = e.getResults();
+            failures = true;
+        }
+        for (int i = 0; i < indexes.size(); i++) {
+            results[indexes.get(i)] = chunkResults.get(i);
+        }
+        return failures;
+    }
+
+    /**
+     * @return the bytes of the resolved artifacts, per repository serving them
+     */
+    private static Map<String, Long> downloaded(ArtifactResult[] results, List<Integer> indexes) {
+        Map<String, Long> downloaded = new HashMap<String, Long>();
+        for (int i: indexes) {
+            ArtifactResult result = results[i];
+            if (result == null || !result.isResolved() || result.getRepository() == null) {
+                continue;
+            }
+            File file = result.getArtifact().getFile();
+            long length = file != null ? file.length() : 0;
+            Long previous = downloaded.get(result.getRepository().getId());
+            downloaded.put(result.getRepository().getId(), previous != null ? previous + length : length);
+        }
+        return downloaded;
+    }
+
+    /**
+     * @return the number of calls waiting for a repository
+     */
+    int getWaiting(String repositoryId) {
+        Gate gate = gates.get(repositoryId);
+        if (gate == null) {
+            return 0;
+        }
+        synchronized (gate) {
+            return gate.waiters.size();
+        }
+    }
+
+    long getScheduled() {
+        return scheduled.get();
+    }
+
+    /**
+     * @return the number of chunks which waited for a permit or for bandwidth
+     */
+    long getWaits() {
+        return waits.get();
+    }
+
+    long getBytes() {
+        return bytes.get();
+    }
+
+    @Override
+    public String toString() {
+        return "scheduled=" + scheduled.get() + ", waited=" + waits.get() + " (" + waitedNanos.get() / 1000000
+                + " ms), bytes=" + bytes.get();
+    }
+}
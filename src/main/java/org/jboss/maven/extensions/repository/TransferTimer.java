@@ -0,0 +1,135 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright @year, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.maven.extensions.repository;
+
+import java.io.File;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.aether.AbstractForwardingRepositorySystemSession;
+import org.eclipse.aether.RepositorySystemSession;
+import org.eclipse.aether.transfer.AbstractTransferListener;
+import org.eclipse.aether.transfer.TransferEvent;
+import org.eclipse.aether.transfer.TransferListener;
+import org.eclipse.aether.transfer.TransferResource;
+import org.eclipse.aether.util.listener.ChainedTransferListener;
+
+/**
+ * Times each download of a resolution, so a repository is only charged for the transfers it served.
+ *
+ * The time of the whole resolution also holds the requests to the repositories tried before, and in a batch the
+ * downloads of other artifacts from other repositories. A transfer is timed from its initiation to its success, and
+ * kept by the local file it is downloaded to, which is the file of the artifact result. The time of all the transfers
+ * of a file, the failed ones included, is the time spent getting it.
+ *
+ * @author <a href="mailto:lgao@redhat.com">Lin Gao</a>
+ *
+ */
+class TransferTimer extends AbstractTransferListener {
+
+    static final class Transfer {
+        final long micros;
+        final long bytes;
+
+        Transfer(long micros, long bytes) {
+            this.micros = micros;
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * Start of the transfers in progress, a resource is created for each transfer.
+     */
+    private final ConcurrentMap<TransferResource, Long> started = new ConcurrentHashMap<TransferResource, Long>();
+
+    private final ConcurrentMap<File, Transfer> downloads = new ConcurrentHashMap<File, Transfer>();
+
+    private final ConcurrentMap<File, AtomicLong> spent = new ConcurrentHashMap<File, AtomicLong>();
+
+    /**
+     * @return a session notifying this timer of its transfers, besides the transfer listener of the session
+     */
+    RepositorySystemSession session(final RepositorySystemSession session) {
+        final TransferListener listener = ChainedTransferListener.newInstance(this, session.getTransferListener());
+        return new AbstractForwardingRepositorySystemSession() {
+            @Override
+            protected RepositorySystemSession getSession() {
+                return session;
+            }
+
+            @Override
+            public TransferListener getTransferListener() {
+                return listener;
+            }
+        };
+    }
+
+    @Override
+    public void transferInitiated(TransferEvent event) {
+        if (event.getRequestType() == TransferEvent.RequestType.GET && event.getResource().getFile() != null) {
+            started.put(event.getResource(), System.nanoTime());
+        }
+    }
+
+    @Override
+    public void transferSucceeded(TransferEvent event) {
+        Long startNanos = started.remove(event.getResource());
+        if (startNanos != null) {
+            long micros = (System.nanoTime() - startNanos) / 1000;
+            File file = event.getResource().getFile().getAbsoluteFile();
+            downloads.put(file, new Transfer(micros, event.getTransferredBytes()));
+            spend(file, micros);
+        }
+    }
+
+    @Override
+    public void transferFailed(TransferEvent event) {
+        Long startNanos = started.remove(event.getResource());
+        if (startNanos != null) {
+            spend(event.getResource().getFile().getAbsoluteFile(), (System.nanoTime() - startNanos) / 1000);
+        }
+    }
+
+    private void spend(File file, long micros) {
+        AtomicLong total = spent.get(file);
+        if (total == null) {
+            AtomicLong newTotal = new AtomicLong();
+            total = spent.putIfAbsent(file, newTotal);
+            if (total == null) {
+                total = newTotal;
+            }
+        }
+        total.addAndGet(micros);
+    }
+
+    /**
+     * @return the download of a file, or null if it was not downloaded in this resolution
+     */
+    Transfer get(File file) {
+        return file != null ? downloads.get(file.getAbsoluteFile()) : null;
+    }
+
+    /**
+     * @return the time of all the transfers of a file, or -1 if it was not transferred in this resolution
+     */
+    long getSpentMicros(File file) {
+        AtomicLong total = file != null ? spent.get(file.getAbsoluteFile()) : null;
+        return total != null ? total.get() : -1;
+    }
+}
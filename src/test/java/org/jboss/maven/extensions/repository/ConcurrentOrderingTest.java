@@ -0,0 +1,384 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright @year, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.maven.extensions.repository;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.maven.repository.internal.MavenRepositorySystemUtils;
+import org.eclipse.aether.DefaultRepositorySystemSession;
+import org.eclipse.aether.RepositorySystemSession;
+import org.eclipse.aether.artifact.Artifact;
+import org.eclipse.aether.artifact.DefaultArtifact;
+import org.eclipse.aether.collection.CollectRequest;
+import org.eclipse.aether.collection.CollectResult;
+import org.eclipse.aether.graph.Dependency;
+import org.eclipse.aether.graph.DependencyNode;
+import org.eclipse.aether.impl.ArtifactDescriptorReader;
+import org.eclipse.aether.impl.ArtifactResolver;
+import org.eclipse.aether.impl.DependencyCollector;
+import org.eclipse.aether.impl.Deployer;
+import org.eclipse.aether.impl.Installer;
+import org.eclipse.aether.impl.LocalRepositoryProvider;
+import org.eclipse.aether.impl.MetadataResolver;
+import org.eclipse.aether.impl.SyncContextFactory;
+import org.eclipse.aether.impl.VersionRangeResolver;
+import org.eclipse.aether.impl.VersionResolver;
+import org.eclipse.aether.internal.impl.DefaultChecksumPolicyProvider;
+import org.eclipse.aether.internal.impl.DefaultRemoteRepositoryManager;
+import org.eclipse.aether.internal.impl.DefaultUpdatePolicyAnalyzer;
+import org.eclipse.aether.internal.impl.SimpleLocalRepositoryManagerFactory;
+import org.eclipse.aether.repository.LocalRepository;
+import org.eclipse.aether.repository.RemoteRepository;
+import org.eclipse.aether.resolution.ArtifactDescriptorRequest;
+import org.eclipse.aether.resolution.ArtifactDescriptorResult;
+import org.eclipse.aether.resolution.ArtifactRequest;
+import org.eclipse.aether.resolution.ArtifactResult;
+import org.eclipse.aether.resolution.VersionRangeRequest;
+import org.eclipse.aether.resolution.VersionRangeResult;
+import org.eclipse.aether.resolution.VersionRequest;
+import org.eclipse.aether.resolution.VersionResult;
+import org.eclipse.aether.spi.log.NullLoggerFactory;
+import org.eclipse.aether.util.version.GenericVersionScheme;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Many threads of mixed resolutions and collections, sharing their requests like the builders of a parallel build,
+ * while the configuration is reloaded and the ordered repositories cache evicts.
+ *
+ * @author <a href="mailto:lgao@redhat.com">Lin Gao</a>
+ *
+ */
+public class ConcurrentOrderingTest {
+
+    private static final int THREADS = 16;
+    private static final int ITERATIONS = 2000;
+
+    private static final RemoteRepository CENTRAL = repo("central");
+    private static final RemoteRepository PUBLIC = repo("jboss-public-repository-group");
+    private static final RemoteRepository PRODUCT = repo("jboss-product-repository");
+    private static final RemoteRepository OTHER = repo("other");
+
+    private static final String ROOT = "org.jboss:root:1.0";
+    private static final String PLUGIN = "org.apache.maven.plugins:maven-resources-plugin:2.6";
+    private static final String PRODUCT_ARTIFACT = "org.jboss:product:1.0.0.redhat-1";
+    private static final String JUNIT = "junit:junit:4.12";
+
+    private static final String[] GAVS = {ROOT, PLUGIN, PRODUCT_ARTIFACT, JUNIT, "org.wildfly:wildfly-ee:10.1.0.Final",
+        "org.jboss:jboss-parent:20", "org.apache.maven.plugins:maven-jar-plugin:3.0", "commons-io:commons-io:2.5"};
+
+    private static final List<List<RemoteRepository>> CANDIDATES = Arrays.asList(
+        Arrays.asList(PUBLIC, PRODUCT, CENTRAL),
+        Arrays.asList(CENTRAL, OTHER, PUBLIC),
+        Arrays.asList(PRODUCT, CENTRAL, OTHER, PUBLIC)
+    );
+
+    private static RemoteRepository repo(String id) {
+        return new RemoteRepository.Builder(id, "default", "http://localhost/" + id).build();
+    }
+
+    private final Map<String, List<String>> graph = new HashMap<String, List<String>>();
+
+    private OrderedRepositoryConfiguration config;
+
+    @Before
+    public void setUp() {
+        System.setProperty("ordered.repository.extension.enabled", "true");
+        // smaller than the artifacts and candidates, so the cache keeps evicting
+        System.setProperty(OrderedRepositorySystem.CACHE_SIZE, "8");
+        graph.put(ROOT, Arrays.asList(PLUGIN, JUNIT));
+        graph.put(PLUGIN, Arrays.asList(PRODUCT_ARTIFACT));
+        config = new OrderedRepositoryConfiguration("test-config.properties");
+    }
+
+    @After
+    public void tearDown() {
+        System.clearProperty("ordered.repository.extension.enabled");
+        System.clearProperty(OrderedRepositorySystem.CACHE_SIZE);
+    }
+
+    private static String gav(Artifact artifact) {
+        return artifact.getGroupId() + ":" + artifact.getArtifactId() + ":" + artifact.getVersion();
+    }
+
+    private static List<String> ids(List<RemoteRepository> repos) {
+        List<String> ids = new ArrayList<String>();
+        for (RemoteRepository repo: repos) {
+            ids.add(repo.getId());
+        }
+        return ids;
+    }
+
+    /**
+     * The ordering of a single thread.
+     */
+    private List<String> expected(String gav, List<RemoteRepository> candidates) {
+        return ids(new RepositoryOrderer().order(config, new DefaultArtifact(gav), candidates));
+    }
+
+    private OrderedRepositorySystem newSystem() {
+        ArtifactResolver artifactResolver = new ArtifactResolver() {
+            @Override
+            public ArtifactResult resolveArtifact(RepositorySystemSession session, ArtifactRequest request) {
+                ArtifactResult result = new ArtifactResult(request);
+                result.setArtifact(request.getArtifact());
+                return result;
+            }
+
+            @Override
+            public List<ArtifactResult> resolveArtifacts(RepositorySystemSession session,
+                    Collection<? extends ArtifactRequest> requests) {
+                List<ArtifactResult> results = new ArrayList<ArtifactResult>();
+                for (ArtifactRequest request: requests) {
+                    results.add(resolveArtifact(session, request));
+                }
+                return results;
+            }
+        };
+        VersionResolver versionResolver = new VersionResolver() {
+            @Override
+            public VersionResult resolveVersion(RepositorySystemSession session, VersionRequest request) {
+                return new VersionResult(request).setVersion(request.getArtifact().getVersion());
+            }
+        };
+        ArtifactDescriptorReader reader = new ArtifactDescriptorReader() {
+            @Override
+            public ArtifactDescriptorResult readArtifactDescriptor(RepositorySystemSession session,
+                    ArtifactDescriptorRequest request) {
+                ArtifactDescriptorResult result = new ArtifactDescriptorResult(request);
+                result.setArtifact(request.getArtifact());
+                List<String> deps = graph.get(gav(request.getArtifact()));
+                if (deps != null) {
+                    for (String dep: deps) {
+                        result.addDependency(new Dependency(new DefaultArtifact(dep), "compile"));
+                    }
+                }
+                return result;
+            }
+        };
+        VersionRangeResolver rangeResolver = new VersionRangeResolver() {
+            @Override
+            public VersionRangeResult resolveVersionRange(RepositorySystemSession session, VersionRangeRequest request) {
+                VersionRangeResult result = new VersionRangeResult(request);
+                try {
+                    GenericVersionScheme scheme = new GenericVersionScheme();
+                    result.setVersionConstraint(scheme.parseVersionConstraint(request.getArtifact().getVersion()));
+                    result.addVersion(scheme.parseVersion(request.getArtifact().getVersion()));
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+                return result;
+            }
+        };
+        DefaultRemoteRepositoryManager remoteRepositoryManager = new DefaultRemoteRepositoryManager();
+        remoteRepositoryManager.setUpdatePolicyAnalyzer(new DefaultUpdatePolicyAnalyzer());
+        remoteRepositoryManager.setChecksumPolicyProvider(new DefaultChecksumPolicyProvider());
+        OrderedRepositorySystem system = new OrderedRepositorySystem(versionResolver, rangeResolver, artifactResolver,
+                stub(MetadataResolver.class), reader, stub(DependencyCollector.class), stub(Installer.class),
+                stub(Deployer.class), stub(LocalRepositoryProvider.class), stub(SyncContextFactory.class),
+                remoteRepositoryManager, NullLoggerFactory.INSTANCE);
+        system.configure(config);
+        return system;
+    }
+
+    private static <T> T stub(Class<T> type) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type}, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                throw new UnsupportedOperationException(method.toString());
+            }
+        }));
+    }
+
+    @Test
+    public void testMixedOperations() throws Exception {
+        final OrderedRepositorySystem system = newSystem();
+        final DefaultRepositorySystemSession session = MavenRepositorySystemUtils.newSession();
+        LocalRepository localRepo = new LocalRepository(Files.createTempDirectory("local-repo").toFile());
+        session.setLocalRepositoryManager(new SimpleLocalRepositoryManagerFactory().newInstance(session, localRepo));
+
+        // the requests are shared by the threads, they must not be changed
+        final List<ArtifactRequest> artifactRequests = new ArrayList<ArtifactRequest>();
+        final List<VersionRequest> versionRequests = new ArrayList<VersionRequest>();
+        final List<VersionRangeRequest> rangeRequests = new ArrayList<VersionRangeRequest>();
+        final List<ArtifactDescriptorRequest> descriptorRequests = new ArrayList<ArtifactDescriptorRequest>();
+        final List<CollectRequest> collectRequests = new ArrayList<CollectRequest>();
+        final Map<Object, List<String>> expected = new HashMap<Object, List<String>>();
+        for (String gav: GAVS) {
+            for (List<RemoteRepository> candidates: CANDIDATES) {
+                Artifact artifact = new DefaultArtifact(gav);
+                ArtifactRequest artifactRequest = new ArtifactRequest(artifact, candidates, null);
+                VersionRequest versionRequest = new VersionRequest(artifact, candidates, null);
+                VersionRangeRequest rangeRequest = new VersionRangeRequest(artifact, candidates, null);
+                ArtifactDescriptorRequest descriptorRequest = new ArtifactDescriptorRequest(artifact, candidates, null);
+                artifactRequests.add(artifactRequest);
+                versionRequests.add(versionRequest);
+                rangeRequests.add(rangeRequest);
+                descriptorRequests.add(descriptorRequest);
+                for (Object request: Arrays.asList(artifactRequest, versionRequest, rangeRequest, descriptorRequest)) {
+                    expected.put(request, expected(gav, candidates));
+                }
+            }
+        }
+        for (List<RemoteRepository> candidates: CANDIDATES) {
+            collectRequests.add(new CollectRequest(new Dependency(new DefaultArtifact(ROOT), "compile"), candidates));
+        }
+
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicBoolean done = new AtomicBoolean();
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS + 1);
+        try {
+            List<Future<?>> futures = new ArrayList<Future<?>>();
+            // reloads an equivalent configuration, the orderings must not change
+            futures.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    start.await();
+                    while (!done.get()) {
+                        system.configure(new OrderedRepositoryConfiguration("test-config.properties"));
+                        Thread.sleep(1);
+                    }
+                    return null;
+                }
+            }));
+            List<Future<?>> workers = new ArrayList<Future<?>>();
+            for (int t = 0; t < THREADS; t++) {
+                final Random random = new Random(20180101L + t);
+                workers.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        start.await();
+                        for (int i = 0; i < ITERATIONS; i++) {
+                            int index = random.nextInt(artifactRequests.size());
+                            switch (random.nextInt(6)) {
+                                case 0: {
+                                    ArtifactRequest request = artifactRequests.get(index);
+                                    ArtifactResult result = system.resolveArtifact(session, request);
+                                    Assert.assertEquals(expected.get(request), ids(result.getRequest().getRepositories()));
+                                    break;
+                                }
+                                case 1: {
+                                    List<ArtifactRequest> batch = new ArrayList<ArtifactRequest>();
+                                    for (int j = 0; j < 4; j++) {
+                                        batch.add(artifactRequests.get(random.nextInt(artifactRequests.size())));
+                                    }
+                                    List<ArtifactResult> results = system.resolveArtifacts(session, batch);
+                                    for (int j = 0; j < batch.size(); j++) {
+                                        Assert.assertEquals(expected.get(batch.get(j)),
+                                                ids(results.get(j).getRequest().getRepositories()));
+                                    }
+                                    break;
+                                }
+                                case 2: {
+                                    VersionRequest request = versionRequests.get(index);
+                                    VersionResult result = system.resolveVersion(session, request);
+                                    Assert.assertEquals(expected.get(request), ids(result.getRequest().getRepositories()));
+                                    break;
+                                }
+                                case 3: {
+                                    VersionRangeRequest request = rangeRequests.get(index);
+                                    VersionRangeResult result = system.resolveVersionRange(session, request);
+                                    Assert.assertEquals(expected.get(request), ids(result.getRequest().getRepositories()));
+                                    break;
+                                }
+                                case 4: {
+                                    ArtifactDescriptorRequest request = descriptorRequests.get(index);
+                                    ArtifactDescriptorResult result = system.readArtifactDescriptor(session, request);
+                                    Assert.assertEquals(expected.get(request), ids(result.getRequest().getRepositories()));
+                                    break;
+                                }
+                                default: {
+                                    List<RemoteRepository> candidates = CANDIDATES.get(index % CANDIDATES.size());
+                                    CollectResult result = system.collectDependencies(session,
+                                            collectRequests.get(index % CANDIDATES.size()));
+                                    assertNode(result.getRoot(), candidates);
+                                    break;
+                                }
+                            }
+                        }
+                        return null;
+                    }
+                }));
+            }
+            futures.addAll(workers);
+            start.countDown();
+            try {
+                for (Future<?> worker: workers) {
+                    worker.get();
+                }
+            } finally {
+                done.set(true);
+            }
+            for (Future<?> future: futures) {
+                future.get();
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof AssertionError) {
+                throw (AssertionError) e.getCause();
+            }
+            throw e;
+        } finally {
+            executor.shutdownNow();
+        }
+
+        for (ArtifactRequest request: artifactRequests) {
+            Assert.assertTrue(CANDIDATES.contains(request.getRepositories()));
+        }
+        for (VersionRequest request: versionRequests) {
+            Assert.assertTrue(CANDIDATES.contains(request.getRepositories()));
+        }
+        for (VersionRangeRequest request: rangeRequests) {
+            Assert.assertTrue(CANDIDATES.contains(request.getRepositories()));
+        }
+        for (ArtifactDescriptorRequest request: descriptorRequests) {
+            Assert.assertTrue(CANDIDATES.contains(request.getRepositories()));
+        }
+        for (int i = 0; i < CANDIDATES.size(); i++) {
+            Assert.assertEquals(CANDIDATES.get(i), collectRequests.get(i).getRepositories());
+        }
+    }
+
+    /**
+     * Each node of a collected graph has the order of its own artifact.
+     */
+    private void assertNode(DependencyNode node, List<RemoteRepository> candidates) {
+        Assert.assertEquals(expected(gav(node.getArtifact()), candidates), ids(node.getRepositories()));
+        for (DependencyNode child: node.getChildren()) {
+            assertNode(child, candidates);
+        }
+    }
+}
@@ -0,0 +1,284 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright @year, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.maven.extensions.repository;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.maven.repository.internal.MavenRepositorySystemUtils;
+import org.eclipse.aether.DefaultRepositorySystemSession;
+import org.eclipse.aether.artifact.DefaultArtifact;
+import org.eclipse.aether.impl.ArtifactDescriptorReader;
+import org.eclipse.aether.impl.ArtifactResolver;
+import org.eclipse.aether.impl.DefaultServiceLocator;
+import org.eclipse.aether.impl.Deployer;
+import org.eclipse.aether.impl.DependencyCollector;
+import org.eclipse.aether.impl.Installer;
+import org.eclipse.aether.impl.LocalRepositoryProvider;
+import org.eclipse.aether.impl.MetadataResolver;
+import org.eclipse.aether.impl.RemoteRepositoryManager;
+import org.eclipse.aether.impl.SyncContextFactory;
+import org.eclipse.aether.impl.VersionRangeResolver;
+import org.eclipse.aether.impl.VersionResolver;
+import org.eclipse.aether.repository.LocalRepository;
+import org.eclipse.aether.repository.RemoteRepository;
+import org.eclipse.aether.resolution.ArtifactRequest;
+import org.eclipse.aether.resolution.ArtifactResolutionException;
+import org.eclipse.aether.spi.log.LoggerFactory;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * @author <a href="mailto:lgao@redhat.com">Lin Gao</a>
+ *
+ */
+public class ConfigurationWatcherTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final BlockingQueue<OrderedRepositoryConfiguration> reloaded = new LinkedBlockingQueue<OrderedRepositoryConfiguration>();
+
+    private final ConfigurationWatcher.Listener listener = new ConfigurationWatcher.Listener() {
+        @Override
+        public void reloaded(OrderedRepositoryConfiguration config) {
+            reloaded.add(config);
+        }
+    };
+
+    @Before
+    public void setUp() throws IOException {
+        // remote configurations are kept aside
+        System.setProperty(OrderedRepositorySystem.CONFIGURE_CACHE,
+                Files.createTempDirectory("configuration-cache").toFile().getPath());
+    }
+
+    @After
+    public void tearDown() {
+        System.clearProperty(OrderedRepositorySystem.CONFIGURE_CACHE);
+    }
+
+    private static void write(File file, String content) throws IOException {
+        try (PrintWriter out = new PrintWriter(file, "UTF-8")) {
+            out.print(content);
+        }
+    }
+
+    private static String[] defaultRepos(OrderedRepositoryConfiguration config) {
+        return config.getDefaultRepos();
+    }
+
+    @Test
+    public void testFileReload() throws Exception {
+        File file = File.createTempFile("rules", ".properties");
+        file.deleteOnExit();
+        write(file, "regex.default.repos = central\n");
+        ConfigurationWatcher watcher = new ConfigurationWatcher(file.getAbsolutePath(),
+                OrderedRepositoryConfiguration.loadProperties(file.getAbsolutePath()), 1000, listener);
+        try {
+            Assert.assertTrue(watcher.start());
+            write(file, "regex.default.repos = jboss-public-repository-group, central\n");
+            OrderedRepositoryConfiguration config = reloaded.poll(30, TimeUnit.SECONDS);
+            Assert.assertNotNull("configuration is not reloaded", config);
+            Assert.assertArrayEquals(new String[] {"jboss-public-repository-group", "central"}, defaultRepos(config));
+
+            // an invalid regex keeps the current configuration
+            write(file, "regex.1 = [invalid\n");
+            Assert.assertNull(reloaded.poll(1, TimeUnit.SECONDS));
+        } finally {
+            watcher.close();
+        }
+    }
+
+    private static Set<Thread> watcherThreads() {
+        Set<Thread> threads = new HashSet<Thread>();
+        for (Thread thread: Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().equals("ordered-repository-configuration-watcher")) {
+                threads.add(thread);
+            }
+        }
+        return threads;
+    }
+
+    private static OrderedRepositorySystem newRepositorySystem() {
+        DefaultServiceLocator locator = MavenRepositorySystemUtils.newServiceLocator();
+        return new OrderedRepositorySystem(locator.getService(VersionResolver.class),
+                locator.getService(VersionRangeResolver.class), locator.getService(ArtifactResolver.class),
+                locator.getService(MetadataResolver.class), locator.getService(ArtifactDescriptorReader.class),
+                locator.getService(DependencyCollector.class), locator.getService(Installer.class),
+                locator.getService(Deployer.class), locator.getService(LocalRepositoryProvider.class),
+                locator.getService(SyncContextFactory.class), locator.getService(RemoteRepositoryManager.class),
+                locator.getService(LoggerFactory.class));
+    }
+
+    @Test(timeout = 30000)
+    public void testClosedAtSessionEnd() throws Exception {
+        File file = File.createTempFile("rules", ".properties");
+        file.deleteOnExit();
+        write(file, "regex.default.repos = central\n");
+        System.setProperty("ordered.repository.extension.enabled", "true");
+        System.setProperty("ordered.repository.extension.configure.url", file.getAbsolutePath());
+        System.setProperty(OrderedRepositorySystem.CONFIGURE_RELOAD, "true");
+        try {
+            Set<Thread> before = watcherThreads();
+            OrderedRepositorySystem system = newRepositorySystem();
+            // the watcher is started once the configuration is loaded
+            RemoteRepository central = new RemoteRepository.Builder("central", "default", "http://localhost/central").build();
+            system.getOrderedRemoteRepositories(new DefaultArtifact("junit:junit:4.12"), Arrays.asList(central));
+            Set<Thread> started = watcherThreads();
+            started.removeAll(before);
+            while (started.isEmpty()) {
+                Thread.sleep(10);
+                started = watcherThreads();
+                started.removeAll(before);
+            }
+            Assert.assertEquals(1, started.size());
+
+            system.sessionEnded(null);
+            Thread watcher = started.iterator().next();
+            watcher.join(10000);
+            Assert.assertFalse("the watcher is not closed", watcher.isAlive());
+        } finally {
+            System.clearProperty("ordered.repository.extension.enabled");
+            System.clearProperty("ordered.repository.extension.configure.url");
+            System.clearProperty(OrderedRepositorySystem.CONFIGURE_RELOAD);
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void testWatchedAgainInNextSession() throws Exception {
+        File file = File.createTempFile("rules", ".properties");
+        file.deleteOnExit();
+        write(file, "regex.default.repos = central\n");
+        System.setProperty("ordered.repository.extension.enabled", "true");
+        System.setProperty("ordered.repository.extension.configure.url", file.getAbsolutePath());
+        System.setProperty(OrderedRepositorySystem.CONFIGURE_RELOAD, "true");
+        try {
+            Set<Thread> before = watcherThreads();
+            OrderedRepositorySystem system = newRepositorySystem();
+            RemoteRepository central = new RemoteRepository.Builder("central", "default", "http://localhost/central").build();
+            RemoteRepository publicGroup = new RemoteRepository.Builder("jboss-public-repository-group", "default",
+                    "http://localhost/public").build();
+            DefaultArtifact artifact = new DefaultArtifact("junit:junit:4.12");
+            Assert.assertEquals(central, system.getOrderedRemoteRepositories(artifact, Arrays.asList(publicGroup, central)).get(0));
+            Set<Thread> started = watcherThreads();
+            started.removeAll(before);
+            while (started.isEmpty()) {
+                Thread.sleep(10);
+                started = watcherThreads();
+                started.removeAll(before);
+            }
+
+            // the first session ends, the configuration changes before the next session
+            system.sessionEnded(null);
+            Thread watcher = started.iterator().next();
+            watcher.join(10000);
+            Assert.assertFalse("the watcher is not closed", watcher.isAlive());
+            write(file, "regex.default.repos = jboss-public-repository-group, central\n");
+
+            DefaultRepositorySystemSession session = MavenRepositorySystemUtils.newSession();
+            session.setLocalRepositoryManager(system.newLocalRepositoryManager(session,
+                    new LocalRepository(temporaryFolder.newFolder("local-repo"))));
+            try {
+                system.resolveArtifact(session, new ArtifactRequest(artifact, Collections.<RemoteRepository>emptyList(), null));
+                Assert.fail("resolved without repositories");
+            } catch (ArtifactResolutionException e) {
+                // the session has started
+            }
+            while (!publicGroup.equals(system.getOrderedRemoteRepositories(artifact, Arrays.asList(publicGroup, central)).get(0))) {
+                Thread.sleep(10);
+            }
+
+            // and later changes are still watched in the second session
+            write(file, "regex.default.repos = central\n");
+            while (!central.equals(system.getOrderedRemoteRepositories(artifact, Arrays.asList(publicGroup, central)).get(0))) {
+                Thread.sleep(10);
+            }
+            system.sessionEnded(null);
+        } finally {
+            System.clearProperty("ordered.repository.extension.enabled");
+            System.clearProperty("ordered.repository.extension.configure.url");
+            System.clearProperty(OrderedRepositorySystem.CONFIGURE_RELOAD);
+        }
+    }
+
+    @Test
+    public void testConditionalGet() throws Exception {
+        final String[] content = {"regex.default.repos = central\n"};
+        final AtomicInteger notModified = new AtomicInteger();
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/config.properties", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                String etag = "\"" + Integer.toHexString(content[0].hashCode()) + "\"";
+                if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                    notModified.incrementAndGet();
+                    exchange.sendResponseHeaders(304, -1);
+                    exchange.close();
+                    return;
+                }
+                byte[] body = content[0].getBytes(StandardCharsets.ISO_8859_1);
+                exchange.getResponseHeaders().add("ETag", etag);
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            }
+        });
+        server.start();
+        try {
+            String url = "http://127.0.0.1:" + server.getAddress().getPort() + "/config.properties";
+            ConfigurationWatcher watcher = new ConfigurationWatcher(url,
+                    OrderedRepositoryConfiguration.loadProperties(url), 1000, listener);
+
+            // same content as loaded, nothing to reload
+            Assert.assertFalse(watcher.poll());
+            Assert.assertFalse(watcher.poll());
+            Assert.assertEquals(1, notModified.get());
+
+            content[0] = "regex.default.repos = jboss-public-repository-group\n";
+            Assert.assertTrue(watcher.poll());
+            Assert.assertArrayEquals(new String[] {"jboss-public-repository-group"}, defaultRepos(reloaded.poll()));
+            Assert.assertFalse(watcher.poll());
+            Assert.assertEquals(2, notModified.get());
+        } finally {
+            server.stop(0);
+        }
+    }
+}
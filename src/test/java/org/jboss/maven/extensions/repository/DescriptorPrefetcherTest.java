@@ -0,0 +1,115 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright @year, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.maven.extensions.repository;
+
+import java.util.Arrays;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.aether.artifact.Artifact;
+import org.eclipse.aether.artifact.DefaultArtifact;
+import org.eclipse.aether.graph.Dependency;
+import org.eclipse.aether.resolution.ArtifactDescriptorRequest;
+import org.eclipse.aether.resolution.ArtifactDescriptorResult;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:lgao@redhat.com">Lin Gao</a>
+ *
+ */
+public class DescriptorPrefetcherTest {
+
+    private static ArtifactDescriptorResult descriptor(String... coords) {
+        ArtifactDescriptorResult result = new ArtifactDescriptorResult(
+                new ArtifactDescriptorRequest().setArtifact(new DefaultArtifact("org.foo:parent:pom:1.0")));
+        for (String coord: coords) {
+            result.addDependency(dependency(coord, "compile", false));
+        }
+        return result;
+    }
+
+    private static Dependency dependency(String coords, String scope, boolean optional) {
+        return new Dependency(new DefaultArtifact(coords), scope, optional);
+    }
+
+    @Test
+    public void testPrefetch() throws Exception {
+        final Set<String> fetched = new ConcurrentSkipListSet<String>();
+        DescriptorPrefetcher.Fetcher fetcher = new DescriptorPrefetcher.Fetcher() {
+            @Override
+            public void fetch(Artifact pom) {
+                Assert.assertEquals("pom", pom.getExtension());
+                fetched.add(pom.getArtifactId() + ":" + pom.getVersion());
+            }
+        };
+        DescriptorPrefetcher prefetcher = new DescriptorPrefetcher(2, 16);
+        ArtifactDescriptorResult result = descriptor("org.foo:a:1.0", "org.foo:b:[1.0,2.0)", "org.foo:c:jar:1.0");
+        result.addDependency(dependency("org.foo:optional:1.0", "compile", true));
+        result.addDependency(dependency("org.foo:test:1.0", "test", false));
+        result.addDependency(dependency("org.foo:provided:1.0", "provided", false));
+        result.addManagedDependency(dependency("org.foo:c:2.0", "compile", false));
+        result.addManagedDependency(dependency("org.foo:unused:1.0", "compile", false));
+
+        Assert.assertEquals(2, prefetcher.prefetch(result, fetcher));
+        // fetched once
+        Assert.assertEquals(0, prefetcher.prefetch(descriptor("org.foo:a:1.0"), fetcher));
+        for (int i = 0; i < 100 && prefetcher.getFetched() < 2; i++) {
+            Thread.sleep(50);
+        }
+        Assert.assertEquals(new TreeSet<String>(Arrays.asList("a:1.0", "c:2.0")), fetched);
+        Assert.assertEquals(2, prefetcher.getFetched());
+
+        prefetcher.cancel();
+        Assert.assertEquals(1, prefetcher.prefetch(descriptor("org.foo:a:1.0"), fetcher));
+        prefetcher.cancel();
+    }
+
+    @Test(timeout = 10000)
+    public void testAwaitAndCancel() throws Exception {
+        final CountDownLatch running = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        DescriptorPrefetcher.Fetcher fetcher = new DescriptorPrefetcher.Fetcher() {
+            @Override
+            public void fetch(Artifact pom) throws Exception {
+                running.countDown();
+                release.await();
+            }
+        };
+        DescriptorPrefetcher prefetcher = new DescriptorPrefetcher(1, 1);
+        // x runs, y is queued, z doesn't fit in the queue
+        Assert.assertEquals(2, prefetcher.prefetch(descriptor("org.foo:x:1.0", "org.foo:y:1.0", "org.foo:z:1.0"), fetcher));
+        Assert.assertTrue(running.await(5, TimeUnit.SECONDS));
+
+        // the queued fetch is dropped and left to the reader
+        prefetcher.await(new DefaultArtifact("org.foo:y:pom:1.0"));
+        prefetcher.await(new DefaultArtifact("org.foo:z:pom:1.0"));
+
+        // the running fetch is interrupted
+        prefetcher.cancel();
+        prefetcher.await(new DefaultArtifact("org.foo:x:pom:1.0"));
+        for (int i = 0; i < 100 && prefetcher.getFailed() == 0; i++) {
+            Thread.sleep(50);
+        }
+        Assert.assertEquals(1, prefetcher.getFailed());
+        Assert.assertEquals(0, prefetcher.getFetched());
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright @year, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.maven.extensions.repository;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.eclipse.aether.artifact.Artifact;
+import org.eclipse.aether.artifact.DefaultArtifact;
+import org.eclipse.aether.repository.RemoteRepository;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A Maven repository served over HTTP in the test JVM, holding the POM and the jar of the artifacts added to it, with
+ * their SHA-1 checksums.
+ *
+ * Each request can be delayed, and the repository can fail with a status, like a repository which is down. The
+ * requests of the artifacts and POMs are recorded as probes, the checksums aside.
+ *
+ * @author <a href="mailto:lgao@redhat.com">Lin Gao</a>
+ *
+ */
+class FakeRepository {
+
+    private final String id;
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final Map<String, byte[]> files = new ConcurrentHashMap<String, byte[]>();
+    private final List<String> probes = Collections.synchronizedList(new ArrayList<String>());
+
+    private volatile long latencyMillis;
+    private volatile int failureStatus;
+
+    FakeRepository(String id) throws IOException {
+        this.id = id;
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(executor);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                serve(exchange);
+            }
+        });
+        server.start();
+    }
+
+    private void serve(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath().substring(1);
+        if (!path.endsWith(".sha1") && !path.endsWith(".md5")) {
+            probes.add(path);
+        }
+        try {
+            if (latencyMillis > 0) {
+                Thread.sleep(latencyMillis);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        byte[] content = files.get(path);
+        int status = failureStatus != 0 ? failureStatus : content != null ? 200 : 404;
+        if (status != 200 || "HEAD".equals(exchange.getRequestMethod())) {
+            exchange.sendResponseHeaders(status, -1);
+            exchange.close();
+            return;
+        }
+        exchange.sendResponseHeaders(200, content.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(content);
+        }
+    }
+
+    /**
+     * Adds the POM and the jar of an artifact.
+     *
+     * @param gav the 'G:A:V' of the artifact
+     * @param dependencies the 'G:A:V' of its compile dependencies
+     */
+    FakeRepository artifact(String gav, String... dependencies) {
+        Artifact artifact = new DefaultArtifact(gav);
+        StringBuilder pom = new StringBuilder();
+        pom.append("<project>\n  <modelVersion>4.0.0</modelVersion>\n");
+        pom.append("  <groupId>").append(artifact.getGroupId()).append("</groupId>\n");
+        pom.append("  <artifactId>").append(artifact.getArtifactId()).append("</artifactId>\n");
+        pom.append("  <version>").append(artifact.getVersion()).append("</version>\n");
+        pom.append("  <dependencies>\n");
+        for (String dependency: dependencies) {
+            Artifact d = new DefaultArtifact(dependency);
+            pom.append("    <dependency><groupId>").append(d.getGroupId()).append("</groupId><artifactId>")
+                    .append(d.getArtifactId()).append("</artifactId><version>").append(d.getVersion())
+                    .append("</version></dependency>\n");
+        }
+        pom.append("  </dependencies>\n</project>\n");
+        add(path(artifact, "pom"), pom.toString().getBytes(StandardCharsets.UTF_8));
+        add(path(artifact, "jar"), (gav + " from " + id).getBytes(StandardCharsets.UTF_8));
+        return this;
+    }
+
+    private void add(String path, byte[] content) {
+        files.put(path, content);
+        files.put(path + ".sha1", sha1(content).getBytes(StandardCharsets.US_ASCII));
+    }
+
+    static String path(Artifact artifact, String extension) {
+        return artifact.getGroupId().replace('.', '/') + "/" + artifact.getArtifactId() + "/" + artifact.getVersion()
+                + "/" + artifact.getArtifactId() + "-" + artifact.getVersion() + "." + extension;
+    }
+
+    private static String sha1(byte[] content) {
+        try {
+            StringBuilder sb = new StringBuilder();
+            for (byte b: MessageDigest.getInstance("SHA-1").digest(content)) {
+                sb.append(String.format("%02x", b & 0xff));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Delays each request.
+     */
+    FakeRepository latency(long millis) {
+        this.latencyMillis = millis;
+        return this;
+    }
+
+    /**
+     * Answers each request with a status, 0 to serve the files again.
+     */
+    FakeRepository fail(int status) {
+        this.failureStatus = status;
+        return this;
+    }
+
+    String getId() {
+        return id;
+    }
+
+    RemoteRepository getRepository() {
+        return new RemoteRepository.Builder(id, "default",
+                "http://127.0.0.1:" + server.getAddress().getPort() + "/").build();
+    }
+
+    /**
+     * @return the number of requests of artifacts and POMs, found or not
+     */
+    int getProbes() {
+        return probes.size();
+    }
+
+    /**
+     * @return the paths requested, the checksums aside
+     */
+    List<String> getProbedPaths() {
+        synchronized (probes) {
+            return new ArrayList<String>(probes);
+        }
+    }
+
+    void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    @Override
+    public String toString() {
+        return id + " " + getProbedPaths();
+    }
+}
@@ -0,0 +1,315 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright @year, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.maven.extensions.repository;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.eclipse.aether.DefaultRepositorySystemSession;
+import org.eclipse.aether.RequestTrace;
+import org.eclipse.aether.artifact.Artifact;
+import org.eclipse.aether.artifact.DefaultArtifact;
+import org.eclipse.aether.repository.RemoteRepository;
+import org.eclipse.aether.resolution.ArtifactRequest;
+import org.eclipse.aether.resolution.ArtifactResolutionException;
+import org.eclipse.aether.resolution.ArtifactResult;
+import org.eclipse.aether.transfer.AbstractTransferListener;
+import org.eclipse.aether.transfer.ArtifactNotFoundException;
+import org.eclipse.aether.transfer.ArtifactTransferException;
+import org.eclipse.aether.transfer.TransferCancelledException;
+import org.eclipse.aether.transfer.TransferEvent;
+import org.eclipse.aether.transfer.TransferListener;
+import org.eclipse.aether.transfer.TransferResource;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * @author <a href="mailto:lgao@redhat.com">Lin Gao</a>
+ *
+ */
+public class HedgedArtifactResolverTest {
+
+    private static final Artifact ARTIFACT = new DefaultArtifact("org.jboss:jboss-dmr:1.0");
+
+    /**
+     * Delay of each repository, in milliseconds, a negative delay is a 404.
+     */
+    private final Map<String, Long> delays = new ConcurrentHashMap<String, Long>();
+
+    private HttpServer server;
+    private File localRepo;
+
+    @Before
+    public void setUp() throws Exception {
+        localRepo = Files.createTempDirectory("local-repo").toFile();
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                String repo = exchange.getRequestURI().getPath().split("/")[1];
+                long delay = delays.containsKey(repo) ? delays.get(repo) : -1;
+                try {
+                    Thread.sleep(Math.abs(delay));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                if (delay < 0) {
+                    exchange.sendResponseHeaders(404, -1);
+                    exchange.close();
+                    return;
+                }
+                byte[] body = repo.getBytes("UTF-8");
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            }
+        });
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    private RemoteRepository repository(String id) {
+        return new RemoteRepository.Builder(id, "default",
+                "http://127.0.0.1:" + server.getAddress().getPort() + "/" + id + "/").build();
+    }
+
+    /**
+     * The transfer listener of the session, the one of the hedged resolver under test.
+     */
+    private volatile TransferListener listener = new AbstractTransferListener() {
+    };
+
+    private HedgedArtifactResolver newResolver(double percentile, double budgetPercent, int threads) {
+        HedgedArtifactResolver resolver = new HedgedArtifactResolver(percentile, budgetPercent, threads);
+        listener = resolver.session(new DefaultRepositorySystemSession()).getTransferListener();
+        return resolver;
+    }
+
+    private static TransferEvent event(TransferResource resource, TransferEvent.EventType type, long bytes) {
+        return new TransferEvent.Builder(new DefaultRepositorySystemSession(), resource).setType(type)
+                .setTransferredBytes(bytes).build();
+    }
+
+    /**
+     * Resolves the requests sequentially from the stand-in server, as the artifact resolver does, with the transfer
+     * events of the connector: the file is written once its content is received.
+     */
+    private final ParallelArtifactResolver.Batch batch = new ParallelArtifactResolver.Batch() {
+        @Override
+        public List<ArtifactResult> resolve(List<ArtifactRequest> requests) throws ArtifactResolutionException {
+            List<ArtifactResult> results = new ArrayList<ArtifactResult>();
+            boolean failures = false;
+            for (ArtifactRequest request: requests) {
+                ArtifactResult result = new ArtifactResult(request);
+                Artifact artifact = request.getArtifact();
+                for (RemoteRepository repo: request.getRepositories()) {
+                    try {
+                        String path = artifact.getGroupId().replace('.', '/') + "/" + artifact.getArtifactId() + "/"
+                                + artifact.getVersion() + "/" + artifact.getArtifactId() + "-" + artifact.getVersion()
+                                + "." + artifact.getExtension();
+                        File file = new File(localRepo, path);
+                        TransferResource resource = new TransferResource(repo.getUrl(), path, file,
+                                RequestTrace.newChild(request.getTrace(), request));
+                        listener.transferInitiated(event(resource, TransferEvent.EventType.INITIATED, 0));
+                        HttpURLConnection connection = (HttpURLConnection) new URL(repo.getUrl() + path).openConnection();
+                        connection.setReadTimeout(10000);
+                        if (connection.getResponseCode() == 404) {
+                            result.addException(new ArtifactNotFoundException(artifact, repo));
+                            continue;
+                        }
+                        byte[] content;
+                        try (InputStream in = connection.getInputStream()) {
+                            content = new byte[connection.getContentLength()];
+                            int read = 0;
+                            while (read < content.length) {
+                                read += in.read(content, read, content.length - read);
+                            }
+                        }
+                        resource.setContentLength(content.length);
+                        listener.transferProgressed(event(resource, TransferEvent.EventType.PROGRESSED, content.length));
+                        file.getParentFile().mkdirs();
+                        File tmp = File.createTempFile("download", ".tmp", file.getParentFile());
+                        Files.write(tmp.toPath(), content);
+                        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                        result.setArtifact(artifact.setFile(file));
+                        result.setRepository(repo);
+                        break;
+                    } catch (TransferCancelledException e) {
+                        result.addException(new ArtifactTransferException(artifact, repo, e));
+                    } catch (IOException e) {
+                        result.addException(e);
+                    }
+                }
+                failures |= !result.isResolved();
+                results.add(result);
+            }
+            if (failures) {
+                throw new ArtifactResolutionException(results);
+            }
+            return results;
+        }
+    };
+
+    private static void observe(HedgedArtifactResolver resolver, String repositoryId, int count, long millis) {
+        for (int i = 0; i < count; i++) {
+            resolver.latency(repositoryId, millis * 1000);
+        }
+    }
+
+    @Test(timeout = 20000)
+    public void testSlowRepositoryIsHedged() throws Exception {
+        HedgedArtifactResolver resolver = newResolver(95, 100, 4);
+        delays.put("slow", 3000L);
+        delays.put("fast", 0L);
+        observe(resolver, "slow", HedgedArtifactResolver.MIN_SAMPLES, 20);
+
+        ArtifactRequest request = new ArtifactRequest(ARTIFACT, Arrays.asList(repository("slow"), repository("fast")), null);
+        long start = System.currentTimeMillis();
+        ArtifactResult result = resolver.resolve(request, batch);
+        Assert.assertTrue("hedged request is not used", System.currentTimeMillis() - start < 2000);
+        Assert.assertSame(request, result.getRequest());
+        Assert.assertEquals("fast", result.getRepository().getId());
+        Assert.assertEquals("fast", new String(Files.readAllBytes(result.getArtifact().getFile().toPath()), "UTF-8"));
+        Assert.assertEquals(1, resolver.getHedges());
+        Assert.assertEquals(1, resolver.getHedgeWins());
+    }
+
+    @Test(timeout = 20000)
+    public void testLatencyAndLosingRequest() throws Exception {
+        HedgedArtifactResolver resolver = newResolver(95, 100, 4);
+        delays.put("slow", 100L);
+        delays.put("fast", 0L);
+        List<RemoteRepository> repos = Arrays.asList(repository("slow"), repository("fast"));
+
+        // the requests served by the first repository are measured
+        for (int i = 0; i < HedgedArtifactResolver.MIN_SAMPLES; i++) {
+            Assert.assertEquals("slow", resolver.resolve(new ArtifactRequest(ARTIFACT, repos, null), batch).getRepository().getId());
+        }
+        Assert.assertEquals(0, resolver.getHedges());
+        Assert.assertTrue(String.valueOf(resolver.delay("slow")), resolver.delay("slow") >= 90000);
+
+        // the losing request can't be interrupted, its transfer is cancelled before it writes the artifact
+        delays.put("slow", 1000L);
+        ArtifactResult result = resolver.resolve(new ArtifactRequest(ARTIFACT, repos, null), batch);
+        Assert.assertEquals("fast", result.getRepository().getId());
+        Assert.assertEquals(1, resolver.getHedgeWins());
+        while (resolver.getCancelled() == 0) {
+            Thread.sleep(50);
+        }
+        Assert.assertEquals(0, resolver.getDuplicates());
+        Assert.assertEquals("fast", new String(Files.readAllBytes(result.getArtifact().getFile().toPath()), "UTF-8"));
+        // the time the losing request waited for the first repository is a latency of it
+        Assert.assertTrue(String.valueOf(resolver.delay("slow")), resolver.delay("slow") >= 900000);
+    }
+
+    @Test(timeout = 20000)
+    public void testBudgetAndSamples() throws Exception {
+        HedgedArtifactResolver resolver = newResolver(95, 5, 4);
+        delays.put("slow", 200L);
+        delays.put("fast", 0L);
+        List<RemoteRepository> repos = Arrays.asList(repository("slow"), repository("fast"));
+
+        // latencies of the first repository are not known yet
+        Assert.assertEquals("slow", resolver.resolve(new ArtifactRequest(ARTIFACT, repos, null), batch).getRepository().getId());
+        // out of budget, 5% of 2 requests
+        observe(resolver, "slow", HedgedArtifactResolver.MIN_SAMPLES, 20);
+        Assert.assertEquals("slow", resolver.resolve(new ArtifactRequest(ARTIFACT, repos, null), batch).getRepository().getId());
+        Assert.assertEquals(0, resolver.getHedges());
+        Assert.assertEquals(2, resolver.getRequests());
+    }
+
+    @Test(timeout = 20000)
+    public void testResolveAll() throws Exception {
+        HedgedArtifactResolver resolver = newResolver(95, 100, 4);
+        delays.put("fast", 0L);
+        observe(resolver, "missing", HedgedArtifactResolver.MIN_SAMPLES, 20);
+        List<RemoteRepository> repos = Arrays.asList(repository("missing"), repository("fast"));
+        Artifact other = new DefaultArtifact("org.jboss:jboss-parent:pom:20");
+        List<ArtifactResult> results = resolver.resolveAll(Arrays.asList(new ArtifactRequest(ARTIFACT, repos, null),
+                new ArtifactRequest(other, repos, null)), batch);
+        Assert.assertEquals(ARTIFACT, results.get(0).getArtifact().setFile(null));
+        Assert.assertEquals(other, results.get(1).getArtifact().setFile(null));
+
+        delays.remove("fast");
+        try {
+            resolver.resolveAll(Arrays.asList(new ArtifactRequest(ARTIFACT, repos, null)), batch);
+            Assert.fail("artifact is missing");
+        } catch (ArtifactResolutionException e) {
+            // the primary request tried all repositories
+            Assert.assertEquals(2, e.getResults().get(0).getExceptions().size());
+        }
+    }
+
+    @Test(timeout = 20000)
+    public void testRequestPoolIsBounded() throws Exception {
+        // 2 request threads for 1 batch thread
+        final HedgedArtifactResolver resolver = newResolver(95, 100, 1);
+        delays.put("slow", 500L);
+        delays.put("fast", 0L);
+        observe(resolver, "slow", HedgedArtifactResolver.MIN_SAMPLES, 20);
+        final List<RemoteRepository> repos = Arrays.asList(repository("slow"), repository("fast"));
+        List<Future<ArtifactResult>> futures = new ArrayList<Future<ArtifactResult>>();
+        ExecutorService callers = Executors.newFixedThreadPool(3);
+        try {
+            for (int i = 0; i < 3; i++) {
+                futures.add(callers.submit(new Callable<ArtifactResult>() {
+                    @Override
+                    public ArtifactResult call() throws Exception {
+                        return resolver.resolve(new ArtifactRequest(ARTIFACT, repos, null), batch);
+                    }
+                }));
+            }
+            for (Future<ArtifactResult> future: futures) {
+                Assert.assertTrue(future.get().isResolved());
+            }
+        } finally {
+            callers.shutdown();
+        }
+        // the requests beyond the pool run on the callers or are not hedged
+        Assert.assertTrue(resolver.toString(), resolver.getRejected() > 0);
+        Assert.assertTrue(resolver.toString(), resolver.getHedges() < 3);
+    }
+}
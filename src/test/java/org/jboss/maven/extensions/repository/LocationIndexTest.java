@@ -0,0 +1,153 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright @year, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.maven.extensions.repository;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import org.eclipse.aether.artifact.Artifact;
+import org.eclipse.aether.artifact.DefaultArtifact;
+import org.eclipse.aether.repository.RemoteRepository;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:lgao@redhat.com">Lin Gao</a>
+ *
+ */
+public class LocationIndexTest {
+
+    private static final RemoteRepository CENTRAL = new RemoteRepository.Builder("central", "default", "http://localhost/central").build();
+    private static final RemoteRepository PUBLIC = new RemoteRepository.Builder("jboss-public-repository-group", "default", "http://localhost/public").build();
+    private static final RemoteRepository PRODUCT = new RemoteRepository.Builder("redhat-ga", "default", "http://localhost/ga").build();
+
+    private static final Artifact COMMUNITY = new DefaultArtifact("org.hibernate:hibernate-core:5.3.1.Final");
+    private static final Artifact REDHAT = new DefaultArtifact("org.hibernate:hibernate-core:5.3.1.Final-redhat-00001");
+
+    @Test
+    public void testApply() {
+        LocationIndex index = new LocationIndex(100);
+        List<RemoteRepository> repos = new OrderedRepositoryList(Arrays.asList(CENTRAL, PUBLIC, PRODUCT), 2, "regex.1");
+        Assert.assertSame(repos, index.apply(COMMUNITY, repos));
+
+        index.record(REDHAT, PRODUCT);
+        index.record(new DefaultArtifact("org.hibernate:hibernate-core:pom:5.3.2.Final-redhat-00002"), PRODUCT);
+        Assert.assertEquals(1, index.size());
+        List<RemoteRepository> ordered = index.apply(new DefaultArtifact("org.hibernate:hibernate-core:5.4.0.Final-redhat-00003"), repos);
+        Assert.assertEquals(Arrays.asList(PRODUCT, CENTRAL, PUBLIC), ordered);
+        Assert.assertEquals(3, ((OrderedRepositoryList) ordered).getConfiguredCount());
+        Assert.assertEquals("regex.1", OrderedRepositoryList.ruleOf(ordered));
+        // another flavor of version
+        Assert.assertSame(repos, index.apply(COMMUNITY, repos));
+
+        index.record(COMMUNITY, PUBLIC);
+        ordered = index.apply(COMMUNITY, repos);
+        Assert.assertEquals(Arrays.asList(PUBLIC, CENTRAL, PRODUCT), ordered);
+        Assert.assertEquals(2, ((OrderedRepositoryList) ordered).getConfiguredCount());
+        // not a candidate
+        Assert.assertEquals(Arrays.asList(CENTRAL), index.apply(COMMUNITY, Arrays.asList(CENTRAL)));
+    }
+
+    @Test
+    public void testPersistence() throws Exception {
+        File localRepo = Files.createTempDirectory("local-repo").toFile();
+        LocationIndex index = new LocationIndex(100);
+        index.open(localRepo);
+        index.record(COMMUNITY, PUBLIC);
+        index.save();
+
+        // another build learns a new location
+        LocationIndex other = new LocationIndex(100);
+        other.open(localRepo);
+        Assert.assertEquals(1, other.size());
+        other.record(COMMUNITY, CENTRAL);
+        other.record(REDHAT, PRODUCT);
+        other.save();
+
+        File log = new File(new File(localRepo, NegativeLookupCache.INDEX_DIR), LocationIndex.INDEX_FILE);
+        Assert.assertEquals(8 + 3 * 24, log.length());
+        // a torn record is ignored
+        try (RandomAccessFile raf = new RandomAccessFile(log, "rw")) {
+            raf.setLength(log.length() + 5);
+        }
+
+        LocationIndex loaded = new LocationIndex(100);
+        loaded.open(localRepo);
+        Assert.assertEquals(2, loaded.size());
+        Assert.assertEquals(CENTRAL, loaded.apply(COMMUNITY, Arrays.asList(PUBLIC, CENTRAL)).get(0));
+        Assert.assertEquals(PRODUCT, loaded.apply(REDHAT, Arrays.asList(PUBLIC, PRODUCT)).get(0));
+
+        // compacted once it holds more than twice as many records as locations
+        loaded.record(COMMUNITY, PUBLIC);
+        loaded.record(REDHAT, CENTRAL);
+        loaded.save();
+        Assert.assertEquals(8 + 2 * 24, log.length());
+        LocationIndex compacted = new LocationIndex(100);
+        compacted.open(localRepo);
+        Assert.assertEquals(2, compacted.size());
+        Assert.assertEquals(PUBLIC, compacted.apply(COMMUNITY, Arrays.asList(CENTRAL, PUBLIC)).get(0));
+        Assert.assertEquals(CENTRAL, compacted.apply(REDHAT, Arrays.asList(PRODUCT, CENTRAL)).get(0));
+    }
+
+    @Test
+    public void testEviction() throws Exception {
+        File localRepo = Files.createTempDirectory("local-repo").toFile();
+        LocationIndex index = new LocationIndex(2);
+        index.open(localRepo);
+        index.record(new DefaultArtifact("org.foo:a:1.0"), PUBLIC);
+        index.save();
+        Thread.sleep(10);
+        index.record(new DefaultArtifact("org.foo:b:1.0"), PUBLIC);
+        index.record(new DefaultArtifact("org.foo:c:1.0"), PUBLIC);
+        index.save();
+
+        LocationIndex loaded = new LocationIndex(2);
+        loaded.open(localRepo);
+        Assert.assertEquals(2, loaded.size());
+        List<RemoteRepository> repos = Arrays.asList(CENTRAL, PUBLIC);
+        Assert.assertSame(repos, loaded.apply(new DefaultArtifact("org.foo:a:1.0"), repos));
+        Assert.assertEquals(PUBLIC, loaded.apply(new DefaultArtifact("org.foo:c:1.0"), repos).get(0));
+    }
+
+    @Test
+    public void testCorruptedLogIsReplaced() throws Exception {
+        File localRepo = Files.createTempDirectory("local-repo").toFile();
+        File dir = new File(localRepo, NegativeLookupCache.INDEX_DIR);
+        Assert.assertTrue(dir.mkdirs());
+        File log = new File(dir, LocationIndex.INDEX_FILE);
+        Files.write(log.toPath(), "not a location index".getBytes("UTF-8"));
+
+        LocationIndex index = new LocationIndex(100);
+        index.open(localRepo);
+        Assert.assertEquals(0, index.size());
+        index.record(COMMUNITY, PUBLIC);
+        index.save();
+        Assert.assertEquals(8 + 24, log.length());
+
+        // the next builds read and append to the replaced log
+        LocationIndex other = new LocationIndex(100);
+        other.open(localRepo);
+        Assert.assertEquals(PUBLIC, other.apply(COMMUNITY, Arrays.asList(CENTRAL, PUBLIC)).get(0));
+        other.record(REDHAT, PRODUCT);
+        other.save();
+        Assert.assertEquals(8 + 2 * 24, log.length());
+    }
+}
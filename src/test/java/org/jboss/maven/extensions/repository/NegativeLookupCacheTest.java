@@ -0,0 +1,145 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright @year, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.maven.extensions.repository;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.eclipse.aether.artifact.Artifact;
+import org.eclipse.aether.artifact.DefaultArtifact;
+import org.eclipse.aether.repository.RemoteRepository;
+import org.eclipse.aether.resolution.ArtifactRequest;
+import org.eclipse.aether.resolution.ArtifactResolutionException;
+import org.eclipse.aether.resolution.ArtifactResult;
+import org.eclipse.aether.transfer.ArtifactNotFoundException;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:lgao@redhat.com">Lin Gao</a>
+ *
+ */
+public class NegativeLookupCacheTest {
+
+    private static final RemoteRepository CENTRAL = new RemoteRepository.Builder("central", "default", "http://localhost/central").build();
+    private static final RemoteRepository PUBLIC = new RemoteRepository.Builder("jboss-public-repository-group", "default", "http://localhost/public").build();
+    private static final List<RemoteRepository> REPOS = Arrays.asList(CENTRAL, PUBLIC);
+
+    private static final Artifact POM = new DefaultArtifact("org.jboss:jboss-parent:pom:20");
+    private static final Artifact JAR = new DefaultArtifact("org.jboss:jboss-parent:jar:20");
+
+    @Test
+    public void testDemoteAndDrop() {
+        NegativeLookupCache demote = new NegativeLookupCache(60, NegativeLookupCache.Mode.DEMOTE);
+        demote.record(Collections.<Exception>singletonList(new ArtifactNotFoundException(POM, CENTRAL)));
+        Assert.assertEquals(Arrays.asList(PUBLIC, CENTRAL), demote.apply(JAR, REPOS));
+        Assert.assertSame(REPOS, demote.apply(new DefaultArtifact("org.jboss:jboss-parent:jar:21"), REPOS));
+
+        NegativeLookupCache drop = new NegativeLookupCache(60, NegativeLookupCache.Mode.DROP);
+        ArtifactResult result = new ArtifactResult(new ArtifactRequest(POM, REPOS, null));
+        result.addException(new ArtifactNotFoundException(POM, CENTRAL));
+        drop.record(Collections.<Exception>singletonList(new ArtifactResolutionException(Collections.singletonList(result))));
+        Assert.assertEquals(Arrays.asList(PUBLIC), drop.apply(JAR, REPOS));
+        // never drops all of them
+        Assert.assertEquals(Arrays.asList(CENTRAL), drop.apply(JAR, Arrays.asList(CENTRAL)));
+    }
+
+    @Test
+    public void testOnlyMissingPomsAreRecorded() {
+        NegativeLookupCache cache = new NegativeLookupCache(60, NegativeLookupCache.Mode.DEMOTE);
+        cache.record(Collections.<Exception>singletonList(new ArtifactNotFoundException(JAR, CENTRAL)));
+        cache.record(Collections.<Exception>singletonList(
+                new ArtifactNotFoundException(new DefaultArtifact("org.jboss:jboss-parent:pom:tests:20"), CENTRAL)));
+        Assert.assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testPersistence() throws Exception {
+        File localRepo = Files.createTempDirectory("local-repo").toFile();
+        NegativeLookupCache cache = new NegativeLookupCache(60, NegativeLookupCache.Mode.DEMOTE);
+        cache.open(localRepo);
+        cache.record(CENTRAL, POM);
+        cache.save();
+
+        NegativeLookupCache other = new NegativeLookupCache(60, NegativeLookupCache.Mode.DEMOTE);
+        other.open(localRepo);
+        Assert.assertTrue(other.isMissing(CENTRAL, JAR));
+        Assert.assertFalse(other.isMissing(PUBLIC, JAR));
+        other.record(PUBLIC, new DefaultArtifact("junit:junit:pom:4.12"));
+        other.save();
+
+        NegativeLookupCache third = new NegativeLookupCache(60, NegativeLookupCache.Mode.DEMOTE);
+        third.open(localRepo);
+        Assert.assertEquals(2, third.size());
+
+        // expired entries are not loaded
+        NegativeLookupCache expired = new NegativeLookupCache(0, NegativeLookupCache.Mode.DEMOTE);
+        File otherRepo = Files.createTempDirectory("local-repo").toFile();
+        expired.open(otherRepo);
+        expired.record(CENTRAL, POM);
+        expired.save();
+        NegativeLookupCache reloaded = new NegativeLookupCache(60, NegativeLookupCache.Mode.DEMOTE);
+        reloaded.open(otherRepo);
+        Assert.assertEquals(0, reloaded.size());
+    }
+
+    @Test(timeout = 60000)
+    public void testConcurrentSaves() throws Exception {
+        final File localRepo = Files.createTempDirectory("local-repo").toFile();
+        final int builds = 8;
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(builds);
+        try {
+            List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            for (int i = 0; i < builds; i++) {
+                final int build = i;
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        NegativeLookupCache cache = new NegativeLookupCache(60, NegativeLookupCache.Mode.DEMOTE);
+                        cache.open(localRepo);
+                        cache.record(CENTRAL, new DefaultArtifact("org.jboss:jboss-build-" + build + ":pom:1.0"));
+                        start.await();
+                        cache.save();
+                        return null;
+                    }
+                }));
+            }
+            start.countDown();
+            for (Future<Void> future: futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        // no build overwrites the misses another one saved in the meantime
+        NegativeLookupCache merged = new NegativeLookupCache(60, NegativeLookupCache.Mode.DEMOTE);
+        merged.open(localRepo);
+        Assert.assertEquals(builds, merged.size());
+        Assert.assertTrue(new File(new File(localRepo, NegativeLookupCache.INDEX_DIR), NegativeLookupCache.LOCK_FILE).isFile());
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright @year, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.maven.extensions.repository;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+
+import org.jboss.maven.extensions.repository.OrderedRepositoryConfiguration.OrderRule;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:lgao@redhat.com">Lin Gao</a>
+ *
+ */
+public class OrderRuleMatcherTest {
+
+    private static final String[] GROUPS = {"org.jboss", "org.jboss.ironjacamar", "org.wildfly", "org.wildfly.core",
+        "org.apache.maven.plugins", "org.apache.maven", "orgXapache", "com.redhat", "io.undertow", "javax.enterprise",
+        "org", "o", ""};
+    private static final String[] ARTIFACTS = {"wildfly-connector", "maven-resources-plugin", "jboss-parent", "core", "a"};
+    private static final String[] VERSIONS = {"1.0", "2.7.redhat-1", "9.0.2.Final", "1.0.0.Final-redhat-3", "1-SNAPSHOT"};
+
+    private static final String[] REGEXES = {
+        "[^\\n]*:[^\\n]*:[^\\n]*redhat-[^\\n]*",
+        "org.apache.maven.plugins:[^\\n]*:[^\\n]*",
+        "org.[jboss|wildfly][^\\n]*:[^\\n]*:[^\\n]*",
+        "org\\.jboss\\.ironjacamar:.*",
+        "org\\.wildfly.*",
+        "org.wildfly.core:core:.*",
+        "^org\\.apache\\.maven:.*",
+        "org.jboss|org.wildfly:.*",
+        "(org|com)\\.redhat:.*",
+        "o+rg.*",
+        "orgs?.*",
+        "org.jboss:jboss-parent:1\\.0",
+        "io\\.undertow:[^:]+:[^:]+",
+        "javax.enterprise:a:1-SNAPSHOT",
+        "(?i)ORG\\.JBOSS:.*",
+        "\\Qorg.jboss\\E:.*",
+        ".*:core:.*",
+        "o{1}rg.*",
+        "org\\.jboss[.]ironjacamar:.*",
+        ":a:.*",
+    };
+
+    @Test
+    public void testLiteralPrefix() {
+        Assert.assertEquals("", OrderRuleMatcher.literalPrefix("[^\\n]*:[^\\n]*:[^\\n]*redhat-[^\\n]*"));
+        Assert.assertEquals("org.apache.maven.plugins:".replace('.', OrderRuleMatcher.ANY),
+                OrderRuleMatcher.literalPrefix("org.apache.maven.plugins:[^\\n]*:[^\\n]*"));
+        Assert.assertEquals("org" + OrderRuleMatcher.ANY, OrderRuleMatcher.literalPrefix("org.[jboss|wildfly][^\\n]*:[^\\n]*:[^\\n]*"));
+        Assert.assertEquals("org.jboss:", OrderRuleMatcher.literalPrefix("^org\\.jboss:.*"));
+        Assert.assertEquals("o", OrderRuleMatcher.literalPrefix("o+rg.*"));
+        Assert.assertEquals("org", OrderRuleMatcher.literalPrefix("orgs?.*"));
+        Assert.assertEquals("", OrderRuleMatcher.literalPrefix("org.jboss|org.wildfly:.*"));
+        Assert.assertEquals("", OrderRuleMatcher.literalPrefix("(?i)org.jboss:.*"));
+    }
+
+    @Test
+    public void testEquivalenceWithLinearScan() throws Exception {
+        Random random = new Random(20180101L);
+        for (int round = 0; round < 50; round++) {
+            Properties props = new Properties();
+            int count = 1 + random.nextInt(REGEXES.length);
+            for (int i = 0; i < count; i++) {
+                int index = 100 + random.nextInt(1000);
+                props.setProperty("regex." + index, REGEXES[random.nextInt(REGEXES.length)]);
+                props.setProperty("regex." + index + ".repos", "central");
+            }
+            OrderedRepositoryConfiguration config = load(props);
+            List<OrderRule> rules = config.getOrderedRules();
+            OrderRuleMatcher matcher = config.getRuleMatcher();
+            for (String gav: gavs()) {
+                Assert.assertSame("Different rule matched for " + gav, linearScan(rules, gav), matcher.match(gav));
+            }
+        }
+    }
+
+    @Test
+    public void testDefaultConfiguration() {
+        OrderedRepositoryConfiguration config = new OrderedRepositoryConfiguration(null);
+        OrderRuleMatcher matcher = config.getRuleMatcher();
+        Assert.assertEquals(1, matcher.match("org.apache.maven.plugins:maven-resources-plugin:2.7.redhat-1").getIndex());
+        Assert.assertEquals(2, matcher.match("org.apache.maven.plugins:maven-resources-plugin:2.6").getIndex());
+        Assert.assertEquals(3, matcher.match("org.wildfly:wildfly-connector:9.0.2.Final").getIndex());
+        Assert.assertNull(matcher.match("junit:junit:4.12"));
+    }
+
+    private static List<String> gavs() {
+        List<String> gavs = new ArrayList<String>();
+        for (String g: GROUPS) {
+            for (String a: ARTIFACTS) {
+                for (String v: VERSIONS) {
+                    gavs.add(g + ":" + a + ":" + v);
+                }
+            }
+        }
+        gavs.add("org\njboss:a:1.0");
+        return gavs;
+    }
+
+    private static OrderRule linearScan(List<OrderRule> rules, String gav) {
+        for (OrderRule rule: rules) {
+            if (rule.getPattern() != null && rule.getPattern().matcher(gav).matches()) {
+                return rule;
+            }
+        }
+        return null;
+    }
+
+    private static OrderedRepositoryConfiguration load(Properties props) throws Exception {
+        File file = File.createTempFile("rules", ".properties");
+        file.deleteOnExit();
+        try (OutputStream out = new FileOutputStream(file)) {
+            props.store(out, null);
+        }
+        return new OrderedRepositoryConfiguration(file.getAbsolutePath());
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright @year, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.maven.extensions.repository;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.eclipse.aether.artifact.Artifact;
+import org.eclipse.aether.artifact.DefaultArtifact;
+import org.eclipse.aether.repository.RemoteRepository;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:lgao@redhat.com">Lin Gao</a>
+ *
+ */
+public class OrderedRepositoryCacheTest {
+
+    private static RemoteRepository repo(String id) {
+        return new RemoteRepository.Builder(id, "default", "http://localhost/" + id).build();
+    }
+
+    @Test
+    public void testHitsAndMisses() {
+        OrderedRepositoryCache cache = new OrderedRepositoryCache(100);
+        Artifact artifact = new DefaultArtifact("org.jboss:jboss-parent:pom:20");
+        List<RemoteRepository> candidates = Arrays.asList(repo("central"), repo("jboss-public-repository-group"));
+        List<RemoteRepository> ordered = Arrays.asList(candidates.get(1), candidates.get(0));
+
+        Assert.assertNull(cache.get(artifact, candidates));
+        List<RemoteRepository> cached = cache.put(artifact, candidates, ordered);
+        Assert.assertEquals(ordered, cached);
+
+        // same G:A:V, different type and equal (but not same) candidate list
+        Artifact jar = new DefaultArtifact("org.jboss:jboss-parent:jar:20");
+        Assert.assertSame(cached, cache.get(jar, Arrays.asList(repo("central"), repo("jboss-public-repository-group"))));
+
+        // different candidate list is a different entry
+        Assert.assertNull(cache.get(artifact, Arrays.asList(repo("central"))));
+        Assert.assertEquals(1, cache.getHits());
+        Assert.assertEquals(2, cache.getMisses());
+
+        cache.invalidate();
+        Assert.assertNull(cache.get(artifact, candidates));
+        Assert.assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testBounded() {
+        OrderedRepositoryCache cache = new OrderedRepositoryCache(8);
+        List<RemoteRepository> candidates = Arrays.asList(repo("central"));
+        for (int i = 0; i < 100; i++) {
+            Artifact artifact = new DefaultArtifact("org.jboss:artifact-" + i + ":1.0");
+            cache.put(artifact, candidates, candidates);
+            Assert.assertTrue(cache.size() <= 8);
+        }
+        Assert.assertTrue(cache.getEvictions() > 0);
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testImmutable() {
+        OrderedRepositoryCache cache = new OrderedRepositoryCache(8);
+        List<RemoteRepository> candidates = Arrays.asList(repo("central"));
+        cache.put(new DefaultArtifact("org.jboss:a:1.0"), candidates, candidates).add(repo("other"));
+    }
+}
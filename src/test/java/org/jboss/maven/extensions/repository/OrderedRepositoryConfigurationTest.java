@@ -17,12 +17,24 @@
 
 package org.jboss.maven.extensions.repository;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Executors;
 
 import org.jboss.maven.extensions.repository.OrderedRepositoryConfiguration.OrderRule;
 import org.junit.Assert;
 import org.junit.Test;
 
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
 /**
  * @author <a href="mailto:lgao@redhat.com">Lin Gao</a>
  *
@@ -98,4 +110,65 @@ public class OrderedRepositoryConfigurationTest {
         Assert.assertEquals("jboss-product-repository", c3Repos[3].trim());
         
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testMetadataLimit() {
+        Properties props = new Properties();
+        props.setProperty("regex.1", "[^\\n]*:[^\\n]*:[^\\n]*-SNAPSHOT");
+        props.setProperty("regex.1.repos", "snapshots, central");
+        props.setProperty("regex.1.metadata.limit", "1");
+        props.setProperty("regex.default.repos", "central");
+        props.setProperty("regex.default.metadata.limit", " 2 ");
+        OrderedRepositoryConfiguration config = new OrderedRepositoryConfiguration(null, props);
+        Assert.assertEquals(1, config.getOrderedRules().size());
+        Assert.assertEquals(1, config.getMetadataLimit("regex.1"));
+        Assert.assertEquals(2, config.getMetadataLimit(OrderedRepositoryConfiguration.DEFAULT_RULE));
+        Assert.assertEquals(0, config.getMetadataLimit("regex.2"));
+        Assert.assertEquals(0, config.getMetadataLimit(null));
+    }
+
+    @Test(timeout = 20000)
+    public void testRemoteConfigurationTimeoutAndCache() throws Exception {
+        final long[] delay = {0};
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/config.properties", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    Thread.sleep(delay[0]);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                byte[] body = "regex.default.repos = central\n".getBytes(StandardCharsets.ISO_8859_1);
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            }
+        });
+        server.start();
+        File cacheDir = Files.createTempDirectory("configuration-cache").toFile();
+        System.setProperty(OrderedRepositorySystem.CONFIGURE_CACHE, cacheDir.getPath());
+        System.setProperty(OrderedRepositorySystem.CONFIGURE_TIMEOUT, "1");
+        try {
+            String url = "http://127.0.0.1:" + server.getAddress().getPort() + "/config.properties";
+            Assert.assertArrayEquals(new String[] {"central"}, new OrderedRepositoryConfiguration(url).getDefaultRepos());
+            File cached = OrderedRepositoryConfiguration.cacheFile(url);
+            Assert.assertTrue(cached.isFile());
+
+            // a stalled server times out, the last loaded configuration is used
+            delay[0] = 5000;
+            long start = System.currentTimeMillis();
+            Assert.assertArrayEquals(new String[] {"central"}, new OrderedRepositoryConfiguration(url).getDefaultRepos());
+            Assert.assertTrue("configuration loading does not time out", System.currentTimeMillis() - start < 4000);
+
+            Assert.assertTrue(cached.delete());
+            Assert.assertNull(OrderedRepositoryConfiguration.loadProperties(url));
+        } finally {
+            System.clearProperty(OrderedRepositorySystem.CONFIGURE_CACHE);
+            System.clearProperty(OrderedRepositorySystem.CONFIGURE_TIMEOUT);
+            server.stop(0);
+        }
+    }
+}
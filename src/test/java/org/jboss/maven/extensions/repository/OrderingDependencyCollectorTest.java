@@ -0,0 +1,199 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright @year, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.maven.extensions.repository;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.maven.repository.internal.MavenRepositorySystemUtils;
+import org.eclipse.aether.DefaultRepositorySystemSession;
+import org.eclipse.aether.RepositorySystemSession;
+import org.eclipse.aether.artifact.Artifact;
+import org.eclipse.aether.artifact.DefaultArtifact;
+import org.eclipse.aether.collection.CollectRequest;
+import org.eclipse.aether.collection.CollectResult;
+import org.eclipse.aether.graph.Dependency;
+import org.eclipse.aether.graph.DependencyNode;
+import org.eclipse.aether.impl.ArtifactDescriptorReader;
+import org.eclipse.aether.impl.ArtifactResolver;
+import org.eclipse.aether.impl.DependencyCollector;
+import org.eclipse.aether.impl.Deployer;
+import org.eclipse.aether.impl.Installer;
+import org.eclipse.aether.impl.LocalRepositoryProvider;
+import org.eclipse.aether.impl.MetadataResolver;
+import org.eclipse.aether.impl.SyncContextFactory;
+import org.eclipse.aether.impl.VersionRangeResolver;
+import org.eclipse.aether.impl.VersionResolver;
+import org.eclipse.aether.internal.impl.DefaultChecksumPolicyProvider;
+import org.eclipse.aether.internal.impl.DefaultRemoteRepositoryManager;
+import org.eclipse.aether.internal.impl.DefaultUpdatePolicyAnalyzer;
+import org.eclipse.aether.internal.impl.SimpleLocalRepositoryManagerFactory;
+import org.eclipse.aether.repository.LocalRepository;
+import org.eclipse.aether.repository.RemoteRepository;
+import org.eclipse.aether.resolution.ArtifactDescriptorRequest;
+import org.eclipse.aether.resolution.ArtifactDescriptorResult;
+import org.eclipse.aether.resolution.VersionRangeRequest;
+import org.eclipse.aether.resolution.VersionRangeResult;
+import org.eclipse.aether.spi.log.NullLoggerFactory;
+import org.eclipse.aether.util.version.GenericVersionScheme;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:lgao@redhat.com">Lin Gao</a>
+ *
+ */
+public class OrderingDependencyCollectorTest {
+
+    private static final RemoteRepository CENTRAL = repo("central");
+    private static final RemoteRepository PUBLIC = repo("jboss-public-repository-group");
+    private static final RemoteRepository PRODUCT = repo("jboss-product-repository");
+
+    private static RemoteRepository repo(String id) {
+        return new RemoteRepository.Builder(id, "default", "http://localhost/" + id).build();
+    }
+
+    private static final String ROOT = "org.jboss:root:1.0";
+    private static final String PLUGIN = "org.apache.maven.plugins:maven-resources-plugin:2.6";
+    private static final String PRODUCT_ARTIFACT = "org.jboss:product:1.0.0.redhat-1";
+    private static final String OTHER = "junit:junit:4.12";
+
+    /**
+     * G:A:V to its dependencies.
+     */
+    private final Map<String, List<String>> graph = new HashMap<String, List<String>>();
+
+    /**
+     * G:A:V to the repository ids its descriptor was read from.
+     */
+    private final Map<String, List<String>> descriptorRepos = new ConcurrentHashMap<String, List<String>>();
+
+    @Before
+    public void setUp() {
+        System.setProperty("ordered.repository.extension.enabled", "true");
+        graph.put(ROOT, Arrays.asList(PLUGIN, OTHER));
+        graph.put(PLUGIN, Arrays.asList(PRODUCT_ARTIFACT));
+    }
+
+    @After
+    public void tearDown() {
+        System.clearProperty("ordered.repository.extension.enabled");
+    }
+
+    private static String gav(Artifact artifact) {
+        return artifact.getGroupId() + ":" + artifact.getArtifactId() + ":" + artifact.getVersion();
+    }
+
+    private static List<String> ids(List<RemoteRepository> repos) {
+        List<String> ids = new ArrayList<String>();
+        for (RemoteRepository repo: repos) {
+            ids.add(repo.getId());
+        }
+        return ids;
+    }
+
+    private OrderedRepositorySystem newSystem() {
+        ArtifactDescriptorReader reader = new ArtifactDescriptorReader() {
+            @Override
+            public ArtifactDescriptorResult readArtifactDescriptor(RepositorySystemSession session, ArtifactDescriptorRequest request) {
+                descriptorRepos.put(gav(request.getArtifact()), ids(request.getRepositories()));
+                ArtifactDescriptorResult result = new ArtifactDescriptorResult(request);
+                result.setArtifact(request.getArtifact());
+                List<String> deps = graph.get(gav(request.getArtifact()));
+                if (deps != null) {
+                    for (String dep: deps) {
+                        result.addDependency(new Dependency(new DefaultArtifact(dep), "compile"));
+                    }
+                }
+                return result;
+            }
+        };
+        VersionRangeResolver rangeResolver = new VersionRangeResolver() {
+            @Override
+            public VersionRangeResult resolveVersionRange(RepositorySystemSession session, VersionRangeRequest request) {
+                VersionRangeResult result = new VersionRangeResult(request);
+                try {
+                    GenericVersionScheme scheme = new GenericVersionScheme();
+                    result.setVersionConstraint(scheme.parseVersionConstraint(request.getArtifact().getVersion()));
+                    result.addVersion(scheme.parseVersion(request.getArtifact().getVersion()));
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+                return result;
+            }
+        };
+        DefaultRemoteRepositoryManager remoteRepositoryManager = new DefaultRemoteRepositoryManager();
+        remoteRepositoryManager.setUpdatePolicyAnalyzer(new DefaultUpdatePolicyAnalyzer());
+        remoteRepositoryManager.setChecksumPolicyProvider(new DefaultChecksumPolicyProvider());
+        return new OrderedRepositorySystem(stub(VersionResolver.class), rangeResolver, stub(ArtifactResolver.class),
+                stub(MetadataResolver.class), reader, stub(DependencyCollector.class), stub(Installer.class),
+                stub(Deployer.class), stub(LocalRepositoryProvider.class), stub(SyncContextFactory.class),
+                remoteRepositoryManager, NullLoggerFactory.INSTANCE);
+    }
+
+    private static <T> T stub(Class<T> type) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type}, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                throw new UnsupportedOperationException(method.toString());
+            }
+        }));
+    }
+
+    @Test
+    public void testEachNodeHasItsOwnOrder() throws Exception {
+        OrderedRepositorySystem system = newSystem();
+        CollectRequest request = new CollectRequest(new Dependency(new DefaultArtifact(ROOT), "compile"),
+                Arrays.asList(PUBLIC, PRODUCT, CENTRAL));
+        DefaultRepositorySystemSession session = MavenRepositorySystemUtils.newSession();
+        LocalRepository localRepo = new LocalRepository(Files.createTempDirectory("local-repo").toFile());
+        session.setLocalRepositoryManager(new SimpleLocalRepositoryManagerFactory().newInstance(session, localRepo));
+        CollectResult result = system.collectDependencies(session, request);
+
+        // request is not touched
+        Assert.assertEquals(Arrays.asList(PUBLIC, PRODUCT, CENTRAL), request.getRepositories());
+
+        Assert.assertEquals(Arrays.asList("jboss-public-repository-group", "central", "jboss-product-repository"),
+                descriptorRepos.get(ROOT));
+        Assert.assertEquals(Arrays.asList("central", "jboss-public-repository-group", "jboss-product-repository"),
+                descriptorRepos.get(PLUGIN));
+        Assert.assertEquals(Arrays.asList("jboss-product-repository", "jboss-public-repository-group", "central"),
+                descriptorRepos.get(PRODUCT_ARTIFACT));
+
+        DependencyNode root = result.getRoot();
+        Assert.assertEquals(descriptorRepos.get(ROOT), ids(root.getRepositories()));
+        DependencyNode plugin = root.getChildren().get(0);
+        Assert.assertEquals(PLUGIN, gav(plugin.getArtifact()));
+        Assert.assertEquals(descriptorRepos.get(PLUGIN), ids(plugin.getRepositories()));
+        DependencyNode product = plugin.getChildren().get(0);
+        Assert.assertEquals(descriptorRepos.get(PRODUCT_ARTIFACT), ids(product.getRepositories()));
+        DependencyNode other = root.getChildren().get(1);
+        Assert.assertEquals(OTHER, gav(other.getArtifact()));
+        Assert.assertEquals(descriptorRepos.get(OTHER), ids(other.getRepositories()));
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright @year, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.maven.extensions.repository;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.eclipse.aether.artifact.Artifact;
+import org.eclipse.aether.artifact.DefaultArtifact;
+import org.eclipse.aether.repository.RemoteRepository;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:lgao@redhat.com">Lin Gao</a>
+ *
+ */
+public class OrderingTraceTest {
+
+    private static final RemoteRepository CENTRAL = new RemoteRepository.Builder("central", "default", "http://localhost/central").build();
+    private static final RemoteRepository PUBLIC = new RemoteRepository.Builder("jboss-public-repository-group", "default", "http://localhost/public").build();
+
+    private static final List<RemoteRepository> CANDIDATES = Arrays.asList(CENTRAL, PUBLIC);
+    private static final List<RemoteRepository> ORDERED = new OrderedRepositoryList(Arrays.asList(PUBLIC, CENTRAL), 1, "regex.3");
+
+    private static Artifact artifact(int i) {
+        return new DefaultArtifact("org.jboss:jboss-dmr:1." + i);
+    }
+
+    @Test
+    public void testRingBuffer() throws Exception {
+        OrderingTrace trace = new OrderingTrace(4, 1, null, null);
+        for (int i = 0; i < 6; i++) {
+            Assert.assertTrue(trace.isTraced(artifact(i)));
+            trace.record("resolveArtifact", artifact(i), CANDIDATES, ORDERED, 100 + i);
+        }
+        Assert.assertEquals(6, trace.getRecorded());
+        List<OrderingTrace.Event> events = trace.getEvents();
+        Assert.assertEquals(4, events.size());
+        Assert.assertEquals("org.jboss:jboss-dmr:1.2", events.get(0).getGav());
+        Assert.assertEquals("org.jboss:jboss-dmr:1.5", events.get(3).getGav());
+        Assert.assertEquals("regex.3", events.get(3).getRule());
+        Assert.assertArrayEquals(new String[] {"jboss-public-repository-group", "central"}, events.get(3).getOrdered());
+
+        File file = File.createTempFile("ordering-trace", ".log");
+        file.deleteOnExit();
+        trace.dump(file);
+        List<OrderingTrace.Event> read = new ArrayList<OrderingTrace.Event>();
+        for (String line: Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+            OrderingTrace.Event event = OrderingTrace.parse(line);
+            if (event != null) {
+                read.add(event);
+            }
+        }
+        Assert.assertEquals(4, read.size());
+        Assert.assertEquals(events.get(0).toString(), read.get(0).toString());
+        Assert.assertEquals("resolveArtifact", read.get(0).getOperation());
+        Assert.assertArrayEquals(new String[] {"central", "jboss-public-repository-group"}, read.get(0).getCandidates());
+        Assert.assertEquals(102, read.get(0).getNanos());
+
+        OrderingTrace.Event empty = OrderingTrace.parse("order\tg:a:1\t-\tcentral\t-\t5");
+        Assert.assertNull(empty.getRule());
+        Assert.assertEquals(0, empty.getOrdered().length);
+    }
+
+    @Test
+    public void testFilterAndSample() {
+        OrderingTrace trace = new OrderingTrace(16, 2, Pattern.compile("org\\.jboss:.*"), null);
+        Assert.assertFalse(trace.isTraced(new DefaultArtifact("org.apache.maven:maven-core:3.3.9")));
+        Assert.assertTrue(trace.isTraced(artifact(1)));
+        Assert.assertFalse(trace.isTraced(artifact(2)));
+        Assert.assertTrue(trace.isTraced(artifact(3)));
+    }
+
+    @Test
+    public void testConcurrentRecording() throws Exception {
+        final OrderingTrace trace = new OrderingTrace(1024, 1, null, null);
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 1000; i++) {
+                        trace.record("order", artifact(i), CANDIDATES, ORDERED, i);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread: threads) {
+            thread.join();
+        }
+        Assert.assertEquals(4000, trace.getRecorded());
+        Assert.assertEquals(1024, trace.getEvents().size());
+    }
+}
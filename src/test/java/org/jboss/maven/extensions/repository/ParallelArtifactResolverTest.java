@@ -0,0 +1,188 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright @year, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.maven.extensions.repository;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.aether.artifact.DefaultArtifact;
+import org.eclipse.aether.repository.RemoteRepository;
+import org.eclipse.aether.resolution.ArtifactRequest;
+import org.eclipse.aether.resolution.ArtifactResolutionException;
+import org.eclipse.aether.resolution.ArtifactResult;
+import org.eclipse.aether.transfer.ArtifactNotFoundException;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:lgao@redhat.com">Lin Gao</a>
+ *
+ */
+public class ParallelArtifactResolverTest {
+
+    private static final String[] REPO_IDS = {"central", "jboss-public-repository-group", "jboss-product-repository"};
+
+    private static List<ArtifactRequest> requests(int count) {
+        List<ArtifactRequest> requests = new ArrayList<ArtifactRequest>();
+        for (int i = 0; i < count; i++) {
+            String repoId = REPO_IDS[i % REPO_IDS.length];
+            RemoteRepository repo = new RemoteRepository.Builder(repoId, "default", "http://localhost/" + repoId).build();
+            requests.add(new ArtifactRequest(new DefaultArtifact("org.jboss:artifact-" + i + ":1.0"),
+                    Collections.singletonList(repo), null));
+        }
+        return requests;
+    }
+
+    /**
+     * Resolves each request after a short delay, keeping track of the concurrency per repository.
+     */
+    private static class RecordingBatch implements ParallelArtifactResolver.Batch {
+        private final ConcurrentMap<String, AtomicInteger> inFlight = new ConcurrentHashMap<String, AtomicInteger>();
+        private final ConcurrentMap<String, AtomicInteger> maxInFlight = new ConcurrentHashMap<String, AtomicInteger>();
+        private final String failingArtifactId;
+
+        RecordingBatch(String failingArtifactId) {
+            this.failingArtifactId = failingArtifactId;
+            for (String repoId: REPO_IDS) {
+                inFlight.put(repoId, new AtomicInteger());
+                maxInFlight.put(repoId, new AtomicInteger());
+            }
+        }
+
+        @Override
+        public List<ArtifactResult> resolve(List<ArtifactRequest> requests) throws ArtifactResolutionException {
+            String repoId = requests.get(0).getRepositories().get(0).getId();
+            int current = inFlight.get(repoId).incrementAndGet();
+            AtomicInteger max = maxInFlight.get(repoId);
+            while (max.get() < current && !max.compareAndSet(max.get(), current)) {
+                // retry
+            }
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            inFlight.get(repoId).decrementAndGet();
+            List<ArtifactResult> results = new ArrayList<ArtifactResult>();
+            boolean failed = false;
+            for (ArtifactRequest request: requests) {
+                Assert.assertEquals(repoId, request.getRepositories().get(0).getId());
+                ArtifactResult result = new ArtifactResult(request);
+                if (request.getArtifact().getArtifactId().equals(failingArtifactId)) {
+                    result.addException(new ArtifactNotFoundException(request.getArtifact(), request.getRepositories().get(0)));
+                    failed = true;
+                } else {
+                    result.setArtifact(request.getArtifact().setFile(new File(request.getArtifact().getArtifactId() + ".jar")));
+                }
+                results.add(result);
+            }
+            if (failed) {
+                throw new ArtifactResolutionException(results);
+            }
+            return results;
+        }
+    }
+
+    @Test
+    public void testResultsInRequestOrder() throws Exception {
+        ParallelArtifactResolver resolver = new ParallelArtifactResolver(8, 2);
+        List<ArtifactRequest> requests = requests(30);
+        RecordingBatch batch = new RecordingBatch(null);
+        List<ArtifactResult> results = resolver.resolve(requests, batch);
+        Assert.assertEquals(requests.size(), results.size());
+        for (int i = 0; i < requests.size(); i++) {
+            Assert.assertSame(requests.get(i), results.get(i).getRequest());
+            Assert.assertTrue(results.get(i).isResolved());
+        }
+        for (String repoId: REPO_IDS) {
+            Assert.assertTrue(batch.maxInFlight.get(repoId).get() <= 2);
+        }
+    }
+
+    @Test
+    public void testFailuresAreAggregated() throws Exception {
+        ParallelArtifactResolver resolver = new ParallelArtifactResolver(4, 4);
+        List<ArtifactRequest> requests = requests(10);
+        try {
+            resolver.resolve(requests, new RecordingBatch("artifact-4"));
+            Assert.fail("artifact-4 should not be resolved");
+        } catch (ArtifactResolutionException e) {
+            Assert.assertEquals(requests.size(), e.getResults().size());
+            for (int i = 0; i < requests.size(); i++) {
+                Assert.assertSame(requests.get(i), e.getResults().get(i).getRequest());
+                Assert.assertEquals(i != 4, e.getResults().get(i).isResolved());
+            }
+        }
+    }
+
+    @Test(timeout = 20000)
+    public void testBlockedRepositoryKeepsThreads() throws Exception {
+        final ParallelArtifactResolver resolver = new ParallelArtifactResolver(2, 1);
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final CountDownLatch unblock = new CountDownLatch(1);
+        final RecordingBatch batch = new RecordingBatch(null) {
+            @Override
+            public List<ArtifactResult> resolve(List<ArtifactRequest> requests) throws ArtifactResolutionException {
+                if (requests.get(0).getRepositories().get(0).getId().equals("central")) {
+                    blocked.countDown();
+                    try {
+                        unblock.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return super.resolve(requests);
+            }
+        };
+        final List<ArtifactRequest> central = new ArrayList<ArtifactRequest>();
+        List<ArtifactRequest> others = new ArrayList<ArtifactRequest>();
+        for (ArtifactRequest request: requests(9)) {
+            (request.getRepositories().get(0).getId().equals("central") ? central : others).add(request);
+        }
+        List<Thread> callers = new ArrayList<Thread>();
+        for (int t = 0; t < 3; t++) {
+            Thread caller = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        resolver.resolve(central, batch);
+                    } catch (ArtifactResolutionException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            };
+            caller.start();
+            callers.add(caller);
+        }
+        blocked.await();
+        Thread.sleep(100);
+        // the chunks of central over its limit wait without a thread, the other repositories are resolved meanwhile
+        Assert.assertEquals(others.size(), resolver.resolve(others, batch).size());
+        unblock.countDown();
+        for (Thread caller: callers) {
+            caller.join();
+        }
+        Assert.assertEquals(1, batch.maxInFlight.get("central").get());
+    }
+}
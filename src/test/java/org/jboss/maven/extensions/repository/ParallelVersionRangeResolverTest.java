@@ -0,0 +1,136 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright @year, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.maven.extensions.repository;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.aether.artifact.DefaultArtifact;
+import org.eclipse.aether.repository.ArtifactRepository;
+import org.eclipse.aether.repository.LocalRepository;
+import org.eclipse.aether.repository.RemoteRepository;
+import org.eclipse.aether.resolution.VersionRangeRequest;
+import org.eclipse.aether.resolution.VersionRangeResolutionException;
+import org.eclipse.aether.resolution.VersionRangeResult;
+import org.eclipse.aether.util.version.GenericVersionScheme;
+import org.eclipse.aether.version.Version;
+import org.eclipse.aether.version.VersionConstraint;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:lgao@redhat.com">Lin Gao</a>
+ *
+ */
+public class ParallelVersionRangeResolverTest {
+
+    private static final RemoteRepository CENTRAL = new RemoteRepository.Builder("central", "default", "http://localhost/central").build();
+    private static final RemoteRepository PUBLIC = new RemoteRepository.Builder("jboss-public-repository-group", "default", "http://localhost/public").build();
+    private static final LocalRepository LOCAL = new LocalRepository("target/local-repo");
+
+    private final GenericVersionScheme scheme = new GenericVersionScheme();
+
+    /**
+     * Versions in each repository, the local one is keyed by <code>null</code>.
+     */
+    private final Map<String, List<String>> available = new HashMap<String, List<String>>();
+
+    private final Map<String, AtomicInteger> calls = new ConcurrentHashMap<String, AtomicInteger>();
+
+    /**
+     * Resolves a range the way the version range resolver does, from the local repository and the requested ones.
+     */
+    private final ParallelVersionRangeResolver.Resolver resolver = new ParallelVersionRangeResolver.Resolver() {
+        @Override
+        public VersionRangeResult resolve(VersionRangeRequest request) throws VersionRangeResolutionException {
+            try {
+                VersionConstraint constraint = scheme.parseVersionConstraint(request.getArtifact().getVersion());
+                VersionRangeResult result = new VersionRangeResult(request).setVersionConstraint(constraint);
+                Map<Version, ArtifactRepository> found = new TreeMap<Version, ArtifactRepository>();
+                add(found, null, LOCAL, constraint);
+                for (RemoteRepository repo: request.getRepositories()) {
+                    AtomicInteger count = calls.get(repo.getId());
+                    if (count == null) {
+                        calls.put(repo.getId(), count = new AtomicInteger());
+                    }
+                    count.incrementAndGet();
+                    add(found, repo.getId(), repo, constraint);
+                }
+                for (Map.Entry<Version, ArtifactRepository> entry: found.entrySet()) {
+                    result.addVersion(entry.getKey());
+                    result.setRepository(entry.getKey(), entry.getValue());
+                }
+                return result;
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        private void add(Map<Version, ArtifactRepository> found, String id, ArtifactRepository repo,
+                VersionConstraint constraint) throws Exception {
+            List<String> versions = available.get(id);
+            if (versions == null) {
+                return;
+            }
+            for (String v: versions) {
+                Version version = scheme.parseVersion(v);
+                if (constraint.containsVersion(version) && !found.containsKey(version)) {
+                    found.put(version, repo);
+                }
+            }
+        }
+    };
+
+    private VersionRangeRequest request(String version) {
+        return new VersionRangeRequest(new DefaultArtifact("org.jboss:jboss-dmr:" + version), Arrays.asList(PUBLIC, CENTRAL), null);
+    }
+
+    @Test
+    public void testMerge() throws Exception {
+        available.put(null, Arrays.asList("1.1"));
+        available.put(PUBLIC.getId(), Arrays.asList("1.0", "1.1", "2.0"));
+        available.put(CENTRAL.getId(), Arrays.asList("0.9", "1.0", "1.2"));
+        ParallelVersionRangeResolver rangeResolver = new ParallelVersionRangeResolver(2);
+
+        VersionRangeResult result = rangeResolver.resolve(request("[1.0,2.0)"), resolver);
+        Assert.assertEquals("[1.0, 1.1, 1.2]", result.getVersions().toString());
+        Assert.assertEquals(PUBLIC, result.getRepository(result.getVersions().get(0)));
+        Assert.assertEquals(LOCAL, result.getRepository(result.getVersions().get(1)));
+        Assert.assertEquals(CENTRAL, result.getRepository(result.getVersions().get(2)));
+        Assert.assertEquals("[1.0,2.0)", result.getVersionConstraint().toString());
+
+        // the metadata of each repository is read once
+        result = rangeResolver.resolve(request("[0,1.1]"), resolver);
+        Assert.assertEquals("[0.9, 1.0, 1.1]", result.getVersions().toString());
+        Assert.assertEquals(1, calls.get(PUBLIC.getId()).get());
+        Assert.assertEquals(1, calls.get(CENTRAL.getId()).get());
+
+        // not a range
+        result = rangeResolver.resolve(request("1.0"), resolver);
+        Assert.assertEquals(2, calls.get(PUBLIC.getId()).get());
+
+        rangeResolver.clear();
+        rangeResolver.resolve(request("[1.0,2.0)"), resolver);
+        Assert.assertEquals(3, calls.get(PUBLIC.getId()).get());
+    }
+}
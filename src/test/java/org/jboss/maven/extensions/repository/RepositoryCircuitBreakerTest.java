@@ -0,0 +1,122 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright @year, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.maven.extensions.repository;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.eclipse.aether.artifact.DefaultArtifact;
+import org.eclipse.aether.repository.RemoteRepository;
+import org.eclipse.aether.transfer.ArtifactNotFoundException;
+import org.jboss.maven.extensions.repository.RepositoryCircuitBreaker.State;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:lgao@redhat.com">Lin Gao</a>
+ *
+ */
+public class RepositoryCircuitBreakerTest {
+
+    private static final RemoteRepository CENTRAL = new RemoteRepository.Builder("central", "default", "http://localhost/central").build();
+    private static final RemoteRepository PUBLIC = new RemoteRepository.Builder("jboss-public-repository-group", "default", "http://localhost/public").build();
+
+    private static final List<RemoteRepository> REPOS = new OrderedRepositoryList(Arrays.asList(PUBLIC, CENTRAL), 2, "regex.3");
+
+    @Test
+    public void testOpenAndProbe() throws Exception {
+        RepositoryCircuitBreaker breaker = new RepositoryCircuitBreaker(2, 1000, false);
+        breaker.failure(PUBLIC);
+        breaker.success(PUBLIC);
+        breaker.failure(PUBLIC);
+        Assert.assertEquals(State.CLOSED, breaker.getState(PUBLIC.getId()));
+        breaker.failure(PUBLIC);
+        Assert.assertEquals(State.OPEN, breaker.getState(PUBLIC.getId()));
+
+        List<RemoteRepository> repos = breaker.apply(REPOS);
+        Assert.assertEquals(Arrays.asList(CENTRAL), repos);
+        Assert.assertEquals(1, ((OrderedRepositoryList) repos).getConfiguredCount());
+        Assert.assertEquals("regex.3", OrderedRepositoryList.ruleOf(repos));
+
+        // nothing else to try
+        Assert.assertEquals(Arrays.asList(PUBLIC), breaker.apply(Arrays.asList(PUBLIC)));
+
+        // a single probe once the open time is over
+        Thread.sleep(1100);
+        Assert.assertEquals(REPOS, breaker.apply(REPOS));
+        Assert.assertEquals(State.HALF_OPEN, breaker.getState(PUBLIC.getId()));
+        Assert.assertEquals(Arrays.asList(CENTRAL), breaker.apply(REPOS));
+        breaker.failure(PUBLIC);
+        Assert.assertEquals(State.OPEN, breaker.getState(PUBLIC.getId()));
+
+        Thread.sleep(1100);
+        Assert.assertEquals(REPOS, breaker.apply(REPOS));
+        breaker.success(PUBLIC);
+        Assert.assertEquals(State.CLOSED, breaker.getState(PUBLIC.getId()));
+        Assert.assertEquals(REPOS, breaker.apply(REPOS));
+
+        Assert.assertEquals(2, breaker.getTrips());
+        Assert.assertEquals(2, breaker.getProbes());
+        Assert.assertEquals(1, breaker.getRecoveries());
+        Assert.assertEquals(2, breaker.getSkipped());
+    }
+
+    @Test
+    public void testProbeNotReached() throws Exception {
+        RepositoryCircuitBreaker breaker = new RepositoryCircuitBreaker(1, 1000, false);
+        breaker.failure(PUBLIC);
+        Thread.sleep(1100);
+        // the orderings not reporting whether they reached it leave it open
+        Assert.assertEquals(Arrays.asList(CENTRAL), breaker.apply(REPOS, false));
+        Assert.assertEquals(State.OPEN, breaker.getState(PUBLIC.getId()));
+
+        // the artifact is found in the local repository, the probe is started again by the next ordering
+        Assert.assertEquals(REPOS, breaker.apply(REPOS));
+        breaker.reached(REPOS, null, Collections.<Exception>emptyList());
+        Assert.assertEquals(State.OPEN, breaker.getState(PUBLIC.getId()));
+        Assert.assertEquals(REPOS, breaker.apply(REPOS));
+        Assert.assertEquals(State.HALF_OPEN, breaker.getState(PUBLIC.getId()));
+
+        // a probe which answered not found closes it
+        breaker.reached(REPOS, CENTRAL, Collections.<Exception>singletonList(new ArtifactNotFoundException(
+                new DefaultArtifact("org.jboss:jboss-dmr:1.0"), PUBLIC)));
+        Assert.assertEquals(State.CLOSED, breaker.getState(PUBLIC.getId()));
+        Assert.assertEquals(2, breaker.getProbes());
+        Assert.assertEquals(1, breaker.getRecoveries());
+    }
+
+    @Test
+    public void testSharedState() throws Exception {
+        File localRepo = Files.createTempDirectory("local-repo").toFile();
+        RepositoryCircuitBreaker breaker = new RepositoryCircuitBreaker(1, 60000, true);
+        RepositoryCircuitBreaker other = new RepositoryCircuitBreaker(1, 60000, true);
+        breaker.open(localRepo);
+        other.open(localRepo);
+        Assert.assertEquals(REPOS, other.apply(REPOS));
+
+        breaker.failure(CENTRAL);
+        Assert.assertTrue(new File(localRepo, NegativeLookupCache.INDEX_DIR + "/" + RepositoryCircuitBreaker.STATE_FILE).isFile());
+        Thread.sleep(1100);
+        Assert.assertEquals(Arrays.asList(PUBLIC), other.apply(REPOS));
+        Assert.assertEquals(State.OPEN, other.getState(CENTRAL.getId()));
+        Assert.assertEquals(0, other.getTrips());
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright @year, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.maven.extensions.repository;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import org.eclipse.aether.DefaultRepositorySystemSession;
+import org.eclipse.aether.repository.RemoteRepository;
+import org.eclipse.aether.util.repository.DefaultMirrorSelector;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:lgao@redhat.com">Lin Gao</a>
+ *
+ */
+public class RepositoryGroupsTest {
+
+    private static final RemoteRepository CENTRAL = repo("central");
+    private static final RemoteRepository PUBLIC = repo("jboss-public-repository-group");
+    private static final RemoteRepository PRODUCT = repo("jboss-product-repository");
+    private static final RemoteRepository OTHER = repo("other");
+
+    private static RemoteRepository repo(String id) {
+        return new RemoteRepository.Builder(id, "default", "http://localhost/" + id).build();
+    }
+
+    private static OrderedRepositoryConfiguration config() {
+        Properties props = new Properties();
+        props.setProperty("group.jboss-public-repository-group", "central, jboss-product-repository");
+        return new OrderedRepositoryConfiguration(null, props);
+    }
+
+    @Test
+    public void testConfiguredGroup() {
+        OrderedRepositoryConfiguration config = config();
+        RepositoryGroups groups = new RepositoryGroups(60000);
+        Assert.assertTrue(groups.aggregates(config, PUBLIC, CENTRAL));
+        Assert.assertFalse(groups.aggregates(config, CENTRAL, PUBLIC));
+        Assert.assertFalse(groups.aggregates(config, PUBLIC, OTHER));
+
+        List<RemoteRepository> repos = groups.apply(config,
+                new OrderedRepositoryList(Arrays.asList(PUBLIC, CENTRAL, OTHER, PRODUCT), 3, "regex.3"));
+        Assert.assertEquals(Arrays.asList(PUBLIC, OTHER), repos);
+        Assert.assertEquals(2, ((OrderedRepositoryList) repos).getConfiguredCount());
+        Assert.assertEquals("regex.3", OrderedRepositoryList.ruleOf(repos));
+        Assert.assertEquals(2, groups.getSkipped());
+
+        // a member before its group doesn't have all of its artifacts
+        List<RemoteRepository> candidates = Arrays.asList(CENTRAL, PUBLIC, OTHER);
+        Assert.assertSame(candidates, groups.apply(config, candidates));
+        // nothing configured
+        candidates = Arrays.asList(PUBLIC, CENTRAL);
+        Assert.assertSame(candidates, groups.apply(new OrderedRepositoryConfiguration(null, new Properties()), candidates));
+    }
+
+    @Test
+    public void testFailingGroup() throws Exception {
+        OrderedRepositoryConfiguration config = config();
+        RepositoryGroups groups = new RepositoryGroups(200);
+        List<RemoteRepository> candidates = Arrays.asList(PUBLIC, CENTRAL);
+        groups.failure(PUBLIC);
+        // not authoritative while it fails
+        Assert.assertSame(candidates, groups.apply(config, candidates));
+        Thread.sleep(300);
+        Assert.assertEquals(Arrays.asList(PUBLIC), groups.apply(config, candidates));
+    }
+
+    @Test
+    public void testMirrors() {
+        OrderedRepositoryConfiguration config = new OrderedRepositoryConfiguration(null, new Properties());
+        RepositoryGroups groups = new RepositoryGroups(60000);
+        RemoteRepository mirror = new RemoteRepository.Builder("internal", "default", "http://localhost/internal")
+                .addMirroredRepository(CENTRAL).build();
+        Assert.assertEquals(Arrays.asList(mirror, PUBLIC), groups.apply(config, Arrays.asList(mirror, CENTRAL, PUBLIC)));
+
+        // selected by the mirror selector of the session
+        RemoteRepository nexus = repo("nexus");
+        DefaultMirrorSelector selector = new DefaultMirrorSelector();
+        selector.add("nexus", "http://localhost/nexus", "default", true, "*,!local", "*");
+        DefaultRepositorySystemSession session = new DefaultRepositorySystemSession();
+        session.setMirrorSelector(selector);
+        List<RemoteRepository> candidates = Arrays.asList(nexus, PUBLIC, repo("local"));
+        Assert.assertEquals(candidates, groups.apply(config, candidates));
+        groups.open(session);
+        Assert.assertTrue(groups.aggregates(config, nexus, PUBLIC));
+        Assert.assertFalse(groups.aggregates(config, nexus, repo("local")));
+        Assert.assertEquals(Arrays.asList(nexus, repo("local")), groups.apply(config, candidates));
+        Assert.assertEquals(Arrays.asList(PUBLIC, nexus), groups.apply(config, Arrays.asList(PUBLIC, nexus)));
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright @year, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.maven.extensions.repository;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.eclipse.aether.artifact.Artifact;
+import org.eclipse.aether.artifact.DefaultArtifact;
+import org.eclipse.aether.repository.RemoteRepository;
+import org.jboss.maven.extensions.repository.OrderedRepositoryConfiguration.OrderRule;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:lgao@redhat.com">Lin Gao</a>
+ *
+ */
+public class RepositoryOrdererTest {
+
+    private static final String[] IDS = {"jboss-public-repository-group", "central", "jboss-product-repository",
+        "jboss-eap-7.1-product-repository", " central ", "other", "snapshots"};
+
+    private static final String[] GAVS = {"org.jboss:jboss-parent:20", "org.apache.maven.plugins:maven-jar-plugin:3.0",
+        "org.wildfly:wildfly-ee:10.1.0.Final-redhat-1", "junit:junit:4.12", "org.jboss:core:1.0.0.redhat-2"};
+
+    private static RemoteRepository repo(String id, String url) {
+        return new RemoteRepository.Builder(id, "default", url).build();
+    }
+
+    @Test
+    public void testGavSequence() {
+        RepositoryOrderer.GavSequence gav = new RepositoryOrderer.GavSequence().set("org.jboss", "jboss-parent", "20");
+        String expected = "org.jboss:jboss-parent:20";
+        Assert.assertEquals(expected.length(), gav.length());
+        for (int i = 0; i < expected.length(); i++) {
+            Assert.assertEquals(expected.charAt(i), gav.charAt(i));
+        }
+        Assert.assertEquals(expected, gav.toString());
+        Assert.assertEquals("jboss-parent", gav.subSequence(10, 22).toString());
+        Assert.assertEquals(":a:", new RepositoryOrderer.GavSequence().set("", "a", "").toString());
+    }
+
+    @Test
+    public void testEquivalenceWithLinearScan() throws Exception {
+        assertEquivalence(new OrderedRepositoryConfiguration("test-config.properties"));
+
+        // rules 2 and 3 don't include other repos
+        File file = File.createTempFile("rules", ".properties");
+        file.deleteOnExit();
+        try (PrintWriter out = new PrintWriter(file, "UTF-8")) {
+            out.println("repos.included = regex.1");
+        }
+        assertEquivalence(new OrderedRepositoryConfiguration(file.getAbsolutePath()));
+    }
+
+    private static void assertEquivalence(OrderedRepositoryConfiguration config) {
+        RepositoryOrderer orderer = new RepositoryOrderer();
+        Random random = new Random(20180101L);
+        for (int round = 0; round < 500; round++) {
+            // up to 100 candidates, so the bitset needs more than one word, with duplicates and equal repositories
+            int count = random.nextInt(round % 10 == 0 ? 100 : 8);
+            List<RemoteRepository> candidates = new ArrayList<RemoteRepository>();
+            for (int i = 0; i < count; i++) {
+                if (i > 0 && random.nextInt(5) == 0) {
+                    candidates.add(candidates.get(random.nextInt(i)));
+                } else {
+                    String id = IDS[random.nextInt(IDS.length)];
+                    candidates.add(repo(id, "http://localhost/" + random.nextInt(2)));
+                }
+            }
+            Artifact artifact = new DefaultArtifact(GAVS[random.nextInt(GAVS.length)]);
+            Assert.assertEquals(linearScan(config, artifact, candidates), orderer.order(config, artifact, candidates));
+        }
+    }
+
+    /**
+     * The ordering as it was done before the slot table.
+     */
+    private static List<RemoteRepository> linearScan(OrderedRepositoryConfiguration config, Artifact artifact,
+            List<RemoteRepository> candidates) {
+        String gav = artifact.getGroupId() + ":" + artifact.getArtifactId() + ":" + artifact.getVersion();
+        OrderRule rule = null;
+        for (OrderRule r: config.getOrderedRules()) {
+            if (r.matches(gav)) {
+                rule = r;
+                break;
+            }
+        }
+        String[] configuredRepos = rule != null ? rule.getRepos() : config.getDefaultRepos();
+        boolean includeOthers = rule != null ? rule.isIncludeOtherRepo() : config.isReposIncludedByDefault();
+        List<RemoteRepository> repos = new ArrayList<RemoteRepository>();
+        for (String repoId: configuredRepos) {
+            for (RemoteRepository repo: candidates) {
+                if (repoId.trim().equals(repo.getId().trim()) && !repos.contains(repo)) {
+                    repos.add(repo);
+                }
+            }
+        }
+        if (includeOthers) {
+            for (RemoteRepository repo: candidates) {
+                if (!repos.contains(repo)) {
+                    repos.add(repo);
+                }
+            }
+        }
+        return repos;
+    }
+}
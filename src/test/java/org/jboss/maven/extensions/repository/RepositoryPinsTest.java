@@ -0,0 +1,176 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright @year, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.maven.extensions.repository;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.zip.GZIPOutputStream;
+
+import org.eclipse.aether.artifact.DefaultArtifact;
+import org.eclipse.aether.repository.RemoteRepository;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:lgao@redhat.com">Lin Gao</a>
+ *
+ */
+public class RepositoryPinsTest {
+
+    private static final String PINS = "# pins\n"
+            + "org.jboss:jboss-dmr = jboss-product-repository, central\n"
+            + "\n"
+            + "org.jboss:jboss-dmr:1.5.0.Final = central\n"
+            + "junit:junit = central,jboss-product-repository\n"
+            + "org.wildfly:wildfly-ee = jboss-product-repository,central\n";
+
+    private static RepositoryPins read(String text) throws IOException {
+        return RepositoryPins.read(new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static RemoteRepository repo(String id) {
+        return new RemoteRepository.Builder(id, "default", "http://localhost/" + id).build();
+    }
+
+    private static void assertPins(RepositoryPins pins) {
+        Assert.assertEquals(4, pins.size());
+        Assert.assertArrayEquals(new String[] {"jboss-product-repository", "central"},
+                pins.lookup(new DefaultArtifact("org.jboss:jboss-dmr:1.4.0.Final")));
+        // the 'G:A:V' wins over its 'G:A'
+        Assert.assertArrayEquals(new String[] {"central"},
+                pins.lookup(new DefaultArtifact("org.jboss:jboss-dmr:1.5.0.Final")));
+        Assert.assertArrayEquals(new String[] {"central", "jboss-product-repository"},
+                pins.lookup(new DefaultArtifact("junit:junit:4.12")));
+        Assert.assertNull(pins.lookup(new DefaultArtifact("org.jboss:jboss-parent:20")));
+        Assert.assertNull(pins.lookup(new DefaultArtifact("junit:junit-dep:4.12")));
+        // the lists are shared
+        Assert.assertSame(pins.lookup(new DefaultArtifact("org.jboss:jboss-dmr:1.4.0.Final")),
+                pins.lookup(new DefaultArtifact("org.wildfly:wildfly-ee:10.1.0.Final")));
+    }
+
+    @Test
+    public void testText() throws Exception {
+        assertPins(read(PINS));
+        Assert.assertEquals(0, read("# nothing\n").size());
+        Assert.assertNull(read("").lookup(new DefaultArtifact("junit:junit:4.12")));
+        try {
+            read("junit = central\n");
+            Assert.fail("a pin needs a 'G:A'");
+        } catch (IOException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("line 1"));
+        }
+    }
+
+    @Test
+    public void testGzip() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (OutputStream out = new GZIPOutputStream(bytes)) {
+            out.write(PINS.getBytes(StandardCharsets.UTF_8));
+        }
+        assertPins(RepositoryPins.read(new ByteArrayInputStream(bytes.toByteArray())));
+    }
+
+    @Test
+    public void testBinary() throws Exception {
+        File dir = File.createTempFile("pins", "");
+        dir.delete();
+        File text = new File(dir, "pins.txt");
+        File binary = new File(dir, "pins.bin");
+        try {
+            dir.mkdirs();
+            try (PrintWriter out = new PrintWriter(text, "UTF-8")) {
+                out.print(PINS);
+            }
+            RepositoryPins pins = RepositoryPins.load(text);
+            assertPins(pins);
+            pins.write(binary);
+            assertPins(RepositoryPins.load(binary));
+
+            // written again from the mapped pins
+            RepositoryPins.load(binary).write(text);
+            assertPins(RepositoryPins.load(text));
+
+            // converted by the command line, then mapped from a file: URL
+            try (PrintWriter out = new PrintWriter(text, "UTF-8")) {
+                out.print(PINS);
+            }
+            Assert.assertTrue(binary.delete());
+            RepositoryPins.main(new String[] {text.getPath(), binary.getPath()});
+            assertPins(new OrderedRepositoryConfiguration(null, props("pins.url", binary.toURI().toString())).getPins());
+        } finally {
+            text.delete();
+            binary.delete();
+            dir.delete();
+        }
+    }
+
+    @Test
+    public void testOrdering() throws Exception {
+        File pinsFile = File.createTempFile("pins", ".txt");
+        File configFile = File.createTempFile("pins", ".properties");
+        pinsFile.deleteOnExit();
+        configFile.deleteOnExit();
+        try (PrintWriter out = new PrintWriter(pinsFile, "UTF-8")) {
+            out.print(PINS);
+        }
+        try (PrintWriter out = new PrintWriter(configFile, "UTF-8")) {
+            out.println("pins.url = " + pinsFile.getAbsolutePath().replace('\\', '/'));
+        }
+        OrderedRepositoryConfiguration config = new OrderedRepositoryConfiguration(configFile.getAbsolutePath());
+        Assert.assertEquals(4, config.getPins().size());
+        Assert.assertFalse(config.isPinsIncludeOthers());
+
+        RepositoryOrderer orderer = new RepositoryOrderer();
+        List<RemoteRepository> candidates = Arrays.asList(repo("jboss-public-repository-group"), repo("central"),
+                repo("jboss-product-repository"));
+        List<RemoteRepository> ordered = orderer.order(config, new DefaultArtifact("junit:junit:4.12"), candidates);
+        Assert.assertEquals(Arrays.asList(repo("central"), repo("jboss-product-repository")), ordered);
+        Assert.assertEquals(RepositoryPins.RULE, OrderedRepositoryList.ruleOf(ordered));
+
+        // not pinned, ordered by the rules
+        ordered = orderer.order(config, new DefaultArtifact("org.jboss:jboss-parent:20"), candidates);
+        Assert.assertEquals("regex.3", OrderedRepositoryList.ruleOf(ordered));
+
+        try (PrintWriter out = new PrintWriter(configFile, "UTF-8")) {
+            out.println("pins.url = " + pinsFile.getAbsolutePath().replace('\\', '/'));
+            out.println("repos.included = pins");
+        }
+        config = new OrderedRepositoryConfiguration(configFile.getAbsolutePath());
+        Assert.assertTrue(config.isPinsIncludeOthers());
+        ordered = orderer.order(config, new DefaultArtifact("junit:junit:4.12"), candidates);
+        Assert.assertEquals(Arrays.asList(repo("central"), repo("jboss-product-repository"),
+                repo("jboss-public-repository-group")), ordered);
+
+        // pins which can't be loaded are ignored
+        Assert.assertNull(new OrderedRepositoryConfiguration(null, props("pins.url", "/no/such/pins.txt")).getPins());
+    }
+
+    private static Properties props(String key, String value) {
+        Properties props = new Properties();
+        props.setProperty(key, value);
+        return props;
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright @year, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.maven.extensions.repository;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import org.eclipse.aether.repository.RemoteRepository;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:lgao@redhat.com">Lin Gao</a>
+ *
+ */
+public class RepositoryScoresTest {
+
+    private static final RemoteRepository PRODUCT = repo("jboss-product-repository");
+    private static final RemoteRepository PUBLIC = repo("jboss-public-repository-group");
+    private static final RemoteRepository CENTRAL = repo("central");
+    private static final RemoteRepository OTHER = repo("other");
+
+    private static RemoteRepository repo(String id) {
+        return new RemoteRepository.Builder(id, "default", "http://localhost/" + id).build();
+    }
+
+    @Test
+    public void testReorderConfiguredRepositories() {
+        RepositoryScores scores = new RepositoryScores(RepositoryScores.DEFAULT_DECAY);
+        // other is the fastest, but it is not configured in the rule
+        scores.success(OTHER, 1);
+        scores.success(PRODUCT, 500);
+        scores.success(PUBLIC, 50);
+        scores.success(CENTRAL, 100);
+        OrderedRepositoryList repos = new OrderedRepositoryList(Arrays.asList(PRODUCT, PUBLIC, CENTRAL, OTHER), 3);
+        List<RemoteRepository> reordered = scores.reorder(repos);
+        Assert.assertEquals(Arrays.asList(PUBLIC, CENTRAL, PRODUCT, OTHER), reordered);
+        Assert.assertEquals(3, ((OrderedRepositoryList) reordered).getConfiguredCount());
+
+        // public keeps missing, its success rate decays
+        for (int i = 0; i < 20; i++) {
+            scores.failure(PUBLIC);
+        }
+        Assert.assertEquals(Arrays.asList(CENTRAL, PRODUCT, PUBLIC, OTHER), scores.reorder(repos));
+    }
+
+    @Test
+    public void testUnmeasuredRepositoriesKeepTheirOrder() {
+        RepositoryScores scores = new RepositoryScores(RepositoryScores.DEFAULT_DECAY);
+        OrderedRepositoryList repos = new OrderedRepositoryList(Arrays.asList(PRODUCT, PUBLIC, CENTRAL), 3);
+        Assert.assertSame(repos, scores.reorder(repos));
+        scores.success(OTHER, 10);
+        Assert.assertSame(repos, scores.reorder(repos));
+    }
+
+    @Test
+    public void testPersistence() throws Exception {
+        File localRepo = Files.createTempDirectory("local-repo").toFile();
+        RepositoryScores scores = new RepositoryScores(RepositoryScores.DEFAULT_DECAY);
+        scores.open(localRepo);
+        scores.success(PRODUCT, 500);
+        scores.success(CENTRAL, 100);
+        scores.save();
+
+        RepositoryScores loaded = new RepositoryScores(RepositoryScores.DEFAULT_DECAY);
+        loaded.open(localRepo);
+        Assert.assertEquals(scores.cost(PRODUCT), loaded.cost(PRODUCT), 0.001);
+        Assert.assertEquals(scores.cost(CENTRAL), loaded.cost(CENTRAL), 0.001);
+        // public is not measured, it costs the average of the measured repositories
+        Assert.assertEquals((scores.cost(PRODUCT) + scores.cost(CENTRAL)) / 2, loaded.cost(PUBLIC), 0.001);
+    }
+
+    @Test
+    public void testUnmeasuredRepositoryIsNotFirst() {
+        RepositoryScores scores = new RepositoryScores(RepositoryScores.DEFAULT_DECAY);
+        scores.success(PRODUCT, 500);
+        scores.success(CENTRAL, 10);
+        // public is not measured, it is tried after the fast central and before the slow product repository
+        OrderedRepositoryList repos = new OrderedRepositoryList(Arrays.asList(PRODUCT, PUBLIC, CENTRAL), 3);
+        Assert.assertEquals(Arrays.asList(CENTRAL, PUBLIC, PRODUCT), scores.reorder(repos));
+        Assert.assertEquals(255, scores.cost(PUBLIC), 0.001);
+    }
+}
@@ -0,0 +1,323 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright @year, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.maven.extensions.repository;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import org.apache.maven.repository.internal.MavenRepositorySystemUtils;
+import org.eclipse.aether.DefaultRepositorySystemSession;
+import org.eclipse.aether.artifact.DefaultArtifact;
+import org.eclipse.aether.collection.CollectRequest;
+import org.eclipse.aether.connector.basic.BasicRepositoryConnectorFactory;
+import org.eclipse.aether.graph.Dependency;
+import org.eclipse.aether.impl.ArtifactDescriptorReader;
+import org.eclipse.aether.impl.ArtifactResolver;
+import org.eclipse.aether.impl.DefaultServiceLocator;
+import org.eclipse.aether.impl.Deployer;
+import org.eclipse.aether.impl.DependencyCollector;
+import org.eclipse.aether.impl.Installer;
+import org.eclipse.aether.impl.LocalRepositoryProvider;
+import org.eclipse.aether.impl.MetadataResolver;
+import org.eclipse.aether.impl.RemoteRepositoryManager;
+import org.eclipse.aether.impl.SyncContextFactory;
+import org.eclipse.aether.impl.VersionRangeResolver;
+import org.eclipse.aether.impl.VersionResolver;
+import org.eclipse.aether.repository.LocalRepository;
+import org.eclipse.aether.repository.RemoteRepository;
+import org.eclipse.aether.resolution.ArtifactRequest;
+import org.eclipse.aether.resolution.ArtifactResult;
+import org.eclipse.aether.resolution.DependencyRequest;
+import org.eclipse.aether.resolution.DependencyResult;
+import org.eclipse.aether.spi.connector.RepositoryConnectorFactory;
+import org.eclipse.aether.spi.connector.transport.TransporterFactory;
+import org.eclipse.aether.spi.log.LoggerFactory;
+import org.eclipse.aether.transport.http.HttpTransporterFactory;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Resolves artifacts with the repository system of the extension, wired as in Maven, from local HTTP repositories
+ * ordered by the built-in <code>config.properties</code>, and checks the repositories probed and the time it takes.
+ *
+ * @author <a href="mailto:lgao@redhat.com">Lin Gao</a>
+ *
+ */
+public class ResolutionIntegrationTest {
+
+    private static final String DMR_PRODUCT = "org.jboss:jboss-dmr:1.5.0.Final-redhat-1";
+    private static final String WILDFLY_CORE = "org.wildfly.core:wildfly-controller:2.2.0.Final";
+    private static final String JUNIT = "junit:junit:4.12";
+
+    /**
+     * The delay of a repository probed for nothing, the resolutions not probing it take less.
+     */
+    private static final long SLOW_MILLIS = 1000;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private FakeRepository central;
+    private FakeRepository publicGroup;
+    private FakeRepository product;
+    private File localRepo;
+
+    @Before
+    public void setUp() throws Exception {
+        central = new FakeRepository("central");
+        publicGroup = new FakeRepository("jboss-public-repository-group");
+        product = new FakeRepository("jboss-product-repository");
+        localRepo = temporaryFolder.newFolder("local-repo");
+        System.setProperty("ordered.repository.extension.enabled", "true");
+    }
+
+    @After
+    public void tearDown() {
+        central.stop();
+        publicGroup.stop();
+        product.stop();
+        System.clearProperty("ordered.repository.extension.enabled");
+        System.clearProperty(OrderedRepositorySystem.CIRCUIT_BREAKER);
+        System.clearProperty(OrderedRepositorySystem.ADAPTIVE);
+        System.clearProperty(OrderedRepositorySystem.METRICS);
+        System.clearProperty(OrderedRepositorySystem.HEDGE);
+        System.clearProperty(OrderedRepositorySystem.HEDGE_BUDGET);
+        System.clearProperty(OrderedRepositorySystem.PARALLEL);
+        System.clearProperty("ordered.repository.extension.configure.url");
+    }
+
+    /**
+     * Builds the repository system as Maven does, with the components of the Maven resolver.
+     */
+    private static OrderedRepositorySystem newRepositorySystem() {
+        DefaultServiceLocator locator = MavenRepositorySystemUtils.newServiceLocator();
+        locator.addService(RepositoryConnectorFactory.class, BasicRepositoryConnectorFactory.class);
+        locator.addService(TransporterFactory.class, HttpTransporterFactory.class);
+        return new OrderedRepositorySystem(locator.getService(VersionResolver.class),
+                locator.getService(VersionRangeResolver.class), locator.getService(ArtifactResolver.class),
+                locator.getService(MetadataResolver.class), locator.getService(ArtifactDescriptorReader.class),
+                locator.getService(DependencyCollector.class), locator.getService(Installer.class),
+                locator.getService(Deployer.class), locator.getService(LocalRepositoryProvider.class),
+                locator.getService(SyncContextFactory.class), locator.getService(RemoteRepositoryManager.class),
+                locator.getService(LoggerFactory.class));
+    }
+
+    private DefaultRepositorySystemSession newSession(OrderedRepositorySystem system) {
+        DefaultRepositorySystemSession session = MavenRepositorySystemUtils.newSession();
+        session.setLocalRepositoryManager(system.newLocalRepositoryManager(session, new LocalRepository(localRepo)));
+        return session;
+    }
+
+    /**
+     * The repositories in the order Maven gives them, central first.
+     */
+    private List<RemoteRepository> repositories() {
+        return Arrays.asList(central.getRepository(), publicGroup.getRepository(), product.getRepository());
+    }
+
+    @Test(timeout = 60000)
+    public void testProductArtifactSkipsCommunityRepositories() throws Exception {
+        product.artifact(DMR_PRODUCT);
+        central.latency(SLOW_MILLIS);
+        publicGroup.latency(SLOW_MILLIS);
+        OrderedRepositorySystem system = newRepositorySystem();
+        long start = System.currentTimeMillis();
+        ArtifactResult result = system.resolveArtifact(newSession(system),
+                new ArtifactRequest(new DefaultArtifact(DMR_PRODUCT), repositories(), null));
+        long elapsed = System.currentTimeMillis() - start;
+        Assert.assertEquals("jboss-product-repository", result.getRepository().getId());
+        Assert.assertEquals(0, central.getProbes());
+        Assert.assertEquals(0, publicGroup.getProbes());
+        Assert.assertEquals(1, product.getProbes());
+        Assert.assertTrue("resolved in " + elapsed + " ms", elapsed < SLOW_MILLIS);
+    }
+
+    @Test(timeout = 60000)
+    public void testWithoutExtension() throws Exception {
+        product.artifact(DMR_PRODUCT);
+        central.latency(SLOW_MILLIS);
+        System.setProperty("ordered.repository.extension.enabled", "false");
+        OrderedRepositorySystem system = newRepositorySystem();
+        long start = System.currentTimeMillis();
+        ArtifactResult result = system.resolveArtifact(newSession(system),
+                new ArtifactRequest(new DefaultArtifact(DMR_PRODUCT), repositories(), null));
+        long elapsed = System.currentTimeMillis() - start;
+        // the probes the extension saves
+        Assert.assertEquals("jboss-product-repository", result.getRepository().getId());
+        Assert.assertEquals(1, central.getProbes());
+        Assert.assertEquals(1, publicGroup.getProbes());
+        Assert.assertEquals(1, product.getProbes());
+        Assert.assertTrue("resolved in " + elapsed + " ms", elapsed >= SLOW_MILLIS);
+    }
+
+    @Test(timeout = 60000)
+    public void testDependencyGraph() throws Exception {
+        publicGroup.artifact(WILDFLY_CORE, DMR_PRODUCT, JUNIT);
+        product.artifact(DMR_PRODUCT);
+        central.artifact(JUNIT);
+        OrderedRepositorySystem system = newRepositorySystem();
+        CollectRequest collect = new CollectRequest(new Dependency(new DefaultArtifact(WILDFLY_CORE), "compile"),
+                repositories());
+        DependencyResult result = system.resolveDependencies(newSession(system), new DependencyRequest(collect, null));
+        List<String> resolved = new ArrayList<String>();
+        for (ArtifactResult artifact: result.getArtifactResults()) {
+            resolved.add(artifact.getArtifact().getArtifactId() + "@" + artifact.getRepository().getId());
+        }
+        Assert.assertEquals(Arrays.asList("wildfly-controller@jboss-public-repository-group",
+                "jboss-dmr@jboss-product-repository", "junit@central"), resolved);
+        // regex.3 tries the public group first, regex.1 the product repository, the default rule the public group
+        Assert.assertEquals(publicGroup.toString(), new HashSet<String>(Arrays.asList(
+                FakeRepository.path(new DefaultArtifact(WILDFLY_CORE), "pom"),
+                FakeRepository.path(new DefaultArtifact(JUNIT), "pom"),
+                FakeRepository.path(new DefaultArtifact(WILDFLY_CORE), "jar"),
+                FakeRepository.path(new DefaultArtifact(JUNIT), "jar"))), new HashSet<String>(publicGroup.getProbedPaths()));
+        Assert.assertEquals(publicGroup.toString(), 4, publicGroup.getProbes());
+        Assert.assertEquals(product.toString(), 2, product.getProbes());
+        Assert.assertEquals(central.toString(), 2, central.getProbes());
+    }
+
+    @Test(timeout = 60000)
+    public void testFailingRepositoryIsSkipped() throws Exception {
+        System.setProperty(OrderedRepositorySystem.CIRCUIT_BREAKER, "true");
+        publicGroup.fail(503);
+        List<ArtifactRequest> requests = new ArrayList<ArtifactRequest>();
+        for (int i = 0; i < 6; i++) {
+            String gav = "org.jboss:jboss-artifact-" + i + ":1.0.Final";
+            central.artifact(gav);
+            requests.add(new ArtifactRequest(new DefaultArtifact(gav), repositories(), null));
+        }
+        OrderedRepositorySystem system = newRepositorySystem();
+        DefaultRepositorySystemSession session = newSession(system);
+        for (ArtifactRequest request: requests) {
+            Assert.assertEquals("central", system.resolveArtifact(session, request).getRepository().getId());
+        }
+        // the public group is skipped once it failed the threshold of the circuit breaker in a row
+        Assert.assertEquals(publicGroup.toString(), RepositoryCircuitBreaker.DEFAULT_THRESHOLD, publicGroup.getProbes());
+        Assert.assertEquals(6, central.getProbes());
+        Assert.assertEquals(0, product.getProbes());
+    }
+
+    @Test(timeout = 60000)
+    public void testScoresChargeTheirOwnTransfers() throws Exception {
+        System.setProperty(OrderedRepositorySystem.ADAPTIVE, "true");
+        // junit is ordered to the public group first, which doesn't have it and answers slowly
+        publicGroup.latency(SLOW_MILLIS);
+        central.artifact(JUNIT);
+        OrderedRepositorySystem system = newRepositorySystem();
+        ArtifactResult result = system.resolveArtifact(newSession(system),
+                new ArtifactRequest(new DefaultArtifact(JUNIT), repositories(), null));
+        Assert.assertEquals("central", result.getRepository().getId());
+        Assert.assertEquals(1, publicGroup.getProbes());
+        double cost = system.getScores().cost(central.getRepository());
+        Assert.assertTrue("central is charged " + cost + " ms", cost < SLOW_MILLIS);
+    }
+
+    @Test(timeout = 60000)
+    public void testMetricsOfEachTransfer() throws Exception {
+        System.setProperty(OrderedRepositorySystem.METRICS, "true");
+        // junit is tried from the slow public group first, the product artifact from the product repository
+        publicGroup.latency(SLOW_MILLIS);
+        central.artifact(JUNIT);
+        product.artifact(DMR_PRODUCT);
+        OrderedRepositorySystem system = newRepositorySystem();
+        system.resolveArtifacts(newSession(system), Arrays.asList(
+                new ArtifactRequest(new DefaultArtifact(JUNIT), repositories(), null),
+                new ArtifactRequest(new DefaultArtifact(DMR_PRODUCT), repositories(), null)));
+        ResolutionMetrics metrics = system.getMetrics();
+        for (String id: Arrays.asList("central", "jboss-product-repository")) {
+            ResolutionMetrics.Stats stats = metrics.getRepository(id);
+            Assert.assertEquals(id, 1, stats.latency.getCount());
+            // the miss of the public group and the other download of the batch are not charged
+            Assert.assertTrue(id + " latency " + stats.latency.getMax() + " us", stats.latency.getMax() < SLOW_MILLIS * 1000);
+            Assert.assertTrue(id, stats.bytes.get() > 0);
+        }
+        // the rule of junit is charged the miss of the public group
+        ResolutionMetrics.Stats rule = metrics.getRule(OrderedRepositoryConfiguration.DEFAULT_RULE);
+        Assert.assertEquals(1, rule.latency.getCount());
+        Assert.assertTrue(rule.latency.getMax() + " us", rule.latency.getMax() >= SLOW_MILLIS * 1000);
+    }
+
+    @Test(timeout = 60000)
+    public void testLosingHedgedRequestDoesNotWrite() throws Exception {
+        System.setProperty(OrderedRepositorySystem.HEDGE, "true");
+        System.setProperty(OrderedRepositorySystem.HEDGE_BUDGET, "100");
+        OrderedRepositorySystem system = newRepositorySystem();
+        DefaultRepositorySystemSession session = newSession(system);
+        // the latencies of the product repository are learned
+        for (int i = 0; i < HedgedArtifactResolver.MIN_SAMPLES; i++) {
+            String gav = "org.jboss:jboss-dmr:1.6." + i + ".Final-redhat-1";
+            product.artifact(gav);
+            system.resolveArtifact(session, new ArtifactRequest(new DefaultArtifact(gav), repositories(), null));
+        }
+        product.latency(SLOW_MILLIS);
+        product.artifact(DMR_PRODUCT);
+        publicGroup.artifact(DMR_PRODUCT);
+        ArtifactResult result = system.resolveArtifact(session,
+                new ArtifactRequest(new DefaultArtifact(DMR_PRODUCT), repositories(), null));
+        Assert.assertEquals("jboss-public-repository-group", result.getRepository().getId());
+        HedgedArtifactResolver hedged = system.getHedgedResolver();
+        while (hedged.getCancelled() == 0) {
+            Thread.sleep(50);
+        }
+        // the product repository answered last, its transfer is cancelled before it replaces the artifact
+        Thread.sleep(500);
+        Assert.assertEquals(hedged.toString(), 0, hedged.getDuplicates());
+        Assert.assertEquals(DMR_PRODUCT + " from jboss-public-repository-group",
+                new String(Files.readAllBytes(result.getArtifact().getFile().toPath()), "UTF-8"));
+    }
+
+    @Test(timeout = 60000)
+    public void testScheduledDownloadsOfParallelResolution() throws Exception {
+        System.setProperty(OrderedRepositorySystem.PARALLEL, "true");
+        File config = temporaryFolder.newFile("config.properties");
+        Files.write(config.toPath(), Arrays.asList(
+                "regex.1 = [^\\\\n]*:[^\\\\n]*:[^\\\\n]*redhat-[^\\\\n]*",
+                "regex.1.repos = jboss-product-repository, jboss-public-repository-group",
+                "regex.1.transfer.concurrency = 1",
+                "regex.default.repos = central",
+                "repos.included = regex.default, regex.1"), StandardCharsets.UTF_8);
+        System.setProperty("ordered.repository.extension.configure.url", config.getAbsolutePath());
+        central.artifact(JUNIT);
+        List<ArtifactRequest> requests = new ArrayList<ArtifactRequest>();
+        requests.add(new ArtifactRequest(new DefaultArtifact(JUNIT), repositories(), null));
+        for (int i = 0; i < 4; i++) {
+            String gav = "org.jboss:jboss-dmr:1.6." + i + ".Final-redhat-1";
+            product.artifact(gav);
+            requests.add(new ArtifactRequest(new DefaultArtifact(gav), repositories(), null));
+        }
+        OrderedRepositorySystem system = newRepositorySystem();
+        List<ArtifactResult> results = system.resolveArtifacts(newSession(system), requests);
+        Assert.assertEquals("central", results.get(0).getRepository().getId());
+        for (ArtifactResult result: results.subList(1, results.size())) {
+            Assert.assertEquals("jboss-product-repository", result.getRepository().getId());
+        }
+        // junit has no policy, the product artifacts go through the gate of the product repository one by one
+        TransferScheduler scheduler = system.getTransferScheduler();
+        Assert.assertEquals(4, scheduler.getScheduled());
+        Assert.assertEquals(0, scheduler.getWaiting("jboss-product-repository"));
+    }
+}
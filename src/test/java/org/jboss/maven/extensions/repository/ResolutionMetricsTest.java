@@ -0,0 +1,116 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright @year, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.maven.extensions.repository;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:lgao@redhat.com">Lin Gao</a>
+ *
+ */
+public class ResolutionMetricsTest {
+
+    @Test
+    public void testHistogram() {
+        for (long value: new long[] {0, 1, 15, 16, 17, 31, 32, 1000, 123456789L, 1L << 40}) {
+            int bucket = LatencyHistogram.bucket(value);
+            Assert.assertTrue(value + " above its bucket", value <= LatencyHistogram.highestValue(bucket));
+            Assert.assertTrue(value + " below its bucket", bucket == 0 || value > LatencyHistogram.highestValue(bucket - 1));
+            // within 1/16th
+            Assert.assertTrue(LatencyHistogram.highestValue(bucket) - value <= value / LatencyHistogram.SUB_BUCKETS);
+        }
+
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000);
+        }
+        histogram.record(-1);
+        Assert.assertEquals(1000, histogram.getCount());
+        Assert.assertEquals(1000000, histogram.getMax());
+        Assert.assertEquals(500500, histogram.getMean(), 0.1);
+        Assert.assertEquals(500000, histogram.getValueAtPercentile(50), 500000 / 16);
+        Assert.assertEquals(990000, histogram.getValueAtPercentile(99), 990000 / 16);
+        Assert.assertEquals(1000000, histogram.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void testReport() throws Exception {
+        ResolutionMetrics metrics = new ResolutionMetrics();
+        metrics.repositoryHit("central", 2048, 1000);
+        metrics.repositoryHit("central", 0, -1);
+        metrics.repositoryMiss("central", true);
+        metrics.repositoryMiss("jboss-public-repository-group", false);
+        metrics.rule("regex.2", true, 2048, 1500);
+        metrics.rule("regex.2", false, 0, 500);
+        metrics.rule(null, true, 0, 10);
+        metrics.operation("resolveArtifact", true, 2000);
+
+        ResolutionMetrics.Stats central = metrics.getRepository("central");
+        Assert.assertEquals(3, central.requests.get());
+        Assert.assertEquals(2, central.hits.get());
+        Assert.assertEquals(1, central.misses.get());
+        Assert.assertEquals(1, central.latency.getCount());
+        Assert.assertEquals(1, metrics.getRepository("jboss-public-repository-group").errors.get());
+        Assert.assertEquals(3, metrics.getRequests());
+        Assert.assertEquals(2, metrics.getHits());
+        Assert.assertEquals(1, metrics.getMisses());
+        Assert.assertEquals(2048, metrics.getBytes());
+        Assert.assertArrayEquals(new String[] {"regex.2", "unknown"}, metrics.getRules());
+
+        String summary = metrics.getSummary();
+        Assert.assertTrue(summary, summary.contains("repository central: requests=3, hits=2, misses=1, downloaded=2.0 KB at 2000.0 KB/s"));
+        Assert.assertTrue(summary, summary.contains("operation resolveArtifact: requests=1"));
+
+        File file = new File(Files.createTempDirectory("metrics").toFile(), "target/metrics.json");
+        metrics.write(file);
+        String json = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+        Assert.assertEquals(metrics.getJson(), json);
+        Assert.assertTrue(json, json.contains("\"central\": {\"requests\": 3, \"hits\": 2, \"misses\": 1, \"errors\": 0, \"bytes\": 2048"));
+        Assert.assertEquals("\"a\\\"b\\\\c\\u000a\"", ResolutionMetrics.quote("a\"b\\c\n"));
+
+        metrics.reset();
+        Assert.assertEquals(0, metrics.getRequests());
+        Assert.assertEquals(0, central.latency.getCount());
+    }
+
+    @Test
+    public void testMBean() throws Exception {
+        ResolutionMetrics metrics = new ResolutionMetrics();
+        metrics.rule("regex.1", true, 10, 10);
+        metrics.register();
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(ResolutionMetricsMBean.OBJECT_NAME);
+        try {
+            Assert.assertEquals(1L, server.getAttribute(name, "Requests"));
+            // a new repository system replaces the registration
+            new ResolutionMetrics().register();
+            Assert.assertEquals(0L, server.getAttribute(name, "Requests"));
+        } finally {
+            server.unregisterMBean(name);
+        }
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright @year, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.maven.extensions.repository;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.eclipse.aether.artifact.DefaultArtifact;
+import org.eclipse.aether.repository.RemoteRepository;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:lgao@redhat.com">Lin Gao</a>
+ *
+ */
+public class ResolutionPlanTest {
+
+    private static final RemoteRepository CENTRAL = repo("central");
+    private static final RemoteRepository PUBLIC = repo("jboss-public-repository-group");
+    private static final RemoteRepository PRODUCT = repo("jboss-product-repository");
+
+    private static RemoteRepository repo(String id) {
+        return new RemoteRepository.Builder(id, "default", "http://localhost/" + id).build();
+    }
+
+    private File dir;
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("plan").toFile();
+        file = new File(dir, "ordered-repository.plan");
+    }
+
+    @After
+    public void tearDown() {
+        for (File f: dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+        System.clearProperty("ordered.repository.extension.enabled");
+        System.clearProperty(OrderedRepositorySystem.PLAN);
+        System.clearProperty(OrderedRepositorySystem.PLAN_FILE);
+    }
+
+    @Test
+    public void testRecordAndReplay() throws Exception {
+        final ResolutionPlan.Recorder recorder = new ResolutionPlan.Recorder(file);
+        recorder.record(new DefaultArtifact("junit:junit:4.12"), CENTRAL);
+        // the first repository wins, whatever the classifier or extension
+        recorder.record(new DefaultArtifact("junit:junit:pom:4.12"), PUBLIC);
+        recorder.record(new DefaultArtifact("org.jboss:jboss-parent:pom:20"), PUBLIC);
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < 4; t++) {
+            Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 1000; i++) {
+                        recorder.record(new DefaultArtifact("org.jboss:product:1.0." + i + ".redhat-1"), PRODUCT);
+                    }
+                }
+            };
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread: threads) {
+            thread.join();
+        }
+        Assert.assertFalse("the plan is written when closed", file.exists());
+        recorder.close();
+        Assert.assertEquals(1002, recorder.size());
+        Assert.assertEquals(1, dir.listFiles().length);
+
+        ResolutionPlan plan = ResolutionPlan.load(file);
+        Assert.assertEquals(1002, plan.size());
+        Assert.assertEquals("central", plan.lookup(new DefaultArtifact("junit:junit:jar:sources:4.12")));
+        Assert.assertEquals("jboss-public-repository-group", plan.lookup(new DefaultArtifact("org.jboss:jboss-parent:20")));
+        Assert.assertEquals("jboss-product-repository", plan.lookup(new DefaultArtifact("org.jboss:product:1.0.999.redhat-1")));
+        Assert.assertNull(plan.lookup(new DefaultArtifact("junit:junit:4.11")));
+
+        List<RemoteRepository> candidates = Arrays.asList(PUBLIC, PRODUCT, CENTRAL);
+        List<RemoteRepository> repos = plan.apply(new DefaultArtifact("junit:junit:4.12"), candidates);
+        Assert.assertEquals(Arrays.asList(CENTRAL), repos);
+        Assert.assertEquals(ResolutionPlan.RULE, OrderedRepositoryList.ruleOf(repos));
+        // the recorded repository is not a candidate
+        Assert.assertNull(plan.apply(new DefaultArtifact("junit:junit:4.12"), Arrays.asList(PUBLIC, PRODUCT)));
+        Assert.assertNull(plan.apply(new DefaultArtifact("junit:junit:4.11"), candidates));
+        Assert.assertEquals(1, plan.getHits());
+        Assert.assertEquals(2, plan.getMisses());
+    }
+
+    @Test
+    public void testEmptyAndCorruptedPlans() throws Exception {
+        new ResolutionPlan.Recorder(file).close();
+        ResolutionPlan plan = ResolutionPlan.load(file);
+        Assert.assertEquals(0, plan.size());
+        Assert.assertNull(plan.lookup(new DefaultArtifact("junit:junit:4.12")));
+
+        ResolutionPlan.Recorder recorder = new ResolutionPlan.Recorder(file);
+        recorder.record(new DefaultArtifact("junit:junit:4.12"), CENTRAL);
+        recorder.close();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(raf.length() - 4);
+        }
+        try {
+            ResolutionPlan.load(file);
+            Assert.fail("the trailer is missing");
+        } catch (IOException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().startsWith("Incomplete resolution plan"));
+        }
+    }
+
+    @Test
+    public void testReplayInRepositorySystem() throws Exception {
+        ResolutionPlan.Recorder recorder = new ResolutionPlan.Recorder(file);
+        recorder.record(new DefaultArtifact("org.jboss:jboss-parent:pom:20"), CENTRAL);
+        recorder.close();
+
+        System.setProperty("ordered.repository.extension.enabled", "true");
+        System.setProperty(OrderedRepositorySystem.PLAN, "replay");
+        System.setProperty(OrderedRepositorySystem.PLAN_FILE, file.getAbsolutePath());
+        OrderedRepositorySystem system = new OrderedRepositorySystem();
+        system.configure(new OrderedRepositoryConfiguration("test-config.properties"));
+        List<RemoteRepository> candidates = Arrays.asList(PUBLIC, PRODUCT, CENTRAL);
+        Assert.assertEquals(Arrays.asList(CENTRAL),
+                system.getOrderedRemoteRepositories(new DefaultArtifact("org.jboss:jboss-parent:20"), candidates));
+        // not in the plan, ordered by the rules
+        List<RemoteRepository> repos = system.getOrderedRemoteRepositories(
+                new DefaultArtifact("org.jboss:jboss-dmr:1.5.0.Final"), candidates);
+        Assert.assertEquals("regex.3", OrderedRepositoryList.ruleOf(repos));
+        Assert.assertEquals(PUBLIC, repos.get(0));
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright @year, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.maven.extensions.repository;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.eclipse.aether.DefaultRepositorySystemSession;
+import org.eclipse.aether.artifact.Artifact;
+import org.eclipse.aether.artifact.DefaultArtifact;
+import org.eclipse.aether.internal.impl.SimpleLocalRepositoryManagerFactory;
+import org.eclipse.aether.repository.ArtifactRepository;
+import org.eclipse.aether.repository.LocalRepository;
+import org.eclipse.aether.repository.RemoteRepository;
+import org.eclipse.aether.repository.WorkspaceReader;
+import org.eclipse.aether.repository.WorkspaceRepository;
+import org.eclipse.aether.resolution.ArtifactRequest;
+import org.eclipse.aether.resolution.ArtifactResult;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:lgao@redhat.com">Lin Gao</a>
+ *
+ */
+public class ResolutionResultCacheTest {
+
+    private static final RemoteRepository CENTRAL = new RemoteRepository.Builder("central", "default", "http://localhost/central").build();
+    private static final RemoteRepository PUBLIC = new RemoteRepository.Builder("jboss-public-repository-group", "default", "http://localhost/public").build();
+
+    private final ResolutionResultCache cache = new ResolutionResultCache();
+
+    private static ArtifactResult resolved(ArtifactRequest request, File file, ArtifactRepository repository) {
+        ArtifactResult result = new ArtifactResult(request);
+        result.setArtifact(request.getArtifact().setFile(file));
+        result.setRepository(repository);
+        return result;
+    }
+
+    @Test
+    public void testCachedPerSessionAndRepositories() throws Exception {
+        File file = File.createTempFile("jboss-dmr", ".jar");
+        file.deleteOnExit();
+        DefaultRepositorySystemSession session = new DefaultRepositorySystemSession();
+        Artifact artifact = new DefaultArtifact("org.jboss:jboss-dmr:1.0");
+        List<RemoteRepository> repos = Arrays.asList(PUBLIC, CENTRAL);
+
+        ArtifactRequest request = new ArtifactRequest(artifact, repos, null);
+        Assert.assertNull(cache.get(session, request));
+        cache.put(session, resolved(request, file, PUBLIC));
+
+        ArtifactRequest again = new ArtifactRequest(artifact, repos, "plugin");
+        ArtifactResult result = cache.get(session, again);
+        Assert.assertNotNull(result);
+        Assert.assertSame(again, result.getRequest());
+        Assert.assertEquals(file, result.getArtifact().getFile());
+        Assert.assertEquals(PUBLIC, result.getRepository());
+        // a copy of the session shares its data
+        Assert.assertNotNull(cache.get(new DefaultRepositorySystemSession(session), again));
+
+        // other repositories, another session
+        Assert.assertNull(cache.get(session, new ArtifactRequest(artifact, Arrays.asList(CENTRAL), null)));
+        Assert.assertNull(cache.get(new DefaultRepositorySystemSession(), again));
+        Assert.assertEquals(2, cache.getHits());
+
+        // the file was deleted
+        Assert.assertTrue(file.delete());
+        Assert.assertNull(cache.get(session, again));
+        Assert.assertEquals(1, cache.getStale());
+    }
+
+    @Test
+    public void testNotCacheable() throws Exception {
+        File file = File.createTempFile("jboss-dmr", ".jar");
+        file.deleteOnExit();
+        DefaultRepositorySystemSession session = new DefaultRepositorySystemSession();
+        List<RemoteRepository> repos = Arrays.asList(PUBLIC, CENTRAL);
+
+        ArtifactRequest snapshot = new ArtifactRequest(new DefaultArtifact("org.jboss:jboss-dmr:1.1-SNAPSHOT"), repos, null);
+        cache.put(session, resolved(snapshot, file, PUBLIC));
+        Assert.assertNull(cache.get(session, snapshot));
+
+        ArtifactRequest reactor = new ArtifactRequest(new DefaultArtifact("org.jboss:jboss-dmr:1.1"), repos, null);
+        cache.put(session, resolved(reactor, file, new WorkspaceRepository()));
+        Assert.assertNull(cache.get(session, reactor));
+        Assert.assertEquals(0, cache.getHits());
+    }
+
+    @Test
+    public void testReactorModuleBuiltLater() throws Exception {
+        final File file = File.createTempFile("jboss-dmr", ".jar");
+        file.deleteOnExit();
+        final Artifact artifact = new DefaultArtifact("org.jboss:jboss-dmr:1.1");
+        final AtomicBoolean built = new AtomicBoolean();
+        DefaultRepositorySystemSession session = new DefaultRepositorySystemSession();
+        session.setLocalRepositoryManager(new SimpleLocalRepositoryManagerFactory().newInstance(session,
+                new LocalRepository(file.getParentFile())));
+        session.setWorkspaceReader(new WorkspaceReader() {
+            @Override
+            public WorkspaceRepository getRepository() {
+                return new WorkspaceRepository("reactor");
+            }
+
+            @Override
+            public File findArtifact(Artifact a) {
+                return built.get() && a.toString().equals(artifact.toString()) ? file : null;
+            }
+
+            @Override
+            public List<String> findVersions(Artifact a) {
+                return built.get() ? Collections.singletonList(artifact.getVersion()) : Collections.<String>emptyList();
+            }
+        });
+        ArtifactRequest request = new ArtifactRequest(artifact, Arrays.asList(PUBLIC, CENTRAL), null);
+
+        // a previous build of the module in the local repository
+        cache.put(session, resolved(request, file, session.getLocalRepository()));
+        Assert.assertNotNull(cache.get(session, request));
+
+        // the module is built, the reactor artifact is resolved
+        built.set(true);
+        Assert.assertNull(cache.get(session, request));
+        cache.put(session, resolved(request, file, session.getLocalRepository()));
+        Assert.assertNull(cache.get(session, request));
+        Assert.assertEquals(1, cache.getHits());
+    }
+}
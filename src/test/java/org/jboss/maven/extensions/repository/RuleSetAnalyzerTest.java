@@ -0,0 +1,159 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright @year, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.maven.extensions.repository;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ForkJoinPool;
+
+import org.eclipse.aether.artifact.DefaultArtifact;
+import org.eclipse.aether.repository.RemoteRepository;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:lgao@redhat.com">Lin Gao</a>
+ *
+ */
+public class RuleSetAnalyzerTest {
+
+    private static final String CANDIDATES = "central,jboss-public-repository-group,jboss-product-repository";
+
+    private static OrderedRepositoryConfiguration config() {
+        Properties props = new Properties();
+        props.setProperty("regex.1", "org\\.jboss[^:]*:[^:]*:[^:]*");
+        props.setProperty("regex.1.repos", "jboss-public-repository-group, central");
+        props.setProperty("regex.1.description", "JBoss artifacts");
+        // every org.jboss.product artifact is matched by regex.1 first
+        props.setProperty("regex.2", "org\\.jboss\\.product:[^:]*:[^:]*");
+        props.setProperty("regex.2.repos", "jboss-product-repository");
+        props.setProperty("regex.3", "com\\.example:[^:]*:[^:]*");
+        props.setProperty("regex.3.repos", "jboss-product-repository");
+        props.setProperty("regex.default.repos", "central");
+        props.setProperty("repos.included", "regex.1");
+        return new OrderedRepositoryConfiguration(null, props);
+    }
+
+    private static String event(String gav, String ordered) {
+        return "resolveArtifact\t" + gav + "\t-\t" + CANDIDATES + "\t" + ordered + "\t1000";
+    }
+
+    private static List<String> trace(int artifacts) {
+        List<String> lines = new ArrayList<String>();
+        lines.add(OrderingTrace.HEADER);
+        for (int i = 0; i < artifacts; i++) {
+            lines.add(event("org.jboss:jboss-dmr:1." + i, CANDIDATES));
+            lines.add(event("org.jboss.product:product:1." + i, CANDIDATES));
+            lines.add(event("junit:junit:4." + (i % 10), CANDIDATES));
+        }
+        return lines;
+    }
+
+    @Test
+    public void testReport() throws Exception {
+        List<String> lines = trace(5000);
+        lines.add("not an event");
+        RuleSetAnalyzer analyzer = new RuleSetAnalyzer(config(), null, ForkJoinPool.commonPool());
+        RuleSetAnalyzer.Report report = analyzer.analyze(lines);
+        Assert.assertEquals(15000, report.getEvents());
+        Assert.assertEquals(1, report.getInvalid());
+        Assert.assertEquals(10010, report.getDistinct());
+        Assert.assertEquals(Long.valueOf(10000), report.getRuleEvents().get("regex.1"));
+        Assert.assertNull(report.getRuleEvents().get("regex.2"));
+        Assert.assertEquals(Long.valueOf(5000), report.getRuleEvents().get(OrderedRepositoryConfiguration.DEFAULT_RULE));
+        Assert.assertEquals(10, report.getUnmatched().size());
+        Assert.assertEquals(Long.valueOf(500), report.getUnmatched().get("junit:junit:4.0"));
+
+        // regex.2 matches but never wins, regex.3 matches nothing
+        Assert.assertEquals(Long.valueOf(10000), report.getRuleMatches().get("regex.1"));
+        Assert.assertEquals(Long.valueOf(5000), report.getRuleMatches().get("regex.2"));
+        Assert.assertEquals(Collections.singletonMap("regex.1", 5000L), report.getShadowedBy().get("regex.2"));
+        Assert.assertNull(report.getRuleMatches().get("regex.3"));
+
+        // 3 repositories for the JBoss artifacts, central for the others, instead of the 3 traced ones
+        Assert.assertEquals(15000, report.getChanged());
+        Assert.assertEquals((3 * 10000 + 5000) / 15000.0, report.getProbesPerArtifact(), 0.001);
+        Assert.assertEquals(3.0, report.getTracedProbesPerArtifact(), 0.001);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        analyzer.print(report, 3, new PrintStream(bytes, true, "UTF-8"));
+        String printed = bytes.toString("UTF-8");
+        Assert.assertTrue(printed, printed.contains("regex.2 never wins, shadowed by {regex.1=5000}"));
+        Assert.assertTrue(printed, printed.contains("regex.3 matches none of the traced G:A:V"));
+        Assert.assertTrue(printed, printed.contains("Unmatched G:A:V (10), by events:"));
+        Assert.assertTrue(printed, printed.contains("junit:junit:4.0"));
+        Assert.assertFalse(printed, printed.contains("junit:junit:4.9"));
+    }
+
+    @Test
+    public void testReplayWhileReading() throws Exception {
+        List<String> lines = trace(30000);
+        StringBuilder sb = new StringBuilder();
+        for (String line: lines) {
+            sb.append(line).append('\n');
+        }
+        ForkJoinPool pool = new ForkJoinPool(4);
+        RuleSetAnalyzer analyzer = new RuleSetAnalyzer(config(), null, pool);
+        RuleSetAnalyzer.Report report;
+        RuleSetAnalyzer.Report expected;
+        try {
+            report = analyzer.shadowing(analyzer.replay(new BufferedReader(new StringReader(sb.toString()))));
+            expected = analyzer.analyze(lines);
+        } finally {
+            pool.shutdown();
+        }
+        Assert.assertEquals(90000, report.getEvents());
+        Assert.assertEquals(expected.getRuleEvents(), report.getRuleEvents());
+        Assert.assertEquals(expected.getUnmatched(), report.getUnmatched());
+        Assert.assertEquals(expected.getShadowedBy(), report.getShadowedBy());
+        Assert.assertEquals(expected.getDistinct(), report.getDistinct());
+    }
+
+    @Test
+    public void testProbesWithPlan() throws Exception {
+        File file = Files.createTempFile("ordered-repository", ".plan").toFile();
+        try {
+            ResolutionPlan.Recorder recorder = new ResolutionPlan.Recorder(file);
+            recorder.record(new DefaultArtifact("org.jboss:jboss-dmr:1.0"),
+                    new RemoteRepository.Builder("central", "default", "http://localhost/central").build());
+            recorder.record(new DefaultArtifact("junit:junit:4.12"), new RemoteRepository.Builder(
+                    "jboss-product-repository", "default", "http://localhost/jboss-product-repository").build());
+            recorder.close();
+            List<String> lines = new ArrayList<String>();
+            lines.add(event("org.jboss:jboss-dmr:1.0", CANDIDATES));
+            lines.add(event("junit:junit:4.12", CANDIDATES));
+            RuleSetAnalyzer analyzer = new RuleSetAnalyzer(config(), ResolutionPlan.load(file), ForkJoinPool.commonPool());
+            RuleSetAnalyzer.Report report = analyzer.analyze(lines);
+            Assert.assertEquals(2, report.getPlanned());
+            // central is second for regex.1 instead of first, junit is no longer ordered to its repository
+            Assert.assertEquals((2 + 1) / 2.0, report.getProbesPerArtifact(), 0.001);
+            Assert.assertEquals((1 + 3) / 2.0, report.getTracedProbesPerArtifact(), 0.001);
+            Assert.assertEquals(1, report.getUnreachable());
+        } finally {
+            file.delete();
+        }
+    }
+}
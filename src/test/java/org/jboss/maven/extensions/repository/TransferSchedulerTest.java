@@ -0,0 +1,439 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright @year, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.maven.extensions.repository;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.eclipse.aether.artifact.Artifact;
+import org.eclipse.aether.artifact.DefaultArtifact;
+import org.eclipse.aether.repository.RemoteRepository;
+import org.eclipse.aether.resolution.ArtifactRequest;
+import org.eclipse.aether.resolution.ArtifactResolutionException;
+import org.eclipse.aether.resolution.ArtifactResult;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * @author <a href="mailto:lgao@redhat.com">Lin Gao</a>
+ *
+ */
+public class TransferSchedulerTest {
+
+    /**
+     * Concurrent downloads the stand-in server allows, it answers 429 above.
+     */
+    private static final int SERVER_LIMIT = 2;
+
+    private static final int SIZE = 50 * 1024;
+
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicInteger maxActive = new AtomicInteger();
+    private final AtomicInteger rejected = new AtomicInteger();
+
+    private HttpServer server;
+    private File localRepo;
+
+    @Before
+    public void setUp() throws Exception {
+        localRepo = Files.createTempDirectory("local-repo").toFile();
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                int current = active.incrementAndGet();
+                try {
+                    int max = maxActive.get();
+                    while (current > max && !maxActive.compareAndSet(max, current)) {
+                        max = maxActive.get();
+                    }
+                    if (current > SERVER_LIMIT) {
+                        rejected.incrementAndGet();
+                        exchange.sendResponseHeaders(429, -1);
+                        exchange.close();
+                        return;
+                    }
+                    try {
+                        Thread.sleep(20);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    exchange.sendResponseHeaders(200, SIZE);
+                    try (OutputStream out = exchange.getResponseBody()) {
+                        out.write(new byte[SIZE]);
+                    }
+                } finally {
+                    active.decrementAndGet();
+                }
+            }
+        });
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    private RemoteRepository repository(String id) {
+        return new RemoteRepository.Builder(id, "default",
+                "http://127.0.0.1:" + server.getAddress().getPort() + "/" + id + "/").build();
+    }
+
+    private List<ArtifactRequest> requests(String prefix, int count, String rule) {
+        List<RemoteRepository> repos = new OrderedRepositoryList(Arrays.asList(repository("central")), 1, rule);
+        List<ArtifactRequest> requests = new ArrayList<ArtifactRequest>();
+        for (int i = 0; i < count; i++) {
+            requests.add(new ArtifactRequest(new DefaultArtifact("org.jboss:" + prefix + i + ":1.0"), repos, null));
+        }
+        return requests;
+    }
+
+    /**
+     * Downloads the requests sequentially from the stand-in server, as the artifact resolver does.
+     */
+    private final ParallelArtifactResolver.Batch batch = new ParallelArtifactResolver.Batch() {
+        @Override
+        public List<ArtifactResult> resolve(List<ArtifactRequest> requests) throws ArtifactResolutionException {
+            List<ArtifactResult> results = new ArrayList<ArtifactResult>();
+            boolean failures = false;
+            for (ArtifactRequest request: requests) {
+                ArtifactResult result = new ArtifactResult(request);
+                Artifact artifact = request.getArtifact();
+                RemoteRepository repo = request.getRepositories().get(0);
+                try {
+                    String path = artifact.getGroupId().replace('.', '/') + "/" + artifact.getArtifactId() + "/"
+                            + artifact.getVersion() + "/" + artifact.getArtifactId() + "-" + artifact.getVersion() + ".jar";
+                    HttpURLConnection connection = (HttpURLConnection) new URL(repo.getUrl() + path).openConnection();
+                    connection.setReadTimeout(10000);
+                    if (connection.getResponseCode() != 200) {
+                        throw new IOException("Status " + connection.getResponseCode() + " of " + path);
+                    }
+                    File file = new File(localRepo, path);
+                    file.getParentFile().mkdirs();
+                    try (InputStream in = connection.getInputStream()) {
+                        Files.copy(in, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                    }
+                    result.setArtifact(artifact.setFile(file));
+                    result.setRepository(repo);
+                } catch (IOException e) {
+                    result.addException(e);
+                }
+                failures |= !result.isResolved();
+                results.add(result);
+            }
+            if (failures) {
+                throw new ArtifactResolutionException(results);
+            }
+            return results;
+        }
+    };
+
+    private static TransferScheduler scheduler(final Map<String, TransferScheduler.Policy> policies) {
+        return new TransferScheduler(new TransferScheduler.Policies() {
+            @Override
+            public TransferScheduler.Policy get(String rule) {
+                return policies.get(rule);
+            }
+        });
+    }
+
+    @Test
+    public void testPolicyConfiguration() {
+        Properties props = new Properties();
+        props.setProperty("regex.1", "org.jboss:[^\\n]*:[^\\n]*");
+        props.setProperty("regex.1.repos", "central");
+        props.setProperty("regex.1.transfer.concurrency", "2");
+        props.setProperty("regex.1.transfer.bandwidth", "512k");
+        props.setProperty("regex.1.transfer.priority", "high");
+        props.setProperty("regex.default.transfer.priority", "low");
+        OrderedRepositoryConfiguration config = new OrderedRepositoryConfiguration(null, props);
+        Assert.assertTrue(config.hasTransferPolicies());
+        TransferScheduler.Policy policy = config.getTransferPolicy("regex.1");
+        Assert.assertEquals(2, policy.getConcurrency());
+        Assert.assertEquals(512 * 1024, policy.getBandwidth());
+        Assert.assertEquals(TransferScheduler.Priority.HIGH, policy.getPriority());
+        policy = config.getTransferPolicy(OrderedRepositoryConfiguration.DEFAULT_RULE);
+        Assert.assertEquals(Integer.MAX_VALUE, policy.getConcurrency());
+        Assert.assertEquals(0, policy.getBandwidth());
+        Assert.assertEquals(TransferScheduler.Priority.LOW, policy.getPriority());
+        Assert.assertNull(config.getTransferPolicy("regex.2"));
+        // the transfer keys are not rules of their own
+        Assert.assertEquals(1, config.getOrderedRules().size());
+        Assert.assertFalse(new OrderedRepositoryConfiguration(null, new Properties()).hasTransferPolicies());
+    }
+
+    @Test(timeout = 30000)
+    public void testConcurrencyLimit() throws Exception {
+        final TransferScheduler scheduler = scheduler(Collections.singletonMap("regex.1",
+                new TransferScheduler.Policy(SERVER_LIMIT, 0, null)));
+        final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < 8; t++) {
+            final List<ArtifactRequest> requests = requests("thread" + t + "-", 5, "regex.1");
+            Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        List<ArtifactResult> results = scheduler.resolve(requests, batch);
+                        for (int i = 0; i < requests.size(); i++) {
+                            Assert.assertSame(requests.get(i), results.get(i).getRequest());
+                        }
+                    } catch (Throwable e) {
+                        errors.add(e);
+                    }
+                }
+            };
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread: threads) {
+            thread.join();
+        }
+        Assert.assertEquals(Collections.emptyList(), errors);
+        Assert.assertEquals(0, rejected.get());
+        Assert.assertTrue("max concurrency: " + maxActive.get(), maxActive.get() <= SERVER_LIMIT);
+        Assert.assertEquals(40, scheduler.getScheduled());
+        Assert.assertEquals(40L * SIZE, scheduler.getBytes());
+    }
+
+    @Test(timeout = 30000)
+    public void testBandwidthLimit() throws Exception {
+        Map<String, TransferScheduler.Policy> policies = new HashMap<String, TransferScheduler.Policy>();
+        policies.put("regex.1", new TransferScheduler.Policy(1, 100 * 1024, null));
+        TransferScheduler scheduler = scheduler(policies);
+        long start = System.currentTimeMillis();
+        scheduler.resolve(requests("bandwidth", 6, "regex.1"), batch);
+        long elapsed = System.currentTimeMillis() - start;
+        // 300KB at 100KB/s, the first second of the bucket and the last download are not waited for
+        Assert.assertTrue("elapsed " + elapsed + " ms", elapsed >= 1300);
+        Assert.assertTrue(scheduler.getWaits() > 0);
+
+        // the artifacts of the rules without a policy are not scheduled
+        start = System.currentTimeMillis();
+        List<ArtifactResult> results = scheduler.resolve(requests("free", 6, "regex.2"), batch);
+        Assert.assertEquals(6, results.size());
+        Assert.assertTrue(System.currentTimeMillis() - start < 1300);
+        Assert.assertEquals(6, scheduler.getScheduled());
+    }
+
+    /**
+     * Writes the artifacts of a given size without a server, after the gate is opened, from the last repository of
+     * the request.
+     */
+    private final class LocalBatch implements ParallelArtifactResolver.Batch {
+        private final int size;
+        private final CountDownLatch gate;
+        private final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+        private final List<Integer> chunks = Collections.synchronizedList(new ArrayList<Integer>());
+
+        LocalBatch(int size, CountDownLatch gate) {
+            this.size = size;
+            this.gate = gate;
+        }
+
+        @Override
+        public List<ArtifactResult> resolve(List<ArtifactRequest> requests) throws ArtifactResolutionException {
+            chunks.add(requests.size());
+            List<ArtifactResult> results = new ArrayList<ArtifactResult>();
+            for (ArtifactRequest request: requests) {
+                try {
+                    gate.await();
+                    File file = new File(localRepo, request.getArtifact().getArtifactId() + ".jar");
+                    Files.write(file.toPath(), new byte[size]);
+                    order.add(request.getArtifact().getArtifactId());
+                    ArtifactResult result = new ArtifactResult(request);
+                    result.setArtifact(request.getArtifact().setFile(file));
+                    List<RemoteRepository> repos = request.getRepositories();
+                    result.setRepository(repos.get(repos.size() - 1));
+                    results.add(result);
+                } catch (IOException | InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+            return results;
+        }
+    }
+
+    private Thread resolving(final TransferScheduler scheduler, final List<ArtifactRequest> requests,
+            final ParallelArtifactResolver.Batch batch, final Executor executor) {
+        Thread thread = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    scheduler.resolve(requests, batch, batch, executor);
+                } catch (ArtifactResolutionException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        };
+        thread.start();
+        return thread;
+    }
+
+    @Test(timeout = 30000)
+    public void testPriority() throws Exception {
+        Map<String, TransferScheduler.Policy> policies = new HashMap<String, TransferScheduler.Policy>();
+        policies.put("regex.1", new TransferScheduler.Policy(1, 0, TransferScheduler.Priority.NORMAL));
+        policies.put("regex.2", new TransferScheduler.Policy(1, 0, TransferScheduler.Priority.LOW));
+        policies.put("regex.3", new TransferScheduler.Policy(1, 0, TransferScheduler.Priority.HIGH));
+        TransferScheduler scheduler = scheduler(policies);
+        CountDownLatch open = new CountDownLatch(1);
+        LocalBatch batch = new LocalBatch(1, open);
+        Thread normal = resolving(scheduler, requests("normal", 1, "regex.1"), batch, null);
+        while (batch.chunks.isEmpty()) {
+            Thread.sleep(10);
+        }
+        Thread low = resolving(scheduler, requests("low", 1, "regex.2"), batch, null);
+        while (scheduler.getWaiting("central") < 1) {
+            Thread.sleep(10);
+        }
+        Thread high = resolving(scheduler, requests("high", 1, "regex.3"), batch, null);
+        while (scheduler.getWaiting("central") < 2) {
+            Thread.sleep(10);
+        }
+        open.countDown();
+        normal.join();
+        low.join();
+        high.join();
+        Assert.assertEquals(Arrays.asList("normal0", "high0", "low0"), batch.order);
+        Assert.assertEquals(2, scheduler.getWaits());
+    }
+
+    @Test(timeout = 30000)
+    public void testWaitingChunksTakeNoThread() throws Exception {
+        Map<String, TransferScheduler.Policy> policies = new HashMap<String, TransferScheduler.Policy>();
+        policies.put("regex.1", new TransferScheduler.Policy(1, 0, null));
+        TransferScheduler scheduler = scheduler(policies);
+        ThreadPoolExecutor executor = (ThreadPoolExecutor) Executors.newFixedThreadPool(2);
+        try {
+            CountDownLatch open = new CountDownLatch(1);
+            LocalBatch blocked = new LocalBatch(1, open);
+            Thread first = resolving(scheduler, requests("first", 1, "regex.1"), blocked, executor);
+            Thread second = resolving(scheduler, requests("second", 1, "regex.1"), blocked, executor);
+            while (blocked.chunks.isEmpty() || scheduler.getWaiting("central") < 1) {
+                Thread.sleep(10);
+            }
+            // the waiting chunk is in the gate, the other thread of the executor is free for other repositories
+            Assert.assertEquals(1, executor.getActiveCount());
+            List<RemoteRepository> other = new OrderedRepositoryList(Arrays.asList(repository("other")), 1, "regex.1");
+            LocalBatch free = new LocalBatch(1, new CountDownLatch(0));
+            List<ArtifactResult> results = scheduler.resolve(Collections.singletonList(
+                    new ArtifactRequest(new DefaultArtifact("org.jboss:other:1.0"), other, null)), free, free, executor);
+            Assert.assertTrue(results.get(0).isResolved());
+            open.countDown();
+            first.join();
+            second.join();
+            Assert.assertEquals(Arrays.asList(1, 1), blocked.chunks);
+            Assert.assertEquals(3, scheduler.getScheduled());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void testBandwidthOfServingRepository() throws Exception {
+        TransferScheduler scheduler = scheduler(Collections.singletonMap("regex.1",
+                new TransferScheduler.Policy(1, 100 * 1024, null)));
+        RemoteRepository central = repository("central");
+        RemoteRepository backup = repository("backup");
+        List<RemoteRepository> backupFirst = new OrderedRepositoryList(Arrays.asList(backup), 1, "regex.1");
+        List<RemoteRepository> centralFirst = new OrderedRepositoryList(Arrays.asList(central, backup), 2, "regex.1");
+        scheduler.resolve(Collections.singletonList(new ArtifactRequest(new DefaultArtifact("org.jboss:small:1.0"),
+                backupFirst, null)), new LocalBatch(1, new CountDownLatch(0)));
+
+        // missing in central, the 150KB are downloaded from the backup
+        LocalBatch large = new LocalBatch(150 * 1024, new CountDownLatch(0));
+        scheduler.resolve(Collections.singletonList(new ArtifactRequest(new DefaultArtifact("org.jboss:large:1.0"),
+                centralFirst, null)), large);
+        Assert.assertEquals(150 * 1024 + 1, scheduler.getBytes());
+
+        LocalBatch next = new LocalBatch(1, new CountDownLatch(0));
+        scheduler.resolve(Collections.singletonList(new ArtifactRequest(new DefaultArtifact("org.jboss:central:1.0"),
+                centralFirst, null)), next);
+        Assert.assertEquals(0, scheduler.getWaits());
+        long start = System.currentTimeMillis();
+        scheduler.resolve(Collections.singletonList(new ArtifactRequest(new DefaultArtifact("org.jboss:backup:1.0"),
+                backupFirst, null)), next);
+        Assert.assertEquals(1, scheduler.getWaits());
+        // the 50KB of debt at 100KB/s
+        Assert.assertTrue(System.currentTimeMillis() - start >= 300);
+    }
+
+    private static OrderedRepositoryConfiguration config(int concurrency, String bandwidth) {
+        Properties props = new Properties();
+        props.setProperty("regex.1", "org.jboss:[^\\n]*:[^\\n]*");
+        props.setProperty("regex.1.repos", "central");
+        props.setProperty("regex.1.transfer.concurrency", String.valueOf(concurrency));
+        if (bandwidth != null) {
+            props.setProperty("regex.1.transfer.bandwidth", bandwidth);
+        }
+        return new OrderedRepositoryConfiguration(null, props);
+    }
+
+    @Test(timeout = 30000)
+    public void testReloadedConfiguration() throws Exception {
+        final AtomicReference<OrderedRepositoryConfiguration> config = new AtomicReference<OrderedRepositoryConfiguration>(
+                config(1, "1k"));
+        TransferScheduler scheduler = new TransferScheduler(new TransferScheduler.Policies() {
+            @Override
+            public TransferScheduler.Policy get(String rule) {
+                return config.get().getTransferPolicy(rule);
+            }
+        });
+        scheduler.resolve(requests("debt", 1, "regex.1"), new LocalBatch(1024 * 1024, new CountDownLatch(0)));
+
+        // a higher concurrency, without a bandwidth limit
+        config.set(config(4, null));
+        scheduler.reset();
+        long start = System.currentTimeMillis();
+        LocalBatch batch = new LocalBatch(1, new CountDownLatch(0));
+        scheduler.resolve(requests("reloaded", 4, "regex.1"), batch);
+        // the debt of the removed bandwidth limit is not paid back
+        Assert.assertTrue(System.currentTimeMillis() - start < 1000);
+        Assert.assertEquals(Arrays.asList(4), batch.chunks);
+        Assert.assertEquals(0, scheduler.getWaits());
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright @year, Red Hat, Inc., and individual contributors
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jboss.maven.extensions.repository;
+
+import java.io.File;
+
+import org.eclipse.aether.DefaultRepositorySystemSession;
+import org.eclipse.aether.RepositorySystemSession;
+import org.eclipse.aether.transfer.AbstractTransferListener;
+import org.eclipse.aether.transfer.TransferEvent;
+import org.eclipse.aether.transfer.TransferResource;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author <a href="mailto:lgao@redhat.com">Lin Gao</a>
+ *
+ */
+public class TransferTimerTest {
+
+    private static TransferEvent event(RepositorySystemSession session, TransferResource resource,
+            TransferEvent.EventType type, long bytes) {
+        return new TransferEvent.Builder(session, resource).setType(type).setTransferredBytes(bytes).build();
+    }
+
+    @Test
+    public void testTransfersAreTimedByFile() throws Exception {
+        final int[] notified = {0};
+        DefaultRepositorySystemSession session = new DefaultRepositorySystemSession();
+        session.setTransferListener(new AbstractTransferListener() {
+            @Override
+            public void transferSucceeded(TransferEvent event) {
+                notified[0]++;
+            }
+        });
+        TransferTimer timer = new TransferTimer();
+        RepositorySystemSession timed = timer.session(session);
+        File file = new File("target/local-repo/junit/junit/4.12/junit-4.12.jar");
+
+        // a miss of the first repository
+        TransferResource missed = new TransferResource("http://localhost/central/", "junit/junit/4.12/junit-4.12.jar",
+                file, null);
+        timed.getTransferListener().transferInitiated(event(timed, missed, TransferEvent.EventType.INITIATED, 0));
+        Thread.sleep(50);
+        timed.getTransferListener().transferFailed(event(timed, missed, TransferEvent.EventType.FAILED, 0));
+        Assert.assertNull(timer.get(file));
+
+        TransferResource served = new TransferResource("http://localhost/public/", "junit/junit/4.12/junit-4.12.jar",
+                file, null);
+        timed.getTransferListener().transferInitiated(event(timed, served, TransferEvent.EventType.INITIATED, 0));
+        timed.getTransferListener().transferSucceeded(event(timed, served, TransferEvent.EventType.SUCCEEDED, 1024));
+        TransferTimer.Transfer transfer = timer.get(file.getAbsoluteFile());
+        Assert.assertNotNull(transfer);
+        Assert.assertEquals(1024, transfer.bytes);
+        // the miss is not charged to the repository which served the file
+        Assert.assertTrue(transfer.micros + " us", transfer.micros < 50000);
+        Assert.assertEquals("the listener of the session is notified", 1, notified[0]);
+        Assert.assertNull(timer.get(new File("target/local-repo/junit/junit/4.12/junit-4.12.pom")));
+        // the miss counts in the time spent getting the file
+        Assert.assertTrue(timer.getSpentMicros(file) >= 50000 + transfer.micros);
+        Assert.assertEquals(-1, timer.getSpentMicros(new File("target/local-repo/junit/junit/4.12/junit-4.12.pom")));
+    }
+}